@@ -0,0 +1,114 @@
+package com.marginallyclever.communications;
+
+/**
+ * Decides when a NetworkConnection may send another line.
+ * <p>
+ * The robot answers every line it receives with a cue.  With a window of zero bytes only one line is sent at a time,
+ * and the next waits for the cue.  With a bigger window lines are sent until the bytes not yet answered would
+ * overflow the robot's receive buffer, so the robot never waits for the next line to cross the wire.
+ * <p>
+ * After the robot reports an error nothing more is sent until every line already sent has been answered, because
+ * the robot rejects all of them.  That way the line to resend is the next line sent.
+ * <p>
+ * Safe to share between the thread that sends and the thread that reads the answers.
+ */
+public class CharacterCountingWindow {
+	private int capacity;
+
+	// length in bytes of each line sent but not answered, oldest first.
+	private int [] lengths = new int[16];
+	private int head;
+	private int count;
+	private int bytesInFlight;
+
+	// nothing is sent until the robot says it is ready.
+	private boolean waitingForFirstCue = true;
+	private boolean draining;
+
+
+	/**
+	 * @param capacity size of the robot's receive buffer in bytes, or zero to send one line at a time.
+	 */
+	public CharacterCountingWindow(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param capacity size of the robot's receive buffer in bytes, or zero to send one line at a time.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Forget everything in flight and wait for the robot to say it is ready.  Call when the connection opens.
+	 */
+	public synchronized void reset() {
+		head = 0;
+		count = 0;
+		bytesInFlight = 0;
+		waitingForFirstCue = true;
+		draining = false;
+	}
+
+	/**
+	 * @param length bytes in the next line, including the newline.
+	 * @return true if the line can be sent now.
+	 */
+	public synchronized boolean canSend(int length) {
+		if(waitingForFirstCue) return false;
+		if(count==0) return true;  // always room for one line, no matter how long.
+		if(draining) return false;
+		return bytesInFlight + length <= capacity;
+	}
+
+	/**
+	 * @param length bytes in the line just sent, including the newline.
+	 */
+	public synchronized void sent(int length) {
+		if(count == lengths.length) {
+			int [] bigger = new int[lengths.length*2];
+			for(int i=0;i<count;++i) bigger[i] = lengths[(head+i)%lengths.length];
+			lengths = bigger;
+			head = 0;
+		}
+		lengths[(head+count)%lengths.length] = length;
+		++count;
+		bytesInFlight += length;
+	}
+
+	/**
+	 * The robot has answered the oldest line in flight.
+	 */
+	public synchronized void acknowledge() {
+		waitingForFirstCue = false;
+		if(count==0) return;  // a cue nobody asked for, like the one after the robot starts.
+		bytesInFlight -= lengths[head];
+		head = (head+1)%lengths.length;
+		--count;
+		if(count==0) draining = false;
+	}
+
+	/**
+	 * The robot rejected a line.  Stop sending until everything in flight has been answered.
+	 * @return true for the first line rejected since the robot last caught up.  Rejections while draining are
+	 * caused by the first one: the robot is still waiting for the line it rejected.
+	 */
+	public synchronized boolean error() {
+		boolean first = !draining;
+		if(count>0) draining = true;
+		return first;
+	}
+
+	public synchronized int getLinesInFlight() {
+		return count;
+	}
+
+	public synchronized int getBytesInFlight() {
+		return bytesInFlight;
+	}
+}
@@ -0,0 +1,187 @@
+package com.marginallyclever.communications;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the bytes arriving from a robot into lines.
+ * Bytes are copied once into a ring buffer that is reused for the life of the connection, and each byte is
+ * checked for a newline only once, no matter how many pieces a line arrives in.
+ * <p>
+ * Call append() with each piece as it arrives, then nextLine() until it returns false.  The current line can be
+ * inspected in place and only becomes a String if someone asks for one.
+ * <p>
+ * Not thread safe.  Use from the thread that reads the connection.
+ */
+public class LineFramer {
+	// a robot that never sends a newline should not eat all the memory. (bytes)
+	public static final int MAX_CAPACITY = 1<<20;
+
+	private byte [] buffer;
+	private int mask;
+	// positions count up forever and are wrapped with the mask.  Only differences between them matter.
+	private int head;  // first byte not yet handed out
+	private int tail;  // one past the last byte received
+	private int scan;  // first byte not yet checked for a newline
+	// the line handed out by nextLine(), from head.
+	private int lineLength;
+	private boolean hasLine;
+	// for lines that wrap around the end of the buffer
+	private byte [] scratch = new byte[64];
+
+
+	public LineFramer() {
+		this(1024);
+	}
+
+	/**
+	 * @param capacity starting size in bytes.  Rounded up to a power of two.  Grows if a single line is longer.
+	 */
+	public LineFramer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(16, capacity)-1)<<1;
+		buffer = new byte[size];
+		mask = size-1;
+	}
+
+
+	/**
+	 * @param data bytes received
+	 * @param offset first byte to use
+	 * @param length number of bytes to use
+	 */
+	public void append(byte [] data,int offset,int length) {
+		consumeLine();
+		int needed = tail-head+length;
+		if(needed > MAX_CAPACITY) {
+			// a line this long is garbage.  Drop everything waiting.
+			clear();
+			needed = length;
+		}
+		if(needed > buffer.length) grow(needed);
+
+		int start = tail & mask;
+		int first = Math.min(length, buffer.length-start);
+		System.arraycopy(data, offset, buffer, start, first);
+		System.arraycopy(data, offset+first, buffer, 0, length-first);
+		tail += length;
+	}
+
+
+	/**
+	 * Move to the next complete line.  The previous line is forgotten.
+	 * @return true if there is a complete line.
+	 */
+	public boolean nextLine() {
+		consumeLine();
+		while(scan != tail) {
+			byte b = buffer[scan & mask];
+			++scan;
+			if(b=='\n') {
+				lineLength = scan-head;
+				hasLine = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * @return length of the current line in bytes, including the newline.
+	 */
+	public int getLineLength() {
+		return hasLine ? lineLength : 0;
+	}
+
+
+	/**
+	 * @param index 0...getLineLength()-1
+	 * @return one byte of the current line
+	 */
+	public byte getByte(int index) {
+		return buffer[(head+index) & mask];
+	}
+
+
+	/**
+	 * Compare without making a String.
+	 * @param text ASCII text
+	 * @return true if the current line starts with text.
+	 */
+	public boolean lineStartsWith(String text) {
+		if(!hasLine || text.length() > lineLength) return false;
+		for(int i=0;i<text.length();++i) {
+			if(getByte(i) != text.charAt(i)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Compare without making a String.
+	 * @param text ASCII text
+	 * @return true if the current line is text, ignoring whitespace at either end.
+	 */
+	public boolean trimmedLineEquals(String text) {
+		if(!hasLine) return false;
+		int start = 0;
+		int end = lineLength;
+		while(start<end && (getByte(start)&0xFF) <= ' ') ++start;
+		while(end>start && (getByte(end-1)&0xFF) <= ' ') --end;
+		if(end-start != text.length()) return false;
+		for(int i=0;i<text.length();++i) {
+			if(getByte(start+i) != text.charAt(i)) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return the current line including the newline, or null if there is none.
+	 */
+	public String getLine() {
+		if(!hasLine) return null;
+		int start = head & mask;
+		if(start+lineLength <= buffer.length) {
+			return new String(buffer, start, lineLength, StandardCharsets.UTF_8);
+		}
+		if(scratch.length < lineLength) scratch = new byte[Integer.highestOneBit(lineLength)<<1];
+		int first = buffer.length-start;
+		System.arraycopy(buffer, start, scratch, 0, first);
+		System.arraycopy(buffer, 0, scratch, first, lineLength-first);
+		return new String(scratch, 0, lineLength, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Forget everything, including any partial line.
+	 */
+	public void clear() {
+		head = tail = scan = 0;
+		hasLine = false;
+	}
+
+
+	private void consumeLine() {
+		if(!hasLine) return;
+		head += lineLength;
+		hasLine = false;
+	}
+
+
+	private void grow(int needed) {
+		int size = buffer.length;
+		while(size < needed) size <<= 1;
+
+		int count = tail-head;
+		byte [] bigger = new byte[size];
+		int start = head & mask;
+		int first = Math.min(count, buffer.length-start);
+		System.arraycopy(buffer, start, bigger, 0, first);
+		System.arraycopy(buffer, 0, bigger, first, count-first);
+		scan -= head;
+		head = 0;
+		tail = count;
+		buffer = bigger;
+		mask = size-1;
+	}
+}
@@ -22,6 +22,23 @@ public interface NetworkConnection {
 
 	public void sendMessage(String msg) throws Exception;
 
+	/**
+	 * @param frame exactly one line, already encoded and ending with a newline.  Sent as is, so don't change it
+	 * afterwards.  Lets a caller prepare lines ahead of time.
+	 */
+	public void sendFrame(byte [] frame) throws Exception;
+
+	/**
+	 * Forget every line not sent yet.  Lines already on their way are not affected.
+	 */
+	public void deleteAllQueuedCommands();
+
+	/**
+	 * @param bytes size of the device's receive buffer.  Lines are sent until it is full instead of waiting for
+	 * an answer to each line.  Zero sends one line at a time.
+	 */
+	public void setStreamingWindow(int bytes);
+
 	public void addListener(NetworkConnectionListener listener);
 
 	public void removeListener(NetworkConnectionListener listener);
@@ -0,0 +1,140 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * What every connection to a robot does the same way: keeps the listeners and reads what the firmware says.
+ */
+public abstract class NetworkConnectionBase implements NetworkConnection {
+	public static final String NOCHECKSUM = "NOCHECKSUM ";
+	public static final String BADCHECKSUM = "BADCHECKSUM ";
+	public static final String BADLINENUM = "BADLINENUM ";
+	private static final String [] ERRORS = { NOCHECKSUM, BADCHECKSUM, BADLINENUM };
+	// the robot is ready for another line.
+	protected static final String CUE = "> ";
+	protected static final String CUE_TRIMMED = CUE.trim();
+
+	// Listeners which should be notified of a change to the percentage.
+	private CopyOnWriteArrayList<NetworkConnectionListener> listeners = new CopyOnWriteArrayList<NetworkConnectionListener>();
+
+
+	/**
+	 * Read what the robot sent.  Cues are passed to the writer, errors ask the writer to resend and everything else
+	 * goes to the listeners.
+	 * @param framer collects the bytes into lines.  Partial lines are kept for the next call.
+	 * @param writer the lines waiting to be sent
+	 * @param data bytes from the robot
+	 * @param len how many bytes in data
+	 */
+	protected void dataAvailable(LineFramer framer,QueuedLineWriter writer,byte [] data,int len) {
+		framer.append(data,0,len);
+		// each line ends with a \n.
+		while(framer.nextLine()) {
+			// a bare cue is most of what the robot says.  Don't make a String for it.
+			if(framer.lineStartsWith(CUE) && framer.trimmedLineEquals(CUE_TRIMMED)) {
+				cueReceived();
+				writer.acknowledge();
+				continue;
+			}
+			String oneLine = framer.getLine();
+
+			// check for error
+			int error_line = errorReported(oneLine);
+			if(error_line != -1) {
+				// lines sent after a bad one are rejected too.  Only the first needs resending.
+				if(writer.error()) notifyLineError(error_line);
+			} else {
+				// no error
+				if(!oneLine.trim().equals(CUE_TRIMMED)) {
+					notifyDataAvailable(oneLine);
+				}
+			}
+
+			// each cue answers the oldest line sent
+			if(oneLine.indexOf(CUE)==0) {
+				cueReceived();
+				writer.acknowledge();
+			}
+		}
+	}
+
+
+	/**
+	 * Called by dataAvailable() for each cue, just before the writer hears about it.
+	 */
+	protected void cueReceived() {}
+
+
+	/**
+	 * Check if the robot reports an error and if so what line number.
+	 * @param line the message from the robot to be parsed
+	 * @return -1 if there was no error, otherwise the line number containing the error.
+	 */
+	protected int errorReported(String line) {
+		for( String error : ERRORS ) {
+			int i = line.lastIndexOf(error);
+			if(i == -1) continue;
+
+			String x = getNumberPortion(line.substring(i + error.length()));
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				Log.error(error+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Java string to int is very picky.  this method is slightly less picky.  Only works with positive whole numbers.
+	 *
+	 * @param src
+	 * @return the portion of the string that is actually a number
+	 */
+	private String getNumberPortion(String src) {
+		src = src.trim();
+		int length = src.length();
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			char character = src.charAt(i);
+			if (Character.isDigit(character)) {
+				result.append(character);
+			}
+		}
+		return result.toString();
+	}
+
+	@Override
+	public void addListener(NetworkConnectionListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(NetworkConnectionListener listener) {
+		listeners.remove(listener);
+	}
+
+	protected void notifyLineError(int lineNumber) {
+		for (NetworkConnectionListener listener : listeners) {
+			listener.lineError(this,lineNumber);
+		}
+	}
+
+	protected void notifySendBufferEmpty() {
+		for (NetworkConnectionListener listener : listeners) {
+			listener.sendBufferEmpty(this);
+		}
+	}
+
+	// tell all listeners data has arrived
+	protected void notifyDataAvailable(String line) {
+		for (NetworkConnectionListener listener : listeners) {
+			listener.dataAvailable(this,line);
+		}
+	}
+}
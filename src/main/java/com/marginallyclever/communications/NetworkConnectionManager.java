@@ -8,8 +8,7 @@ import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 
 import com.marginallyclever.communications.serial.SerialTransportLayer;
-import com.marginallyclever.communications.tcp.TCPTransportLayer;
-//import com.marginallyclever.communications.tcp.TCPTransportLayer;
+import com.marginallyclever.communications.tcp.TCPSelectorTransportLayer;
 import com.marginallyclever.robotOverlord.Translator;
 
 /**
@@ -19,7 +18,8 @@ import com.marginallyclever.robotOverlord.Translator;
  */
 public class NetworkConnectionManager {
 	static private SerialTransportLayer serial = new SerialTransportLayer();
-	static private TCPTransportLayer tcp = new TCPTransportLayer();
+	// every robot on the network shares one thread.
+	static private TCPSelectorTransportLayer tcp = new TCPSelectorTransportLayer();
 	
 	/**
 	 * create a GUI to give the user transport layer options.
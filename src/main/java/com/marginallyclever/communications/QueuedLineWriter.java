@@ -0,0 +1,266 @@
+package com.marginallyclever.communications;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * Outbound half of a NetworkConnection.  Any thread may queue lines.  One writer thread sends them, as many at a time
+ * as the CharacterCountingWindow allows, joined into a single write.
+ * <p>
+ * Queueing never takes a lock.  The queue is bounded so a runaway sender can't eat all the memory.
+ * When the queue is empty and the robot has room for more, the writer thread tells the Output, which usually asks
+ * its listeners for the next line.  Lines queued in reply are picked up by the same thread, so nothing recurses.
+ * <p>
+ * A connection that already has a thread to spare (see TCPSelectorTransportLayer) can give a waker instead of a
+ * thread name and call pump() itself whenever it is woken.
+ */
+public class QueuedLineWriter implements Runnable {
+	// most lines waiting to be sent
+	public static final int MAX_QUEUED_LINES = 1024;
+
+	/**
+	 * Where the writer sends its bytes.
+	 */
+	public interface Output {
+		/**
+		 * @param data bytes to send
+		 * @param length how many of the bytes to send
+		 * @throws IOException on failure
+		 */
+		public void write(byte [] data,int length) throws IOException;
+
+		/**
+		 * Called on the writer thread when nothing is queued and the robot has room for more.
+		 */
+		public void readyForMore();
+	}
+
+	private Output output;
+	private String name;
+	private ConcurrentLinkedQueue<byte []> queue = new ConcurrentLinkedQueue<byte []>();
+	private AtomicInteger queueSize = new AtomicInteger();
+	private CharacterCountingWindow window = new CharacterCountingWindow(0);
+	// set when the robot answers, so the writer knows there might be room.
+	private AtomicBoolean roomChanged = new AtomicBoolean();
+
+	private volatile boolean running;
+	private volatile Thread thread;
+	// when not null there is no writer thread.  Called instead of waking it.
+	private Runnable waker;
+
+	// the next write, reused.
+	private byte [] batch = new byte[256];
+	// taken from the queue by the writer thread but not sent yet because the window was full.
+	private byte [] held;
+	private volatile boolean dropHeld;
+
+
+	/**
+	 * @param output where to send
+	 * @param name for the writer thread
+	 */
+	public QueuedLineWriter(Output output,String name) {
+		this.output = output;
+		this.name = name;
+	}
+
+
+	/**
+	 * No writer thread.  The owner calls pump() after waker runs.
+	 * @param output where to send
+	 * @param waker called from any thread when pump() might have something to do.  Must not block.
+	 */
+	public QueuedLineWriter(Output output,Runnable waker) {
+		this.output = output;
+		this.waker = waker;
+	}
+
+
+	/**
+	 * Start the writer thread.  Nothing is sent until the robot sends its first cue.
+	 */
+	public void start() {
+		stop();
+		window.reset();
+		roomChanged.set(false);
+		running = true;
+		if(waker != null) return;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Stop the writer thread.  Lines still queued are kept.
+	 */
+	public void stop() {
+		running = false;
+		Thread t = thread;
+		thread = null;
+		if(t != null) LockSupport.unpark(t);
+	}
+
+
+	/**
+	 * @param message the line to send.  A newline is added if it is missing.  Several lines are queued one by one,
+	 * because the robot answers each of them.  Blank lines are dropped.
+	 * @throws Exception if the queue is full.
+	 */
+	public void add(String message) throws Exception {
+		int start = 0;
+		while(start < message.length()) {
+			int end = message.indexOf('\n', start);
+			if(end == -1) end = message.length();
+			if(!isBlank(message, start, end)) {
+				add((message.substring(start, end)+"\n").getBytes());
+			}
+			start = end+1;
+		}
+	}
+
+
+	/**
+	 * @param line exactly one line, encoded and ending with a newline.  Queued as is, so don't change it afterwards.
+	 * @throws Exception if the queue is full.
+	 */
+	public void add(byte [] line) throws Exception {
+		if(queueSize.incrementAndGet() > MAX_QUEUED_LINES) {
+			queueSize.decrementAndGet();
+			throw new Exception("Outbound queue full.");
+		}
+		queue.add(line);
+		wake();
+	}
+
+
+	private boolean isBlank(String text,int start,int end) {
+		for(int i=start;i<end;++i) {
+			if(text.charAt(i) > ' ') return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Remove every line not yet sent.
+	 */
+	public void clear() {
+		dropHeld = true;
+		while(queue.poll() != null) {
+			queueSize.decrementAndGet();
+		}
+	}
+
+
+	/**
+	 * The robot answered a line.  Call from the reading thread.
+	 */
+	public void acknowledge() {
+		window.acknowledge();
+		roomChanged.set(true);
+		wake();
+	}
+
+
+	/**
+	 * The robot rejected a line.  Call from the reading thread.
+	 * @return true if this is the line to resend from.  false if the line was only rejected because an earlier line
+	 * was, and the error can be ignored.
+	 */
+	public boolean error() {
+		return window.error();
+	}
+
+
+	/**
+	 * @param bytes size of the robot's receive buffer, or zero to send one line at a time.
+	 */
+	public void setStreamingWindow(int bytes) {
+		window.setCapacity(bytes);
+		wake();
+	}
+
+
+	private void wake() {
+		if(waker != null) {
+			if(running) waker.run();
+			return;
+		}
+		Thread t = thread;
+		if(t != null) LockSupport.unpark(t);
+	}
+
+
+	@Override
+	public void run() {
+		while(running && thread == Thread.currentThread()) {
+			if(!pump() && !roomChanged.get()) {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+
+	/**
+	 * Send as much as the window allows in a single write.  Only one thread may pump at a time.
+	 * @return true if anything was written.
+	 */
+	public boolean pump() {
+		if(!running) return false;
+		boolean changed = roomChanged.getAndSet(false);
+		int length = fillBatch(0);
+
+		// while there is room, ask for more so it goes out in the same write.
+		while(held==null && window.canSend(1) && (length>0 || changed)) {
+			changed = false;
+			output.readyForMore();
+			if(queue.isEmpty()) break;
+			length = fillBatch(length);
+		}
+
+		if(length==0) return false;
+		try {
+			output.write(batch,length);
+		} catch (IOException e) {
+			Log.error( e.getMessage() );
+		}
+		return true;
+	}
+
+
+	/**
+	 * Add as many lines from the queue to the batch as the window allows.
+	 * @param length bytes already in the batch
+	 * @return number of bytes in the batch.
+	 */
+	private int fillBatch(int length) {
+		if(dropHeld) {
+			dropHeld = false;
+			held = null;
+		}
+		while(true) {
+			if(held == null) {
+				held = queue.poll();
+				if(held == null) break;
+				queueSize.decrementAndGet();
+			}
+			if(!window.canSend(held.length)) break;
+
+			window.sent(held.length);
+			if(length+held.length > batch.length) {
+				batch = Arrays.copyOf(batch, Math.max(batch.length*2, length+held.length));
+			}
+			System.arraycopy(held, 0, batch, length, held.length);
+			length += held.length;
+			held = null;
+		}
+		return length;
+	}
+}
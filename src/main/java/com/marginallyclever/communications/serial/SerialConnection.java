@@ -5,12 +5,13 @@ import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
 
-import com.marginallyclever.communications.NetworkConnectionListener;
-import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.LineFramer;
+import com.marginallyclever.communications.NetworkConnectionBase;
+import com.marginallyclever.communications.QueuedLineWriter;
 import com.marginallyclever.communications.TransportLayer;
-import com.marginallyclever.robotOverlord.Log;
 
 
 /**
@@ -19,45 +20,57 @@ import com.marginallyclever.robotOverlord.Log;
  * @author Peter Colapietro
  * @since v7
  */
-public final class SerialConnection implements SerialPortEventListener, NetworkConnection {
+public final class SerialConnection extends NetworkConnectionBase implements SerialPortEventListener {
 	private SerialPort serialPort;
 	private static final int BAUD_RATE = 57600;
 
 	private TransportLayer transportLayer;
 	private String connectionName = "";
 	private boolean portOpened = false;
-	private boolean waitingForCue = false;
 
 
-	static final String CUE = "> ";
-	static final String NOCHECKSUM = "NOCHECKSUM ";
-	static final String BADCHECKSUM = "BADCHECKSUM ";
-	static final String BADLINENUM = "BADLINENUM ";
 	static final String NEWLINE = "\n";
 	static final String COMMENT_START = ";";
 
 	// parsing input from Makelangelo
-	private String inputBuffer = "";
-	ArrayList<String> commandQueue = new ArrayList<String>();
-
-	// Listeners which should be notified of a change to the percentage.
-	private ArrayList<NetworkConnectionListener> listeners = new ArrayList<NetworkConnectionListener>();
+	private LineFramer framer = new LineFramer();
+	private QueuedLineWriter writer;
 
 
 	public SerialConnection(SerialTransportLayer layer) {
 		transportLayer = layer;
+		writer = new QueuedLineWriter(new QueuedLineWriter.Output() {
+			@Override
+			public void write(byte [] data,int length) throws IOException {
+				try {
+					serialPort.writeBytes(length==data.length ? data : Arrays.copyOf(data, length));
+				} catch(SerialPortException e) {
+					throw new IOException(e.getMessage());
+				}
+			}
+
+			@Override
+			public void readyForMore() {
+				notifySendBufferEmpty();
+			}
+		}, "SerialConnection writer");
 	}
 
 	@Override
 	public void sendMessage(String msg) throws Exception {
-		commandQueue.add(msg);
-		sendQueuedCommand();
+		writer.add(msg);
+	}
+
+	@Override
+	public void sendFrame(byte [] frame) throws Exception {
+		writer.add(frame);
 	}
 
 
 	@Override
 	public void closeConnection() {
 		if (portOpened) {
+			writer.stop();
 			if (serialPort != null) {
 				try {
 					serialPort.removeEventListener();
@@ -83,62 +96,16 @@ public final class SerialConnection implements SerialPortEventListener, NetworkC
 		serialPort.addEventListener(this);
 
 		connectionName = portName;
+		framer.clear();
 		portOpened = true;
-		waitingForCue = true;
-
-	}
-
-
-	/**
-	 * Check if the robot reports an error and if so what line number.
-	 * @param line the message from the robot to be parsed
-	 * @return -1 if there was no error, otherwise the line number containing the error.
-	 */
-	protected int errorReported(String line) {
-		if (line.lastIndexOf(NOCHECKSUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(NOCHECKSUM) + NOCHECKSUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("NOCHECKSUM "+err);
-			} catch (Exception e) {}
+		writer.start();
 
-			return err;
-		}
-		if (line.lastIndexOf(BADCHECKSUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(BADCHECKSUM) + BADCHECKSUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("BADCHECKSUM "+err);
-			} catch (Exception e) {}
-
-			return err;
-		}
-		if (line.lastIndexOf(BADLINENUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(BADLINENUM) + BADLINENUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("BADLINENUM "+err);
-			} catch (Exception e) {}
-
-			return err;
-		}
-
-		return -1;
 	}
 
 
 	// Deal with something robot has sent.
 	@Override
 	public void serialEvent(SerialPortEvent events) {
-		String rawInput, oneLine;
-		int x;
-
 		if(!events.isRXCHAR()) return;
 		if(!portOpened) return;
 		int len =0 ;
@@ -152,64 +119,18 @@ public final class SerialConnection implements SerialPortEventListener, NetworkC
 		}
 		
 		if( len<=0 ) return;
-		rawInput = new String(buffer,0,len);
-		inputBuffer+=rawInput;
-		// each line ends with a \n.
-		for( x=inputBuffer.indexOf("\n"); x!=-1; x=inputBuffer.indexOf("\n") ) {
-			x=x+1;
-			oneLine = inputBuffer.substring(0,x);
-			inputBuffer = inputBuffer.substring(x);
-
-			// check for error
-			int error_line = errorReported(oneLine);
-			if(error_line != -1) {
-				notifyLineError(error_line);
-			} else {
-				// no error
-				if(!oneLine.trim().equals(CUE.trim())) {
-					notifyDataAvailable(oneLine);
-				}
-			}
-
-			// wait for the cue to send another command
-			if(oneLine.indexOf(CUE)==0) {
-				waitingForCue=false;
-			}
-		}
-		if(waitingForCue==false) {
-			sendQueuedCommand();
-		}
+		dataAvailable(framer,writer,buffer,len);
 	}
 
 
-	protected void sendQueuedCommand() {
-		if(!portOpened || waitingForCue) return;
-
-		if(commandQueue.isEmpty()==true) {
-			notifySendBufferEmpty();
-			return;
-		}
-
-		String command;
-		try {
-			command=commandQueue.remove(0);
-			String line = command;
-			if(line.contains(COMMENT_START)) {
-				String [] lines = line.split(COMMENT_START);
-				command = lines[0];
-			}
-			if(line.endsWith("\n") == false) {
-				line+=NEWLINE;
-			}
-			serialPort.writeBytes(line.getBytes());
-			waitingForCue=true;
-		}
-		catch(IndexOutOfBoundsException e1) {}
-		catch(SerialPortException e2) {}
+	@Override
+	public void setStreamingWindow(int bytes) {
+		writer.setStreamingWindow(bytes);
 	}
 
+	@Override
 	public void deleteAllQueuedCommands() {
-		commandQueue.clear();
+		writer.clear();
 	}
 
 	// connect to the last port
@@ -218,25 +139,6 @@ public final class SerialConnection implements SerialPortEventListener, NetworkC
 		openConnection(connectionName);
 	}
 
-	/**
-	 * Java string to int is very picky.  this method is slightly less picky.  Only works with positive whole numbers.
-	 *
-	 * @param src
-	 * @return the portion of the string that is actually a number
-	 */
-	private String getNumberPortion(String src) {
-		src = src.trim();
-		int length = src.length();
-		String result = "";
-		for (int i = 0; i < length; i++) {
-			Character character = src.charAt(i);
-			if (Character.isDigit(character)) {
-				result += character;
-			}
-		}
-		return result;
-	}
-
 	/**
 	 * @return the port open for this serial connection.
 	 */
@@ -250,35 +152,6 @@ public final class SerialConnection implements SerialPortEventListener, NetworkC
 		return connectionName;
 	}
 
-	@Override
-	public void addListener(NetworkConnectionListener listener) {
-		listeners.add(listener);
-	}
-
-	@Override
-	public void removeListener(NetworkConnectionListener listener) {
-		listeners.remove(listener);
-	}
-
-	private void notifyLineError(int lineNumber) {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.lineError(this,lineNumber);
-		}
-	}
-
-	private void notifySendBufferEmpty() {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.sendBufferEmpty(this);
-		}
-	}
-
-	// tell all listeners data has arrived
-	private void notifyDataAvailable(String line) {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.dataAvailable(this,line);
-		}
-	}
-
 	@Override
 	public TransportLayer getTransportLayer() {
 		return this.transportLayer;
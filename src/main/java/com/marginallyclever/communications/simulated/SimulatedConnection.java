@@ -0,0 +1,200 @@
+package com.marginallyclever.communications.simulated;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.marginallyclever.communications.LineFramer;
+import com.marginallyclever.communications.NetworkConnectionBase;
+import com.marginallyclever.communications.QueuedLineWriter;
+import com.marginallyclever.communications.TransportLayer;
+
+/**
+ * A connection to a SimulatedFirmware instead of a real robot.  Sends and receives exactly like SerialConnection,
+ * so the whole send path can be measured without hardware.
+ * <p>
+ * Also records the time from each line leaving the writer to the cue that answers it.
+ */
+public final class SimulatedConnection extends NetworkConnectionBase {
+	private SimulatedTransportLayer transportLayer;
+	private SimulatedFirmware firmware;
+	private String connectionName = "";
+	private volatile boolean portOpened = false;
+
+	// parsing input from the firmware
+	private LineFramer framer = new LineFramer();
+	private QueuedLineWriter writer;
+
+	// when each line in flight was written, oldest first.
+	private long [] sentAt = new long[64];
+	private int sentHead;
+	private int sentCount;
+	// time from writing each line to its answer
+	private long [] latencies = new long[1024];
+	private int latencyCount;
+
+
+	SimulatedConnection(SimulatedTransportLayer layer) {
+		transportLayer = layer;
+		writer = new QueuedLineWriter(new QueuedLineWriter.Output() {
+			@Override
+			public void write(byte [] data,int length) throws IOException {
+				if(!portOpened) throw new IOException("Not connected.");
+				long now = System.nanoTime();
+				for(int i=0;i<length;++i) {
+					if(data[i]=='\n') linesSent(now);
+				}
+				firmware.send(data, length);
+			}
+
+			@Override
+			public void readyForMore() {
+				notifySendBufferEmpty();
+			}
+		}, "SimulatedConnection writer");
+	}
+
+
+	@Override
+	public void sendMessage(String msg) throws Exception {
+		writer.add(msg);
+	}
+
+	@Override
+	public void sendFrame(byte [] frame) throws Exception {
+		writer.add(frame);
+	}
+
+
+	@Override
+	public void closeConnection() {
+		if (!portOpened) return;
+		portOpened = false;
+		writer.stop();
+		firmware.stop();
+	}
+
+
+	/**
+	 * Turn on a simulated robot.
+	 * @param name anything
+	 */
+	@Override
+	public void openConnection(String name) throws Exception {
+		if (portOpened) return;
+
+		firmware = transportLayer.createFirmware(new SimulatedFirmware.Host() {
+			@Override
+			public void dataAvailable(byte [] data,int length) {
+				SimulatedConnection.this.dataAvailable(data,length);
+			}
+		});
+
+		connectionName = name;
+		framer.clear();
+		clearTimes();
+		portOpened = true;
+		writer.start();
+		firmware.start();
+	}
+
+
+	private void dataAvailable(byte [] data,int len) {
+		if(!portOpened) return;
+
+		dataAvailable(framer,writer,data,len);
+	}
+
+
+	private synchronized void clearTimes() {
+		sentHead = 0;
+		sentCount = 0;
+		latencyCount = 0;
+	}
+
+
+	private synchronized void linesSent(long now) {
+		if(sentCount == sentAt.length) {
+			long [] bigger = new long[sentAt.length*2];
+			for(int i=0;i<sentCount;++i) bigger[i] = sentAt[(sentHead+i)%sentAt.length];
+			sentAt = bigger;
+			sentHead = 0;
+		}
+		sentAt[(sentHead+sentCount)%sentAt.length] = now;
+		++sentCount;
+	}
+
+
+	@Override
+	protected void cueReceived() {
+		lineAnswered();
+	}
+
+
+	private synchronized void lineAnswered() {
+		// the cue after the hello answers nothing.
+		if(sentCount == 0) return;
+		long latency = System.nanoTime() - sentAt[sentHead];
+		sentHead = (sentHead+1)%sentAt.length;
+		--sentCount;
+
+		if(latencyCount == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencies.length*2);
+		}
+		latencies[latencyCount++] = latency;
+	}
+
+
+	/**
+	 * @return lines written but not answered yet.
+	 */
+	public synchronized int getLinesInFlight() {
+		return sentCount;
+	}
+
+
+	/**
+	 * @return nanoseconds from writing each line to its answer, in the order they were answered.
+	 */
+	public synchronized long [] getLatencies() {
+		return Arrays.copyOf(latencies, latencyCount);
+	}
+
+
+	/**
+	 * @return the robot at the other end.
+	 */
+	public SimulatedFirmware getFirmware() {
+		return firmware;
+	}
+
+
+	@Override
+	public void setStreamingWindow(int bytes) {
+		writer.setStreamingWindow(bytes);
+	}
+
+	@Override
+	public void deleteAllQueuedCommands() {
+		writer.clear();
+	}
+
+	@Override
+	public void reconnect() throws Exception {
+		openConnection(connectionName);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return portOpened;
+	}
+
+	@Override
+	public String getRecentConnection() {
+		return connectionName;
+	}
+
+	@Override
+	public TransportLayer getTransportLayer() {
+		return this.transportLayer;
+	}
+}
@@ -0,0 +1,311 @@
+package com.marginallyclever.communications.simulated;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pretends to be the Makelangelo firmware at the far end of a cable.
+ * <p>
+ * Says hello, then answers every line with the cue.  Lines that start with a line number are checked like the
+ * firmware does: a number other than the one expected gets BADLINENUM, no checksum gets NOCHECKSUM and a wrong
+ * checksum gets BADCHECKSUM.  M110 sets the next line number and D10 reports the hardware version.  Nothing moves.
+ * <p>
+ * Bytes take the link latency to arrive in either direction.  Each line takes the line time to run.  A line keeps its
+ * place in the receive buffer until it has been answered, and bytes that don't fit are lost, the way a real serial
+ * buffer overflows.  Good lines can also be rejected at random to test recovery.
+ */
+public class SimulatedFirmware implements Runnable {
+	public static final String CUE = "> ";
+	public static final String NEWLINE = "\r\n";
+	// like an Arduino that resets when the port opens.  Gives whoever opened the connection time to start listening.
+	public static final long BOOT_NANOS = 100*1000*1000;
+
+	/**
+	 * Where the firmware sends its replies.
+	 */
+	public interface Host {
+		/**
+		 * Called on the firmware thread.
+		 * @param data bytes from the robot
+		 * @param length how many of the bytes to use
+		 */
+		public void dataAvailable(byte [] data,int length);
+	}
+
+	private static class Packet {
+		long due;
+		byte [] data;
+
+		Packet(long due,byte [] data) {
+			this.due = due;
+			this.data = data;
+		}
+	}
+
+	private Host host;
+	private long linkLatencyNanos;
+	private long lineTimeNanos;
+	private int receiveBufferSize;
+	private double errorRate;
+	private Random random;
+	private long robotUID;
+	private int firmwareVersion;
+	private int hardwareVersion;
+
+	private volatile boolean running;
+	private volatile Thread thread;
+
+	// host to robot, in order of arrival.  Any thread adds, the firmware thread removes.
+	private ConcurrentLinkedQueue<Packet> inbound = new ConcurrentLinkedQueue<Packet>();
+	// robot to host.  Only the firmware thread.
+	private ArrayDeque<Packet> outbound = new ArrayDeque<Packet>();
+
+	// the serial receive buffer.  Only the firmware thread.
+	private byte [] received;
+	private int receivedCount;
+	// the line being run
+	private boolean busy;
+	private long busyUntil;
+	private int busyLength;
+	private String busyReply;
+	private int expectedLineNumber;
+
+	private volatile int linesReceived;
+	private volatile int linesAccepted;
+	private volatile int errorsReported;
+	private volatile int bytesDropped;
+
+
+	/**
+	 * @param host where to send replies
+	 * @param linkLatencyMicros one way trip across the cable
+	 * @param lineTimeMicros time to run each line
+	 * @param receiveBufferSize bytes the robot can hold
+	 * @param errorRate chance from 0 to 1 that a good numbered line is rejected anyway
+	 * @param seed for the random errors
+	 * @param robotUID reported in the hello
+	 * @param firmwareVersion reported after the hello
+	 * @param hardwareVersion reported by D10
+	 */
+	public SimulatedFirmware(Host host,long linkLatencyMicros,long lineTimeMicros,int receiveBufferSize,double errorRate,long seed,long robotUID,int firmwareVersion,int hardwareVersion) {
+		this.host = host;
+		this.linkLatencyNanos = linkLatencyMicros*1000;
+		this.lineTimeNanos = lineTimeMicros*1000;
+		this.receiveBufferSize = receiveBufferSize;
+		this.errorRate = errorRate;
+		this.random = new Random(seed);
+		this.robotUID = robotUID;
+		this.firmwareVersion = firmwareVersion;
+		this.hardwareVersion = hardwareVersion;
+	}
+
+
+	/**
+	 * Turn on the robot.  It says hello after BOOT_NANOS.
+	 */
+	public void start() {
+		stop();
+		inbound.clear();
+		outbound.clear();
+		received = new byte[receiveBufferSize];
+		receivedCount = 0;
+		busy = false;
+		expectedLineNumber = 0;
+		reply("HELLO WORLD! I AM DRAWBOT #"+robotUID+NEWLINE
+				+"Firmware v"+firmwareVersion+NEWLINE
+				+CUE+NEWLINE, System.nanoTime()+BOOT_NANOS);
+
+		running = true;
+		thread = new Thread(this, "SimulatedFirmware");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Turn off the robot.
+	 */
+	public void stop() {
+		running = false;
+		Thread t = thread;
+		thread = null;
+		if(t != null) LockSupport.unpark(t);
+	}
+
+
+	/**
+	 * Bytes sent by the host.  They arrive after the link latency.  Safe to call from any thread.
+	 * @param data bytes to send
+	 * @param length how many of the bytes to send
+	 */
+	public void send(byte [] data,int length) {
+		byte [] copy = new byte[length];
+		System.arraycopy(data, 0, copy, 0, length);
+		inbound.add(new Packet(System.nanoTime()+linkLatencyNanos, copy));
+		Thread t = thread;
+		if(t != null) LockSupport.unpark(t);
+	}
+
+
+	public int getLinesReceived() {		return linesReceived;	}
+	public int getLinesAccepted() {		return linesAccepted;	}
+	public int getErrorsReported() {	return errorsReported;	}
+	public int getBytesDropped() {		return bytesDropped;	}
+
+
+	@Override
+	public void run() {
+		while(running && thread == Thread.currentThread()) {
+			long now = System.nanoTime();
+
+			Packet p;
+			while((p = inbound.peek()) != null && p.due <= now) {
+				inbound.poll();
+				receive(p.data);
+			}
+
+			if(busy && busyUntil <= now) {
+				finishLine(now);
+			}
+			if(!busy) {
+				startLine(now);
+				if(busy) continue;
+			}
+
+			while((p = outbound.peek()) != null && p.due <= now) {
+				outbound.poll();
+				host.dataAvailable(p.data, p.data.length);
+			}
+
+			// sleep until the next thing happens, or until the host sends more.
+			long next = Long.MAX_VALUE;
+			if((p = inbound.peek()) != null) next = Math.min(next, p.due);
+			if((p = outbound.peek()) != null) next = Math.min(next, p.due);
+			if(busy) next = Math.min(next, busyUntil);
+			if(next == Long.MAX_VALUE) {
+				LockSupport.park(this);
+			} else if(next > now) {
+				LockSupport.parkNanos(this, next-now);
+			}
+		}
+	}
+
+
+	private void receive(byte [] data) {
+		int fits = Math.min(data.length, receiveBufferSize-receivedCount);
+		System.arraycopy(data, 0, received, receivedCount, fits);
+		receivedCount += fits;
+		bytesDropped += data.length-fits;
+	}
+
+
+	/**
+	 * If a whole line has arrived, start running it.
+	 */
+	private void startLine(long now) {
+		int end = -1;
+		for(int i=0;i<receivedCount;++i) {
+			if(received[i]=='\n') {
+				end = i;
+				break;
+			}
+		}
+		if(end == -1) {
+			if(receivedCount < receiveBufferSize) return;
+			// full of garbage with no end.  Run it anyway, like a line buffer that overflowed.
+			end = receivedCount-1;
+		}
+
+		String line = new String(received, 0, end, StandardCharsets.US_ASCII).trim();
+		busy = true;
+		busyLength = end+1;
+		busyUntil = now+lineTimeNanos;
+		busyReply = runLine(line);
+	}
+
+
+	/**
+	 * The line is done.  Answer it and make room in the receive buffer.
+	 */
+	private void finishLine(long now) {
+		System.arraycopy(received, busyLength, received, 0, receivedCount-busyLength);
+		receivedCount -= busyLength;
+		busy = false;
+		reply(busyReply+CUE+NEWLINE, now);
+	}
+
+
+	private void reply(String message,long now) {
+		outbound.add(new Packet(now+linkLatencyNanos, message.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+
+	/**
+	 * Check and run one line.
+	 * @param line the line without the newline
+	 * @return what to say before the cue.
+	 */
+	private String runLine(String line) {
+		++linesReceived;
+		String command = line;
+
+		if(line.startsWith("N")) {
+			int space = line.indexOf(' ');
+			int lineNumber = parseNumber(line, 1, space==-1 ? line.length() : space);
+			if(lineNumber != expectedLineNumber) {
+				++errorsReported;
+				return "BADLINENUM "+expectedLineNumber+NEWLINE;
+			}
+			int star = line.lastIndexOf('*');
+			if(star == -1) {
+				++errorsReported;
+				return "NOCHECKSUM "+lineNumber+NEWLINE;
+			}
+			byte checksum = 0;
+			for(int i=0;i<star;++i) {
+				checksum ^= line.charAt(i);
+			}
+			if(parseNumber(line, star+1, line.length()) != checksum || random.nextDouble() < errorRate) {
+				++errorsReported;
+				return "BADCHECKSUM "+lineNumber+NEWLINE;
+			}
+			++expectedLineNumber;
+			command = space==-1 ? "" : line.substring(space+1, star);
+		}
+		++linesAccepted;
+
+		if(command.startsWith("M110")) {
+			int n = command.indexOf('N');
+			if(n != -1) expectedLineNumber = parseNumber(command, n+1, command.length());
+		} else if(command.startsWith("D10")) {
+			return "D10 V"+hardwareVersion+NEWLINE;
+		}
+		return "";
+	}
+
+
+	/**
+	 * @return the whole number in text from start up to end, ignoring anything that is not a digit.  -1 if none.
+	 */
+	private int parseNumber(String text,int start,int end) {
+		int value = 0;
+		boolean found = false;
+		boolean negative = false;
+		for(int i=start;i<end;++i) {
+			char c = text.charAt(i);
+			if(c>='0' && c<='9') {
+				value = value*10 + (c-'0');
+				found = true;
+			} else if(c=='-' && !found) {
+				negative = true;
+			} else if(found) {
+				break;
+			}
+		}
+		if(!found) return -1;
+		return negative ? -value : value;
+	}
+}
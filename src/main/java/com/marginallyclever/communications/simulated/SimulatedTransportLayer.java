@@ -0,0 +1,101 @@
+package com.marginallyclever.communications.simulated;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * Opens connections to simulated robots.  Meant for measuring the send path on machines with no robot attached.
+ * Set the behaviour of the robot before opening a connection.
+ */
+public class SimulatedTransportLayer implements TransportLayer {
+	private long linkLatencyMicros = 0;
+	private long lineTimeMicros = 0;
+	private int receiveBufferSize = 64;
+	private double errorRate = 0;
+	private long seed = 0;
+	private long robotUID = 1;
+	private int firmwareVersion = 7;
+	private int hardwareVersion = 2;
+
+
+	public SimulatedTransportLayer() {}
+
+	/**
+	 * @return <code>SimulatedConnection</code> if connection successful.  <code>null</code> on failure.
+	 */
+	@Override
+	public NetworkConnection openConnection(String connectionName) {
+		Log.message("Connecting to simulated robot "+connectionName);
+		SimulatedConnection connection = new SimulatedConnection(this);
+
+		try {
+			connection.openConnection(connectionName);
+		} catch (Exception e) {
+			Log.message("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+
+		return connection;
+	}
+
+	/**
+	 * @return null.  Simulated robots are not offered in the connect dialog.
+	 */
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return null;
+	}
+
+
+	SimulatedFirmware createFirmware(SimulatedFirmware.Host host) {
+		return new SimulatedFirmware(host,linkLatencyMicros,lineTimeMicros,receiveBufferSize,errorRate,seed,robotUID,firmwareVersion,hardwareVersion);
+	}
+
+
+	/**
+	 * @param micros one way trip across the cable.  A 57600 baud serial link moves a 30 byte line in about 5000.
+	 */
+	public void setLinkLatency(long micros) {
+		linkLatencyMicros = micros;
+	}
+
+	/**
+	 * @param micros time the robot spends on each line.
+	 */
+	public void setLineTime(long micros) {
+		lineTimeMicros = micros;
+	}
+
+	/**
+	 * @param bytes size of the robot's receive buffer.  Bytes that don't fit are lost.
+	 */
+	public void setReceiveBufferSize(int bytes) {
+		receiveBufferSize = bytes;
+	}
+
+	/**
+	 * @param rate chance from 0 to 1 that a good line is rejected with BADCHECKSUM anyway.
+	 * @param seed makes the same errors happen every run.
+	 */
+	public void setErrorRate(double rate,long seed) {
+		errorRate = rate;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param uid reported by the robot when it says hello.  Zero asks the server for a new one.
+	 */
+	public void setRobotUID(long uid) {
+		robotUID = uid;
+	}
+
+	/**
+	 * @param version reported by D10
+	 */
+	public void setHardwareVersion(int version) {
+		hardwareVersion = version;
+	}
+}
@@ -5,13 +5,12 @@ import java.net.InetSocketAddress;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 
 
-import com.marginallyclever.communications.NetworkConnectionListener;
-import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.LineFramer;
+import com.marginallyclever.communications.NetworkConnectionBase;
+import com.marginallyclever.communications.QueuedLineWriter;
 import com.marginallyclever.communications.TransportLayer;
-import com.marginallyclever.robotOverlord.Log;
 
 
 /**
@@ -20,46 +19,57 @@ import com.marginallyclever.robotOverlord.Log;
  * @author Peter Colapietro
  * @since v7
  */
-public final class TCPConnection implements Runnable, NetworkConnection {
+public final class TCPConnection extends NetworkConnectionBase implements Runnable {
 	private SocketChannel socket;
 	private TransportLayer transportLayer;
 	private String connectionName = "";
 	private boolean portOpened = false;
-	private boolean waitingForCue = false;
 	private Thread thread;
 	private boolean keepPolling;
 
 
-	static final String CUE = "> ";
-	static final String NOCHECKSUM = "NOCHECKSUM ";
-	static final String BADCHECKSUM = "BADCHECKSUM ";
-	static final String BADLINENUM = "BADLINENUM ";
 	static final String NEWLINE = "\n";
 	static final String COMMENT_START = ";";
 	private static final int DEFAULT_TCP_PORT = 9999;
 	
 	// parsing input from Makelangelo
-	private String inputBuffer = "";
-	ArrayList<String> commandQueue = new ArrayList<String>();
-
-	// Listeners which should be notified of a change to the percentage.
-	private ArrayList<NetworkConnectionListener> listeners = new ArrayList<NetworkConnectionListener>();
+	private LineFramer framer = new LineFramer();
+	private QueuedLineWriter writer;
 
 
 	public TCPConnection(TransportLayer layer) {
 		transportLayer = layer;
+		writer = new QueuedLineWriter(new QueuedLineWriter.Output() {
+			@Override
+			public void write(byte [] data,int length) throws IOException {
+				ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+				while(buf.hasRemaining()) {
+					socket.write(buf);
+				}
+			}
+
+			@Override
+			public void readyForMore() {
+				notifySendBufferEmpty();
+			}
+		}, "TCPConnection writer");
 	}
 
 	@Override
 	public void sendMessage(String msg) throws Exception {
-		commandQueue.add(msg);
-		sendQueuedCommand();
+		writer.add(msg);
+	}
+
+	@Override
+	public void sendFrame(byte [] frame) throws Exception {
+		writer.add(frame);
 	}
 
 
 	@Override
 	public void closeConnection() {
 		if (!portOpened) return;
+		writer.stop();
 		if (socket != null) {
 			keepPolling=false;
 			
@@ -95,8 +105,9 @@ public final class TCPConnection implements Runnable, NetworkConnection {
 		thread = new Thread(this);
 		
 		connectionName = ipAddress;
+		framer.clear();
 		portOpened = true;
-		waitingForCue = true;
+		writer.start();
 		keepPolling=true;
 		thread.start();
 	}
@@ -107,9 +118,11 @@ public final class TCPConnection implements Runnable, NetworkConnection {
 			try {
 				int bytesRead = socket.read(buf);
 				if(bytesRead>0) {
-					String line = new String(buf.array());
-					dataAvailable(bytesRead,line);
-					buf.rewind();
+					dataAvailable(buf.array(),bytesRead);
+					buf.clear();
+				} else if(bytesRead<0) {
+					// the robot hung up.
+					closeConnection();
 				}
 			}
 			catch (IOException e) {
@@ -120,122 +133,24 @@ public final class TCPConnection implements Runnable, NetworkConnection {
 			}
 		}
 	}
-	
-	
-	/**
-	 * Check if the robot reports an error and if so what line number.
-	 * @param line the message from the robot to be parsed
-	 * @return -1 if there was no error, otherwise the line number containing the error.
-	 */
-	protected int errorReported(String line) {
-		if (line.lastIndexOf(NOCHECKSUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(NOCHECKSUM) + NOCHECKSUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("NOCHECKSUM "+err);
-			} catch (Exception e) {}
 
-			return err;
-		}
-		if (line.lastIndexOf(BADCHECKSUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(BADCHECKSUM) + BADCHECKSUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("BADCHECKSUM "+err);
-			} catch (Exception e) {}
 
-			return err;
-		}
-		if (line.lastIndexOf(BADLINENUM) != -1) {
-			String after_error = line.substring(line.lastIndexOf(BADLINENUM) + BADLINENUM.length());
-			String x = getNumberPortion(after_error);
-			int err = 0;
-			try {
-				err = Integer.decode(x);
-				Log.error("BADLINENUM "+err);
-			} catch (Exception e) {}
-
-			return err;
-		}
-
-		return -1;
-	}
-
-
-	public void dataAvailable(int len,String message) {
+	public void dataAvailable(byte [] data,int len) {
 		if(!portOpened) return;
-		String rawInput = message.substring(0,len);
 		if( len==0 ) return;
-		
-		inputBuffer+=rawInput;
-		// each line ends with a \n.
-		int x;
-
-		for( x=inputBuffer.indexOf("\n"); x!=-1; x=inputBuffer.indexOf("\n") ) {
-			x=x+1;
-			String oneLine = inputBuffer.substring(0,x);
-			inputBuffer = inputBuffer.substring(x);
 
-			// check for error
-			int error_line = errorReported(oneLine);
-			if(error_line != -1) {
-				notifyLineError(error_line);
-			} else {
-				// no error
-				if(!oneLine.trim().equals(CUE.trim())) 
-				{
-					notifyDataAvailable(oneLine);
-				}
-			}
-
-			// wait for the cue to send another command
-			if(oneLine.indexOf(CUE)==0) {
-				waitingForCue=false;
-			}
-		}
-		if(waitingForCue==false) {
-			sendQueuedCommand();
-		}
+		dataAvailable(framer,writer,data,len);
 	}
 
 
-	protected void sendQueuedCommand() {
-		if(!portOpened || waitingForCue) return;
-
-		if(commandQueue.isEmpty()==true) {
-			notifySendBufferEmpty();
-			return;
-		}
-
-		String command;
-		try {
-			command=commandQueue.remove(0);
-			String line = command;
-			if(line.contains(COMMENT_START)) {
-				String [] lines = line.split(COMMENT_START);
-				command = lines[0];
-			}
-			if(line.endsWith("\n") == false) {
-				line+=NEWLINE;
-			}
-			byte[] lineBytes = line.getBytes();
-			ByteBuffer buf = ByteBuffer.allocate(lineBytes.length);
-			buf.clear();
-			buf.put(lineBytes);
-			buf.rewind();
-			socket.write(buf);
-			waitingForCue=true;
-		}
-		catch(IndexOutOfBoundsException e1) {}
-		catch(IOException e1) {}
+	@Override
+	public void setStreamingWindow(int bytes) {
+		writer.setStreamingWindow(bytes);
 	}
 
+	@Override
 	public void deleteAllQueuedCommands() {
-		commandQueue.clear();
+		writer.clear();
 	}
 
 	// connect to the last port
@@ -244,25 +159,6 @@ public final class TCPConnection implements Runnable, NetworkConnection {
 		openConnection(connectionName);
 	}
 
-	/**
-	 * Java string to int is very picky.  this method is slightly less picky.  Only works with positive whole numbers.
-	 *
-	 * @param src
-	 * @return the portion of the string that is actually a number
-	 */
-	private String getNumberPortion(String src) {
-		src = src.trim();
-		int length = src.length();
-		String result = "";
-		for (int i = 0; i < length; i++) {
-			Character character = src.charAt(i);
-			if (Character.isDigit(character)) {
-				result += character;
-			}
-		}
-		return result;
-	}
-
 	/**
 	 * @return the port open for this serial connection.
 	 */
@@ -276,35 +172,6 @@ public final class TCPConnection implements Runnable, NetworkConnection {
 		return connectionName;
 	}
 
-	@Override
-	public void addListener(NetworkConnectionListener listener) {
-		listeners.add(listener);
-	}
-
-	@Override
-	public void removeListener(NetworkConnectionListener listener) {
-		listeners.remove(listener);
-	}
-
-	private void notifyLineError(int lineNumber) {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.lineError(this,lineNumber);
-		}
-	}
-
-	private void notifySendBufferEmpty() {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.sendBufferEmpty(this);
-		}
-	}
-
-	// tell all listeners data has arrived
-	private void notifyDataAvailable(String line) {
-		for (NetworkConnectionListener listener : listeners) {
-			listener.dataAvailable(this,line);
-		}
-	}
-
 	@Override
 	public TransportLayer getTransportLayer() {
 		return this.transportLayer;
@@ -0,0 +1,297 @@
+package com.marginallyclever.communications.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.marginallyclever.communications.LineFramer;
+import com.marginallyclever.communications.NetworkConnectionBase;
+import com.marginallyclever.communications.QueuedLineWriter;
+import com.marginallyclever.communications.TransportLayer;
+
+/**
+ * One robot on a TCPSelectorTransportLayer.  The layer's selector thread does all the reading and writing.
+ * Listeners are called in order on a thread that belongs to this connection, so a listener that blocks (a tool
+ * change dialog, for one) only holds up its own robot.
+ * <p>
+ * Each connection keeps its own read buffer, line framer and write buffer, so a slow robot never holds up the rest.
+ */
+public final class TCPSelectorConnection extends NetworkConnectionBase {
+	private static final int DEFAULT_TCP_PORT = 9999;
+	private static final int READ_BUFFER_SIZE = 1024;
+
+	private TCPSelectorTransportLayer transportLayer;
+	private SocketChannel socket;
+	private SelectionKey key;
+	private String connectionName = "";
+	private volatile boolean portOpened = false;
+
+	// only touched by the selector thread
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private LineFramer framer = new LineFramer();
+
+	private QueuedLineWriter writer;
+	// calls the listeners.  One per connection, so callbacks keep their order.
+	private ExecutorService listenerThread;
+	// set while this connection waits in the layer's pump queue.
+	final AtomicBoolean pumpRequested = new AtomicBoolean();
+
+
+	TCPSelectorConnection(TCPSelectorTransportLayer layer) {
+		transportLayer = layer;
+		final TCPSelectorConnection me = this;
+		writer = new QueuedLineWriter(new QueuedLineWriter.Output() {
+			@Override
+			public void write(byte [] data,int length) throws IOException {
+				queueBytes(data,length);
+			}
+
+			@Override
+			public void readyForMore() {
+				notifySendBufferEmpty();
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				transportLayer.requestPump(me);
+			}
+		});
+	}
+
+
+	@Override
+	public void sendMessage(String msg) throws Exception {
+		writer.add(msg);
+	}
+
+	@Override
+	public void sendFrame(byte [] frame) throws Exception {
+		writer.add(frame);
+	}
+
+
+	@Override
+	public void closeConnection() {
+		if (!portOpened) return;
+		portOpened = false;
+		writer.stop();
+		// callbacks already waiting still run.
+		if (listenerThread != null) listenerThread.shutdown();
+		if (socket != null) {
+			try {
+				// also takes it out of the selector.
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+
+	/**
+	 * Open a connection to a device on the net.
+	 * @param ipAddress the network address of the device
+	 */
+	@Override
+	public void openConnection(String ipAddress) throws Exception {
+		if (portOpened) return;
+
+		if(ipAddress.startsWith("http://")) {
+			ipAddress = ipAddress.substring(7);
+		}
+
+		URL a = new URL("http://"+ipAddress);
+		String host = a.getHost();
+		int port = a.getPort();
+		if(port==-1) port = DEFAULT_TCP_PORT;
+		socket = SocketChannel.open();
+		socket.connect(new InetSocketAddress(host,port));
+		socket.socket().setTcpNoDelay(true);
+		socket.configureBlocking(false);
+
+		connectionName = ipAddress;
+		key = null;
+		final String threadName = "TCPSelectorConnection "+ipAddress;
+		listenerThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,threadName);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		portOpened = true;
+		writer.start();
+		transportLayer.register(this);
+	}
+
+
+	/**
+	 * Called by the selector thread.
+	 */
+	void registerWith(Selector selector) throws IOException {
+		readBuffer.clear();
+		writeBuffer.clear();
+		framer.clear();
+		if(!portOpened) return;
+		key = socket.register(selector, SelectionKey.OP_READ, this);
+	}
+
+
+	/**
+	 * Called by the selector thread when there is something to read.
+	 */
+	void readReady() throws IOException {
+		while(portOpened) {
+			int bytesRead = socket.read(readBuffer);
+			if(bytesRead<0) {
+				// the robot hung up.
+				closeConnection();
+				return;
+			}
+			if(bytesRead==0) return;
+			dataAvailable(framer,writer,readBuffer.array(),bytesRead);
+			readBuffer.clear();
+		}
+	}
+
+
+	/**
+	 * Called by the selector thread when the robot can take more of what is waiting in the write buffer.
+	 */
+	void writeReady() throws IOException {
+		flushWriteBuffer();
+		pump();
+	}
+
+
+	/**
+	 * Called by the selector thread.  Send what the window allows, unless the last write is still going.
+	 */
+	void pump() {
+		if(!portOpened || key == null) return;
+		if(writeBuffer.position()>0) return;
+		writer.pump();
+	}
+
+
+	private void queueBytes(byte [] data,int length) throws IOException {
+		if(writeBuffer.remaining() < length) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(writeBuffer.capacity()*2, writeBuffer.position()+length));
+			writeBuffer.flip();
+			bigger.put(writeBuffer);
+			writeBuffer = bigger;
+		}
+		writeBuffer.put(data,0,length);
+		try {
+			flushWriteBuffer();
+		} catch (IOException e) {
+			closeConnection();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Write as much as the socket will take.  Ask to be told when it can take the rest.
+	 */
+	private void flushWriteBuffer() throws IOException {
+		writeBuffer.flip();
+		socket.write(writeBuffer);
+		writeBuffer.compact();
+		if(!portOpened) return;
+		key.interestOps(writeBuffer.position()>0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+
+	@Override
+	protected void notifyLineError(final int lineNumber) {
+		callListeners(new Runnable() {
+			@Override
+			public void run() {
+				TCPSelectorConnection.super.notifyLineError(lineNumber);
+			}
+		});
+	}
+
+	@Override
+	protected void notifySendBufferEmpty() {
+		callListeners(new Runnable() {
+			@Override
+			public void run() {
+				TCPSelectorConnection.super.notifySendBufferEmpty();
+			}
+		});
+	}
+
+	@Override
+	protected void notifyDataAvailable(final String line) {
+		callListeners(new Runnable() {
+			@Override
+			public void run() {
+				TCPSelectorConnection.super.notifyDataAvailable(line);
+			}
+		});
+	}
+
+
+	private void callListeners(final Runnable call) {
+		final TCPSelectorConnection me = this;
+		try {
+			listenerThread.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						call.run();
+					} catch (RuntimeException e) {
+						transportLayer.failed(me,e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed.  Nobody is listening.
+		}
+	}
+
+
+	@Override
+	public void setStreamingWindow(int bytes) {
+		writer.setStreamingWindow(bytes);
+	}
+
+	@Override
+	public void deleteAllQueuedCommands() {
+		writer.clear();
+	}
+
+	// connect to the last port
+	@Override
+	public void reconnect() throws Exception {
+		openConnection(connectionName);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return portOpened;
+	}
+
+	@Override
+	public String getRecentConnection() {
+		return connectionName;
+	}
+
+	@Override
+	public TransportLayer getTransportLayer() {
+		return this.transportLayer;
+	}
+}
@@ -0,0 +1,181 @@
+package com.marginallyclever.communications.tcp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+import com.marginallyclever.robotOverlord.Log;
+
+/**
+ * Opens TCP connections to robots that all share one thread.
+ * <p>
+ * TCPConnection uses a thread to read and another to write for every robot.  Here a single java.nio Selector
+ * waits on every connection opened by this layer, reads whatever has arrived and writes whatever each robot has room
+ * for.  Each connection calls its listeners on a thread of its own, so a listener that blocks only holds up its
+ * own robot.
+ */
+public class TCPSelectorTransportLayer implements TransportLayer, Runnable {
+	private volatile Selector selector;
+	private Thread thread;
+
+	// connections opened but not yet known to the selector.
+	private ConcurrentLinkedQueue<TCPSelectorConnection> toRegister = new ConcurrentLinkedQueue<TCPSelectorConnection>();
+	// connections that might have something to send.
+	private ConcurrentLinkedQueue<TCPSelectorConnection> toPump = new ConcurrentLinkedQueue<TCPSelectorConnection>();
+
+
+	public TCPSelectorTransportLayer() {}
+
+	/**
+	 * @return <code>TCPSelectorConnection</code> if connection successful.  <code>null</code> on failure.
+	 */
+	@Override
+	public NetworkConnection openConnection(String connectionName) {
+		Log.message("Connecting to "+connectionName);
+		TCPSelectorConnection connection = new TCPSelectorConnection(this);
+
+		try {
+			connection.openConnection(connectionName);
+			Log.message("Connect OK");
+		} catch (Exception e) {
+			Log.message("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+
+		return connection;
+	}
+
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return new TCPTransportLayerPanel(this);
+	}
+
+
+	/**
+	 * @return the number of connections served by the selector thread.
+	 */
+	public int getConnectionCount() {
+		Selector s = selector;
+		return s==null ? 0 : s.keys().size();
+	}
+
+
+	/**
+	 * Hand an open connection to the selector thread.  Starts the thread the first time.
+	 * @param connection the connection
+	 * @throws IOException if the selector can't be opened.
+	 */
+	synchronized void register(TCPSelectorConnection connection) throws IOException {
+		if(selector == null) {
+			selector = Selector.open();
+			thread = new Thread(this, "TCPSelectorTransportLayer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		toRegister.add(connection);
+		selector.wakeup();
+	}
+
+
+	/**
+	 * Ask the selector thread to pump a connection.  Safe to call from any thread.
+	 * @param connection the connection
+	 */
+	void requestPump(TCPSelectorConnection connection) {
+		if(connection.pumpRequested.compareAndSet(false, true)) {
+			toPump.add(connection);
+			Selector s = selector;
+			if(s != null) s.wakeup();
+		}
+	}
+
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				Log.error( e.getMessage() );
+				continue;
+			}
+
+			registerWaiting();
+
+			Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+			while(i.hasNext()) {
+				SelectionKey key = i.next();
+				i.remove();
+				TCPSelectorConnection connection = (TCPSelectorConnection)key.attachment();
+				try {
+					if(key.isValid() && key.isReadable()) connection.readReady();
+					if(key.isValid() && key.isWritable()) connection.writeReady();
+				} catch (CancelledKeyException e) {
+					// closed by another thread while we were busy.
+				} catch (IOException e) {
+					Log.error( connection.getRecentConnection()+": "+e.getMessage() );
+					connection.closeConnection();
+				} catch (RuntimeException e) {
+					// a bug in one connection.  Drop this robot, keep serving the rest.
+					failed(connection,e);
+				}
+			}
+
+			pumpWaiting();
+		}
+	}
+
+
+	private void registerWaiting() {
+		TCPSelectorConnection connection;
+		while((connection = toRegister.poll()) != null) {
+			try {
+				connection.registerWith(selector);
+			} catch (IOException e) {
+				Log.error( connection.getRecentConnection()+": "+e.getMessage() );
+				connection.closeConnection();
+			} catch (RuntimeException e) {
+				failed(connection,e);
+			}
+			// anything queued before it was registered.
+			requestPump(connection);
+		}
+	}
+
+
+	private void pumpWaiting() {
+		TCPSelectorConnection connection;
+		while((connection = toPump.poll()) != null) {
+			connection.pumpRequested.set(false);
+			try {
+				connection.pump();
+			} catch (CancelledKeyException e) {
+				// closed by another thread while we were busy.
+			} catch (RuntimeException e) {
+				failed(connection,e);
+			}
+		}
+	}
+
+
+	/**
+	 * Something went wrong with one connection that was not the network's fault, maybe in one of its listeners.
+	 * Close only that connection, so the others carry on.
+	 */
+	void failed(TCPSelectorConnection connection,RuntimeException e) {
+		Log.error( connection.getRecentConnection()+": "+e );
+		e.printStackTrace();
+		try {
+			connection.closeConnection();
+		} catch (RuntimeException e2) {
+			e2.printStackTrace();
+		}
+	}
+}
@@ -6,6 +6,7 @@ import javax.swing.JLabel;
 import javax.swing.JTextField;
 
 import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
 import com.marginallyclever.communications.TransportLayerPanel;
 
 public class TCPTransportLayerPanel extends TransportLayerPanel {
@@ -13,13 +14,13 @@ public class TCPTransportLayerPanel extends TransportLayerPanel {
 	 * 
 	 */
 	private static final long serialVersionUID = -5157947915933861665L;
-	private TCPTransportLayer layer;
+	private TransportLayer layer;
 	private JTextField connectionField;
 	private JTextField portField;
 	private static String portNumber = "9999";
 	private static String connectionName = "192.168.1.183";
 	
-	TCPTransportLayerPanel(TCPTransportLayer tcpLayer) {
+	TCPTransportLayerPanel(TransportLayer tcpLayer) {
 		this.layer=tcpLayer;
 		
 		this.setLayout(new GridLayout(0, 1));
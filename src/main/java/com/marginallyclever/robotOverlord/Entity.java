@@ -102,6 +102,12 @@ public class Entity implements Serializable {
 	
 	public void render(GL2 gl2) {}
 	
+	/**
+	 * Release anything kept on the video card.  Called when the GL context goes away.
+	 * @param gl2 the render context
+	 */
+	public void dispose(GL2 gl2) {}
+	
 
 	public Vector3f getPosition() {		return position;	}
 	public Vector3f getXAxis() {		return xAxis;	}
@@ -557,7 +557,11 @@ implements MouseListener, MouseMotionListener, KeyListener, GLEventListener, Win
     
     
     @Override
-    public void dispose( GLAutoDrawable drawable ) {}
+    public void dispose( GLAutoDrawable drawable ) {
+    	if( world != null ) {
+    		world.dispose( drawable.getGL().getGL2() );
+    	}
+    }
     
     
     @Override
@@ -156,7 +156,10 @@ public class SoundSystem {
 	}
 	
 	
-	static private void playSound(String url) {
+	static private void playSound(String key) {
+		// never started, like when there is no gui.
+		if (prefs == null) return;
+		String url = prefs.get(key, "");
 		if (url.isEmpty()) return;
 
 		try {
@@ -172,18 +175,18 @@ public class SoundSystem {
 	}
 
 	static public void playConnectSound() {
-		playSound(prefs.get("sound_connect", ""));
+		playSound("sound_connect");
 	}
 
 	static public void playDisconnectSound() {
-		playSound(prefs.get("sound_disconnect", ""));
+		playSound("sound_disconnect");
 	}
 
 	static public void playConversionFinishedSound() {
-		playSound(prefs.get("sound_conversion_finished", ""));
+		playSound("sound_conversion_finished");
 	}
 
 	static public void playDrawingFinishedSound() {
-		playSound(prefs.get("sound_drawing_finished", ""));
+		playSound("sound_drawing_finished");
 	}
 }
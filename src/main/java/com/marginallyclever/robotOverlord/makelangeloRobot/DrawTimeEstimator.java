@@ -0,0 +1,229 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
+
+/**
+ * Estimates how long a robot takes to follow a list of moves, the way the firmware motion planner would.
+ * Every move accelerates, cruises and decelerates (a trapezoid).  The speed through each corner is limited by
+ * junction deviation, and the planner looks a fixed number of moves ahead so it can always come to a stop in time.
+ * <p>
+ * Moves are fed in one at a time and forgotten once they leave the look ahead window, so the whole file is
+ * estimated in a single pass with constant memory.
+ * <p>
+ * Distances are mm, feed rates are mm/min, acceleration is mm/s/s.
+ */
+public class DrawTimeEstimator {
+	// number of moves the planner can see ahead.  Like the firmware block buffer.
+	public static final int LOOK_AHEAD = 32;
+	// same as a new MakelangeloRobotSettings.  (mm/s/s and mm/min)
+	public static final double DEFAULT_ACCELERATION = 250;
+	public static final double DEFAULT_MAX_FEED_RATE = 6500;
+	// how far the pen may stray from the corner while turning it without stopping. (mm)
+	public static final double DEFAULT_JUNCTION_DEVIATION = 0.05;
+	// how long the servo takes to turn one degree when lifting or lowering the pen. (s)
+	public static final double SERVO_SECONDS_PER_DEGREE = 0.15/60.0;
+	// moves shorter than this are ignored. (mm)
+	private static final double EPSILON = 1e-6;
+
+	private double acceleration;
+	private double maxFeedRate;
+	private double junctionDeviation;
+
+	// ring buffer of moves waiting to be planned.
+	private double [] length = new double[LOOK_AHEAD];
+	private double [] nominalSpeed = new double[LOOK_AHEAD];
+	private double [] maxEntrySpeed = new double[LOOK_AHEAD];
+	private double [] blockAcceleration = new double[LOOK_AHEAD];
+	private int head;
+	private int count;
+
+	// speed at the start of the oldest move in the buffer (mm/s)
+	private double entrySpeed;
+	// direction and speed of the newest move, for the next junction.
+	private boolean hasPrevious;
+	private double previousUnitX, previousUnitY, previousSpeed;
+
+	private double seconds;
+	private double distance;
+	private int moveCount;
+
+
+	/**
+	 * @param settings the machine whose acceleration and maximum feed rate are used.
+	 */
+	public DrawTimeEstimator(MakelangeloRobotSettings settings) {
+		this(settings.getAcceleration(),settings.getMaxFeedRate(),DEFAULT_JUNCTION_DEVIATION);
+	}
+
+	/**
+	 * @param acceleration mm/s/s
+	 * @param maxFeedRate mm/min
+	 * @param junctionDeviation mm
+	 */
+	public DrawTimeEstimator(double acceleration,double maxFeedRate,double junctionDeviation) {
+		this.acceleration = acceleration;
+		this.maxFeedRate = maxFeedRate;
+		this.junctionDeviation = junctionDeviation;
+		reset();
+	}
+
+	public void reset() {
+		head=0;
+		count=0;
+		entrySpeed=0;
+		hasPrevious=false;
+		seconds=0;
+		distance=0;
+		moveCount=0;
+	}
+
+	/**
+	 * Change the acceleration for moves added after this, as the gcode "A" parameter does.
+	 * @param acceleration mm/s/s
+	 */
+	public void setAcceleration(double acceleration) {
+		this.acceleration = acceleration;
+	}
+
+	/**
+	 * Add a straight move.
+	 * @param dx relative distance (mm)
+	 * @param dy relative distance (mm)
+	 * @param feedRate requested speed (mm/min).  Capped at the machine maximum.
+	 */
+	public void addMove(double dx,double dy,double feedRate) {
+		double len = Math.sqrt(dx*dx + dy*dy);
+		if(len < EPSILON) return;
+		distance += len;
+		++moveCount;
+
+		double speed = Math.min(feedRate, maxFeedRate) / 60.0;
+		if(speed <= 0) speed = maxFeedRate / 60.0;
+		double ux = dx/len;
+		double uy = dy/len;
+
+		double entryMax = 0;
+		if(hasPrevious) {
+			entryMax = Math.min(junctionSpeed(ux,uy), Math.min(speed, previousSpeed));
+		}
+
+		if(count == LOOK_AHEAD) planOldest();
+		int i = (head+count) % LOOK_AHEAD;
+		length[i] = len;
+		nominalSpeed[i] = speed;
+		maxEntrySpeed[i] = entryMax;
+		blockAcceleration[i] = acceleration;
+		++count;
+
+		hasPrevious = true;
+		previousUnitX = ux;
+		previousUnitY = uy;
+		previousSpeed = speed;
+	}
+
+	/**
+	 * Lift or lower the pen.  The planner comes to a full stop first.
+	 * @param degrees how far the servo turns.
+	 */
+	public void addPenMove(double degrees) {
+		stop();
+		seconds += Math.abs(degrees) * SERVO_SECONDS_PER_DEGREE;
+	}
+
+	/**
+	 * Come to a full stop and wait, like G4.
+	 * @param pauseSeconds how long to wait.
+	 */
+	public void addPause(double pauseSeconds) {
+		stop();
+		seconds += pauseSeconds;
+	}
+
+	/**
+	 * Plan every remaining move and come to a full stop.
+	 */
+	public void stop() {
+		while(count>0) planOldest();
+		entrySpeed = 0;
+		hasPrevious = false;
+	}
+
+	/**
+	 * @return the time for every move so far, including stopping at the end. (s)
+	 */
+	public double getSeconds() {
+		stop();
+		return seconds;
+	}
+
+	/**
+	 * @return total length of every move so far (mm)
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return number of moves so far
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Fastest speed through the corner between the newest move and a new direction (mm/s).
+	 * See https://onehossshay.wordpress.com/2011/09/24/improving_grbl_cornering_algorithm/
+	 */
+	private double junctionSpeed(double ux,double uy) {
+		double cosTheta = -(previousUnitX*ux + previousUnitY*uy);
+		if(cosTheta > 0.999999) return 0;  // full reversal
+		if(cosTheta < -0.999999) return Double.MAX_VALUE;  // straight line
+		double sinThetaD2 = Math.sqrt(0.5*(1.0-cosTheta));
+		return Math.sqrt(acceleration * junctionDeviation * sinThetaD2 / (1.0-sinThetaD2));
+	}
+
+	/**
+	 * Decide the exit speed of the oldest move, assuming the newest move in the window must end at a stop.
+	 * Then add the time for the oldest move and drop it from the window.
+	 */
+	private void planOldest() {
+		// backward pass: how fast can each move be entered and still slow down in time?
+		double exit = 0;
+		for(int k=count-1;k>0;--k) {
+			int i = (head+k) % LOOK_AHEAD;
+			exit = Math.min(maxEntrySpeed[i], Math.sqrt(exit*exit + 2.0*blockAcceleration[i]*length[i]));
+		}
+
+		int i = head;
+		double a = blockAcceleration[i];
+		double len = length[i];
+		// forward pass: how fast can this move be left, given how fast it was entered?
+		double exitSpeed = Math.min(exit, Math.sqrt(entrySpeed*entrySpeed + 2.0*a*len));
+		seconds += trapezoidTime(entrySpeed, nominalSpeed[i], exitSpeed, a, len);
+
+		entrySpeed = exitSpeed;
+		head = (head+1) % LOOK_AHEAD;
+		--count;
+	}
+
+	/**
+	 * @param v0 entry speed (mm/s)
+	 * @param v cruise speed (mm/s)
+	 * @param v1 exit speed (mm/s)
+	 * @param a acceleration (mm/s/s)
+	 * @param len distance (mm)
+	 * @return time to cover the distance (s)
+	 */
+	static double trapezoidTime(double v0,double v,double v1,double a,double len) {
+		if(a <= 0) return len / v;
+		v = Math.max(v, Math.max(v0, v1));
+		double accelerateDistance = (v*v - v0*v0) / (2.0*a);
+		double decelerateDistance = (v*v - v1*v1) / (2.0*a);
+		if(accelerateDistance + decelerateDistance <= len) {
+			return (v-v0)/a + (v-v1)/a + (len-accelerateDistance-decelerateDistance)/v;
+		}
+		// never reaches cruise speed (a triangle)
+		double peak = Math.sqrt((2.0*a*len + v0*v0 + v1*v1) / 2.0);
+		return (peak-v0)/a + (peak-v1)/a;
+	}
+}
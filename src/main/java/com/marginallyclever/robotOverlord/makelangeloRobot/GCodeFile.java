@@ -4,8 +4,11 @@ import java.awt.Color;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.prefs.Preferences;
@@ -13,6 +16,7 @@ import java.util.prefs.Preferences;
 import com.jogamp.opengl.GL2;
 import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobot;
 import com.marginallyclever.robotOverlord.makelangeloRobot.drawingtools.DrawingTool;
+import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
 import com.marginallyclever.util.PreferencesHelper;
 
 /**
@@ -29,30 +33,32 @@ public class GCodeFile {
 	private int linesProcessed = 0;
 	private boolean fileOpened = false;
 	private ArrayList<String> lines = new ArrayList<String>();
+	// optimization - files are read into one array of bytes and indexed instead of copied onto the heap one String per line.
+	// Not memory mapped: a live mapping keeps the file locked on Windows until GC, and the app rewrites these files.
+	private byte [] fileText = null;
+	// byte offset of the start of each line in fileText.  one extra entry marks the end of the last line.
+	private int [] lineStarts = null;
+	// lines from fileText are flipped as they are read.
+	private boolean flipFileLines = false;
 	public float estimatedTime = 0;  // ms
 	public float estimatedLength = 0;  // cm
 	public int estimateCount = 0;
 	public float scale = 1.0f;
 	public float feedRate = 1.0f;
 	public boolean changed = false;
+	// length of the little lines that make up an arc (mm)
+	private static final double MM_PER_ARC_SEGMENT = 1;
 
 	private Preferences prefs = PreferencesHelper.getPreferenceNode(PreferencesHelper.MakelangeloPreferenceKey.GRAPHICS);
 	private ReentrantLock lock = new ReentrantLock();
 
 	// optimization - turn gcode into vectors once on load, draw vectors after that.
-	public enum GCodeNodeType {
-		COLOR, POS, TOOL
-	}
-	
-	class GCodeNode {
-		double x1, y1, x2, y2;
-		Color c;
-		int toolID;
-		int lineNumber;
-		GCodeNodeType type;
-	}
-
-	ArrayList<GCodeNode> fastNodes = new ArrayList<GCodeNode>();
+	GCodeSegmentBuffer fastSegments = new GCodeSegmentBuffer();
+	// set while a background load builds the preview.
+	private volatile boolean isLoading = false;
+	private PreviewBuilder previewBuilder = null;
+	// reads lines on its own thread.  Stopped before the file is closed.
+	private volatile GCodeFrameCache frameCache = null;
 
 
 	
@@ -77,6 +83,8 @@ public class GCodeFile {
 		setLinesProcessed(0);
 		setFileOpened(false);
 		setLines(new ArrayList<String>());
+		fileText = null;
+		lineStarts = null;
 		estimatedTime = 0;
 		estimatedLength = 0;
 		estimateCount = 0;
@@ -95,85 +103,82 @@ public class GCodeFile {
 
 
 	/**
-	 * Estimate the time required to execute all the gcode commands.
-	 * Requires machine settings, and should probably be moved into MakelangeloRobot
+	 * Estimate the time required to execute all the gcode commands on a machine with default settings.
 	 */
 	private void estimateDrawTime() {
-		int j;
+		estimateDrawTime(new DrawTimeEstimator(DrawTimeEstimator.DEFAULT_ACCELERATION,
+				DrawTimeEstimator.DEFAULT_MAX_FEED_RATE,
+				DrawTimeEstimator.DEFAULT_JUNCTION_DEVIATION));
+	}
 
-		double px = 0, py = 0, pz = 0, length = 0, x, y, z, ai, aj;
-		feedRate = 1.0f;
-		scale = 0.1f;
-		estimatedTime = 0;
-		estimatedLength = 0;
-		estimateCount = 0;
 
+	/**
+	 * Estimate the time required to execute all the gcode commands on a given machine.
+	 * @param settings the machine's acceleration and top speed.
+	 */
+	public void estimateDrawTime(MakelangeloRobotSettings settings) {
+		estimateDrawTime(new DrawTimeEstimator(settings));
+	}
+
+
+	/**
+	 * Walk every line once and feed the moves to a motion planner.
+	 * Sets estimatedTime (ms), estimatedLength (cm) and estimateCount (moves).
+	 * @param planner the motion planner
+	 */
+	private void estimateDrawTime(DrawTimeEstimator planner) {
+		double px = 0, py = 0, pz = 0, x, y, z, ai, aj;
+		// mm per unit
+		double unitScale = 1;
+		double feed = DrawTimeEstimator.DEFAULT_MAX_FEED_RATE;
+		boolean absMode = true;
+
+		GCodeLexer lexer = new GCodeLexer();
+		FileLine view = new FileLine();
 		int lineCount=0;
-		Iterator<String> iLine = lines.iterator();
-		while (iLine.hasNext()) {
+		int total = getLinesTotal();
+		while (lineCount < total) {
+			lexer.parse(getLineChars(lineCount,view));
 			lineCount++;
-			String line = iLine.next();
-			String[] pieces = line.split(";");  // comments come after a semicolon.
-			if (pieces.length == 0) continue;
-
-			String[] tokens = pieces[0].split("\\s");
-
-			for (j = 0; j < tokens.length; ++j) {
-				if (tokens[j].equals("G20")) scale = 2.54f;  // in->cm
-				if (tokens[j].equals("G21")) scale = 0.10f;  // mm->cm
-				if (tokens[j].startsWith("F")) {
-					try {
-						feedRate = Float.valueOf(tokens[j].substring(1)) * scale;
-					}
-					catch(Exception e) {
-						e.printStackTrace(); 
-					}
-					assert (!Float.isNaN(feedRate) && feedRate != 0);
-				}
+			if (lexer.hasError()) System.out.println("Error on line "+lineCount);
+			if (lexer.getWordCount() == 0) continue;
+
+			if (lexer.hasCode('G',20)) unitScale = 25.4;  // in->mm
+			if (lexer.hasCode('G',21)) unitScale = 1;  // mm
+			if (lexer.hasCode('G',90)) absMode = true;
+			if (lexer.hasCode('G',91)) absMode = false;
+			if (lexer.has('F')) feed = lexer.get('F',feed) * unitScale;
+			if (lexer.has('A')) planner.setAcceleration(lexer.get('A',0));
+
+			if (lexer.startsWith('G',4)) {
+				// dwell
+				planner.addPause(lexer.get('P',0)/1000.0 + lexer.get('S',0));
+				continue;
 			}
 
+			boolean isLine = lexer.startsWith('G',0) || lexer.startsWith('G',1);
+			boolean isArc = lexer.startsWith('G',2) || lexer.startsWith('G',3);
+			if (!isLine && !isArc) continue;
+
 			x = px;
 			y = py;
 			z = pz;
-			ai = px;
-			aj = py;
-			try {
-				for (j = 1; j < tokens.length; ++j) {
-					if (tokens[j].startsWith("X")) x = Float.valueOf(tokens[j].substring(1)) * scale;
-					if (tokens[j].startsWith("Y")) y = Float.valueOf(tokens[j].substring(1)) * scale;
-					if (tokens[j].startsWith("Z")) z = Float.valueOf(tokens[j].substring(1)) * scale;
-					if (tokens[j].startsWith("I")) ai = px + Float.valueOf(tokens[j].substring(1)) * scale;
-					if (tokens[j].startsWith("J")) aj = py + Float.valueOf(tokens[j].substring(1)) * scale;
-				}
-			} catch(Exception e) {
-				System.out.println("Error on line "+lineCount);
-				e.printStackTrace();
-			}
+			if (lexer.has('X')) x = lexer.get('X',0) * unitScale + (absMode ? 0 : px);
+			if (lexer.has('Y')) y = lexer.get('Y',0) * unitScale + (absMode ? 0 : py);
+			if (lexer.has('Z')) z = lexer.get('Z',0) + (absMode ? 0 : pz);  // degrees
 
 			if (z != pz) {
 				// pen up/down action
-				estimatedTime += (z - pz) / feedRate;  // seconds?
-				assert (!Float.isNaN(estimatedTime));
+				planner.addPenMove(z - pz);
 			}
 
-			String firstToken = tokens[0];
-			if (firstToken.equals("G00") || firstToken.equals("G0") ||
-					firstToken.equals("G01") || firstToken.equals("G1")) {
-				// draw a line
-				double ddx = x - px;
-				double ddy = y - py;
-				length = Math.sqrt(ddx * ddx + ddy * ddy);
-				estimatedTime += length / feedRate;
-				assert (!Float.isNaN(estimatedTime));
-				estimatedLength += length;
-				++estimateCount;
-				px = x;
-				py = y;
-				pz = z;
-			} else if (firstToken.equals("G02") || firstToken.equals("G2") ||
-					firstToken.equals("G03") || firstToken.equals("G3")) {
-				// draw an arc
-				int dir = (firstToken.equals("G02") || firstToken.equals("G2")) ? -1 : 1;
+			if (isLine) {
+				planner.addMove(x - px, y - py, feed);
+			} else {
+				// draw an arc as a series of short lines, the same as the firmware.
+				ai = px + lexer.get('I',0) * unitScale;
+				aj = py + lexer.get('J',0) * unitScale;
+				int dir = lexer.startsWith('G',2) ? -1 : 1;
 				double dx = px - ai;
 				double dy = py - aj;
 				double radius = Math.sqrt(dx * dx + dy * dy);
@@ -186,42 +191,100 @@ public class GCodeFile {
 				if (dir > 0 && theta < 0) angle2 += 2.0 * Math.PI;
 				else if (dir < 0 && theta > 0) angle1 += 2.0 * Math.PI;
 
-				theta = Math.abs(angle2 - angle1);
+				theta = angle2 - angle1;
 				// length of arc=theta*r (http://math.about.com/od/formulas/ss/surfaceareavol_9.htm)
-				length = theta * radius;
-				estimatedTime += length / feedRate;
-				assert (!Float.isNaN(estimatedTime));
-				estimatedLength += length;
-				++estimateCount;
-				px = x;
-				py = y;
-				pz = z;
+				int segments = (int)Math.ceil(Math.abs(theta) * radius / MM_PER_ARC_SEGMENT);
+				double sx = px, sy = py;
+				for (int k = 1; k < segments; ++k) {
+					double angle3 = angle1 + theta * k / segments;
+					double nx = ai + Math.cos(angle3) * radius;
+					double ny = aj + Math.sin(angle3) * radius;
+					planner.addMove(nx - sx, ny - sy, feed);
+					sx = nx;
+					sy = ny;
+				}
+				planner.addMove(x - sx, y - sy, feed);
 			}
+			px = x;
+			py = y;
+			pz = z;
 		}  // for ( each instruction )
-		assert (!Float.isNaN(estimatedTime));
-		// processing time for each instruction
-		estimatedTime += estimateCount * 0.007617845117845f;
-		// conversion to ms?
-		estimatedTime *= 10000 * 2;
+
+		estimatedTime = (float)(planner.getSeconds() * 1000.0);
+		estimatedLength = (float)(planner.getDistance() * 0.1);
+		estimateCount = planner.getMoveCount();
+		scale = (float)unitScale;
+		feedRate = (float)feed;
 	}
 
 
 	// close the file, clear the preview tab
 	public void closeFile() {
+		GCodeFrameCache cache = frameCache;
+		if(cache != null) cache.stop();
+		frameCache = null;
+
 		if (isFileOpened() == true) {
 			setFileOpened(false);
 			lines.clear();
 		}
+		// the text might have been read but not indexed yet.
+		fileText = null;
+		lineStarts = null;
+	}
+
+	/**
+	 * @param cache the cache preparing lines of this file.  Stopped when the file is closed.
+	 */
+	void setFrameCache(GCodeFrameCache cache) {
+		frameCache = cache;
 	}
 
+	/**
+	 * Read the file and estimate the draw time.
+	 * @param in source of the gcode
+	 * @param flipHorizontally mirror the drawing for reverse-on-glass.
+	 * @throws IOException if the stream cannot be read.
+	 */
 	public void load(InputStream in,boolean flipHorizontally) throws IOException {
+		readLines(in,flipHorizontally);
+		estimateDrawTime();
+	}
+
+	/**
+	 * Read the lines without estimating anything.  Files are read whole and indexed.  Any other kind of stream is read
+	 * one String per line.
+	 * The stream can be closed as soon as this returns.
+	 * @param in source of the gcode
+	 * @param flipHorizontally mirror the drawing for reverse-on-glass.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public void readLines(InputStream in,boolean flipHorizontally) throws IOException {
+		readText(in,flipHorizontally);
+		indexLines();
+	}
+
+	/**
+	 * First half of readLines().  Copies a file into memory without looking at it, so that indexLines() can run later
+	 * on another thread.  Any other kind of stream is read one String per line right away.
+	 * The stream can be closed as soon as this returns.
+	 * @param in source of the gcode
+	 * @param flipHorizontally mirror the drawing for reverse-on-glass.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public void readText(InputStream in,boolean flipHorizontally) throws IOException {
+		if(in instanceof FileInputStream) {
+			readFromChannel(((FileInputStream)in).getChannel(),flipHorizontally);
+			return;
+		}
 		Scanner scanner = new Scanner(in);
 		loadFromScanner(scanner,flipHorizontally);
 	}
 
 	public void load(String filename,boolean flipHorizontally) throws IOException {
-		Scanner scanner = new Scanner(new FileInputStream(filename));	
-		loadFromScanner(scanner,flipHorizontally);
+		try (final FileInputStream in = new FileInputStream(filename)) {
+			load(in,flipHorizontally);
+		}
 	}
 	
 	
@@ -234,23 +297,7 @@ public class GCodeFile {
 			while (scanner.hasNextLine()) {
 				String line = scanner.nextLine();
 				if(flipHorizontally) {
-					// find X, change to X-
-					// find X--, change to X-
-					line = line.replace("X","X-");
-					line = line.replace("X--","X");
-					// do it again for I, the X portion of arc centers.
-					if(!line.contains("M101")) {
-						line = line.replace("I","I-");
-						line = line.replace("I--","I");
-					}
-					// reverse the direction of arcs?
-					if(line.contains("G02") || line.contains("G2")) {
-						line = line.replace("G02","G03");
-						line = line.replace("G2","G3");
-					} else if(line.contains("G03") || line.contains("G3")) {
-						line = line.replace("G03","G02");
-						line = line.replace("G3","G2");
-					}
+					line = flipLine(line);
 				}
 				lines.add(line);
 				setLinesTotal(getLinesTotal() + 1);
@@ -259,9 +306,162 @@ public class GCodeFile {
 			scanner.close();
 		}
 		setFileOpened(true);
-		estimateDrawTime();
 		changed=true;
 	}
+	
+	
+	/**
+	 * Read the rest of the file into one array.  The file is not used after this returns.
+	 * @param channel the open file
+	 * @param flipHorizontally mirror the drawing for reverse-on-glass.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private void readFromChannel(FileChannel channel,boolean flipHorizontally) throws IOException {
+		closeFile();
+
+		long start = channel.position();
+		long size = channel.size() - start;
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("File too large to load ("+size+" bytes)");
+		}
+		byte [] text = new byte[(int)size];
+		ByteBuffer buffer = ByteBuffer.wrap(text);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) < 0) break;
+		}
+		// the file may have shrunk since size() was called.
+		if(buffer.position() < text.length) text = Arrays.copyOf(text, buffer.position());
+
+		setLines(new ArrayList<String>());
+		fileText = text;
+		lineStarts = null;
+		flipFileLines = flipHorizontally;
+	}
+	
+	
+	/**
+	 * Second half of readLines().  Find the start of every line read by readText().  Does nothing if the lines were
+	 * read one String at a time.
+	 */
+	public void indexLines() {
+		byte [] text = fileText;
+		if(text==null || lineStarts!=null) return;
+		int limit = text.length;
+
+		int [] starts = new int[1024];
+		int count = 0;
+		int lineStart = 0;
+		for(int i=0;i<limit;++i) {
+			if(text[i]=='\n') {
+				if(count+2 > starts.length) starts = Arrays.copyOf(starts, starts.length*2);
+				starts[count++] = lineStart;
+				lineStart = i+1;
+			}
+		}
+		if(count+2 > starts.length) starts = Arrays.copyOf(starts, starts.length+2);
+		// last line might not end with a newline.
+		if(lineStart < limit) starts[count++] = lineStart;
+		starts[count] = limit;
+
+		lineStarts = Arrays.copyOf(starts, count+1);
+		setLinesTotal(count);
+		setFileOpened(true);
+		// a progressive load is already building the preview.
+		if(!isLoading) changed=true;
+	}
+	
+	
+	/**
+	 * Mirror one line of gcode for reverse-on-glass.
+	 * @param line the original line
+	 * @return the flipped line
+	 */
+	private String flipLine(String line) {
+		// find X, change to X-
+		// find X--, change to X-
+		line = line.replace("X","X-");
+		line = line.replace("X--","X");
+		// do it again for I, the X portion of arc centers.
+		if(!line.contains("M101")) {
+			line = line.replace("I","I-");
+			line = line.replace("I--","I");
+		}
+		// reverse the direction of arcs?
+		if(line.contains("G02") || line.contains("G2")) {
+			line = line.replace("G02","G03");
+			line = line.replace("G2","G3");
+		} else if(line.contains("G03") || line.contains("G3")) {
+			line = line.replace("G03","G02");
+			line = line.replace("G3","G2");
+		}
+		return line;
+	}
+	
+	
+	/**
+	 * random access to any line in the file.  Does not move the internal pointer.
+	 * @param lineNumber 0...getLinesTotal()-1
+	 * @return the text of the line, without the line ending.
+	 */
+	public String getLine(int lineNumber) {
+		if(fileText==null) return lines.get(lineNumber);
+		
+		int start = lineStarts[lineNumber];
+		int end = lineStarts[lineNumber+1];
+		while(end>start && (fileText[end-1]=='\n' || fileText[end-1]=='\r')) --end;
+		
+		String line = new String(fileText,start,end-start,StandardCharsets.UTF_8);
+		return flipFileLines ? flipLine(line) : line;
+	}
+	
+	
+	/**
+	 * A window onto one line of fileText, so the lexer can read it without making a String.
+	 * Bytes are read as ASCII, which is all gcode needs outside of comments.
+	 */
+	private static class FileLine implements CharSequence {
+		byte [] text;
+		int start, end;
+		
+		@Override
+		public int length() {
+			return end-start;
+		}
+		
+		@Override
+		public char charAt(int index) {
+			return (char)(text[start+index] & 0xFF);
+		}
+		
+		@Override
+		public CharSequence subSequence(int s, int e) {
+			return toString().substring(s, e);
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(length());
+			for(int i=start;i<end;++i) sb.append((char)(text[i] & 0xFF));
+			return sb.toString();
+		}
+	}
+	
+	
+	/**
+	 * Same as getLine() but avoids making a String when the file was read whole.
+	 * @param lineNumber 0...getLinesTotal()-1
+	 * @param view reused for every call.  Only valid until the next call.
+	 * @return the text of the line, which may include the line ending.
+	 */
+	private CharSequence getLineChars(int lineNumber,FileLine view) {
+		byte [] text = fileText;
+		if(text==null || flipFileLines) return getLine(lineNumber);
+		
+		view.text = text;
+		view.start = lineStarts[lineNumber];
+		view.end = lineStarts[lineNumber+1];
+		return view;
+	}
 
 
 	public int findLastPenUpBefore(int startAtLine,String toMatch) {
@@ -271,7 +471,7 @@ public class GCodeFile {
 		
 		toMatch = toMatch.trim();
 		while(x>1) {
-			String line = lines.get(x).trim();
+			String line = getLine(x).trim();
 			if(line.equals(toMatch)) {
 				return x;
 			}
@@ -298,10 +498,6 @@ public class GCodeFile {
 		this.linesTotal = linesTotal;
 	}
 
-	public ArrayList<String> getLines() {
-		return lines;
-	}
-
 	private void setLines(ArrayList<String> lines) {
 		this.lines = lines;
 	}
@@ -320,7 +516,7 @@ public class GCodeFile {
 	public String nextLine() {
 		int lineNumber = getLinesProcessed();
 		setLinesProcessed(lineNumber + 1);
-		String line = lines.get(lineNumber).trim();  // TODO use an iterator, faster.
+		String line = getLine(lineNumber).trim();
 		return line;
 	}
 
@@ -333,7 +529,7 @@ public class GCodeFile {
 	}
 
 	public boolean isLoaded() {
-		return (isFileOpened() && lines != null && lines.size() > 0);
+		return (isFileOpened() && !isLoading && getLinesTotal() > 0);
 	}
 
 	public void render( GL2 gl2, MakelangeloRobot robot ) {
@@ -354,229 +550,258 @@ public class GCodeFile {
 
 		int lookAhead=320;
 
-		DrawingTool tool = robot.getSettings().getTool(0);
-		gl2.glColor3f(0, 0, 0);
-
 		boolean drawAllWhileRunning = false;
 		if (robot.isRunning()) drawAllWhileRunning = prefs.getBoolean("Draw all while running", true);
-			
-		// draw image
-		if (fastNodes.size() > 0) {
-			// draw the nodes
-			Iterator<GCodeNode> nodes = fastNodes.iterator();
-			while (nodes.hasNext()) {
-				GCodeNode n = nodes.next();
-
-				if (robot.isRunning()) {
-					if (n.lineNumber < linesProcessed) {
-						gl2.glColor3f(1, 0, 0);
-						//g2d.setColor(Color.RED);
-						if(n.type==GCodeNodeType.POS) {
-							robot.setGondolaX((float)n.x1*10);
-							robot.setGondolaY((float)n.y1*10);
-						}
-					} else if (n.lineNumber <= linesProcessed + lookAhead) {
-						gl2.glColor3f(0, 1, 0);
-						//g2d.setColor(Color.GREEN);
-					} else if (drawAllWhileRunning == false) {
-						break;
-					}
-				}
 
-				switch (n.type) {
-				case TOOL:
-					tool = robot.getSettings().getTool(n.toolID);
-					gl2.glLineWidth(tool.getDiameter());
-					break;
-				case COLOR:
-					if (!robot.isRunning() || n.lineNumber > linesProcessed + lookAhead) {
-						//g2d.setColor(n.c);
-						gl2.glColor3f(n.c.getRed() / 255.0f, n.c.getGreen() / 255.0f, n.c.getBlue() / 255.0f);
-					}
-					break;
-				default:
-					tool.drawLine(gl2, n.x1, n.y1, n.x2, n.y2);
-					break;
-				}
-			}
-		}
+		robot.getPreviewRenderer().render(gl2, robot, fastSegments, linesProcessed, lookAhead, drawAllWhileRunning);
 	}
 
 	
-	private void addNodePos(int i, double x1, double y1, double x2, double y2) {
-		GCodeNode n = new GCodeNode();
-		n.lineNumber = i;
-		n.x1 = x1;
-		n.x2 = x2;
-		n.y1 = y1;
-		n.y2 = y2;
-		n.type = GCodeNodeType.POS;
-
-		fastNodes.add(n);
+	public void emptyNodeBuffer() {
+		while(lock.isLocked());
+		lock.lock();
+		fastSegments.clear();
+		lock.unlock();
 	}
 
-	private void addNodeColor(int i, Color c) {
-		GCodeNode n = new GCodeNode();
-		n.lineNumber = i;
-		n.c = c;
-		n.type = GCodeNodeType.COLOR;
+	void optimizeNodes( MakelangeloRobot robot ) {
+		// a background load is building the preview.
+		if (isLoading) return;
+		if (!fastSegments.isEmpty() && changed == false) return;
+		changed = false;
+		fastSegments.clear();
 
-		fastNodes.add(n);
+		PreviewBuilder builder = new PreviewBuilder(robot);
+		builder.build(getLinesTotal(), fastSegments);
 	}
-
-	private void addNodeTool(int i, int tool_id) {
-		GCodeNode n = new GCodeNode();
-		n.lineNumber = i;
-		n.toolID = tool_id;
-		n.type = GCodeNodeType.TOOL;
-
-		fastNodes.add(n);
+	
+	
+	/**
+	 * Start building the preview a few lines at a time, usually from a background thread.
+	 * Until endProgressiveLoad() the file will not run and render() draws whatever has been built so far.
+	 * @param robot the robot whose settings decide how the preview looks.
+	 */
+	public void beginProgressiveLoad(MakelangeloRobot robot) {
+		lock.lock();
+		try {
+			isLoading = true;
+			changed = false;
+			fastSegments.clear();
+			previewBuilder = new PreviewBuilder(robot);
+		}
+		finally {
+			lock.unlock();
+		}
 	}
+	
+	
+	/**
+	 * Build the preview for the next few lines and publish the new segments to the renderer.
+	 * @param count how many lines to read
+	 * @return the number of lines read so far.
+	 */
+	public int loadPreviewLines(int count) {
+		int end = (int)Math.min(getLinesTotal(), (long)previewBuilder.nextLine+count);
+		GCodeSegmentBuffer staging = new GCodeSegmentBuffer();
+		previewBuilder.build(end, staging);
 
-	public void emptyNodeBuffer() {
-		while(lock.isLocked());
 		lock.lock();
-		fastNodes.clear();
-		lock.unlock();
+		try {
+			fastSegments.append(staging);
+		}
+		finally {
+			lock.unlock();
+		}
+		return end;
 	}
+	
+	
+	/**
+	 * Finish a progressive load.  The file is ready to run.
+	 */
+	public void endProgressiveLoad() {
+		MakelangeloRobot robot = previewBuilder.robot;
+		previewBuilder = null;
+		estimateDrawTime(robot.getSettings());
+		lock.lock();
+		try {
+			// the preview is complete.  Don't let the first render() build it again.
+			changed = false;
+			isLoading = false;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	
+	/**
+	 * @return true while a progressive load is building the preview.
+	 */
+	public boolean isLoading() {
+		return isLoading;
+	}
+	
+	
+	/**
+	 * Turns lines of gcode into preview segments.  Remembers where it stopped so the preview can be built in pieces.
+	 */
+	private class PreviewBuilder {
+		// arc smoothness - increase to make more smooth and run slower.
+		static final double STEPS_PER_DEGREE=1;
 
-	private void optimizeNodes( MakelangeloRobot robot ) {
-		if (!fastNodes.isEmpty() && changed == false) return;
-		changed = false;
-
-		DrawingTool tool = robot.getSettings().getTool(0);
+		MakelangeloRobot robot;
+		DrawingTool tool;
+		GCodeLexer lexer = new GCodeLexer();
+		FileLine view = new FileLine();
+		int nextLine = 0;
 
 		float drawScale = 0.1f;
-		// arc smoothness - increase to make more smooth and run slower.
-		double STEPS_PER_DEGREE=1;
-		
-		
 		float px = 0, py = 0, pz = 90;
-		float x, y, z, ai, aj;
-		int i, j;
 		boolean absMode = true;
 		boolean isLifted=true;
-		String tool_change = "M06 T";
 		Color tool_color = Color.BLACK;
-
-		Iterator<String> commands = getLines().iterator();
-		i = 0;
-		while (commands.hasNext()) {
-			String line = commands.next();
-			++i;
-			String[] pieces = line.split(";");
-			if (pieces.length == 0) continue;
-
-			if (line.startsWith(tool_change)) {
-				String numberOnly = pieces[0].substring(tool_change.length()).replaceAll("[^0-9]", "");
-				int id = (int) Integer.valueOf(numberOnly, 10);
-				addNodeTool(i, id);
-				switch (id) {
-				case 1:		tool_color = Color.RED;		break;
-				case 2:		tool_color = Color.GREEN;	break;
-				case 3:		tool_color = Color.BLUE;	break;
-				default:	tool_color = Color.BLACK;	break;
+		// style of the next segment
+		int nodeColor = 0;
+		int nodeToolID = 0;
+		
+		PreviewBuilder(MakelangeloRobot robot) {
+			this.robot = robot;
+			tool = robot.getSettings().getTool(0);
+		}
+	
+		private void addNodePos(GCodeSegmentBuffer out,int i, double x1, double y1, double x2, double y2) {
+			out.add(i, (float)x1, (float)y1, (float)x2, (float)y2, GCodeSegmentBuffer.packStyle(nodeColor, nodeToolID));
+		}
+	
+		private void addNodeColor(int i, Color c) {
+			nodeColor = c.getRGB() & 0xFFFFFF;
+		}
+	
+		private void addNodeTool(int i, int tool_id) {
+			nodeToolID = tool_id;
+		}
+		
+		/**
+		 * read lines up to (but not including) endLine.
+		 * @param endLine stop here
+		 * @param out where to put the segments
+		 */
+		void build(int endLine,GCodeSegmentBuffer out) {
+			float x, y, z, ai, aj;
+			int i = nextLine;
+			while (i < endLine) {
+				lexer.parse(getLineChars(i,view));
+				++i;
+				if (lexer.getWordCount() == 0) continue;
+	
+				if (lexer.startsWith('M',6)) {
+					int id = (int)lexer.get('T',0);
+					addNodeTool(i, id);
+					switch (id) {
+					case 1:		tool_color = Color.RED;		break;
+					case 2:		tool_color = Color.GREEN;	break;
+					case 3:		tool_color = Color.BLUE;	break;
+					default:	tool_color = Color.BLACK;	break;
+					}
+					continue;
 				}
-				continue;
-			}
-
-			String[] tokens = pieces[0].split("\\s");
-			if (tokens.length == 0) continue;
-
-			// have we changed scale?
-			// what are our coordinates?
-			x = px;
-			y = py;
-			z = pz;
-			ai = px;
-			aj = py;
-			for (j = 0; j < tokens.length; ++j) {
-				if (tokens[j].equals("G20")) drawScale = 2.54f; // in->cm
-				else if (tokens[j].equals("G21")) drawScale = 0.10f; // mm->cm
-				else if (tokens[j].equals("G90")) {
+	
+				// have we changed scale?
+				if (lexer.hasCode('G',20)) drawScale = 2.54f; // in->cm
+				else if (lexer.hasCode('G',21)) drawScale = 0.10f; // mm->cm
+				if (lexer.hasCode('G',90)) {
 					absMode = true;
-					break;
-				} else if (tokens[j].equals("G91")) {
+					continue;
+				}
+				if (lexer.hasCode('G',91)) {
 					absMode = false;
-					break;
-				} else if (tokens[j].equals("G54")) break;
-				else if (tokens[j].startsWith("X")) {
-					float tx = Float.valueOf(tokens[j].substring(1)) * drawScale;
+					continue;
+				}
+				if (lexer.hasCode('G',54)) continue;
+	
+				// what are our coordinates?
+				x = px;
+				y = py;
+				z = pz;
+				ai = px;
+				aj = py;
+				if (lexer.has('X')) {
+					float tx = (float)lexer.get('X',0) * drawScale;
 					x = absMode ? tx : x + tx;
-				} else if (tokens[j].startsWith("Y")) {
-					float ty = Float.valueOf(tokens[j].substring(1)) * drawScale;
+				}
+				if (lexer.has('Y')) {
+					float ty = (float)lexer.get('Y',0) * drawScale;
 					y = absMode ? ty : y + ty;
-				} else if (tokens[j].startsWith("Z")) {
-					float tz = z = Float.valueOf(tokens[j].substring(1));// * drawScale;
+				}
+				if (lexer.has('Z')) {
+					float tz = (float)lexer.get('Z',0);// * drawScale;
 					z = absMode ? tz : z + tz;
 					
 					isLifted = (tool.getPenUpAngle()==z);
 				}
-				if (tokens[j].startsWith("I")) ai = Float.valueOf(tokens[j].substring(1)) * drawScale;
-				if (tokens[j].startsWith("J")) aj = Float.valueOf(tokens[j].substring(1)) * drawScale;
-			}
-			if (j < tokens.length) continue;
-
-			if (isLifted) {
-				if (robot.getShowPenUp() == false) {
-					px = x;
-					py = y;
-					pz = z;
-					continue;
+				if (lexer.has('I')) ai = (float)lexer.get('I',0) * drawScale;
+				if (lexer.has('J')) aj = (float)lexer.get('J',0) * drawScale;
+	
+				if (isLifted) {
+					if (robot.getShowPenUp() == false) {
+						px = x;
+						py = y;
+						pz = z;
+						continue;
+					}
+					addNodeColor(i, Color.BLUE);
+				} else {
+					addNodeColor(i, tool_color);  // TODO use actual pen color
 				}
-				addNodeColor(i, Color.BLUE);
-			} else {
-				addNodeColor(i, tool_color);  // TODO use actual pen color
-			}
-
-			// what kind of motion are we going to make?
-			String firstToken = tokens[0];
-			if (firstToken.equals("G00") || firstToken.equals("G0") ||
-				firstToken.equals("G01") || firstToken.equals("G1")) {
-				addNodePos(i, px, py, x, y);
-			} else if (firstToken.equals("G02") || firstToken.equals("G2") ||
-					firstToken.equals("G03") || firstToken.equals("G3")) {
-				// draw an arc
-
-				// clockwise or counter-clockwise?
-				int dir = (firstToken.equals("G02") || firstToken.equals("G2")) ? -1 : 1;
-
-				double dx = px - ai;
-				double dy = py - aj;
-				double radius = Math.sqrt(dx * dx + dy * dy);
-
-				// find angle of arc (sweep)
-				double angle1 = atan3(dy, dx);
-				double angle2 = atan3(y - aj, x - ai);
-				double theta = angle2 - angle1;
-
-				if (dir > 0 && theta < 0) angle2 += Math.PI * 2.0;
-				else if (dir < 0 && theta > 0) angle1 += Math.PI * 2.0;
-
-				theta = angle2 - angle1;
-
-				double len = Math.abs(theta) * radius;
-				double segments = len * STEPS_PER_DEGREE * 2.0;
-				double nx, ny, angle3, scale;
-
-				// Draw the arc from a lot of little line segments.
-				for (int k = 0; k < segments; ++k) {
-					scale = (double) k / segments;
-					angle3 = theta * scale + angle1;
-					nx = ai + Math.cos(angle3) * radius;
-					ny = aj + Math.sin(angle3) * radius;
-
-					addNodePos(i, px, py, nx, ny);
-					px = (float) nx;
-					py = (float) ny;
+	
+				// what kind of motion are we going to make?
+				if (lexer.startsWith('G',0) || lexer.startsWith('G',1)) {
+					addNodePos(out, i, px, py, x, y);
+				} else if (lexer.startsWith('G',2) || lexer.startsWith('G',3)) {
+					// draw an arc
+	
+					// clockwise or counter-clockwise?
+					int dir = lexer.startsWith('G',2) ? -1 : 1;
+	
+					double dx = px - ai;
+					double dy = py - aj;
+					double radius = Math.sqrt(dx * dx + dy * dy);
+	
+					// find angle of arc (sweep)
+					double angle1 = atan3(dy, dx);
+					double angle2 = atan3(y - aj, x - ai);
+					double theta = angle2 - angle1;
+	
+					if (dir > 0 && theta < 0) angle2 += Math.PI * 2.0;
+					else if (dir < 0 && theta > 0) angle1 += Math.PI * 2.0;
+	
+					theta = angle2 - angle1;
+	
+					double len = Math.abs(theta) * radius;
+					double segments = len * STEPS_PER_DEGREE * 2.0;
+					double nx, ny, angle3, scale;
+	
+					// Draw the arc from a lot of little line segments.
+					for (int k = 0; k < segments; ++k) {
+						scale = (double) k / segments;
+						angle3 = theta * scale + angle1;
+						nx = ai + Math.cos(angle3) * radius;
+						ny = aj + Math.sin(angle3) * radius;
+	
+						addNodePos(out, i, px, py, nx, ny);
+						px = (float) nx;
+						py = (float) ny;
+					}
+					addNodePos(out, i, px, py, x, y);
 				}
-				addNodePos(i, px, py, x, y);
-			}
-
-			px = x;
-			py = y;
-			pz = z;
-		}  // for ( each instruction )
+	
+				px = x;
+				py = y;
+				pz = z;
+			}  // for ( each instruction )
+			nextLine = i;
+		}
 	}
 }
 
@@ -0,0 +1,172 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prepares the lines of a GCodeFile for the robot before they are needed: numbered, checksummed and encoded, exactly
+ * as MakelangeloRobot.tweakAndSendLine() would send them.  A background thread keeps LINES_AHEAD lines ready past the
+ * last line taken, so sending a line is a plain buffer write.
+ * <p>
+ * The last LINES_BEHIND lines taken stay in the cache, so a line the robot asks for again is not prepared twice.
+ * A line that isn't ready when it is needed is prepared on the spot.
+ */
+public class GCodeFrameCache implements Runnable {
+	public static final int LINES_AHEAD = 2048;
+	public static final int LINES_BEHIND = 1024;
+
+	/**
+	 * One line of the file, ready to send.
+	 */
+	public static class Frame {
+		public final int lineNumber;
+		// the line as it was in the file, trimmed.
+		public final String line;
+		// null if the line needs tweakAndSendLine().
+		public final String text;
+		public final byte [] bytes;
+
+		Frame(int lineNumber,String line,String text) {
+			this.lineNumber = lineNumber;
+			this.line = line;
+			this.text = text;
+			this.bytes = text==null ? null : (text+"\n").getBytes();
+		}
+
+		/**
+		 * @return true if this line can be sent as is.  Otherwise tweakAndSendLine() has to look at it.
+		 */
+		public boolean isReady() {
+			return bytes != null;
+		}
+	}
+
+	private GCodeFile gcode;
+	private AtomicReferenceArray<Frame> frames;
+	private int mask;
+
+	// one past the last line taken
+	private volatile int cursor;
+	// the next line the background thread will prepare
+	private volatile int prepared;
+	private volatile boolean running;
+	// set by stop().  The thread is never started again.
+	private volatile boolean stopped;
+	private volatile Thread thread;
+
+
+	/**
+	 * @param gcode the file to prepare.  Its lines must not change while this cache is in use.
+	 */
+	public GCodeFrameCache(GCodeFile gcode) {
+		this.gcode = gcode;
+		// closeFile() stops this first, so the thread never reads a closed file.
+		gcode.setFrameCache(this);
+		int size = Integer.highestOneBit(LINES_AHEAD+LINES_BEHIND-1)<<1;
+		frames = new AtomicReferenceArray<Frame>(size);
+		mask = size-1;
+	}
+
+
+	/**
+	 * Take a line to send.  Starts the background thread the first time.
+	 * @param lineNumber 0...gcode.getLinesTotal()-1
+	 * @return the line, ready to send.
+	 */
+	public Frame get(int lineNumber) {
+		Frame frame = frames.get(lineNumber & mask);
+		if(frame == null || frame.lineNumber != lineNumber) {
+			frame = prepare(lineNumber);
+			frames.set(lineNumber & mask, frame);
+		}
+
+		cursor = lineNumber+1;
+		if(!running) {
+			if(!stopped) start();
+		} else if(prepared-cursor < LINES_AHEAD/2 || prepared < cursor) {
+			Thread t = thread;
+			if(t != null) LockSupport.unpark(t);
+		}
+		return frame;
+	}
+
+
+	/**
+	 * Stop the background thread for good and wait for it to finish.  Call when the file is no longer needed.
+	 * Lines asked for after this are prepared on the spot.
+	 */
+	public void stop() {
+		boolean interrupted = false;
+		synchronized(this) {
+			stopped = true;
+			running = false;
+			Thread t = thread;
+			thread = null;
+			if(t == null || t == Thread.currentThread()) return;
+			LockSupport.unpark(t);
+			// a cancelled SwingWorker closes its file while interrupted.  Wait anyway.
+			while(t.isAlive()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+
+	private synchronized void start() {
+		if(running || stopped) return;
+		running = true;
+		thread = new Thread(this, "GCodeFrameCache");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+
+	@Override
+	public void run() {
+		int next = cursor;
+		while(running && thread == Thread.currentThread()) {
+			int c = cursor;
+			int end = (int)Math.min(gcode.getLinesTotal(), (long)c+LINES_AHEAD);
+			// jumped forward, or back further than the cache remembers.
+			if(next < c || !isCached(c)) next = c;
+
+			while(next < end && running) {
+				if(!isCached(next)) frames.set(next & mask, prepare(next));
+				prepared = ++next;
+				// the robot went somewhere else.  Start over from there.
+				if(cursor < c || cursor > next) break;
+			}
+			prepared = next;
+
+			if(next >= end && cursor == c) {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+
+	private boolean isCached(int lineNumber) {
+		Frame frame = frames.get(lineNumber & mask);
+		return frame != null && frame.lineNumber == lineNumber;
+	}
+
+
+	/**
+	 * Do what tweakAndSendLine() does to a line, if it can be done ahead of time.
+	 */
+	private Frame prepare(int lineNumber) {
+		String line = gcode.getLine(lineNumber).trim();
+
+		// something to do besides sending.  Let tweakAndSendLine() handle it.
+		if (MakelangeloRobot.isToolChange(line)) return new Frame(lineNumber,line,null);
+		// null if too short to number, which tweakAndSendLine() also handles.
+		return new Frame(lineNumber,line,MakelangeloRobot.frameLine(line,lineNumber));
+	}
+
+}
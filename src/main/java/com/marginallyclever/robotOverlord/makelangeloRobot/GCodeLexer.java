@@ -0,0 +1,151 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+/**
+ * Turns one line of gcode into a list of words (a letter and a number) without making any objects.
+ * Reuse the same lexer for every line.  Each call to parse() replaces the previous results.
+ * Comments (anything after a semicolon) are ignored.
+ * <p>
+ * "G00 X10.5 Y-3 ; go home" becomes three words: G=0, X=10.5, Y=-3.
+ * Words do not need to be separated by whitespace, so "G0X10.5Y-3" works too.
+ * <p>
+ * Not thread safe.  Give each thread its own lexer.
+ */
+public class GCodeLexer {
+	public static final int MAX_WORDS = 32;
+
+	private char [] letters = new char[MAX_WORDS];
+	private double [] values = new double[MAX_WORDS];
+	private int wordCount;
+	private boolean hasError;
+
+
+	/**
+	 * Split a line into words.
+	 * @param line the text to read.  Nothing is copied.
+	 * @return the number of words found.
+	 */
+	public int parse(CharSequence line) {
+		wordCount=0;
+		hasError=false;
+
+		int length = line.length();
+		int i=0;
+		while(i<length) {
+			char c = line.charAt(i);
+			if(c==';') break;  // comments come after a semicolon.
+			if(c>='a' && c<='z') c -= 'a'-'A';
+			if(c<'A' || c>'Z') {
+				// whitespace or junk between words
+				++i;
+				continue;
+			}
+			++i;
+
+			// read the number after the letter.
+			boolean negative=false;
+			if(i<length && (line.charAt(i)=='-' || line.charAt(i)=='+')) {
+				negative = (line.charAt(i)=='-');
+				++i;
+			}
+			long mantissa=0;
+			double divisor=1;
+			boolean afterPoint=false;
+			int digits=0;
+			while(i<length) {
+				char d = line.charAt(i);
+				if(d>='0' && d<='9') {
+					// more than 18 digits would overflow the mantissa.  they don't matter anyhow.
+					if(digits<18) {
+						mantissa = mantissa*10 + (d-'0');
+						if(afterPoint) divisor*=10;
+					} else if(!afterPoint) {
+						divisor/=10;
+					}
+					++digits;
+				} else if(d=='.' && !afterPoint) {
+					afterPoint=true;
+				} else break;
+				++i;
+			}
+			double value = mantissa / divisor;
+			if(digits==0) {
+				// a letter without a number
+				hasError=true;
+				continue;
+			}
+			if(wordCount==MAX_WORDS) {
+				hasError=true;
+				break;
+			}
+			letters[wordCount] = c;
+			values[wordCount] = negative ? -value : value;
+			++wordCount;
+		}
+		return wordCount;
+	}
+
+
+	/**
+	 * @return true if the last line parsed had a word that could not be read.
+	 */
+	public boolean hasError() {
+		return hasError;
+	}
+
+	public int getWordCount() {
+		return wordCount;
+	}
+
+	public char getLetter(int index) {
+		return letters[index];
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @param letter upper case letter
+	 * @return true if the last line parsed contains a word starting with letter.
+	 */
+	public boolean has(char letter) {
+		for(int i=0;i<wordCount;++i) {
+			if(letters[i]==letter) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param letter upper case letter
+	 * @param defaultValue returned if the letter is not found
+	 * @return the number after the first word starting with letter.
+	 */
+	public double get(char letter,double defaultValue) {
+		for(int i=0;i<wordCount;++i) {
+			if(letters[i]==letter) return values[i];
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Look for a whole code anywhere in the line.  hasCode('G',1) matches both G1 and G01.
+	 * @param letter upper case letter
+	 * @param code the number after the letter
+	 * @return true if found
+	 */
+	public boolean hasCode(char letter,int code) {
+		for(int i=0;i<wordCount;++i) {
+			if(letters[i]==letter && values[i]==code) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param letter upper case letter
+	 * @param code the number after the letter
+	 * @return true if the first word of the line is this code.
+	 */
+	public boolean startsWith(char letter,int code) {
+		return wordCount>0 && letters[0]==letter && values[0]==code;
+	}
+}
@@ -0,0 +1,218 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.marginallyclever.robotOverlord.makelangeloRobot.drawingtools.DrawingTool;
+
+/**
+ * Draws a GCodeSegmentBuffer from vertex buffer objects on the video card.
+ * Segments are uploaded once.  Segments added later are appended to the end of the buffers.
+ * <p>
+ * While the robot is running the preview is split by line number into three ranges:
+ * already drawn (red), look ahead (green), and pending (original colors).
+ * Each range is a single glDrawArrays() per tool.
+ */
+public class GCodePreviewRenderer {
+	// segments uploaded per glBufferSubData()
+	private static final int STAGING_SEGMENTS = 4096;
+	private static final int NUM_BUFFERS = 2;
+	private static final int BYTES_PER_FLOAT = Float.SIZE/8;
+
+	// 0 = vertexes, 1 = colors
+	private int [] VBO = null;
+	// how many segments fit in the VBOs
+	private int capacity = 0;
+
+	// what is on the video card right now
+	private GCodeSegmentBuffer uploadedBuffer = null;
+	private int uploadedGeneration = -1;
+	private int uploadedCount = 0;
+
+	// runs of segments drawn with the same tool
+	private int [] toolRunStart = new int[4];
+	private int [] toolRunID = new int[4];
+	private int toolRunCount = 0;
+
+	private FloatBuffer stagingVertexes = Buffers.newDirectFloatBuffer(STAGING_SEGMENTS*2*2);
+	private ByteBuffer stagingColors = Buffers.newDirectByteBuffer(STAGING_SEGMENTS*2*4);
+	// set by release() on any thread, acted on by the next render().
+	private volatile boolean releaseRequested = false;
+
+
+	/**
+	 * @param gl2 the render context
+	 * @param robot supplies the tools and receives the gondola position while running.
+	 * @param segments what to draw
+	 * @param linesProcessed lines sent to the robot so far
+	 * @param lookAhead number of lines after linesProcessed to highlight.
+	 * @param drawAllWhileRunning if false, stop drawing after the look ahead while running.
+	 */
+	public void render(GL2 gl2,MakelangeloRobot robot,GCodeSegmentBuffer segments,int linesProcessed,int lookAhead,boolean drawAllWhileRunning) {
+		if(releaseRequested) unload(gl2);
+		upload(gl2,segments);
+		int count = uploadedCount;
+		if(count==0) return;
+
+		gl2.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[0]);
+		gl2.glVertexPointer(2, GL2.GL_FLOAT, 0, 0);
+
+		if(!robot.isRunning()) {
+			drawRange(gl2,robot,0,count,true);
+		} else {
+			int drawnEnd = segments.findFirstSegmentAtOrAfter(linesProcessed);
+			int lookAheadEnd = segments.findFirstSegmentAtOrAfter(linesProcessed+lookAhead+1);
+			if(drawnEnd>count) drawnEnd=count;
+			if(lookAheadEnd>count) lookAheadEnd=count;
+
+			if(drawnEnd>0) {
+				robot.setGondolaX(segments.getX1(drawnEnd-1)*10);
+				robot.setGondolaY(segments.getY1(drawnEnd-1)*10);
+			}
+
+			gl2.glColor3f(1, 0, 0);
+			drawRange(gl2,robot,0,drawnEnd,false);
+			gl2.glColor3f(0, 1, 0);
+			drawRange(gl2,robot,drawnEnd,lookAheadEnd,false);
+			if(drawAllWhileRunning) {
+				drawRange(gl2,robot,lookAheadEnd,count,true);
+			}
+		}
+
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+		gl2.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+	}
+
+
+	/**
+	 * draw segments [start,end) split into one glDrawArrays() per tool.
+	 */
+	private void drawRange(GL2 gl2,MakelangeloRobot robot,int start,int end,boolean useSegmentColors) {
+		if(start>=end) return;
+
+		if(useSegmentColors) {
+			gl2.glEnableClientState(GL2.GL_COLOR_ARRAY);
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[1]);
+			gl2.glColorPointer(3, GL2.GL_UNSIGNED_BYTE, 4, 0);
+		}
+
+		for(int r=0;r<toolRunCount;++r) {
+			int runStart = toolRunStart[r];
+			int runEnd = (r+1<toolRunCount) ? toolRunStart[r+1] : uploadedCount;
+			int a = Math.max(start, runStart);
+			int b = Math.min(end, runEnd);
+			if(a>=b) continue;
+
+			DrawingTool tool = robot.getSettings().getTool(toolRunID[r]);
+			gl2.glLineWidth(tool.getDiameter());
+			gl2.glDrawArrays(GL2.GL_LINES, a*2, (b-a)*2);
+		}
+
+		if(useSegmentColors) {
+			gl2.glDisableClientState(GL2.GL_COLOR_ARRAY);
+		}
+	}
+
+
+	/**
+	 * Make sure the video card has every segment in the buffer.
+	 */
+	private void upload(GL2 gl2,GCodeSegmentBuffer segments) {
+		int count = segments.size();
+		if(segments != uploadedBuffer || segments.getGeneration() != uploadedGeneration || count < uploadedCount) {
+			// start over
+			uploadedBuffer = segments;
+			uploadedGeneration = segments.getGeneration();
+			uploadedCount = 0;
+			toolRunCount = 0;
+		}
+		if(count == uploadedCount) return;
+
+		if(VBO==null) {
+			VBO = new int[NUM_BUFFERS];
+			gl2.glGenBuffers(NUM_BUFFERS, VBO, 0);
+		}
+
+		if(count > capacity) {
+			// grow the buffers and send everything again.
+			capacity = Math.max(count, capacity*2);
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[0]);
+			gl2.glBufferData(GL2.GL_ARRAY_BUFFER, (long)capacity*2*2*BYTES_PER_FLOAT, null, GL2.GL_STATIC_DRAW);
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[1]);
+			gl2.glBufferData(GL2.GL_ARRAY_BUFFER, (long)capacity*2*4, null, GL2.GL_STATIC_DRAW);
+			uploadedCount = 0;
+			toolRunCount = 0;
+		}
+
+		for(int start=uploadedCount; start<count; start+=STAGING_SEGMENTS) {
+			int end = Math.min(count, start+STAGING_SEGMENTS);
+			stagingVertexes.clear();
+			stagingColors.clear();
+			for(int i=start;i<end;++i) {
+				stagingVertexes.put(segments.getX1(i));
+				stagingVertexes.put(segments.getY1(i));
+				stagingVertexes.put(segments.getX2(i));
+				stagingVertexes.put(segments.getY2(i));
+
+				int color = segments.getColor(i);
+				for(int v=0;v<2;++v) {
+					stagingColors.put((byte)(color>>16));
+					stagingColors.put((byte)(color>>8));
+					stagingColors.put((byte)color);
+					stagingColors.put((byte)0);
+				}
+
+				addToolRun(i,segments.getToolID(i));
+			}
+			stagingVertexes.flip();
+			stagingColors.flip();
+
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[0]);
+			gl2.glBufferSubData(GL2.GL_ARRAY_BUFFER, (long)start*2*2*BYTES_PER_FLOAT, (long)(end-start)*2*2*BYTES_PER_FLOAT, stagingVertexes);
+			gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, VBO[1]);
+			gl2.glBufferSubData(GL2.GL_ARRAY_BUFFER, (long)start*2*4, (long)(end-start)*2*4, stagingColors);
+		}
+		gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+		uploadedCount = count;
+	}
+
+
+	private void addToolRun(int index,int toolID) {
+		if(toolRunCount>0 && toolRunID[toolRunCount-1]==toolID) return;
+		if(toolRunCount==toolRunStart.length) {
+			toolRunStart = Arrays.copyOf(toolRunStart, toolRunCount*2);
+			toolRunID = Arrays.copyOf(toolRunID, toolRunCount*2);
+		}
+		toolRunStart[toolRunCount] = index;
+		toolRunID[toolRunCount] = toolID;
+		++toolRunCount;
+	}
+
+
+	/**
+	 * Release the buffers on the video card the next time they are drawn.  Safe to call from any thread.
+	 */
+	public void release() {
+		releaseRequested = true;
+	}
+
+
+	/**
+	 * Release the buffers on the video card.  Call on the GL thread.
+	 * @param gl2 the render context
+	 */
+	public void unload(GL2 gl2) {
+		releaseRequested = false;
+		if(VBO == null) return;
+		gl2.glDeleteBuffers(NUM_BUFFERS, VBO, 0);
+		VBO = null;
+		capacity = 0;
+		uploadedBuffer = null;
+		uploadedCount = 0;
+		toolRunCount = 0;
+	}
+}
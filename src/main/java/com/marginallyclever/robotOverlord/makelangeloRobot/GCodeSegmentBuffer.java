@@ -0,0 +1,150 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.util.Arrays;
+
+/**
+ * The line segments of a gcode preview, stored as parallel primitive arrays instead of one object per segment.
+ * Storage grows in fixed size chunks so that adding never copies the segments already stored.
+ * <p>
+ * Each segment remembers the gcode line that made it, and a style that packs the pen color (0xRRGGBB)
+ * with the tool id in the top byte.
+ */
+public class GCodeSegmentBuffer {
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1<<CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE-1;
+
+	private float [][] x1 = new float[0][];
+	private float [][] y1 = new float[0][];
+	private float [][] x2 = new float[0][];
+	private float [][] y2 = new float[0][];
+	private int [][] lineNumbers = new int[0][];
+	private int [][] styles = new int[0][];
+	private int size = 0;
+	// changes every time the buffer is cleared, so that anyone caching the segments knows to start over.
+	private int generation = 0;
+
+
+	/**
+	 * @param rgb color as 0xRRGGBB
+	 * @param toolID 0...255
+	 * @return both values packed in one int
+	 */
+	static public int packStyle(int rgb,int toolID) {
+		return (toolID<<24) | (rgb & 0xFFFFFF);
+	}
+
+	/**
+	 * Add a segment.  Line numbers should never decrease.
+	 * @param lineNumber the gcode line which made this segment
+	 * @param ax start x
+	 * @param ay start y
+	 * @param bx end x
+	 * @param by end y
+	 * @param style see packStyle()
+	 */
+	public void add(int lineNumber,float ax,float ay,float bx,float by,int style) {
+		int chunk = size >> CHUNK_BITS;
+		if(chunk == x1.length) addChunk();
+		int i = size & CHUNK_MASK;
+		x1[chunk][i] = ax;
+		y1[chunk][i] = ay;
+		x2[chunk][i] = bx;
+		y2[chunk][i] = by;
+		lineNumbers[chunk][i] = lineNumber;
+		styles[chunk][i] = style;
+		++size;
+	}
+
+	/**
+	 * Add every segment of another buffer to the end of this one.
+	 * @param other the segments to copy
+	 */
+	public void append(GCodeSegmentBuffer other) {
+		int count = other.size();
+		for(int i=0;i<count;++i) {
+			int c = i>>CHUNK_BITS;
+			int j = i&CHUNK_MASK;
+			add(other.lineNumbers[c][j], other.x1[c][j], other.y1[c][j], other.x2[c][j], other.y2[c][j], other.styles[c][j]);
+		}
+	}
+
+	private void addChunk() {
+		int n = x1.length;
+		x1 = Arrays.copyOf(x1, n+1);
+		y1 = Arrays.copyOf(y1, n+1);
+		x2 = Arrays.copyOf(x2, n+1);
+		y2 = Arrays.copyOf(y2, n+1);
+		lineNumbers = Arrays.copyOf(lineNumbers, n+1);
+		styles = Arrays.copyOf(styles, n+1);
+		x1[n] = new float[CHUNK_SIZE];
+		y1[n] = new float[CHUNK_SIZE];
+		x2[n] = new float[CHUNK_SIZE];
+		y2[n] = new float[CHUNK_SIZE];
+		lineNumbers[n] = new int[CHUNK_SIZE];
+		styles[n] = new int[CHUNK_SIZE];
+	}
+
+	/**
+	 * Forget all segments and release the memory.
+	 */
+	public void clear() {
+		x1 = new float[0][];
+		y1 = new float[0][];
+		x2 = new float[0][];
+		y2 = new float[0][];
+		lineNumbers = new int[0][];
+		styles = new int[0][];
+		size = 0;
+		++generation;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	public float getX1(int index) {		return x1[index>>CHUNK_BITS][index&CHUNK_MASK];	}
+	public float getY1(int index) {		return y1[index>>CHUNK_BITS][index&CHUNK_MASK];	}
+	public float getX2(int index) {		return x2[index>>CHUNK_BITS][index&CHUNK_MASK];	}
+	public float getY2(int index) {		return y2[index>>CHUNK_BITS][index&CHUNK_MASK];	}
+
+	public int getLineNumber(int index) {
+		return lineNumbers[index>>CHUNK_BITS][index&CHUNK_MASK];
+	}
+
+	/**
+	 * @param index the segment
+	 * @return color as 0xRRGGBB
+	 */
+	public int getColor(int index) {
+		return styles[index>>CHUNK_BITS][index&CHUNK_MASK] & 0xFFFFFF;
+	}
+
+	public int getToolID(int index) {
+		return styles[index>>CHUNK_BITS][index&CHUNK_MASK] >>> 24;
+	}
+
+	/**
+	 * Binary search for the first segment made by a line at or after lineNumber.
+	 * @param lineNumber the gcode line
+	 * @return index of the segment, or size() if there is none.
+	 */
+	public int findFirstSegmentAtOrAfter(int lineNumber) {
+		int low = 0;
+		int high = size;
+		while(low<high) {
+			int mid = (low+high)>>>1;
+			if(getLineNumber(mid) < lineNumber) low = mid+1;
+			else high = mid;
+		}
+		return low;
+	}
+}
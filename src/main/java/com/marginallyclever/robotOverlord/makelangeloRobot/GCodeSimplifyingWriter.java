@@ -0,0 +1,217 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.drawingtools.DrawingTool;
+import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
+
+/**
+ * Sits between an ImageManipulator and the file and merges runs of moves that are (nearly) in a straight line.
+ * A move is dropped when every point since the last move kept is within the tolerance of the straight line
+ * from that move to the next, and the points still go forward along it.  Back and forth along the same line is kept.
+ * <p>
+ * The tolerance is a fraction of the current tool's diameter, so the difference can't be seen on paper.
+ * Anything that is not a plain move (pen changes, feed rates, tool changes...) is passed through unchanged, and
+ * the last move before it is always kept.  Moves that are kept are written exactly as they were received.
+ */
+public class GCodeSimplifyingWriter extends Writer {
+	// how far a point may be from the merged line, as a fraction of the tool diameter.
+	public static final double TOLERANCE_PER_DIAMETER = 0.25;
+	// most moves merged into one.  Keeps the cost per move constant.
+	public static final int MAX_MERGED = 256;
+	private static final double EPSILON = 1e-9;
+
+	private Writer out;
+	private MakelangeloRobotSettings settings;
+	private double tolerance;
+
+	private StringBuilder partialLine = new StringBuilder();
+	private GCodeLexer lexer = new GCodeLexer();
+	private boolean relativeMode;
+
+	// the last point written
+	private boolean hasAnchor;
+	private double anchorX, anchorY;
+	// moves received but not written yet.  Only the last one might be written.
+	private double [] pendingX = new double[MAX_MERGED];
+	private double [] pendingY = new double[MAX_MERGED];
+	private int pendingCount;
+	private String pendingLine;
+
+	private int movesIn;
+	private int movesOut;
+
+
+	/**
+	 * @param out where to write the simplified gcode
+	 * @param settings the machine, for the size of each tool.
+	 */
+	public GCodeSimplifyingWriter(Writer out,MakelangeloRobotSettings settings) {
+		super(out);
+		this.out = out;
+		this.settings = settings;
+		setTool(settings.getCurrentTool());
+	}
+
+
+	private void setTool(DrawingTool tool) {
+		tolerance = tool.getDiameter() * TOLERANCE_PER_DIAMETER;
+	}
+
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for(int i=off;i<off+len;++i) {
+			char c = cbuf[i];
+			if(c=='\n') {
+				processLine(partialLine.toString());
+				partialLine.setLength(0);
+			} else {
+				partialLine.append(c);
+			}
+		}
+	}
+
+
+	/**
+	 * Write everything received so far.  Moves waiting to be merged are written, too.
+	 */
+	@Override
+	public void flush() throws IOException {
+		writePending();
+		out.flush();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if(partialLine.length()>0) {
+			processLine(partialLine.toString());
+			partialLine.setLength(0);
+		}
+		writePending();
+		out.close();
+	}
+
+
+	/**
+	 * @return number of moves received
+	 */
+	public int getMovesIn() {
+		return movesIn;
+	}
+
+
+	/**
+	 * @return number of moves written
+	 */
+	public int getMovesOut() {
+		return movesOut;
+	}
+
+
+	private void processLine(String line) throws IOException {
+		lexer.parse(line);
+		if(!relativeMode && !lexer.hasError()
+				&& (lexer.startsWith('G',0) || lexer.startsWith('G',1))
+				&& (hasAnchor ? (lexer.has('X') || lexer.has('Y')) : (lexer.has('X') && lexer.has('Y')))
+				&& onlyHas("GXY")) {
+			addMove(lexer.get('X',lastX()), lexer.get('Y',lastY()), line);
+			return;
+		}
+
+		writePending();
+		out.write(line);
+		out.write("\n");
+
+		if(lexer.hasError()) return;
+		if(lexer.hasCode('G',90)) relativeMode = false;
+		if(lexer.hasCode('G',91)) relativeMode = true;
+		if(lexer.hasCode('M',6)) {
+			int toolNumber = (int)lexer.get('T',-1);
+			if(toolNumber>=0 && toolNumber<settings.getToolNames().length) {
+				setTool(settings.getTool(toolNumber));
+			}
+		}
+		if(lexer.has('X') || lexer.has('Y')) {
+			// moved some other way.  Start over from the next move.
+			hasAnchor = false;
+		}
+	}
+
+
+	private boolean onlyHas(String letters) {
+		for(int i=0;i<lexer.getWordCount();++i) {
+			if(letters.indexOf(lexer.getLetter(i))<0) return false;
+		}
+		return true;
+	}
+
+
+	private double lastX() {	return pendingCount>0 ? pendingX[pendingCount-1] : anchorX;	}
+	private double lastY() {	return pendingCount>0 ? pendingY[pendingCount-1] : anchorY;	}
+
+
+	private void addMove(double x,double y,String line) throws IOException {
+		++movesIn;
+		if(!hasAnchor) {
+			out.write(line);
+			out.write("\n");
+			++movesOut;
+			anchorX = x;
+			anchorY = y;
+			hasAnchor = true;
+			return;
+		}
+
+		if(pendingCount>0 && (pendingCount==MAX_MERGED || !canMergeTo(x,y))) {
+			writePending();
+		}
+		pendingX[pendingCount] = x;
+		pendingY[pendingCount] = y;
+		++pendingCount;
+		pendingLine = line;
+	}
+
+
+	/**
+	 * @return true if a single move from the anchor to (x,y) passes close to every pending point, in order.
+	 */
+	private boolean canMergeTo(double x,double y) {
+		double dx = x-anchorX;
+		double dy = y-anchorY;
+		double len = Math.sqrt(dx*dx+dy*dy);
+		if(len<EPSILON) return false;
+		dx/=len;
+		dy/=len;
+
+		double previousT = 0;
+		for(int i=0;i<pendingCount;++i) {
+			double qx = pendingX[i]-anchorX;
+			double qy = pendingY[i]-anchorY;
+			// distance along the line
+			double t = qx*dx + qy*dy;
+			if(t < previousT-EPSILON || t > len+EPSILON) return false;
+			// distance from the line
+			if(Math.abs(qx*dy - qy*dx) > tolerance) return false;
+			previousT = t;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Write the last pending move.  It becomes the new anchor.
+	 */
+	private void writePending() throws IOException {
+		if(pendingCount==0) return;
+		out.write(pendingLine);
+		out.write("\n");
+		++movesOut;
+		anchorX = pendingX[pendingCount-1];
+		anchorY = pendingY[pendingCount-1];
+		pendingCount = 0;
+		pendingLine = null;
+	}
+}
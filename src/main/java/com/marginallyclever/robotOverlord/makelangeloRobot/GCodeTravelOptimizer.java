@@ -0,0 +1,567 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.drawingtools.DrawingTool;
+import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
+
+/**
+ * Rewrites generated gcode so the pen spends less time travelling while lifted.
+ * <p>
+ * The file is split into strokes (everything drawn between lowering and lifting the pen).  Strokes are put in
+ * nearest neighbour order with a grid of stroke ends, and may be drawn backwards.  A 2-opt pass over a small window
+ * of neighbouring strokes then removes most of the crossings the greedy order leaves behind.
+ * Strokes that end where the next one starts are joined without lifting the pen.
+ * <p>
+ * Anything that is not a plain move or pen change (tool changes, G91, arcs, comments...) is written back
+ * unchanged and in the same place.  Strokes are never moved past it, and the pen returns to where it was before
+ * that line.  Lines that only change the feed rate are dropped; the tool writes its own around every pen change.
+ */
+public class GCodeTravelOptimizer {
+	// how many strokes ahead the 2-opt pass may reverse.
+	public static final int TWO_OPT_WINDOW = 50;
+	// 2-opt passes over the whole file, at most.
+	public static final int TWO_OPT_PASSES = 4;
+	// points closer than this are the same point. (mm)
+	private static final double EPSILON = 1e-6;
+
+	private MakelangeloRobotSettings settings;
+	private DrawingTool tool;
+
+	// pen up travel (mm)
+	private double travelBefore;
+	private double travelAfter;
+
+	// current state of the machine, as the original file would have it.
+	private double x, y;
+	private boolean penDown;
+	private boolean relativeMode;
+
+	// state of the machine as the optimized file has it.
+	private double writtenX, writtenY;
+	private boolean writtenPenDown;
+
+	// the strokes between two lines that can't be moved.
+	private double groupStartX, groupStartY;
+	private boolean groupStartPenDown;
+	private double [] pointX = new double[1024];
+	private double [] pointY = new double[1024];
+	private int pointCount;
+	private int [] strokeFirst = new int[256];
+	private int [] strokeLength = new int[256];
+	private int strokeCount;
+	private boolean strokeOpen;
+
+
+	public GCodeTravelOptimizer(MakelangeloRobotSettings settings) {
+		this.settings = settings;
+	}
+
+
+	/**
+	 * Optimize a file in place.
+	 * @param file the gcode to rewrite
+	 * @throws IOException on read or write failure.  The original file is not changed.
+	 */
+	public void optimize(File file) throws IOException {
+		File temp = new File(file.getPath()+".tmp");
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+				Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+			optimize(in,out);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+
+	/**
+	 * @param in the original gcode
+	 * @param out where to write the optimized gcode
+	 * @throws IOException on read or write failure
+	 */
+	public void optimize(BufferedReader in, Writer out) throws IOException {
+		tool = settings.getCurrentTool();
+		x = settings.getHomeX();
+		y = settings.getHomeY();
+		penDown = false;
+		relativeMode = false;
+		writtenX = x;
+		writtenY = y;
+		writtenPenDown = false;
+		travelBefore = 0;
+		travelAfter = 0;
+		startGroup();
+
+		GCodeLexer lexer = new GCodeLexer();
+		String line;
+		while((line = in.readLine()) != null) {
+			lexer.parse(line);
+			if(lexer.getWordCount()==0 && line.trim().isEmpty()) continue;
+
+			if(!relativeMode && !lexer.hasError() && (lexer.startsWith('G',0) || lexer.startsWith('G',1))) {
+				if(onlyHas(lexer,"GXY")) {
+					moveTo(lexer.get('X',x), lexer.get('Y',y));
+					continue;
+				}
+				if(lexer.has('Z') && onlyHas(lexer,"GZF")) {
+					setPenDown(isDownAngle(lexer.get('Z',0)));
+					continue;
+				}
+				if(onlyHas(lexer,"GF")) continue;
+			}
+
+			// can't move strokes past this line.
+			flushGroup(out);
+			out.write(line);
+			out.write("\n");
+			readBarrier(lexer);
+			// both files ran the same line, so they agree on where the pen is.
+			writtenX = x;
+			writtenY = y;
+			writtenPenDown = penDown;
+			startGroup();
+		}
+		flushGroup(out);
+		out.flush();
+	}
+
+
+	/**
+	 * @return total pen up travel in the original file (mm).  Travel to and from lines that can't be moved is not counted.
+	 */
+	public double getTravelBefore() {
+		return travelBefore;
+	}
+
+
+	/**
+	 * @return total pen up travel in the optimized file (mm).  Travel to and from lines that can't be moved is not counted.
+	 */
+	public double getTravelAfter() {
+		return travelAfter;
+	}
+
+
+	/**
+	 * @return true if every word in the last line starts with one of the letters.
+	 */
+	private boolean onlyHas(GCodeLexer lexer,String letters) {
+		for(int i=0;i<lexer.getWordCount();++i) {
+			if(letters.indexOf(lexer.getLetter(i))<0) return false;
+		}
+		return true;
+	}
+
+
+	private boolean isDownAngle(double z) {
+		return Math.abs(z - tool.getPenDownAngle()) < Math.abs(z - tool.getPenUpAngle());
+	}
+
+
+	private void moveTo(double nx,double ny) {
+		if(penDown) {
+			if(!strokeOpen) openStroke();
+			addPoint(nx,ny);
+		}
+		x = nx;
+		y = ny;
+	}
+
+
+	private void setPenDown(boolean down) {
+		if(down && !penDown) openStroke();
+		if(!down) strokeOpen=false;
+		penDown = down;
+	}
+
+
+	/**
+	 * Follow the changes made by a line that can't be moved.
+	 */
+	private void readBarrier(GCodeLexer lexer) {
+		if(lexer.hasError()) return;
+		if(lexer.hasCode('G',90)) relativeMode = false;
+		if(lexer.hasCode('G',91)) relativeMode = true;
+		if(lexer.hasCode('M',6)) {
+			int toolNumber = (int)lexer.get('T',-1);
+			if(toolNumber>=0 && toolNumber<settings.getToolNames().length) {
+				tool = settings.getTool(toolNumber);
+			}
+		}
+		if(lexer.startsWith('G',0) || lexer.startsWith('G',1) || lexer.startsWith('G',2) || lexer.startsWith('G',3)) {
+			if(relativeMode) {
+				x += lexer.get('X',0);
+				y += lexer.get('Y',0);
+			} else {
+				x = lexer.get('X',x);
+				y = lexer.get('Y',y);
+			}
+			if(lexer.has('Z')) penDown = isDownAngle(lexer.get('Z',0));
+		}
+	}
+
+
+	private void startGroup() {
+		groupStartX = x;
+		groupStartY = y;
+		groupStartPenDown = penDown;
+		pointCount = 0;
+		strokeCount = 0;
+		strokeOpen = false;
+	}
+
+
+	private void openStroke() {
+		if(strokeCount == strokeFirst.length) {
+			strokeFirst = Arrays.copyOf(strokeFirst, strokeCount*2);
+			strokeLength = Arrays.copyOf(strokeLength, strokeCount*2);
+		}
+		strokeFirst[strokeCount] = pointCount;
+		strokeLength[strokeCount] = 0;
+		++strokeCount;
+		strokeOpen = true;
+		addPoint(x,y);
+	}
+
+
+	private void addPoint(double px,double py) {
+		if(pointCount == pointX.length) {
+			pointX = Arrays.copyOf(pointX, pointCount*2);
+			pointY = Arrays.copyOf(pointY, pointCount*2);
+		}
+		pointX[pointCount] = px;
+		pointY[pointCount] = py;
+		++pointCount;
+		++strokeLength[strokeCount-1];
+	}
+
+
+	/**
+	 * Reorder and write every stroke in the group, then put the pen back where the original file left it.
+	 */
+	private void flushGroup(Writer out) throws IOException {
+		int [] order = new int[strokeCount];
+		boolean [] reversed = new boolean[strokeCount];
+		for(int i=0;i<strokeCount;++i) order[i]=i;
+		travelBefore += measureTravel(order,reversed);
+
+		if(strokeCount>1) {
+			sortByNearestNeighbour(order,reversed);
+			improveWithTwoOpt(order,reversed);
+		}
+		travelAfter += measureTravel(order,reversed);
+
+		for(int i=0;i<strokeCount;++i) {
+			writeStroke(out,order[i],reversed[i]);
+		}
+
+		// go back to where the original would be.
+		if(!isSamePoint(writtenX,writtenY,x,y)) {
+			if(writtenPenDown) {
+				tool.writeOff(out);
+				writtenPenDown = false;
+			}
+			tool.writeMoveTo(out, x, y);
+			writtenX = x;
+			writtenY = y;
+		}
+		if(writtenPenDown != penDown) {
+			if(penDown) tool.writeOn(out);
+			else tool.writeOff(out);
+			writtenPenDown = penDown;
+		}
+	}
+
+
+	private void writeStroke(Writer out,int stroke,boolean backwards) throws IOException {
+		int first = strokeFirst[stroke];
+		int last = first + strokeLength[stroke]-1;
+		int step = 1;
+		if(backwards) {
+			int temp = first;
+			first = last;
+			last = temp;
+			step = -1;
+		}
+
+		if(!writtenPenDown || !isSamePoint(writtenX,writtenY,pointX[first],pointY[first])) {
+			if(writtenPenDown) tool.writeOff(out);
+			if(!isSamePoint(writtenX,writtenY,pointX[first],pointY[first])) {
+				tool.writeMoveTo(out, pointX[first], pointY[first]);
+			}
+			tool.writeOn(out);
+			writtenPenDown = true;
+		}
+		for(int i=first+step; i!=last+step; i+=step) {
+			tool.writeMoveTo(out, pointX[i], pointY[i]);
+		}
+		writtenX = pointX[last];
+		writtenY = pointY[last];
+	}
+
+
+	private boolean isSamePoint(double ax,double ay,double bx,double by) {
+		return Math.abs(ax-bx)<EPSILON && Math.abs(ay-by)<EPSILON;
+	}
+
+
+	private double startX(int stroke,boolean backwards) {	return pointX[backwards ? strokeFirst[stroke]+strokeLength[stroke]-1 : strokeFirst[stroke]];	}
+	private double startY(int stroke,boolean backwards) {	return pointY[backwards ? strokeFirst[stroke]+strokeLength[stroke]-1 : strokeFirst[stroke]];	}
+	private double endX(int stroke,boolean backwards) {		return startX(stroke,!backwards);	}
+	private double endY(int stroke,boolean backwards) {		return startY(stroke,!backwards);	}
+
+
+	/**
+	 * @return pen up travel from the start of the group through every stroke in order.
+	 */
+	private double measureTravel(int [] order,boolean [] reversed) {
+		double sum=0;
+		double px = groupStartX;
+		double py = groupStartY;
+		boolean down = groupStartPenDown;
+		for(int i=0;i<order.length;++i) {
+			double sx = startX(order[i],reversed[i]);
+			double sy = startY(order[i],reversed[i]);
+			if(!down || !isSamePoint(px,py,sx,sy)) sum += Math.hypot(sx-px, sy-py);
+			px = endX(order[i],reversed[i]);
+			py = endY(order[i],reversed[i]);
+			down = true;
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Greedy tour: from the end of each stroke, go to the closest end of any stroke not yet drawn.
+	 * Stroke ends are kept in a grid so each search only looks at nearby cells.
+	 */
+	private void sortByNearestNeighbour(int [] order,boolean [] reversed) {
+		int n = strokeCount;
+		EndpointGrid grid = new EndpointGrid();
+		int [] live = new int[n*2];
+		for(int e=0;e<n*2;++e) live[e]=e;
+		grid.build(live,n*2);
+
+		double px = groupStartX;
+		double py = groupStartY;
+		for(int i=0;i<n;++i) {
+			if(grid.getLiveCount() < grid.getBuiltCount()/4) {
+				// most cells are empty.  a smaller grid searches faster.
+				grid.rebuild();
+			}
+			int e = grid.findNearest(px,py);
+			int stroke = e>>1;
+			boolean backwards = (e&1)==1;
+			grid.remove(stroke*2);
+			grid.remove(stroke*2+1);
+			order[i] = stroke;
+			reversed[i] = backwards;
+			px = endX(stroke,backwards);
+			py = endY(stroke,backwards);
+		}
+	}
+
+
+	/**
+	 * Reverse runs of up to TWO_OPT_WINDOW strokes whenever that shortens the travel.
+	 * Reversing a run also draws each stroke in it backwards.
+	 */
+	private void improveWithTwoOpt(int [] order,boolean [] reversed) {
+		int n = order.length;
+		for(int pass=0;pass<TWO_OPT_PASSES;++pass) {
+			boolean improved=false;
+			for(int i=0;i<n;++i) {
+				double ax = (i==0) ? groupStartX : endX(order[i-1],reversed[i-1]);
+				double ay = (i==0) ? groupStartY : endY(order[i-1],reversed[i-1]);
+				int jMax = Math.min(n-1, i+TWO_OPT_WINDOW);
+				for(int j=i;j<=jMax;++j) {
+					double bx = startX(order[i],reversed[i]);
+					double by = startY(order[i],reversed[i]);
+					double cx = endX(order[j],reversed[j]);
+					double cy = endY(order[j],reversed[j]);
+					double before = Math.hypot(bx-ax, by-ay);
+					double after = Math.hypot(cx-ax, cy-ay);
+					if(j+1<n) {
+						double dx = startX(order[j+1],reversed[j+1]);
+						double dy = startY(order[j+1],reversed[j+1]);
+						before += Math.hypot(dx-cx, dy-cy);
+						after += Math.hypot(dx-bx, dy-by);
+					}
+					if(after < before - EPSILON) {
+						reverse(order,reversed,i,j);
+						improved=true;
+					}
+				}
+			}
+			if(!improved) break;
+		}
+	}
+
+
+	private void reverse(int [] order,boolean [] reversed,int i,int j) {
+		while(i<j) {
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+			boolean b = reversed[i];
+			reversed[i] = !reversed[j];
+			reversed[j] = !b;
+			++i;
+			--j;
+		}
+		if(i==j) reversed[i] = !reversed[i];
+	}
+
+
+	/**
+	 * Stroke ends sorted into a grid of cells.  End e belongs to stroke e/2; even ends are starts and odd ends are ends.
+	 */
+	private class EndpointGrid {
+		private double minX, minY, cellSize;
+		private int width, height;
+		private int [] cellStart;
+		private int [] cellCount;
+		private int [] entries;
+		// where each end is in entries, or -1 if removed.
+		private int [] position;
+		private int liveCount;
+		private int builtCount;
+
+
+		void build(int [] ends,int count) {
+			minX = Double.MAX_VALUE;
+			minY = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE;
+			double maxY = -Double.MAX_VALUE;
+			for(int k=0;k<count;++k) {
+				double ex = endPointX(ends[k]);
+				double ey = endPointY(ends[k]);
+				minX = Math.min(minX, ex);
+				minY = Math.min(minY, ey);
+				maxX = Math.max(maxX, ex);
+				maxY = Math.max(maxY, ey);
+			}
+			// about two ends per cell
+			double area = Math.max(maxX-minX, EPSILON) * Math.max(maxY-minY, EPSILON);
+			cellSize = Math.max(Math.sqrt(area*2.0/count), EPSILON);
+			width = Math.min((int)((maxX-minX)/cellSize)+1, count);
+			height = Math.min((int)((maxY-minY)/cellSize)+1, count);
+			cellSize = Math.max(cellSize, Math.max((maxX-minX)/width, (maxY-minY)/height)*1.0000001);
+
+			cellStart = new int[width*height+1];
+			cellCount = new int[width*height];
+			for(int k=0;k<count;++k) cellCount[cellOf(ends[k])]++;
+			for(int c=0;c<cellCount.length;++c) cellStart[c+1] = cellStart[c]+cellCount[c];
+			Arrays.fill(cellCount, 0);
+			entries = new int[count];
+			if(position==null) position = new int[strokeCount*2];
+			Arrays.fill(position, -1);
+			for(int k=0;k<count;++k) {
+				int c = cellOf(ends[k]);
+				int p = cellStart[c]+cellCount[c]++;
+				entries[p] = ends[k];
+				position[ends[k]] = p;
+			}
+			liveCount = count;
+			builtCount = count;
+		}
+
+
+		void rebuild() {
+			int [] ends = new int[liveCount];
+			int k=0;
+			for(int c=0;c<cellCount.length;++c) {
+				for(int p=cellStart[c];p<cellStart[c]+cellCount[c];++p) ends[k++] = entries[p];
+			}
+			build(ends,liveCount);
+		}
+
+
+		int getLiveCount() {
+			return liveCount;
+		}
+
+
+		int getBuiltCount() {
+			return builtCount;
+		}
+
+
+		private double endPointX(int e) {	return (e&1)==0 ? startX(e>>1,false) : endX(e>>1,false);	}
+		private double endPointY(int e) {	return (e&1)==0 ? startY(e>>1,false) : endY(e>>1,false);	}
+
+
+		private int cellX(double v) {	return Math.max(0, Math.min(width-1, (int)((v-minX)/cellSize)));	}
+		private int cellY(double v) {	return Math.max(0, Math.min(height-1, (int)((v-minY)/cellSize)));	}
+
+		private int cellOf(int e) {
+			return cellY(endPointY(e))*width + cellX(endPointX(e));
+		}
+
+
+		void remove(int e) {
+			int p = position[e];
+			if(p<0) return;
+			int c = cellOf(e);
+			int last = cellStart[c]+cellCount[c]-1;
+			int moved = entries[last];
+			entries[p] = moved;
+			position[moved] = p;
+			entries[last] = e;
+			position[e] = -1;
+			cellCount[c]--;
+			liveCount--;
+		}
+
+
+		/**
+		 * Search rings of cells around the point until no unsearched cell can be closer than the best so far.
+		 * Points outside the grid search from the nearest point on the edge of the grid, which can only be closer.
+		 * @return the closest live end, or -1 if there are none.
+		 */
+		int findNearest(double qx,double qy) {
+			int cx = cellX(qx);
+			int cy = cellY(qy);
+			int best = -1;
+			double bestDistance = Double.MAX_VALUE;
+			int maxRing = Math.max(width, height);
+			for(int r=0;r<=maxRing;++r) {
+				if(best>=0 && Math.sqrt(bestDistance) <= (r-1)*cellSize) break;
+				int y0 = cy-r, y1 = cy+r;
+				int x0 = cx-r, x1 = cx+r;
+				for(int gy=Math.max(0,y0); gy<=Math.min(height-1,y1); ++gy) {
+					boolean edgeRow = (gy==y0 || gy==y1);
+					for(int gx=Math.max(0,x0); gx<=Math.min(width-1,x1); ++gx) {
+						if(!edgeRow && gx!=x0 && gx!=x1) {
+							// only the outline of the ring is new.
+							gx = x1-1;
+							continue;
+						}
+						int c = gy*width+gx;
+						for(int p=cellStart[c];p<cellStart[c]+cellCount[c];++p) {
+							int e = entries[p];
+							double dx = endPointX(e)-qx;
+							double dy = endPointY(e)-qy;
+							double d = dx*dx+dy*dy;
+							if(d<bestDistance) {
+								bestDistance = d;
+								best = e;
+							}
+						}
+					}
+				}
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.util.Locale;
+
+/**
+ * How often the robot rejected a line of a drawing and what it cost to recover.
+ * <p>
+ * Each error rewinds to the rejected line and resends it and every line after it that was already sent.  A cable that
+ * shows up here often is worth replacing.
+ */
+public class LineErrorStatistics {
+	private long linesSent;
+	private long errors;
+	private long linesResent;
+	private long worstResend;
+	// when the last error arrived, or zero if its line has already been sent again.
+	private long errorTime;
+	private long recoveryNanos;
+
+
+	public synchronized void reset() {
+		linesSent = 0;
+		errors = 0;
+		linesResent = 0;
+		worstResend = 0;
+		errorTime = 0;
+		recoveryNanos = 0;
+	}
+
+
+	/**
+	 * A line of the drawing went to the robot.
+	 */
+	synchronized void lineSent() {
+		++linesSent;
+		if(errorTime != 0) {
+			recoveryNanos += System.nanoTime()-errorTime;
+			errorTime = 0;
+		}
+	}
+
+
+	/**
+	 * The robot rejected a line.
+	 * @param resent number of lines that will be sent again
+	 */
+	synchronized void error(int resent) {
+		++errors;
+		linesResent += resent;
+		worstResend = Math.max(worstResend, resent);
+		if(errorTime == 0) errorTime = System.nanoTime();
+	}
+
+
+	public synchronized long getLinesSent() {		return linesSent;	}
+	public synchronized long getErrors() {			return errors;	}
+	public synchronized long getLinesResent() {		return linesResent;	}
+	public synchronized long getWorstResend() {		return worstResend;	}
+
+	/**
+	 * @return total time from each error until its line was sent again, in nanoseconds.
+	 */
+	public synchronized long getRecoveryNanos() {	return recoveryNanos;	}
+
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "%d line errors in %d lines sent (%.2f%%), %d lines resent (at most %d at once), %.1f ms waiting to resend",
+				errors, linesSent, linesSent==0 ? 0.0 : 100.0*errors/linesSent, linesResent, worstResend, recoveryNanos/1e6);
+	}
+}
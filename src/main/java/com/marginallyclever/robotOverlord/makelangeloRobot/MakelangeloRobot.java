@@ -9,7 +9,6 @@ import java.net.URLConnection;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -44,6 +43,8 @@ public class MakelangeloRobot extends Robot {
 	// Constants
 	private final String robotTypeName = "DRAWBOT";
 	private final String hello = "HELLO WORLD! I AM " + robotTypeName + " #";
+	// bytes the firmware can receive while it is busy with earlier lines.  Lines are streamed until this is full.
+	private final int firmwareReceiveBufferSize = 63;
 
 	// Firmware check
 	private final String versionCheckStart = new String("Firmware v");
@@ -57,8 +58,7 @@ public class MakelangeloRobot extends Robot {
 	private MakelangeloRobotSettings settings = null;
 	private MakelangeloRobotPanel myPanel = null;
 	
-	// Connection state
-	private NetworkConnection connection = null;
+	// Connection state.  The connection itself belongs to Robot, so getConnection() sees it.
 	private boolean portConfirmed;
 
 	// misc state
@@ -74,6 +74,12 @@ public class MakelangeloRobot extends Robot {
 	// rendering stuff
 	public boolean showPenUpMoves=false;
 	private MakelangeloRobotDecorator decorator=null;
+	private transient GCodePreviewRenderer previewRenderer=null;
+	// lines of gCode, ready to send
+	private transient GCodeFrameCache frameCache=null;
+	// lines before this one have been sent before and are being resent after an error.
+	private transient int resendUntil;
+	private transient LineErrorStatistics lineErrorStatistics=null;
 
 	// Listeners which should be notified of a change to the percentage.
     private ArrayList<MakelangeloRobotListener> listeners = new ArrayList<MakelangeloRobotListener>();
@@ -128,6 +134,7 @@ public class MakelangeloRobot extends Robot {
 		
 		if( this.connection != null ) {
 			this.connection.addListener(this);
+			this.connection.setStreamingWindow(firmwareReceiveBufferSize);
 		}
 	}
 
@@ -255,8 +262,20 @@ public class MakelangeloRobot extends Robot {
 		}
 	}
 	
-	public void lineError(NetworkConnection arg0,int lineNumber) {
+	/**
+	 * The robot rejected a line and every line sent after it.  Resend them all, starting with lineNumber.  The
+	 * frameCache still has them, so nothing is read from the file again.
+	 * Synchronized with sendFileCommand() so no line of the old order is sent after the rewind.
+	 */
+	public synchronized void lineError(NetworkConnection arg0,int lineNumber) {
         if(gCode!=null) {
+        	if(isRunning()) {
+        		// lines queued but not sent yet would be rejected too.
+        		arg0.deleteAllQueuedCommands();
+        		int sent = gCode.getLinesProcessed();
+        		getLineErrorStatistics().error(Math.max(0, sent-lineNumber));
+        		resendUntil = Math.max(resendUntil, sent);
+        	}
     		gCode.setLinesProcessed(lineNumber);
         }
         
@@ -328,7 +347,7 @@ public class MakelangeloRobot extends Robot {
 	}
 
 
-	public String generateChecksum(String line) {
+	public static String generateChecksum(String line) {
 		byte checksum = 0;
 
 		for (int i = 0; i < line.length(); ++i) {
@@ -339,6 +358,31 @@ public class MakelangeloRobot extends Robot {
 	}
 
 
+	/**
+	 * Number a line and add its checksum, so the robot can tell if a line went missing or arrived damaged.
+	 * @param line the command
+	 * @param lineNumber the line number associated with this line
+	 * @return the line as the robot should get it, or null if the line is too short to be worth numbering.
+	 */
+	public static String frameLine(String line,int lineNumber) {
+		if (line.length() <= 3) return null;
+		String text = "N" + lineNumber + " " + line;
+		return text + generateChecksum(text);
+	}
+
+
+	/**
+	 * Safe to call from any thread.
+	 * @param line the command
+	 * @return true if the line asks for a tool change (M6 or M06).  Comments are ignored.
+	 */
+	public static boolean isToolChange(String line) {
+		GCodeLexer lexer = new GCodeLexer();
+		lexer.parse(line);
+		return lexer.hasCode('M',6);
+	}
+
+
 	/**
 	 * Send the machine configuration to the robot.
 	 * @author danroyer
@@ -416,15 +460,21 @@ public class MakelangeloRobot extends Robot {
 	 * removes comments, processes commands robot doesn't handle, add checksum information.
 	 * @param line command to send
 	 * @param lineNumber the line number associated with this line 
+	 * @return <code>true</code> if something was sent to the robot.
 	 */
-	public void tweakAndSendLine(String line, int lineNumber) {
-		if (getConnection() == null || !isPortConfirmed() || !isRunning()) return;
+	public boolean tweakAndSendLine(String line, int lineNumber) {
+		return tweakAndSendLine(line,lineNumber,true);
+	}
 
-		// tool change request?
-		String[] tokens = line.split("(\\s|;)");
+	/**
+	 * @param changeTools false to skip the tool change dialog, as when a line is resent.
+	 */
+	private boolean tweakAndSendLine(String line, int lineNumber, boolean changeTools) {
+		if (getConnection() == null || !isPortConfirmed() || !isRunning()) return false;
 
 		// tool change?
-		if (Arrays.asList(tokens).contains("M06") || Arrays.asList(tokens).contains("M6")) {
+		if (changeTools && isToolChange(line)) {
+			String[] tokens = line.split("(\\s|;)");
 			int toolNumber=0;
 			boolean nextTokenIsColorName=false;
 			String colorName ="";
@@ -445,25 +495,24 @@ public class MakelangeloRobot extends Robot {
 		}
 
 		// checksums for commands with a line number
-		if (line.length() > 3) {
-			line = "N" + lineNumber + " " + line;
-			String checksum = generateChecksum(line); 
-			line += checksum; 
-		}
+		String framed = frameLine(line,lineNumber);
+		if (framed != null) line = framed;
 		
 		// send relevant part of line to the robot
-		sendLineToRobot(line);
+		return sendLineToRobot(line);
 	}
 
 
 	/**
 	 * Take the next line from the file and send it to the robot, if permitted.
+	 * The connection's writer thread and the gui both call this.  One at a time, or lines go out of order.
 	 */
-	public void sendFileCommand() {
+	public synchronized void sendFileCommand() {
 		if (isRunning() == false 
 				|| isPaused() == true 
 				|| gCode==null
 				|| gCode.isFileOpened() == false 
+				|| gCode.isLoading() == true
 				|| (getConnection() != null && isPortConfirmed() == false) )
 			return;
 
@@ -476,23 +525,54 @@ public class MakelangeloRobot extends Robot {
 			if(myPanel!=null) myPanel.statusBar.setProgress(x, x);
 			
 			SoundSystem.playDrawingFinishedSound();
+			if(getLineErrorStatistics().getErrors()>0) Log.message(getLineErrorStatistics().toString());
 		} else {
-			int lineNumber = gCode.getLinesProcessed();
-			String line = gCode.nextLine();
-			tweakAndSendLine( line, lineNumber );
-	
+			// loop until we find a line that gets sent to the robot.  Also stop at end of file.
+			// The connection asks for another line as soon as the robot has room for it.
+			int lineNumber;
+			boolean sent;
+			do {
+				lineNumber = gCode.getLinesProcessed();
+				gCode.setLinesProcessed(lineNumber+1);
+				sent = sendFrame( frameCache.get(lineNumber) );
+				if(sent) getLineErrorStatistics().lineSent();
+			} while(!sent && getConnection() != null && gCode.moreLinesAvailable() && isRunning());
+
 			if(myPanel!=null) myPanel.statusBar.setProgress(lineNumber, gCode.getLinesTotal());
-			// loop until we find a line that gets sent to the robot, at which point we'll
-			// pause for the robot to respond.  Also stop at end of file.
+			// nothing left worth sending?  Then nobody will ask for another line.
+			if(!sent && gCode.moreLinesAvailable() == false) sendFileCommand();
+		}
+	}
+
+	/**
+	 * Send a line prepared by the frameCache.
+	 * @param frame the line
+	 * @return <code>true</code> if something was sent to the robot.
+	 */
+	private boolean sendFrame(GCodeFrameCache.Frame frame) {
+		// don't ask for the same tool change twice.
+		if(!frame.isReady()) return tweakAndSendLine(frame.line, frame.lineNumber, frame.lineNumber>=resendUntil);
+		if (getConnection() == null || !isPortConfirmed() || !isRunning()) return false;
+
+		Log.write("white", frame.text );
+		try {
+			getConnection().sendFrame(frame.bytes);
+		} catch (Exception e) {
+			Log.error( e.getMessage() );
+			return false;
 		}
+		return true;
 	}
 
+
 	public void startAt(int lineNumber) {
 		if(gCode==null) return;
 		
 		int lineBefore = gCode.findLastPenUpBefore(lineNumber,getSettings().getPenUpString());
 		gCode.setLinesProcessed(lineBefore);
 		setLineNumber(gCode.getLinesProcessed());
+		resendUntil = 0;
+		getLineErrorStatistics().reset();
 		setRunning();
 		sendFileCommand();
 	}
@@ -670,8 +750,40 @@ public class MakelangeloRobot extends Robot {
 
 
 	public void setGCode(GCodeFile gcode) {
+		if(frameCache!=null) frameCache.stop();
+		frameCache=null;
 		gCode = gcode;
-		if(gCode!=null) gCode.emptyNodeBuffer();
+		// the old preview is no use now.
+		if(previewRenderer!=null) previewRenderer.release();
+		if(gCode!=null) {
+			gCode.emptyNodeBuffer();
+			frameCache = new GCodeFrameCache(gCode);
+		}
+	}
+
+
+	/**
+	 * @return line errors since the drawing started.
+	 */
+	public synchronized LineErrorStatistics getLineErrorStatistics() {
+		if(lineErrorStatistics==null) lineErrorStatistics = new LineErrorStatistics();
+		return lineErrorStatistics;
+	}
+
+
+	/**
+	 * @return the renderer which draws gcode previews on the video card.
+	 */
+	public GCodePreviewRenderer getPreviewRenderer() {
+		if(previewRenderer==null) previewRenderer = new GCodePreviewRenderer();
+		return previewRenderer;
+	}
+
+
+	@Override
+	public void dispose(GL2 gl2) {
+		super.dispose(gl2);
+		if(previewRenderer!=null) previewRenderer.unload(gl2);
 	}
 
 
@@ -32,6 +32,7 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
@@ -574,11 +575,13 @@ public class MakelangeloRobotPanel extends JPanel implements ActionListener, Ite
 		boolean isConfirmed=false;
 		boolean isRunning=false;
 		boolean hasSetHome=false;
+		boolean isLoading=false;
 		
 		if(robot!=null) {
 			isConfirmed = robot.isPortConfirmed();
 			isRunning = robot.isRunning();
 			hasSetHome = robot.hasSetHome();
+			isLoading = robot.gCode != null && robot.gCode.isLoading();
 		}
 		
 		if (buttonGenerate != null)
@@ -586,8 +589,8 @@ public class MakelangeloRobotPanel extends JPanel implements ActionListener, Ite
 
 		openConfig.setEnabled(!isRunning);
 
-		buttonStart.setEnabled(isConfirmed && hasSetHome && !isRunning);
-		buttonStartAt.setEnabled(isConfirmed && hasSetHome && !isRunning);
+		buttonStart.setEnabled(isConfirmed && hasSetHome && !isRunning && !isLoading);
+		buttonStartAt.setEnabled(isConfirmed && hasSetHome && !isRunning && !isLoading);
 		buttonPause.setEnabled(isConfirmed && isRunning);
 		buttonHalt.setEnabled(isConfirmed && isRunning);
 
@@ -737,10 +740,10 @@ public class MakelangeloRobotPanel extends JPanel implements ActionListener, Ite
 			robot.setDecorator(chosenGenerator);
 			chosenGenerator.setRobot(robot);
 
-			String destinationFile = System.getProperty("user.dir") + "/temp.ngc";;
+			final String destinationFile = System.getProperty("user.dir") + "/temp.ngc";
 			try (
 					final OutputStream fileOutputStream = new FileOutputStream(destinationFile);
-					final Writer out = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8)
+					final Writer out = new GCodeSimplifyingWriter(new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8), robot.getSettings())
 					) {
 				chosenGenerator.generate(gui,out);
 				out.flush();
@@ -750,16 +753,37 @@ public class MakelangeloRobotPanel extends JPanel implements ActionListener, Ite
 			}
 			robot.setDecorator(null);
 
-			LoadAndSaveGCode loader = new LoadAndSaveGCode();
-			try (final InputStream fileInputStream = new FileInputStream(destinationFile)) {
-				loader.load(fileInputStream,robot);
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
+			// reordering a big drawing takes a while.  Do it off the event thread, then load the result.
+			SwingWorker<Void, Void> s = new SwingWorker<Void, Void>() {
+				@Override
+				public Void doInBackground() {
+					if(robot.getSettings().shouldOptimizeTravel()) {
+						try {
+							GCodeTravelOptimizer optimizer = new GCodeTravelOptimizer(robot.getSettings());
+							optimizer.optimize(new File(destinationFile));
+							Log.message(Translator.get("OptimizeTravel") + ": " + Math.round(optimizer.getTravelBefore()) + "mm -> " + Math.round(optimizer.getTravelAfter()) + "mm");
+						} catch(IOException e) {
+							Log.error(Translator.get("Failed") + e.getLocalizedMessage());
+						}
+					}
+					return null;
+				}
 
-			Log.message(Translator.get("Finished"));
-			SoundSystem.playConversionFinishedSound();
-			updateButtonAccess();
+				@Override
+				public void done() {
+					LoadAndSaveGCode loader = new LoadAndSaveGCode();
+					try (final InputStream fileInputStream = new FileInputStream(destinationFile)) {
+						loader.load(fileInputStream,robot);
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+
+					Log.message(Translator.get("Finished"));
+					SoundSystem.playConversionFinishedSound();
+					updateButtonAccess();
+				}
+			};
+			s.execute();
 		}
 	}
 
@@ -0,0 +1,163 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.marginallyclever.communications.simulated.SimulatedConnection;
+import com.marginallyclever.communications.simulated.SimulatedFirmware;
+import com.marginallyclever.communications.simulated.SimulatedTransportLayer;
+
+/**
+ * Streams a gcode file to a simulated robot through MakelangeloRobot.sendFileCommand() and reports how fast it went.
+ * Needs no hardware and no display, so send path changes can be compared on any machine.
+ * <p>
+ * Usage: SendFileBenchmark [file.ngc] [-lines=N] [-latency=micros] [-lineTime=micros] [-buffer=bytes] [-errors=rate] [-seed=N] [-timeout=seconds]
+ * <p>
+ * Exits with 1 if the drawing doesn't finish in time, which usually means the robot and the send path lost track of
+ * each other.  A robot buffer smaller than the streaming window will do that.
+ * <p>
+ * Without a file a drawing of N short moves is made up.  Files with tool changes open a dialog and won't run headless.
+ */
+public class SendFileBenchmark {
+	public static void main(String[] argv) throws Exception {
+		String filename = null;
+		int lines = 20000;
+		long latency = 0;
+		long lineTime = 0;
+		int buffer = 64;
+		double errors = 0;
+		long seed = 0;
+		long timeout = 600;
+
+		for(String arg : argv) {
+			if(arg.startsWith("-lines=")) lines = Integer.parseInt(valueOf(arg));
+			else if(arg.startsWith("-latency=")) latency = Long.parseLong(valueOf(arg));
+			else if(arg.startsWith("-lineTime=")) lineTime = Long.parseLong(valueOf(arg));
+			else if(arg.startsWith("-buffer=")) buffer = Integer.parseInt(valueOf(arg));
+			else if(arg.startsWith("-errors=")) errors = Double.parseDouble(valueOf(arg));
+			else if(arg.startsWith("-seed=")) seed = Long.parseLong(valueOf(arg));
+			else if(arg.startsWith("-timeout=")) timeout = Long.parseLong(valueOf(arg));
+			else if(arg.startsWith("-")) throw new IllegalArgumentException("unknown option "+arg);
+			else filename = arg;
+		}
+
+		MakelangeloRobot robot = new MakelangeloRobot();
+		if(filename == null) {
+			File temp = File.createTempFile("benchmark", ".ngc");
+			temp.deleteOnExit();
+			makeDrawing(temp,lines,robot);
+			filename = temp.getAbsolutePath();
+		}
+
+		SimulatedTransportLayer layer = new SimulatedTransportLayer();
+		layer.setLinkLatency(latency);
+		layer.setLineTime(lineTime);
+		layer.setReceiveBufferSize(buffer);
+		layer.setErrorRate(errors, seed);
+		SimulatedConnection connection = (SimulatedConnection)layer.openConnection("benchmark");
+		SimulatedFirmware firmware = connection.getFirmware();
+		robot.setConnection(connection);
+
+		if(!waitFor(robot,connection,false,10000)) throw new IOException("The simulated robot never said hello.");
+		GCodeFile gcode = new GCodeFile(filename,false);
+		robot.setGCode(gcode);
+
+		int receivedBefore = firmware.getLinesReceived();
+		int acceptedBefore = firmware.getLinesAccepted();
+		int errorsBefore = firmware.getErrorsReported();
+		int answeredBefore = connection.getLatencies().length;
+
+		long start = System.nanoTime();
+		robot.startAt(0);
+		boolean finished = waitFor(robot,connection,true,timeout*1000);
+		long elapsed = System.nanoTime()-start;
+		robot.setConnection(null);
+
+		long [] latencies = connection.getLatencies();
+		latencies = Arrays.copyOfRange(latencies, answeredBefore, latencies.length);
+		Arrays.sort(latencies);
+		double seconds = elapsed/1e9;
+		int accepted = firmware.getLinesAccepted()-acceptedBefore;
+
+		System.out.println("file         "+filename+" ("+gcode.getLinesTotal()+" lines)");
+		System.out.println("robot        latency "+latency+"us, line time "+lineTime+"us, buffer "+buffer+" bytes, errors "+errors);
+		System.out.println(String.format(Locale.US,"time         %.3f s",seconds));
+		System.out.println(String.format(Locale.US,"lines/sec    %.0f",accepted/seconds));
+		System.out.println("lines sent   "+(firmware.getLinesReceived()-receivedBefore)+" ("+accepted+" accepted, "+(firmware.getErrorsReported()-errorsBefore)+" rejected)");
+		System.out.println("bytes lost   "+firmware.getBytesDropped());
+		System.out.println("line errors  "+robot.getLineErrorStatistics());
+		System.out.println(String.format(Locale.US,"latency ms   p50 %.3f  p90 %.3f  p99 %.3f  max %.3f",
+				percentile(latencies,0.50), percentile(latencies,0.90), percentile(latencies,0.99), percentile(latencies,1.0)));
+		if(!finished) {
+			System.out.println("TIMED OUT after "+gcode.getLinesProcessed()+" lines");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+
+	private static String valueOf(String arg) {
+		return arg.substring(arg.indexOf('=')+1);
+	}
+
+
+	/**
+	 * Wait until the robot is connected, or until it has finished drawing and every line has been answered.
+	 * @param timeoutMs zero to wait forever
+	 * @return false on timeout
+	 */
+	private static boolean waitFor(MakelangeloRobot robot,SimulatedConnection connection,boolean finished,long timeoutMs) throws InterruptedException {
+		long end = System.currentTimeMillis()+timeoutMs;
+		while(finished ? (robot.isRunning() || connection.getLinesInFlight()>0) : !robot.isPortConfirmed()) {
+			if(timeoutMs>0 && System.currentTimeMillis() > end) return false;
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+
+	/**
+	 * @param sorted nanoseconds, smallest first
+	 * @param fraction 0...1
+	 * @return milliseconds
+	 */
+	private static double percentile(long [] sorted,double fraction) {
+		if(sorted.length==0) return 0;
+		int i = (int)Math.ceil(fraction*sorted.length)-1;
+		return sorted[Math.max(0, i)]/1e6;
+	}
+
+
+	/**
+	 * A made up drawing: short strokes of ten moves each, like a hatched picture.
+	 */
+	private static void makeDrawing(File file,int lines,MakelangeloRobot robot) throws IOException {
+		String penUp = robot.getSettings().getPenUpString();
+		String penDown = robot.getSettings().getPenDownString();
+		int penUpLines = penUp.trim().split("\n").length;
+		int penDownLines = penDown.trim().split("\n").length;
+		try(Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			out.write("G21;\nG90;\n");
+			int written = 2;
+			int stroke = 0;
+			while(written < lines) {
+				double y = (stroke%200) - 100;
+				out.write(penUp.trim()+"\n");
+				out.write(String.format(Locale.US,"G00 X%.3f Y%.3f;\n", -100.0, y));
+				out.write(penDown.trim()+"\n");
+				written += penUpLines+1+penDownLines;
+				for(int i=1;i<=10 && written<lines;++i,++written) {
+					out.write(String.format(Locale.US,"G00 X%.3f Y%.3f;\n", -100.0+i*20, y+((i%2)*0.5)));
+				}
+				++stroke;
+			}
+			out.write(penUp.trim()+"\n");
+		}
+	}
+}
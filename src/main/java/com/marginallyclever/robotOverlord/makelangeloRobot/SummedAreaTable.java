@@ -0,0 +1,121 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.ParallelRows;
+import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.PixelSource;
+
+/**
+ * The sum of every rectangle of one channel of an image, in constant time.
+ * <p>
+ * Entry (x,y) holds the sum of all pixels above and left of (x,y).  The sums are kept in ints and allowed to wrap
+ * around: the difference of four entries is still exact for any rectangle whose true sum fits in 32 bits unsigned,
+ * and bigger rectangles are added up in strips.  That halves the memory of a table of longs.
+ * <p>
+ * Still, a table is (width+1)*(height+1) ints: about 96MB for a 24 megapixel picture.
+ */
+public class SummedAreaTable {
+	// rectangles up to this many pixels of 0...255 can't overflow 32 bits.
+	private static final long MAX_AREA = 0xffffffffL / 255;
+
+	private int width, height;
+	// (width+1)*(height+1), the first row and column are zero.
+	private int [] sums;
+
+
+	/**
+	 * @param source the image
+	 * @param channel see TransformedImage.getChannel()
+	 */
+	public SummedAreaTable(final PixelSource source, final int channel) {
+		width = source.getWidth();
+		height = source.getHeight();
+		final int stride = width + 1;
+		sums = new int[stride * (height + 1)];
+
+		// running sum along each row
+		ParallelRows.forEach(width, height, new ParallelRows.Rows() {
+			@Override
+			public void run(int y0, int y1) {
+				int [] row = new int[width];
+				for (int y = y0; y < y1; ++y) {
+					source.read(y, row);
+					int i = (y + 1) * stride + 1;
+					int sum = 0;
+					for (int x = 0; x < width; ++x) {
+						sum += TransformedImage.getChannel(row[x], channel);
+						sums[i + x] = sum;
+					}
+				}
+			}
+		});
+
+		// then down each column
+		for (int y = 2; y <= height; ++y) {
+			int i = y * stride;
+			for (int x = 1; x <= width; ++x) {
+				sums[i + x] += sums[i + x - stride];
+			}
+		}
+	}
+
+
+	public int getWidth() {
+		return width;
+	}
+
+
+	public int getHeight() {
+		return height;
+	}
+
+
+	/**
+	 * @return the sum of pixels x0...x1-1 in rows y0...y1-1.  Must be inside the image.
+	 */
+	public long sum(int x0, int y0, int x1, int y1) {
+		if (x1 <= x0 || y1 <= y0) return 0;
+
+		int rows = (int) Math.max(1, Math.min(y1 - y0, MAX_AREA / (x1 - x0)));
+		long total = 0;
+		for (int y = y0; y < y1; y += rows) {
+			int y2 = Math.min(y + rows, y1);
+			int a = y * (width + 1);
+			int b = y2 * (width + 1);
+			total += (sums[b + x1] - sums[b + x0] - sums[a + x1] + sums[a + x0]) & 0xffffffffL;
+		}
+		return total;
+	}
+
+
+	/**
+	 * Integrate over a rectangle, counting pixels cut by the edges by how much of them is inside.
+	 * Pixel (x,y) covers x...x+1 and y...y+1.  The rectangle must be inside the image.
+	 * @return the sum of each pixel times the area of it that is inside the rectangle.
+	 */
+	public double integrate(double x0, double y0, double x1, double y1) {
+		// each axis is a partial pixel, whole pixels, and another partial pixel.
+		if (x1 <= x0 || y1 <= y0) return 0;
+		int first = (int) Math.floor(y0);
+		int last = (int) Math.ceil(y1) - 1;
+		if (first == last) return (y1 - y0) * integrateRows(x0, x1, first, first + 1);
+
+		double total = (first + 1 - y0) * integrateRows(x0, x1, first, first + 1);
+		if (last > first + 1) total += integrateRows(x0, x1, first + 1, last);
+		total += (y1 - last) * integrateRows(x0, x1, last, last + 1);
+		return total;
+	}
+
+
+	/**
+	 * Integrate from x0 to x1 over whole rows y0...y1-1.
+	 */
+	private double integrateRows(double x0, double x1, int y0, int y1) {
+		int first = (int) Math.floor(x0);
+		int last = (int) Math.ceil(x1) - 1;
+		if (first == last) return (x1 - x0) * sum(first, y0, first + 1, y1);
+
+		double total = (first + 1 - x0) * sum(first, y0, first + 1, y1);
+		if (last > first + 1) total += sum(first + 1, y0, last, y1);
+		total += (x1 - last) * sum(last, y0, last + 1, y1);
+		return total;
+	}
+}
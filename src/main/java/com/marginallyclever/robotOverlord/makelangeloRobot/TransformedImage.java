@@ -1,9 +1,9 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 
 import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.ImageFilter;
+import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.ImageRows;
 
 /**
  * TransformedImage is a BufferedImage, scaled, rotated, and translated
@@ -20,6 +20,9 @@ public class TransformedImage {
 	private float translateX, translateY;
 	private float rotationDegrees;
 	private int colorChannel;
+	// for sample(), one per color channel.  Made when first needed and kept until the pixels change.  Each is 4 bytes
+	// per pixel, so a picture sampled in all four channels holds about 384MB at 24 megapixels.
+	private SummedAreaTable [] sums = new SummedAreaTable[4];
 
 	public TransformedImage(BufferedImage src) {
 		sourceImage = src;
@@ -79,6 +82,28 @@ public class TransformedImage {
 		return sourceImage;
 	}
 
+	/**
+	 * @param src the same picture stored another way.  Must be the same size.
+	 */
+	public void setSourceImage(BufferedImage src) {
+		sourceImage = src;
+		sourceImageChanged();
+	}
+
+	/**
+	 * Call after changing the pixels of the source image, so sample() doesn't use old sums.
+	 */
+	public synchronized void sourceImageChanged() {
+		for (int i = 0; i < sums.length; ++i) sums[i] = null;
+	}
+
+	private synchronized SummedAreaTable getSums() {
+		if (sums[colorChannel] == null) {
+			sums[colorChannel] = new SummedAreaTable(new ImageRows(sourceImage), colorChannel);
+		}
+		return sums[colorChannel];
+	}
+
 	public int getTransformedX(float x) {
 		return (int) ((x / scaleX) - translateX);
 	}
@@ -97,106 +122,39 @@ public class TransformedImage {
 
 	/**
 	 * sample the image, taking into account fractions of pixels.
+	 * <p>
+	 * The average of every source pixel inside the region, each counted by how much of it is inside.  Constant time
+	 * no matter how big the region is: the first call for each color channel adds up the whole image once.
+	 * Like the other sample methods this uses the scale and translation, not the rotation.
 	 *
 	 * @param x0 top left corner
 	 * @param y0 top left corner
 	 * @param x1 bottom right corner
 	 * @param y1 bottom right corner
-	 * @return greyscale intensity in this region. range 0...255 inclusive
+	 * @return greyscale intensity in this region. range 0...255 inclusive.  255 if the region is outside the image.
 	 */
 	public int sample(double x0, double y0, double x1, double y1) {
-		float sampleValue = 0;
-		float sampleSum = 0;
-
-		double xceil = Math.ceil(x0);
-		double xweightstart = (x0 != xceil) ? xceil - x0 : 1;
-
-		double xfloor = Math.floor(x1);
-		double xweightend = (x1 != xceil) ? xfloor - x1 : 0;
-
-		int left = (int) Math.floor(x0);
-		int right = (int) Math.ceil(x1);
-		double s;
-
-		// top edge
-		double yceil = Math.ceil(y0);
-		if (y0 != yceil) {
-			double yweightstart = yceil - y0;
-
-			// left edge
-			if (canSampleAt((float) x0, (float) y0)) {
-				s = xweightstart * yweightstart;
-				sampleValue += sample1x1Unchecked((float) x0, (float) y0) * s;
-				sampleSum += s;
-			}
-
-			for (int i = left; i < right; ++i) {
-				if (canSampleAt(i, (float) y0)) {
-					sampleValue += sample1x1Unchecked(i, (float) y0) * yweightstart;
-					sampleSum += yweightstart;
-				}
-			}
-			// right edge
-			if (canSampleAt(right, (float) y0)) {
-				s = xweightend * yweightstart;
-				sampleValue += sample1x1Unchecked(right, (float) y0) * s;
-				sampleSum += s;
-			}
+		double u0 = (x0 / scaleX) - translateX;
+		double u1 = (x1 / scaleX) - translateX;
+		double v0 = (y0 / scaleY) - translateY;
+		double v1 = (y1 / scaleY) - translateY;
+		if (u1 < u0) { double t = u0; u0 = u1; u1 = t; }
+		if (v1 < v0) { double t = v0; v0 = v1; v1 = t; }
+		if (u0 == u1 || v0 == v1) {
+			return sample1x1((float) x0, (float) y0);
 		}
 
-		int bottom = (int) Math.floor(y0);
-		int top = (int) Math.ceil(y1);
-		for (int j = bottom; j < top; ++j) {
-			// left edge
-			if (canSampleAt((float) x0, j)) {
-				sampleValue += sample1x1Unchecked((int) x0, j) * xweightstart;
-				sampleSum += xweightstart;
-			}
-
-			for (int i = left; i < right; ++i) {
-				if (canSampleAt(i, j)) {
-					sampleValue += sample1x1Unchecked(i, j);
-					sampleSum += 1;
-				}
-			}
-			// right edge
-			if (canSampleAt(right, j)) {
-				sampleValue += sample1x1Unchecked(right, j) * xweightend;
-				sampleSum += xweightend;
-			}
-		}
-
-		// bottom edge
-		double yfloor = Math.floor(y1);
-		if (y1 != yfloor) {
-			double yweightend = yfloor - y1;
-
-			// left edge
-			if (canSampleAt((float) x0, (float) y1)) {
-				s = xweightstart * yweightend;
-				sampleValue += sample1x1Unchecked((float) x0, (float) y1) * s;
-				sampleSum += s;
-			}
-
-			for (int i = left; i < right; ++i) {
-				if (canSampleAt(i, (float) y1)) {
-					sampleValue += sample1x1Unchecked((float) i, (float) y1) * yweightend;
-					sampleSum += yweightend;
-				}
-
-			}
-			// right edge
-			if (canSampleAt(right, (float) y1)) {
-				s = xweightend * yweightend;
-				sampleValue += sample1x1Unchecked(right, (float) y1) * s;
-				sampleSum += s;
-			}
-		}
-
-		if (sampleSum == 0)
+		// only the part inside the image counts
+		u0 = Math.max(u0, 0);
+		v0 = Math.max(v0, 0);
+		u1 = Math.min(u1, sourceImage.getWidth());
+		v1 = Math.min(v1, sourceImage.getHeight());
+		if (u1 <= u0 || v1 <= v0)
 			return 255;
 
-		return (int) (sampleValue / sampleSum);
+		double area = (u1 - u0) * (v1 - v0);
+		int value = (int) (getSums().integrate(u0, v0, u1, v1) / area);
+		return Math.min(Math.max(value, 0), 255);
 	}
 
 	/**
@@ -222,19 +180,21 @@ public class TransformedImage {
 		int sampleX = getTransformedX(x);
 		int sampleY = getTransformedY(y);
 
-		Color c = new Color(sourceImage.getRGB(sampleX, sampleY));
-		int colorToBlend=0;
-		
-		switch (colorChannel) {
-		case 1: colorToBlend=c.getRed();  break;
-		case 2: colorToBlend=c.getGreen();  break;
-		case 3: colorToBlend=c.getBlue();  break;
-		default: return ImageFilter.decodeColor(c);
+		return getChannel(sourceImage.getRGB(sampleX, sampleY), colorChannel);
+	}
+
+	/**
+	 * @param argb a pixel
+	 * @param channel 1 for red, 2 for green, 3 for blue, anything else for grey.
+	 * @return the intensity of the channel [0...255].  Transparency is ignored.
+	 */
+	public static int getChannel(int argb, int channel) {
+		switch (channel) {
+		case 1: return (argb >> 16) & 0xff;
+		case 2: return (argb >>  8) & 0xff;
+		case 3: return  argb        & 0xff;
+		default: return ImageFilter.decode32bit(argb | 0xff000000);
 		}
-		
-		double a = 255-c.getAlpha();
-		int c2 = (int)((255 - colorToBlend) * (a / 255.0) + colorToBlend);
-		return c2;
 	}
 
 	public int sample3x3(float x, float y) {
@@ -278,7 +238,7 @@ public class TransformedImage {
 	}	
 
 	public void setColorChannel(int channel) {
-		colorChannel = channel;
+		colorChannel = (channel >= 1 && channel <= 3) ? channel : 0;
 	}
 
 	public void setScaleX(float x) {
@@ -1,13 +1,9 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
 
 import java.awt.GridLayout;
-import java.awt.Point;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JLabel;
@@ -23,8 +19,7 @@ import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobotDecor
 import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.Filter_BlackAndWhite;
 import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
 import com.marginallyclever.voronoi.VoronoiCell;
-import com.marginallyclever.voronoi.VoronoiCellEdge;
-import com.marginallyclever.voronoi.VoronoiGraphEdge;
+import com.marginallyclever.voronoi.VoronoiEdgeBuffer;
 import com.marginallyclever.voronoi.VoronoiTesselator;
 
 
@@ -42,15 +37,12 @@ public class Converter_VoronoiStippling extends ImageConverter implements Makela
 	private VoronoiTesselator voronoiTesselator = new VoronoiTesselator();
 	private VoronoiCell[] cells = new VoronoiCell[1];
 	private TransformedImage sourceImage;
-	private List<VoronoiGraphEdge> graphEdges = null;
+	private VoronoiEdgeBuffer graphEdges = null;
 	private static int MAX_GENERATIONS = 400;
 	private static int MAX_CELLS = 1000;
 	private static float MAX_DOT_SIZE = 5.0f;
 	private static float MIN_DOT_SIZE = 1.0f;
-	private Point bound_min = new Point();
-	private Point bound_max = new Point();
-	private int numEdgesInCell;
-	private List<VoronoiCellEdge> cellBorder = null;
+	private LloydRelaxation relaxation;
 	private double[] xValuesIn = null;
 	private double[] yValuesIn = null;
 
@@ -100,9 +92,8 @@ public class Converter_VoronoiStippling extends ImageConverter implements Makela
 			
 			tool = machine.getCurrentTool();
 
-			cellBorder = new ArrayList<>();
-
 			initializeCells(0.001);
+			relaxation = new LloydRelaxation(sourceImage, cells.length, xLeft, xRight, yBottom, yTop);
 			evolveCells();
 			writeOutCells(out);
 
@@ -124,9 +115,9 @@ public class Converter_VoronoiStippling extends ImageConverter implements Makela
 		// draw cell edges
 		gl2.glColor3f(0.9f, 0.9f, 0.9f);
 		gl2.glBegin(GL2.GL_LINES);
-		for (VoronoiGraphEdge e : graphEdges) {
-			gl2.glVertex2d( e.x1, e.y1 );
-			gl2.glVertex2d( e.x2, e.y2 );
+		for (int e = 0; e < graphEdges.count; ++e) {
+			gl2.glVertex2d( graphEdges.x1[e], graphEdges.y1[e] );
+			gl2.glVertex2d( graphEdges.x2[e], graphEdges.y2[e] );
 		}
 		gl2.glEnd();
 
@@ -276,149 +267,16 @@ public class Converter_VoronoiStippling extends ImageConverter implements Makela
 		}
 
 		// scan left to right across the image, building the list of borders as we go.
-		graphEdges = voronoiTesselator.generateVoronoi(xValuesIn, yValuesIn, xLeft, xRight, yBottom, yTop);
-	}
-
-
-	protected void generateBounds(int cellIndex) {
-		numEdgesInCell = 0;
-
-		float cx = cells[cellIndex].centroid.x;
-		float cy = cells[cellIndex].centroid.y;
-
-		double dx, dy, nx, ny, dot1;
-
-		//long ta = System.nanoTime();
-
-		for (VoronoiGraphEdge e : graphEdges) {
-			if (e.site1 != cellIndex && e.site2 != cellIndex) continue;
-			if (numEdgesInCell == 0) {
-				if (e.x1 < e.x2) {
-					bound_min.setLocation( e.x1, bound_min.getY() );
-					bound_max.setLocation( e.x2, bound_max.getY() );
-				} else {
-					bound_min.setLocation( e.x2, bound_min.getY() );
-					bound_max.setLocation( e.x1, bound_max.getY() );
-				}
-				if (e.y1 < e.y2) {
-					bound_min.setLocation( bound_min.getX(), (float) e.y1 );
-					bound_max.setLocation( bound_max.getX(), (float) e.y2 );
-				} else {
-					bound_min.setLocation( bound_min.getX(), (float) e.y2 );
-					bound_max.setLocation( bound_max.getX(), (float) e.y1 );
-				}
-			} else {
-				if (bound_min.x > e.x1) bound_min.setLocation( e.x1, bound_min.getY() );
-				if (bound_min.x > e.x2) bound_min.setLocation( e.x2, bound_min.getY() );
-				if (bound_max.x < e.x1) bound_max.setLocation( e.x1, bound_max.getY() );
-				if (bound_max.x < e.x2) bound_max.setLocation( e.x2, bound_max.getY() );
-
-				if (bound_min.y > e.y1) bound_min.setLocation( bound_min.getX(), e.y1 );
-				if (bound_min.y > e.y2) bound_min.setLocation( bound_min.getX(), e.y2 );
-				if (bound_max.y < e.y1) bound_max.setLocation( bound_max.getX(), e.y1 );
-				if (bound_max.y < e.y2) bound_max.setLocation( bound_max.getX(), e.y2 );
-			}
-
-			// make a unnormalized vector along the edge of e
-			dx = e.x2 - e.x1;
-			dy = e.y2 - e.y1;
-			// find a line orthogonal to dx/dy
-			nx = dy;
-			ny = -dx;
-			// dot product the centroid and the normal.
-			dx = cx - e.x1;
-			dy = cy - e.y1;
-			dot1 = (dx * nx + dy * ny);
-
-			if (cellBorder.size() == numEdgesInCell) {
-				cellBorder.add(new VoronoiCellEdge());
-			}
-
-			VoronoiCellEdge ce = cellBorder.get(numEdgesInCell++);
-			ce.px = e.x1;
-			ce.py = e.y1;
-			if (dot1 < 0) {
-				ce.nx = -nx;
-				ce.ny = -ny;
-			} else {
-				ce.nx = nx;
-				ce.ny = ny;
-			}
-		}
-
-		//long tc = System.nanoTime();
-
-		//System.out.println("\t"+((tb-ta)/1e6)+"\t"+((tc-tb)/1e6));
-	}
-
-
-	protected boolean insideBorder(double x, double y) {
-		double dx, dy;
-		int i;
-		Iterator<VoronoiCellEdge> ice = cellBorder.iterator();
-		for (i = 0; i < numEdgesInCell; ++i) {
-			VoronoiCellEdge ce = ice.next();
-
-			// dot product the test point.
-			dx = x - ce.px;
-			dy = y - ce.py;
-			// If they are opposite signs then the test point is outside the cell
-			if (dx * ce.nx + dy * ce.ny < 0) return false;
-		}
-		// passed all tests, must be in cell.
-		return true;
+		// the buffer is reused from one generation to the next.
+		if (graphEdges == null) graphEdges = new VoronoiEdgeBuffer();
+		voronoiTesselator.generateVoronoi(xValuesIn, yValuesIn, cells.length, xLeft, xRight, yBottom, yTop, graphEdges);
 	}
 
 
 	// find the weighted center of each cell.
 	// weight is based on the intensity of the color of each pixel inside the cell
-	// the center of the pixel must be inside the cell to be counted.
 	protected void adjustCentroids() {
-		int i;
-		double weight, wx, wy, x, y;
-		//int step = (int) Math.ceil(tool.getDiameter() / (1.0 * scale));
-		double stepSize = 2.0;
-
-		for (i = 0; i < cells.length; ++i) {
-			generateBounds(i);
-			double sx = Math.floor(bound_min.x);
-			double sy = Math.floor(bound_min.y);
-			double ex = Math.floor(bound_max.x);
-			double ey = Math.floor(bound_max.y);
-
-
-			//System.out.println("bounding "+i+" from "+sx+", "+sy+" to "+ex+", "+ey);
-			//System.out.println("centroid "+cells[i].centroid.x+", "+cells[i].centroid.y);
-
-			weight = 0;
-			wx = 0;
-			wy = 0;
-
-			for (y = sy; y <= ey; y += stepSize) {
-				for (x = sx; x <= ex; x += stepSize) {
-					if (insideBorder(x, y)) {
-						float val = (float) sourceImage.sample1x1( (float)x, (float)y ) / 255.0f;
-						val = 1.0f - val;
-						weight += val;
-						wx += x * val;
-						wy += y * val;
-					}
-				}
-			}
-			if (weight > 0) {
-				wx /= weight;
-				wy /= weight;
-			}
-
-			// make sure centroid can't leave image bounds
-			if (wx < xLeft) wx = xLeft;
-			if (wy < yBottom) wy = yBottom;
-			if (wx >= xRight) wx = xRight;
-			if (wy >= yTop) wy = yTop;
-
-			// use the new center
-			cells[i].centroid.setLocation(wx, wy);
-		}
+		relaxation.relax(cells);
 	}
 }
 
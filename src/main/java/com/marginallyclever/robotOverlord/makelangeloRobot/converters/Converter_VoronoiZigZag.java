@@ -1,13 +1,9 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
 
 import java.awt.GridLayout;
-import java.awt.Point;
 import java.io.IOException;
 import java.io.Writer;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JLabel;
@@ -23,8 +19,7 @@ import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobotDecor
 import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.Filter_BlackAndWhite;
 import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
 import com.marginallyclever.voronoi.VoronoiCell;
-import com.marginallyclever.voronoi.VoronoiCellEdge;
-import com.marginallyclever.voronoi.VoronoiGraphEdge;
+import com.marginallyclever.voronoi.VoronoiEdgeBuffer;
 import com.marginallyclever.voronoi.VoronoiTesselator;
 
 /**
@@ -40,24 +35,25 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 	private VoronoiTesselator voronoiTesselator = new VoronoiTesselator();
 	private VoronoiCell[] cells = new VoronoiCell[1];
 	private TransformedImage sourceImage;
-	private List<VoronoiGraphEdge> graphEdges = null;
+	private VoronoiEdgeBuffer graphEdges = null;
 	private static int MAX_GENERATIONS = 200;
 	private static int MAX_CELLS = 3000;
 	private static float CUTOFF = 1.0f;
-	private Point bound_min = new Point();
-	private Point bound_max = new Point();
-	private int numEdgesInCell;
-	private List<VoronoiCellEdge> cellBorder = null;
+	private LloydRelaxation relaxation;
 	private double[] xValuesIn = null;
 	private double[] yValuesIn = null;
-	private int[] solution = null;
+	// replaced, never changed, so render() can draw it while the tour is being improved.
+	private volatile int[] solution = null;
 	private int solutionContains;
+	// the cells in the tour
+	private int[] tourCells = null;
+	private TourOptimizer optimizer;
 	private int renderMode;
 
 	// processing tools
 	private long t_elapsed, t_start;
 	private double progress;
-	private double old_len, len;
+	private double old_len;
 	private long time_limit = 10 * 60 * 1000; // 10 minutes
 
 	private float yBottom, yTop, xLeft, xRight;
@@ -98,9 +94,8 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 			
 			tool = machine.getCurrentTool();
 
-			cellBorder = new ArrayList<>();
-
 			initializeCells(0.001);
+			relaxation = new LloydRelaxation(sourceImage, cells.length, xLeft, xRight, yBottom, yTop);
 
 			renderMode = 0;
 			evolveCells();
@@ -122,9 +117,9 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 			// draw cell edges
 			gl2.glColor3f(0.9f, 0.9f, 0.9f);
 			gl2.glBegin(GL2.GL_LINES);
-			for (VoronoiGraphEdge e : graphEdges) {
-				gl2.glVertex2d( e.x1, e.y1 );
-				gl2.glVertex2d( e.x2, e.y2 );
+			for (int e = 0; e < graphEdges.count; ++e) {
+				gl2.glVertex2d( graphEdges.x1[e], graphEdges.y1[e] );
+				gl2.glVertex2d( graphEdges.x2[e], graphEdges.y2[e] );
 			}
 			gl2.glEnd();
 		}
@@ -148,12 +143,13 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 			}
 			gl2.glEnd();
 		}
-		if (renderMode == 1 && solution != null) {
+		int[] tour = solution;
+		if (renderMode == 1 && tour != null) {
 			// draw tour
 			gl2.glColor3f(0, 0, 0);
 			gl2.glBegin(GL2.GL_LINE_LOOP);
-			for (i = 0; i < solutionContains; ++i) {
-				VoronoiCell c = cells[solution[i]];
+			for (i = 0; i < tour.length; ++i) {
+				VoronoiCell c = cells[tour[i]];
 				gl2.glVertex2d( c.centroid.x, c.centroid.y );
 			}
 			gl2.glEnd();
@@ -162,30 +158,28 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 	}
 
 	private void optimizeTour() {
-		int gen = 0;
-		int once = 1;
-
-		Log.write("green", "Running Lin/Kerighan optimization...");
-
-		old_len = getTourLength(solution);
-		updateProgress(old_len, 2);
+		Log.write("green", "Running 2-opt and Or-opt optimization...");
 
+		old_len = optimizer.getLength();
 		progress = 0;
-
 		t_elapsed = 0;
 		t_start = System.currentTimeMillis();
-		while (once == 1 && t_elapsed < time_limit && !parent.isCancelled()) {
-			once = 0;
-			// @TODO: make these optional for the very thorough people
-			// once|=transposeForwardTest();
-			// once|=transposeBackwardTest();
-
-			once |= flipTests();
-			gen++;
-			Log.write("green", "Generation " + gen);
-		}
+		updateProgress(old_len, 2);
 
-		Log.write("green", "Finished @ " + gen);
+		boolean finished = optimizer.optimize(time_limit, new TourOptimizer.Listener() {
+			@Override
+			public boolean isCancelled() {
+				return parent.isCancelled() || pm.isCanceled();
+			}
+
+			@Override
+			public void tourChanged(int[] tour, double length) {
+				setSolution(tour);
+				updateProgress(length, 1);
+			}
+		});
+
+		Log.write("green", (finished ? "Finished @ " : "Stopped @ ") + formatTime(t_elapsed));
 	}
 
 	public String formatTime(long millis) {
@@ -207,8 +201,6 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 		t_elapsed = System.currentTimeMillis() - t_start;
 		double new_progress = 100.0 * (double) t_elapsed / (double) time_limit;
 		if (new_progress > progress + 0.1) {
-			// find the new tour length
-			len = getTourLength(solution);
 			if (old_len > len) {
 				old_len = len;
 				DecimalFormat flen = new DecimalFormat("#.##");
@@ -234,144 +226,41 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 		}
 	}
 
-	private int ti(int x) {
-		return (x + solutionContains) % solutionContains;
-	}
-
-	// we have s1,s2...e-1,e
-	// check if s1,e-1,...s2,e is shorter
-	public int flipTests() {
-		int start, end, j, once = 0, best_end;
-		float a, b, c, d, temp_diff, best_diff;
-
-		for (start = 0; start < solutionContains * 2 - 2 && !parent.isCancelled() && !pm.isCanceled(); ++start) {
-			a = calculateWeight(solution[ti(start)], solution[ti(start + 1)]);
-			best_end = -1;
-			best_diff = 0;
-
-			for (end = start + 2; end < start + solutionContains && !parent.isCancelled() && !pm.isCanceled(); ++end) {
-				// before
-				b = calculateWeight(solution[ti(end)], solution[ti(end - 1)]);
-				// after
-				c = calculateWeight(solution[ti(start)], solution[ti(end - 1)]);
-				d = calculateWeight(solution[ti(end)], solution[ti(start + 1)]);
-
-				temp_diff = (a + b) - (c + d);
-				if (best_diff < temp_diff) {
-					best_diff = temp_diff;
-					best_end = end;
-				}
-			}
-
-			if (best_end != -1 && !parent.isCancelled() && !pm.isCanceled()) {
-				once = 1;
-				// do the flip
-				int begin = start + 1;
-				int finish = best_end;
-				if (best_end < begin)
-					finish += solutionContains;
-				int half = (finish - begin) / 2;
-				int temp;
-				while (lock.isLocked())
-					;
-
-				lock.lock();
-				// Makelangelo.getSingleton().Log("<font color='red'>flipping
-				// "+(finish-begin));
-				for (j = 0; j < half; ++j) {
-					temp = solution[ti(begin + j)];
-					solution[ti(begin + j)] = solution[ti(finish - 1 - j)];
-					solution[ti(finish - 1 - j)] = temp;
-				}
-				lock.unlock();
-				updateProgress(len, 1);
-			}
-		}
-		return once;
-	}
-
-	private double calculateLength(int a, int b) {
-		return Math.sqrt(calculateWeight(a, b));
-	}
-
-	/**
-	 * Get the length of a tour segment
-	 * 
-	 * @param list
-	 *            an array of indexes into the point list. the order forms the
-	 *            tour sequence.
-	 * @return the length of the tour
-	 */
-	private double getTourLength(int[] list) {
-		double w = 0;
-		for (int i = 0; i < solutionContains - 1; ++i) {
-			w += calculateLength(list[i], list[i + 1]);
-		}
-		return w;
-	}
-
 	/**
-	 * Starting with point 0, find the next nearest point and repeat until all
-	 * points have been "found".
+	 * Connect the dark cells with a greedy tour.
 	 */
 	private void greedyTour() {
 		Log.write("green", "Finding greedy tour solution...");
 
-		int i, j;
-		float w, bestw;
-		int besti;
-
+		int i;
+		tourCells = new int[cells.length];
 		solutionContains = 0;
 		for (i = 0; i < cells.length; ++i) {
 			VoronoiCell c = cells[i];
 			float v = 1.0f - (float) sourceImage.sample1x1( (int) c.centroid.x, (int) c.centroid.y) / 255.0f;
 			if (v * 5 > CUTOFF)
-				solutionContains++;
+				tourCells[solutionContains++] = i;
 		}
 
-		try {
-			solution = new int[solutionContains];
-
-			// put all the points in the solution in no particular order.
-			j = 0;
-			for (i = 0; i < cells.length; ++i) {
-				VoronoiCell c = cells[i];
-				float v = 1.0f - (float) sourceImage.sample1x1( (int) c.centroid.x, (int) c.centroid.y) / 255.0f;
-				if (v * 5 > CUTOFF) {
-					solution[j++] = i;
-				}
-			}
-
-			int scount = 0;
-
-			do {
-				// Find the nearest point not already in the line.
-				// Any solution[n] where n>scount is not in the line.
-				bestw = calculateWeight(solution[scount], solution[scount + 1]);
-				besti = scount + 1;
-				for (i = scount + 2; i < solutionContains; ++i) {
-					w = calculateWeight(solution[scount], solution[i]);
-					if (w < bestw) {
-						bestw = w;
-						besti = i;
-					}
-				}
-				i = solution[scount + 1];
-				solution[scount + 1] = solution[besti];
-				solution[besti] = i;
-				scount++;
-			} while (scount < solutionContains - 2);
-		} catch (Exception e) {
-			e.printStackTrace();
+		double[] x = new double[solutionContains];
+		double[] y = new double[solutionContains];
+		for (i = 0; i < solutionContains; ++i) {
+			x[i] = cells[tourCells[i]].centroid.x;
+			y[i] = cells[tourCells[i]].centroid.y;
 		}
+		optimizer = new TourOptimizer(x, y, solutionContains);
+		setSolution(optimizer.getTour());
 	}
 
-	protected float calculateWeight(int a, int b) {
-		assert (a >= 0 && a < cells.length);
-		assert (b >= 0 && b < cells.length);
-		float x = cells[a].centroid.x - cells[b].centroid.x;
-		float y = cells[a].centroid.y - cells[b].centroid.y;
-		return x * x + y * y;
+	/**
+	 * @param tour indexes into tourCells, in the order they are visited.
+	 */
+	private void setSolution(int[] tour) {
+		int[] cellTour = new int[tour.length];
+		for (int i = 0; i < tour.length; ++i) {
+			cellTour[i] = tourCells[tour[i]];
+		}
+		solution = cellTour;
 	}
 
 	// set some starting points in a grid
@@ -472,158 +361,16 @@ public class Converter_VoronoiZigZag extends ImageConverter implements Makelange
 
 		// scan left to right across the image, building the list of borders as
 		// we go.
-		graphEdges = voronoiTesselator.generateVoronoi(xValuesIn, yValuesIn, xLeft, xRight, yBottom, yTop);
-	}
-
-	protected void generateBounds(int cellIndex) {
-		numEdgesInCell = 0;
-
-		float cx = cells[cellIndex].centroid.x;
-		float cy = cells[cellIndex].centroid.y;
-
-		double dx, dy, nx, ny, dot1;
-
-		// long ta = System.nanoTime();
-
-		for (VoronoiGraphEdge e : graphEdges) {
-			if (e.site1 != cellIndex && e.site2 != cellIndex)
-				continue;
-			if (numEdgesInCell == 0) {
-				if (e.x1 < e.x2) {
-					bound_min.setLocation(e.x1, bound_min.getY());
-					bound_max.setLocation(e.x2, bound_max.getY());
-				} else {
-					bound_min.setLocation(e.x2, bound_min.getY());
-					bound_max.setLocation(e.x1, bound_max.getY());
-				}
-				if (e.y1 < e.y2) {
-					bound_min.setLocation(bound_min.getX(), (float) e.y1);
-					bound_max.setLocation(bound_max.getX(), (float) e.y2);
-				} else {
-					bound_min.setLocation(bound_min.getX(), (float) e.y2);
-					bound_max.setLocation(bound_max.getX(), (float) e.y1);
-				}
-			} else {
-				if (bound_min.x > e.x1)
-					bound_min.setLocation(e.x1, bound_min.getY());
-				if (bound_min.x > e.x2)
-					bound_min.setLocation(e.x2, bound_min.getY());
-				if (bound_max.x < e.x1)
-					bound_max.setLocation(e.x1, bound_max.getY());
-				if (bound_max.x < e.x2)
-					bound_max.setLocation(e.x2, bound_max.getY());
-
-				if (bound_min.y > e.y1)
-					bound_min.setLocation(bound_min.getX(), e.y1);
-				if (bound_min.y > e.y2)
-					bound_min.setLocation(bound_min.getX(), e.y2);
-				if (bound_max.y < e.y1)
-					bound_max.setLocation(bound_max.getX(), e.y1);
-				if (bound_max.y < e.y2)
-					bound_max.setLocation(bound_max.getX(), e.y2);
-			}
-
-			// make a unnormalized vector along the edge of e
-			dx = e.x2 - e.x1;
-			dy = e.y2 - e.y1;
-			// find a line orthogonal to dx/dy
-			nx = dy;
-			ny = -dx;
-			// dot product the centroid and the normal.
-			dx = cx - e.x1;
-			dy = cy - e.y1;
-			dot1 = (dx * nx + dy * ny);
-
-			if (cellBorder.size() == numEdgesInCell) {
-				cellBorder.add(new VoronoiCellEdge());
-			}
-
-			VoronoiCellEdge ce = cellBorder.get(numEdgesInCell++);
-			ce.px = e.x1;
-			ce.py = e.y1;
-			if (dot1 < 0) {
-				ce.nx = -nx;
-				ce.ny = -ny;
-			} else {
-				ce.nx = nx;
-				ce.ny = ny;
-			}
-		}
-
-		// long tc = System.nanoTime();
-
-		// System.out.println("\t"+((tb-ta)/1e6)+"\t"+((tc-tb)/1e6));
-	}
-
-	protected boolean insideBorder(float x, float y) {
-		double dx, dy;
-		int i;
-		Iterator<VoronoiCellEdge> ice = cellBorder.iterator();
-		for (i = 0; i < numEdgesInCell; ++i) {
-			VoronoiCellEdge ce = ice.next();
-
-			// dot product the test point.
-			dx = x - ce.px;
-			dy = y - ce.py;
-			// If they are opposite signs then the test point is outside the
-			// cell
-			if (dx * ce.nx + dy * ce.ny < 0)
-				return false;
-		}
-		// passed all tests, must be in cell.
-		return true;
+		// the buffer is reused from one generation to the next.
+		if (graphEdges == null) graphEdges = new VoronoiEdgeBuffer();
+		voronoiTesselator.generateVoronoi(xValuesIn, yValuesIn, cells.length, xLeft, xRight, yBottom, yTop, graphEdges);
 	}
 
 	// find the weighted center of each cell.
 	// weight is based on the intensity of the color of each pixel inside the
 	// cell
-	// the center of the pixel must be inside the cell to be counted.
 	protected void adjustCentroids() {
-		int i;
-		float weight, wx, wy, x, y;
-		float stepSize = 2;
-
-		for (i = 0; i < cells.length; ++i) {
-			generateBounds(i);
-			int sx = (int) Math.floor(bound_min.x);
-			int sy = (int) Math.floor(bound_min.y);
-			int ex = (int) Math.floor(bound_max.x);
-			int ey = (int) Math.floor(bound_max.y);
-			// System.out.println("bounding "+i+" from "+sx+", "+sy+" to "+ex+",
-			// "+ey);
-			// System.out.println("centroid "+cells[i].centroid.x+",
-			// "+cells[i].centroid.y);
-
-			weight = 0;
-			wx = 0;
-			wy = 0;
-
-			for (y = sy; y <= ey; y += stepSize) {
-				for (x = sx; x <= ex; x += stepSize) {
-					if (insideBorder(x, y)) {
-						float val = (float) sourceImage.sample1x1((int) x, (int) y) / 255.0f;
-						val = 1.0f - val;
-						weight += val;
-						wx += x * val;
-						wy += y * val;
-					}
-				}
-			}
-
-			if (weight > 0.0f) {
-				wx /= weight;
-				wy /= weight;
-			}
-
-			// make sure centroid can't leave image bounds
-			if (wx < xLeft) wx = xLeft;
-			if (wy < yBottom) wy = yBottom;
-			if (wx >= xRight) wx = xRight;
-			if (wy >= yTop) wy = yTop;
-
-			// use the new center
-			cells[i].centroid.setLocation(wx, wy);
-		}
+		relaxation.relax(cells);
 	}
 }
 
@@ -1,11 +1,9 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
 
 
-import java.awt.Point;
 import java.io.IOException;
 import java.io.Writer;
 import java.text.DecimalFormat;
-import java.util.concurrent.locks.ReentrantLock;
 
 import com.jogamp.opengl.GL2;
 import com.marginallyclever.robotOverlord.Log;
@@ -14,6 +12,7 @@ import com.marginallyclever.robotOverlord.Translator;
 import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobotDecorator;
 import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.Filter_BlackAndWhite;
 import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.Filter_DitherFloydSteinberg;
+import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.ImageFilterPipeline;
 import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
 
 
@@ -27,16 +26,14 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 	// processing tools
 	long t_elapsed, t_start;
 	double progress;
-	double old_len, len;
+	double old_len;
 	long time_limit = 10 * 60 * 1000;  // 10 minutes
 
 	int numPoints;
-	Point[] points = null;
-	int[] solution = null;
-	int scount;
-
-	
-	private ReentrantLock lock = new ReentrantLock();
+	double[] pointsX = null;
+	double[] pointsY = null;
+	// replaced, never changed, so render() can draw it while the tour is being improved.
+	volatile int[] solution = null;
 
 	
 	public String getName() {
@@ -62,8 +59,6 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 		t_elapsed = System.currentTimeMillis() - t_start;
 		double new_progress = 100.0 * (double) t_elapsed / (double) time_limit;
 		if (new_progress > progress + 0.1) {
-			// find the new tour length
-			len = getTourLength(solution);
 			if (old_len > len) {
 				old_len = len;
 				DecimalFormat flen = new DecimalFormat("#.##");
@@ -90,169 +85,54 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 	}
 
 
-	// we have s1,s2...e-1,e
-	// check if s1,e-1,...s2,e is shorter
-	public int flipTests() {
-		int start, end, j, once = 0;
-
-		for (start = 0; start < numPoints - 2 && !parent.isCancelled() && !pm.isCanceled(); ++start) {
-			float a = calculateWeight(solution[start], solution[start + 1]);
-			int best_end = -1;
-			double best_diff = 0;
-
-			for (end = start + 2; end <= numPoints && !parent.isCancelled() && !pm.isCanceled(); ++end) {
-				// before
-				float b = calculateWeight(solution[end], solution[end - 1]);
-				// after
-				float c = calculateWeight(solution[start], solution[end - 1]);
-				float d = calculateWeight(solution[end], solution[start + 1]);
-
-				double temp_diff = (a + b) - (c + d);
-				if (best_diff < temp_diff) {
-					best_diff = temp_diff;
-					best_end = end;
-				}
-			}
-
-			if (best_end != -1 && !parent.isCancelled() && !pm.isCanceled()) {
-				once = 1;
-				// do the flip
-				int begin = start + 1;
-				int finish = best_end;
-				int half = (finish - begin) / 2;
-				int temp;
-				while (lock.isLocked()) ;
-
-				lock.lock();
-				//Makelangelo.getSingleton().Log("<font color='red'>flipping "+(finish-begin)+"</font>\n");
-				for (j = 0; j < half; ++j) {
-					temp = solution[begin + j];
-					solution[begin + j] = solution[finish - 1 - j];
-					solution[finish - 1 - j] = temp;
-				}
-				lock.unlock();
-				updateProgress(len, 1);
-			}
-		}
-		return once;
-	}
-
-
 	public void render(GL2 gl2, MakelangeloRobotSettings machine) {
-		if (points == null || solution == null) return;
-
-		while (lock.isLocked()) ;
-
-		lock.lock();
+		// solution first.  A tour read after the points were replaced could be for points that aren't there.
+		int[] tour = solution;
+		double[] x = pointsX;
+		double[] y = pointsY;
+		if (tour == null || x == null || y == null || tour.length > x.length || tour.length > y.length) return;
 
 		gl2.glColor3f(0, 0, 0);
-		gl2.glBegin(GL2.GL_LINE_STRIP);
-		for (int i = 0; i < points.length; ++i) {
-			if (points[solution[i]] == null) break;
-			gl2.glVertex2f((points[solution[i]].x) * 0.1f,
-					(points[solution[i]].y) * 0.1f);
+		gl2.glBegin(GL2.GL_LINE_LOOP);
+		for (int i = 0; i < tour.length; ++i) {
+			gl2.glVertex2d(x[tour[i]] * 0.1, y[tour[i]] * 0.1);
 		}
 		gl2.glEnd();
-
-		lock.unlock();
-	}
-
-
-	protected float calculateWeight(int a, int b) {
-		float x = points[a].x - points[b].x;
-		float y = points[a].y - points[b].y;
-		return x * x + y * y;
 	}
 
 
 	private void generateTSP(Writer out) throws IOException {
-		greedyTour();
-
-		Log.write("green","Running Lin/Kerighan optimization...");
+		Log.write("green","Finding greedy tour solution...");
+		final TourOptimizer optimizer = new TourOptimizer(pointsX, pointsY, numPoints);
+		solution = optimizer.getTour();
 
-		len = getTourLength(solution);
-		old_len = len;
+		Log.write("green","Running 2-opt and Or-opt optimization...");
 
+		old_len = optimizer.getLength();
 		t_elapsed = 0;
 		t_start = System.currentTimeMillis();
 		progress = 0;
-		updateProgress(len, 2);
-
-		int once = 1;
-		while (once == 1 && t_elapsed < time_limit && !parent.isCancelled()) {
-			once = 0;
-			//@TODO: make these optional for the very thorough people
-			//once|=transposeForwardTest();
-			//once|=transposeBackwardTest();
+		updateProgress(old_len, 2);
 
-			once |= flipTests();
+		optimizer.optimize(time_limit, new TourOptimizer.Listener() {
+			@Override
+			public boolean isCancelled() {
+				return parent.isCancelled() || pm.isCanceled();
+			}
 
-			updateProgress(len, 2);
-		}
+			@Override
+			public void tourChanged(int[] tour, double length) {
+				solution = tour;
+				updateProgress(length, 1);
+			}
+		});
 
 		convertAndSaveToGCode(out);
 	}
 
 
-	private double calculateLength(int a, int b) {
-		return Math.sqrt(calculateWeight(a, b));
-	}
-
-	/**
-	 * Get the length of a tour segment
-	 *
-	 * @param list an array of indexes into the point list.  the order forms the tour sequence.
-	 * @return the length of the tour
-	 */
-	private double getTourLength(int[] list) {
-		double w = 0;
-		for (int i = 0; i < numPoints - 1; ++i) {
-			w += calculateLength(list[i], list[i + 1]);
-		}
-		return w;
-	}
-
-	/**
-	 * Starting with point 0, find the next nearest point and repeat until all points have been "found".
-	 */
-	private void greedyTour() {
-		Log.write("green","Finding greedy tour solution...");
-
-		int i;
-		float w, bestw;
-		int besti;
-
-		// put all the points in the solution in no particular order.
-		for (i = 0; i < numPoints; ++i) {
-			solution[i] = i;
-		}
-
-
-		int scount = 0;
-		solution[scount] = solution[0];
-
-		do {
-			// Find the nearest point not already in the line.
-			// Any solution[n] where n>scount is not in the line.
-			bestw = calculateWeight(solution[scount], solution[scount + 1]);
-			besti = scount + 1;
-			for (i = scount + 2; i < numPoints; ++i) {
-				w = calculateWeight(solution[scount], solution[i]);
-				if (w < bestw) {
-					bestw = w;
-					besti = i;
-				}
-			}
-			i = solution[scount + 1];
-			solution[scount + 1] = solution[besti];
-			solution[besti] = i;
-			scount++;
-		} while (scount < numPoints);
-	}
-
-
 	private void moveToPoint(Writer out, int i, boolean up) throws IOException {
-		tool.writeMoveTo(out, points[solution[i]].x, points[solution[i]].y);
+		tool.writeMoveTo(out, (float)pointsX[solution[i]], (float)pointsY[solution[i]]);
 	}
 
 
@@ -265,11 +145,11 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 		// find the tsp point closest to the calibration point
 		int i;
 		int besti = -1;
-		float bestw = 1000000;
-		float x, y, w;
+		double bestw = 1000000;
+		double x, y, w;
 		for (i = 0; i < numPoints; ++i) {
-			x = points[solution[i]].x;
-			y = points[solution[i]].y;
+			x = pointsX[solution[i]];
+			y = pointsY[solution[i]];
 			w = x * x + y * y;
 			if (w < bestw) {
 				bestw = w;
@@ -308,6 +188,8 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 		
 		float x, y;
 		int i;
+		// stop render() from drawing the old tour before the points it indexes are replaced.
+		solution = null;
 		// count the points
 		numPoints = 0;
 		for (y = yBottom; y < yTop; ++y) {
@@ -320,8 +202,8 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 		}
 
 		Log.write("green", numPoints + " points.");
-		points = new Point[numPoints + 1];
-		solution = new int[numPoints + 1];
+		pointsX = new double[numPoints];
+		pointsY = new double[numPoints];
 
 		// collect the point data
 		numPoints = 0;
@@ -329,9 +211,9 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 			for (x = xLeft; x < xRight; ++x) {
 				i = img.sample1x1(x, y);
 				if (i == 0) {
-					Point p = new Point();
-					p.setLocation( x, y );
-					points[numPoints++] = p;
+					pointsX[numPoints] = x;
+					pointsY[numPoints] = y;
+					++numPoints;
 				}
 			}
 		}
@@ -343,13 +225,11 @@ public class Converter_ZigZag extends ImageConverter implements MakelangeloRobot
 	 * @param img the image to convert.
 	 */
 	public boolean convert(TransformedImage img,Writer out) throws IOException {
-		// make black & white
-		Filter_BlackAndWhite bw = new Filter_BlackAndWhite(255);
-		img = bw.filter(img);
-
-		// Dither
-		Filter_DitherFloydSteinberg fs = new Filter_DitherFloydSteinberg();
-		img = fs.filter(img);
+		// make black & white, then dither
+		ImageFilterPipeline pipeline = new ImageFilterPipeline(
+				new Filter_BlackAndWhite(255),
+				new Filter_DitherFloydSteinberg());
+		img = pipeline.filter(img);
 
 		// connect the dots
 		connectTheDots(img);
@@ -0,0 +1,274 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
+
+import java.util.Arrays;
+
+/**
+ * A 2D k-d tree over a fixed set of points, for nearest neighbour searches.
+ * <p>
+ * The tree is a permutation of the point indexes.  Each range of the permutation is a node whose median splits the
+ * rest of the range in two, so the tree needs no node objects.  Points can be removed, after which searches skip
+ * them.
+ */
+public class KDTree {
+	private double [] x, y;
+	// the tree, as indexes into x and y.
+	private int [] tree;
+	// for each place in tree, 0 to split on x and 1 to split on y.
+	private byte [] axis;
+	// for each place in tree, how many points are left in the node that has it as median.
+	private int [] alive;
+	// where each point is in tree, or -1 if it isn't.
+	private int [] place;
+
+
+	/**
+	 * @param x the x of every point
+	 * @param y the y of every point
+	 * @param points the indexes of the points to put in the tree.  Not kept.
+	 * @param count how many of points to use
+	 */
+	public KDTree(double [] x, double [] y, int [] points, int count) {
+		this.x = x;
+		this.y = y;
+		tree = new int[count];
+		System.arraycopy(points, 0, tree, 0, count);
+		axis = new byte[count];
+		alive = new int[count];
+		place = new int[x.length];
+		Arrays.fill(place, -1);
+		build(0, count);
+		for (int i = 0; i < count; ++i) place[tree[i]] = i;
+	}
+
+
+	/**
+	 * A tree of the first count points.
+	 */
+	public KDTree(double [] x, double [] y, int count) {
+		this(x, y, identity(count), count);
+	}
+
+
+	private static int [] identity(int count) {
+		int [] points = new int[count];
+		for (int i = 0; i < count; ++i) points[i] = i;
+		return points;
+	}
+
+
+	public int size() {
+		return tree.length == 0 ? 0 : alive[tree.length >>> 1];
+	}
+
+
+	private void build(int lo, int hi) {
+		while (hi - lo > 0) {
+			// split across the longer side
+			double x0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE;
+			double y0 = Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+			for (int i = lo; i < hi; ++i) {
+				int p = tree[i];
+				if (x0 > x[p]) x0 = x[p];
+				if (x1 < x[p]) x1 = x[p];
+				if (y0 > y[p]) y0 = y[p];
+				if (y1 < y[p]) y1 = y[p];
+			}
+			int mid = (lo + hi) >>> 1;
+			byte a = (byte) (x1 - x0 >= y1 - y0 ? 0 : 1);
+			select(lo, hi, mid, a == 0 ? x : y);
+			axis[mid] = a;
+			alive[mid] = hi - lo;
+			// recurse into the smaller half, loop on the bigger.
+			if (mid - lo < hi - mid - 1) {
+				build(lo, mid);
+				lo = mid + 1;
+			} else {
+				build(mid + 1, hi);
+				hi = mid;
+			}
+		}
+	}
+
+
+	/**
+	 * Put the k-th smallest of tree[lo...hi-1] at tree[k], smaller ones before it and bigger ones after.
+	 */
+	private void select(int lo, int hi, int k, double [] v) {
+		--hi;
+		while (hi > lo) {
+			double pivot = v[tree[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (v[tree[i]] < pivot) ++i;
+				while (v[tree[j]] > pivot) --j;
+				if (i <= j) {
+					int t = tree[i];
+					tree[i] = tree[j];
+					tree[j] = t;
+					++i;
+					--j;
+				}
+			}
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return;
+		}
+	}
+
+
+	/**
+	 * Take a point out of the tree.  Does nothing if it is already out.
+	 */
+	public void remove(int point) {
+		int p = place[point];
+		if (p < 0) return;
+		place[point] = -1;
+		int lo = 0, hi = tree.length;
+		while (true) {
+			int mid = (lo + hi) >>> 1;
+			--alive[mid];
+			if (p == mid) break;
+			if (p < mid) hi = mid;
+			else lo = mid + 1;
+		}
+	}
+
+
+	/**
+	 * @return the point in the tree nearest to (qx,qy), or -1 if the tree is empty.
+	 */
+	public int nearest(double qx, double qy) {
+		double [] best = { Double.MAX_VALUE };
+		int [] found = { -1 };
+		nearest(0, tree.length, qx, qy, best, found);
+		return found[0];
+	}
+
+
+	private void nearest(int lo, int hi, double qx, double qy, double [] best, int [] found) {
+		if (hi <= lo) return;
+		int mid = (lo + hi) >>> 1;
+		if (alive[mid] == 0) return;
+
+		int p = tree[mid];
+		if (place[p] == mid) {
+			double dx = x[p] - qx;
+			double dy = y[p] - qy;
+			double d = dx * dx + dy * dy;
+			if (d < best[0]) {
+				best[0] = d;
+				found[0] = p;
+			}
+		}
+		double diff = axis[mid] == 0 ? qx - x[p] : qy - y[p];
+		if (diff < 0) {
+			nearest(lo, mid, qx, qy, best, found);
+			if (diff * diff < best[0]) nearest(mid + 1, hi, qx, qy, best, found);
+		} else {
+			nearest(mid + 1, hi, qx, qy, best, found);
+			if (diff * diff < best[0]) nearest(lo, mid, qx, qy, best, found);
+		}
+	}
+
+
+	/**
+	 * Find the k nearest points to every point in the tree.
+	 * @param k neighbours per point
+	 * @return for point i, its neighbours nearest first at [i*k...i*k+k-1], padded with -1 if there aren't enough.
+	 */
+	public int [] neighbours(int k) {
+		int [] result = new int[x.length * k];
+		Arrays.fill(result, -1);
+		if (k == 0) return result;
+		int [] heap = new int[k];
+		double [] heapDistance = new double[k];
+		for (int i = 0; i < tree.length; ++i) {
+			int p = tree[i];
+			int size = nearest(p, k, heap, heapDistance);
+			// the heap has the farthest on top.  Take them off from the back.
+			for (int j = size - 1; j >= 0; --j) {
+				result[p * k + j] = heap[0];
+				size = pop(heap, heapDistance, size);
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return how many of the k nearest points to point were found, in a max-heap.
+	 */
+	private int nearest(int point, int k, int [] heap, double [] heapDistance) {
+		int [] size = { 0 };
+		nearest(0, tree.length, point, k, heap, heapDistance, size);
+		return size[0];
+	}
+
+
+	private void nearest(int lo, int hi, int point, int k, int [] heap, double [] heapDistance, int [] size) {
+		if (hi <= lo) return;
+		int mid = (lo + hi) >>> 1;
+		if (alive[mid] == 0) return;
+
+		int p = tree[mid];
+		double qx = x[point];
+		double qy = y[point];
+		if (p != point && place[p] == mid) {
+			double dx = x[p] - qx;
+			double dy = y[p] - qy;
+			double d = dx * dx + dy * dy;
+			if (size[0] < k) {
+				size[0] = push(heap, heapDistance, size[0], p, d);
+			} else if (d < heapDistance[0]) {
+				size[0] = pop(heap, heapDistance, size[0]);
+				size[0] = push(heap, heapDistance, size[0], p, d);
+			}
+		}
+		double diff = axis[mid] == 0 ? qx - x[p] : qy - y[p];
+		int nearLo = diff < 0 ? lo : mid + 1;
+		int nearHi = diff < 0 ? mid : hi;
+		int farLo = diff < 0 ? mid + 1 : lo;
+		int farHi = diff < 0 ? hi : mid;
+		nearest(nearLo, nearHi, point, k, heap, heapDistance, size);
+		if (size[0] < k || diff * diff < heapDistance[0]) {
+			nearest(farLo, farHi, point, k, heap, heapDistance, size);
+		}
+	}
+
+
+	private static int push(int [] heap, double [] distance, int size, int p, double d) {
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (distance[parent] >= d) break;
+			heap[i] = heap[parent];
+			distance[i] = distance[parent];
+			i = parent;
+		}
+		heap[i] = p;
+		distance[i] = d;
+		return size;
+	}
+
+
+	private static int pop(int [] heap, double [] distance, int size) {
+		--size;
+		int p = heap[size];
+		double d = distance[size];
+		int i = 0;
+		while (true) {
+			int child = i * 2 + 1;
+			if (child >= size) break;
+			if (child + 1 < size && distance[child + 1] > distance[child]) ++child;
+			if (distance[child] <= d) break;
+			heap[i] = heap[child];
+			distance[i] = distance[child];
+			i = child;
+		}
+		if (size > 0) {
+			heap[i] = p;
+			distance[i] = d;
+		}
+		return size;
+	}
+}
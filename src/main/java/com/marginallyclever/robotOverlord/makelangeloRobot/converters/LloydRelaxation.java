@@ -0,0 +1,286 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.ParallelRows;
+import com.marginallyclever.voronoi.VoronoiCell;
+
+/**
+ * Moves each cell of a voronoi diagram to the center of darkness of the part of the image it covers.  Repeat to
+ * spread the cells out like stipples.
+ * <p>
+ * The image is read once, into a grid of samples a few to each cell.  Each generation every sample goes to the
+ * nearest cell, which is the same as finding which voronoi cell it is in, and adds to that cell's weighted sum.
+ * Cells are found through a grid of buckets about one cell wide, so a generation costs about the same for each
+ * sample however many cells there are.
+ * <p>
+ * Samples are matched to cells a band of rows per core, then each cell's sum is worked out by one task from its own
+ * list of samples, in image order.  No two threads write to the same place, and the sums come out the same on any
+ * number of cores.
+ */
+public class LloydRelaxation {
+	// samples per cell, about.
+	public static final int SAMPLES_PER_CELL = 16;
+	// the most space between samples. (mm)
+	public static final double MAX_STEP = 2.0;
+	// fewest cells worth a task of their own.
+	private static final int CELLS_PER_TASK = 64;
+
+	private float xLeft, xRight, yBottom, yTop;
+	private double step;
+	private int columns, rows;
+	// how dark each sample is, 0...1.  Row by row from the bottom left.
+	private float [] darkness;
+	// where each sample is
+	private double [] sampleX, sampleY;
+
+	// the cells in each bucket, counting sort style.  Bucket b has bucketCells[bucketStart[b]...bucketStart[b+1]-1].
+	private double bucketSize;
+	private int bucketColumns, bucketRows;
+	private int [] bucketStart;
+	private int [] bucketCells;
+	// which cell each sample is in, -1 for samples with no darkness.
+	private int [] owners;
+
+
+	/**
+	 * @param img the image
+	 * @param cellCount how many cells there will be
+	 * @param xLeft the area the cells may cover
+	 * @param xRight the area the cells may cover
+	 * @param yBottom the area the cells may cover
+	 * @param yTop the area the cells may cover
+	 */
+	public LloydRelaxation(TransformedImage img, int cellCount, float xLeft, float xRight, float yBottom, float yTop) {
+		this.xLeft = xLeft;
+		this.xRight = xRight;
+		this.yBottom = yBottom;
+		this.yTop = yTop;
+
+		double area = (double) (xRight - xLeft) * (yTop - yBottom);
+		step = Math.min(MAX_STEP, Math.sqrt(area / Math.max(1, cellCount) / SAMPLES_PER_CELL));
+		columns = Math.max(1, (int) Math.ceil((xRight - xLeft) / step));
+		rows = Math.max(1, (int) Math.ceil((yTop - yBottom) / step));
+
+		// each sample is the average of the image over the square around it.
+		darkness = new float[columns * rows];
+		sampleX = new double[columns * rows];
+		sampleY = new double[columns * rows];
+		double half = step / 2;
+		for (int r = 0; r < rows; ++r) {
+			double y = getY(r);
+			for (int c = 0; c < columns; ++c) {
+				double x = getX(c);
+				int i = r * columns + c;
+				darkness[i] = 1.0f - img.sample(x - half, y - half, x + half, y + half) / 255.0f;
+				sampleX[i] = x;
+				sampleY[i] = y;
+			}
+		}
+	}
+
+
+	private double getX(int column) {
+		return xLeft + (column + 0.5) * step;
+	}
+
+
+	private double getY(int row) {
+		return yBottom + (row + 0.5) * step;
+	}
+
+
+	/**
+	 * Move every cell to the weighted center of its part of the image.  A cell with no darkness stays where it is.
+	 * @param cells the cells to move
+	 */
+	public void relax(final VoronoiCell [] cells) {
+		int n = cells.length;
+		final double [] siteX = new double[n];
+		final double [] siteY = new double[n];
+		for (int i = 0; i < n; ++i) {
+			siteX[i] = cells[i].centroid.x;
+			siteY[i] = cells[i].centroid.y;
+		}
+		fillBuckets(siteX, siteY);
+
+		// which cell each sample is in.
+		if (owners == null) owners = new int[darkness.length];
+		ParallelRows.forEach(columns, rows, new ParallelRows.Rows() {
+			@Override
+			public void run(int y0, int y1) {
+				Search search = new Search();
+				for (int r = y0; r < y1; ++r) {
+					double y = getY(r);
+					for (int c = 0; c < columns; ++c) {
+						int i = r * columns + c;
+						owners[i] = darkness[i] > 0 ? nearest(siteX, siteY, getX(c), y, search) : -1;
+					}
+				}
+			}
+		});
+
+		// the samples of each cell, in image order.  Cell i has cellSamples[cellStart[i]...cellStart[i+1]-1].
+		final int [] cellStart = new int[n + 1];
+		for (int owner : owners) {
+			if (owner >= 0) ++cellStart[owner + 1];
+		}
+		for (int i = 0; i < n; ++i) cellStart[i + 1] += cellStart[i];
+		final int [] cellSamples = new int[cellStart[n]];
+		int [] fill = new int[n];
+		for (int i = 0; i < owners.length; ++i) {
+			int owner = owners[i];
+			if (owner >= 0) cellSamples[cellStart[owner] + fill[owner]++] = i;
+		}
+
+		ForkJoinPool.commonPool().invoke(new CentroidTask(cells, cellStart, cellSamples, 0, n));
+	}
+
+
+	/**
+	 * Moves cells first...last-1, splitting the work in half until it is small enough.  Each cell is only touched by
+	 * one task.
+	 */
+	@SuppressWarnings("serial")
+	private class CentroidTask extends RecursiveAction {
+		private VoronoiCell [] cells;
+		private int [] cellStart, cellSamples;
+		private int first, last;
+
+		CentroidTask(VoronoiCell [] cells, int [] cellStart, int [] cellSamples, int first, int last) {
+			this.cells = cells;
+			this.cellStart = cellStart;
+			this.cellSamples = cellSamples;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > CELLS_PER_TASK && cellStart[last] - cellStart[first] > ParallelRows.MIN_PIXELS_PER_BAND) {
+				int mid = (first + last) >>> 1;
+				invokeAll(new CentroidTask(cells, cellStart, cellSamples, first, mid),
+						  new CentroidTask(cells, cellStart, cellSamples, mid, last));
+				return;
+			}
+			for (int i = first; i < last; ++i) {
+				double weight = 0, wx = 0, wy = 0;
+				for (int j = cellStart[i]; j < cellStart[i + 1]; ++j) {
+					int sample = cellSamples[j];
+					float v = darkness[sample];
+					weight += v;
+					wx += sampleX[sample] * v;
+					wy += sampleY[sample] * v;
+				}
+				if (weight <= 0) continue;
+				wx /= weight;
+				wy /= weight;
+
+				// make sure centroid can't leave image bounds
+				if (wx < xLeft) wx = xLeft;
+				if (wy < yBottom) wy = yBottom;
+				if (wx >= xRight) wx = xRight;
+				if (wy >= yTop) wy = yTop;
+
+				cells[i].centroid.setLocation(wx, wy);
+			}
+		}
+	}
+
+
+	/**
+	 * Sort the cells into buckets about one cell wide.
+	 */
+	private void fillBuckets(double [] siteX, double [] siteY) {
+		int n = siteX.length;
+		double area = (double) (xRight - xLeft) * (yTop - yBottom);
+		bucketSize = Math.max(step, Math.sqrt(area / Math.max(1, n)));
+		bucketColumns = Math.max(1, (int) Math.ceil((xRight - xLeft) / bucketSize));
+		bucketRows = Math.max(1, (int) Math.ceil((yTop - yBottom) / bucketSize));
+
+		int buckets = bucketColumns * bucketRows;
+		if (bucketStart == null || bucketStart.length != buckets + 1) bucketStart = new int[buckets + 1];
+		else Arrays.fill(bucketStart, 0);
+		if (bucketCells == null || bucketCells.length != n) bucketCells = new int[n];
+
+		int [] bucketOf = new int[n];
+		for (int i = 0; i < n; ++i) {
+			bucketOf[i] = getBucketRow(siteY[i]) * bucketColumns + getBucketColumn(siteX[i]);
+			++bucketStart[bucketOf[i] + 1];
+		}
+		for (int b = 0; b < buckets; ++b) bucketStart[b + 1] += bucketStart[b];
+		int [] fill = new int[buckets];
+		for (int i = 0; i < n; ++i) {
+			int b = bucketOf[i];
+			bucketCells[bucketStart[b] + fill[b]++] = i;
+		}
+	}
+
+
+	private int getBucketColumn(double x) {
+		return Math.max(0, Math.min(bucketColumns - 1, (int) Math.floor((x - xLeft) / bucketSize)));
+	}
+
+
+	private int getBucketRow(double y) {
+		return Math.max(0, Math.min(bucketRows - 1, (int) Math.floor((y - yBottom) / bucketSize)));
+	}
+
+
+	/**
+	 * A search for the nearest cell.  One per thread.
+	 */
+	private static class Search {
+		int nearest;
+		double nearestDistance;
+	}
+
+
+	/**
+	 * @return the cell nearest to (x,y).  Ties go to the lower cell number.
+	 */
+	private int nearest(double [] siteX, double [] siteY, double x, double y, Search search) {
+		int bc = getBucketColumn(x);
+		int br = getBucketRow(y);
+		search.nearest = -1;
+		search.nearestDistance = Double.MAX_VALUE;
+		int maxRing = Math.max(bucketColumns, bucketRows);
+		for (int ring = 0; ring <= maxRing; ++ring) {
+			int c0 = bc - ring;
+			int c1 = bc + ring;
+			for (int r = Math.max(0, br - ring); r <= Math.min(bucketRows - 1, br + ring); ++r) {
+				if (r == br - ring || r == br + ring) {
+					// top or bottom of the ring, every bucket.
+					for (int c = Math.max(0, c0); c <= Math.min(bucketColumns - 1, c1); ++c) {
+						search(siteX, siteY, x, y, r * bucketColumns + c, search);
+					}
+				} else {
+					// the sides of the ring
+					if (c0 >= 0) search(siteX, siteY, x, y, r * bucketColumns + c0, search);
+					if (c1 < bucketColumns) search(siteX, siteY, x, y, r * bucketColumns + c1, search);
+				}
+			}
+			// anything in the next ring is at least this far away.
+			double reach = ring * bucketSize;
+			if (search.nearest >= 0 && search.nearestDistance <= reach * reach) break;
+		}
+		return search.nearest;
+	}
+
+
+	private void search(double [] siteX, double [] siteY, double x, double y, int bucket, Search search) {
+		for (int j = bucketStart[bucket]; j < bucketStart[bucket + 1]; ++j) {
+			int i = bucketCells[j];
+			double dx = siteX[i] - x;
+			double dy = siteY[i] - y;
+			double d = dx * dx + dy * dy;
+			if (d < search.nearestDistance || (d == search.nearestDistance && i < search.nearest)) {
+				search.nearestDistance = d;
+				search.nearest = i;
+			}
+		}
+	}
+}
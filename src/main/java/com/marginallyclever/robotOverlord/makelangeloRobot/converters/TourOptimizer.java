@@ -0,0 +1,562 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Finds a short closed tour through a set of points, for converters that draw with one long line.
+ * <p>
+ * Every point gets a list of its nearest neighbours from a k-d tree, and only those are ever considered as new
+ * neighbours in the tour.  The first tour is built greedily from the shortest of those edges, then improved with
+ * 2-opt (reverse part of the tour) and Or-opt (move one to three points somewhere else) until neither helps.
+ * Points that didn't improve are not looked at again until one of their neighbours in the tour changes.
+ * <p>
+ * Big tours are first cut into pieces of SEGMENT points that are improved on every core at once, then the cuts are
+ * moved and the pieces improved again.  Points that wanted a move across a cut are tried again in bigger pieces, and
+ * last of all in the whole tour.  The pieces depend only on the tour, so the result is the same on any number of
+ * cores.
+ * <p>
+ * Moves are found in close to constant time, so a tour of a few hundred thousand points takes seconds instead of
+ * hours.
+ */
+public class TourOptimizer {
+	// candidate neighbours per point.
+	public static final int NEIGHBOURS = 10;
+	// smaller improvements than this are rounding error.
+	private static final double EPSILON = 1e-7;
+	// how often to tell the listener about a shorter tour. (ms)
+	private static final long REPORT_INTERVAL = 250;
+	// points in each piece of the tour that is improved on its own.
+	public static final int SEGMENT = 4096;
+	// stop improving in pieces when two rounds make the tour less than this much shorter.
+	private static final double ROUND_GAIN = 1e-4;
+
+	/**
+	 * Told about progress, and asked if it is time to stop.
+	 */
+	public interface Listener {
+		/**
+		 * @return true to stop improving the tour.
+		 */
+		public boolean isCancelled();
+
+		/**
+		 * The tour got shorter.  Called from the thread running optimize() a few times a second at most, and once at
+		 * the end.
+		 * @param tour the tour, as indexes of the points.  Never changes, so it can be drawn from any thread.
+		 * @param length the new length
+		 */
+		public void tourChanged(int [] tour, double length);
+	}
+
+	private double [] x, y;
+	private int n;
+	private int k;
+	// the k nearest points to point i are at [i*k...i*k+k-1], -1 if there are fewer.
+	private int [] neighbours;
+
+	// the points in the order they are visited.
+	private int [] tour;
+	// where each point is in tour.
+	private int [] position;
+	private double length;
+	// true for points waiting in a queue to be looked at again.
+	private boolean [] queued;
+	// true for points that passed up a move because it went outside their piece of the tour.
+	private boolean [] crossed;
+
+	private long lastReport;
+	private double reportedLength;
+
+
+	/**
+	 * @param x the x of every point
+	 * @param y the y of every point
+	 * @param count how many points to visit, starting with the first.
+	 */
+	public TourOptimizer(double [] x, double [] y, int count) {
+		this.x = x;
+		this.y = y;
+		this.n = count;
+		k = Math.max(0, Math.min(NEIGHBOURS, count - 1));
+		neighbours = new KDTree(x, y, count).neighbours(k);
+		tour = new int[count];
+		position = new int[count];
+		greedyTour();
+	}
+
+
+	/**
+	 * @return a copy of the tour, as indexes of the points.
+	 */
+	public int [] getTour() {
+		return Arrays.copyOf(tour, n);
+	}
+
+
+	/**
+	 * @return the length of the closed tour.
+	 */
+	public double getLength() {
+		return length;
+	}
+
+
+	private double distance(int a, int b) {
+		double dx = x[a] - x[b];
+		double dy = y[a] - y[b];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+
+	private double measure() {
+		double sum = 0;
+		for (int i = 0; i < n; ++i) {
+			sum += distance(tour[i], tour[i + 1 == n ? 0 : i + 1]);
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Join the shortest candidate edges that don't close a loop or give a point three neighbours.  That leaves a few
+	 * paths, which are then joined nearest end first.
+	 */
+	private void greedyTour() {
+		if (n == 0) return;
+
+		// every candidate edge once, shortest first.  Lengths are positive, so their bits sort as numbers.
+		long [] edges = new long[n * k];
+		int edgeCount = 0;
+		for (int a = 0; a < n; ++a) {
+			for (int j = 0; j < k; ++j) {
+				int b = neighbours[a * k + j];
+				if (b < 0) break;
+				if (a > b && isNeighbour(b, a)) continue;
+				int bits = Float.floatToIntBits((float) distance(a, b));
+				edges[edgeCount++] = ((long) bits << 32) | (a * k + j);
+			}
+		}
+		Arrays.sort(edges, 0, edgeCount);
+
+		// the two tour neighbours of each point, -1 if not known yet.
+		int [] links = new int[n * 2];
+		Arrays.fill(links, -1);
+		int [] paths = new int[n];
+		for (int i = 0; i < n; ++i) paths[i] = i;
+
+		for (int e = 0; e < edgeCount; ++e) {
+			int slot = (int) edges[e];
+			int a = slot / k;
+			int b = neighbours[slot];
+			if (links[a * 2 + 1] >= 0 || links[b * 2 + 1] >= 0) continue;
+			int pa = findPath(paths, a);
+			int pb = findPath(paths, b);
+			if (pa == pb) continue;
+			paths[pa] = pb;
+			links[a * 2 + (links[a * 2] < 0 ? 0 : 1)] = b;
+			links[b * 2 + (links[b * 2] < 0 ? 0 : 1)] = a;
+		}
+
+		// the ends of the paths.  A point alone is both ends of its path.
+		int [] ends = new int[n];
+		int endCount = 0;
+		for (int i = 0; i < n; ++i) {
+			if (links[i * 2 + 1] < 0) ends[endCount++] = i;
+		}
+		KDTree endTree = new KDTree(x, y, ends, endCount);
+
+		int count = 0;
+		int start = ends[0];
+		while (start >= 0) {
+			// walk the path to its other end
+			endTree.remove(start);
+			int previous = -1;
+			int current = start;
+			while (true) {
+				position[current] = count;
+				tour[count++] = current;
+				int next = links[current * 2] != previous ? links[current * 2] : links[current * 2 + 1];
+				if (next < 0 || next == previous) break;
+				previous = current;
+				current = next;
+			}
+			endTree.remove(current);
+			start = endTree.nearest(x[current], y[current]);
+		}
+
+		length = measure();
+	}
+
+
+	private boolean isNeighbour(int a, int b) {
+		for (int j = 0; j < k; ++j) {
+			if (neighbours[a * k + j] == b) return true;
+		}
+		return false;
+	}
+
+
+	private static int findPath(int [] paths, int a) {
+		while (paths[a] != a) {
+			paths[a] = paths[paths[a]];
+			a = paths[a];
+		}
+		return a;
+	}
+
+
+	/**
+	 * Improve the tour until no move helps, the time runs out, or the listener cancels.
+	 * @param timeLimit milliseconds
+	 * @param listener may be null
+	 * @return true if the tour can't be improved any more by these moves.
+	 */
+	public boolean optimize(long timeLimit, Listener listener) {
+		if (n < 5) return true;
+
+		long deadline = System.currentTimeMillis() + timeLimit;
+		lastReport = System.currentTimeMillis();
+		reportedLength = length;
+		queued = new boolean[n];
+		crossed = null;
+
+		// first in pieces, all at once.  Then in bigger pieces, for the moves that crossed the cuts.
+		for (int size = SEGMENT; n / size >= 2; size *= 4) {
+			int segments = n / size;
+			int step = n / segments;
+			for (int round = 0; ; ++round) {
+				// every other round the pieces straddle the ends of the last round's.
+				int offset = (round & 1) == 0 ? 0 : step / 2;
+				List<Search> searches = new ArrayList<Search>(segments);
+				for (int s = 0; s < segments; ++s) {
+					int count = s + 1 < segments ? step : n - step * (segments - 1);
+					Search search = new Search(offset + s * step, count);
+					search.deadline = deadline;
+					searches.add(search);
+				}
+				if (crossed == null) crossed = new boolean[n];
+				double gain = 0;
+				for (Future<Double> f : ForkJoinPool.commonPool().invokeAll(searches)) {
+					try {
+						gain += f.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e.getCause());
+					}
+				}
+				length -= gain;
+
+				if (System.currentTimeMillis() >= deadline) return finish(listener, false);
+				if (listener != null) {
+					if (listener.isCancelled()) return finish(listener, false);
+					report(listener, false);
+				}
+				// a pair of rounds that hardly helps means the rest is across the pieces.
+				if ((round & 1) == 1 && gain < length * ROUND_GAIN) break;
+			}
+		}
+
+		// then the moves across the cuts, on this thread.
+		Search search = new Search(0, n);
+		search.deadline = deadline;
+		search.listener = listener;
+		length -= search.call();
+		return finish(listener, search.queueSize == 0);
+	}
+
+
+	private boolean finish(Listener listener, boolean done) {
+		// the running total has collected rounding error.
+		length = measure();
+		if (listener != null) report(listener, true);
+		return done;
+	}
+
+
+	/**
+	 * Tell the listener about the tour, if enough time has passed since last time.
+	 */
+	private void report(Listener listener, boolean always) {
+		long now = System.currentTimeMillis();
+		if (!always && (now - lastReport < REPORT_INTERVAL || length >= reportedLength)) return;
+		lastReport = now;
+		reportedLength = length;
+		listener.tourChanged(getTour(), length);
+	}
+
+
+	private int next(int a) {
+		int i = position[a] + 1;
+		return tour[i == n ? 0 : i];
+	}
+
+
+	private int previous(int a) {
+		int i = position[a] - 1;
+		return tour[i < 0 ? n - 1 : i];
+	}
+
+
+	private int step(int a, boolean forward) {
+		return forward ? next(a) : previous(a);
+	}
+
+
+	/**
+	 * Reverse tour[i...j], wrapping around the end.
+	 * @param shorter true to reverse everything else instead if that is less work.  It is the same tour walked the
+	 * other way.
+	 */
+	private void reverse(int i, int j, boolean shorter) {
+		int count = j - i;
+		if (count < 0) count += n;
+		++count;
+		if (shorter && count * 2 > n) {
+			int t = i;
+			i = j + 1 == n ? 0 : j + 1;
+			j = t == 0 ? n - 1 : t - 1;
+			count = n - count;
+		}
+		for (int s = count / 2; s > 0; --s) {
+			int a = tour[i];
+			int b = tour[j];
+			tour[i] = b;
+			position[b] = i;
+			tour[j] = a;
+			position[a] = j;
+			if (++i == n) i = 0;
+			if (--j < 0) j = n - 1;
+		}
+	}
+
+
+	/**
+	 * Local search on a piece of the tour.  Pieces don't overlap, so they can be searched at the same time.  Only
+	 * moves with every point inside the piece are made, which leaves the ends of the piece where they are.
+	 */
+	private class Search implements Callable<Double> {
+		// the piece is tour[first...first+count-1], wrapping around the end.
+		private int first, count;
+		private boolean whole;
+		// points that should be looked at again.  A ring of count.
+		private int [] queue;
+		private int queueHead, queueSize;
+		private double gain;
+		private long deadline = Long.MAX_VALUE;
+		private Listener listener;
+		// set when inside() says no.
+		private boolean outside;
+
+
+		/**
+		 * Start with every point in the piece, or only the crossed ones once the tour has been searched in pieces.
+		 */
+		Search(int first, int count) {
+			this.first = first % n;
+			this.count = count;
+			this.whole = count == n;
+			queue = new int[count];
+			for (int i = 0; i < count; ++i) {
+				int p = tour[(first + i) % n];
+				if (crossed == null || crossed[p]) enqueue(p);
+			}
+		}
+
+
+		/**
+		 * Improve the piece until no move helps or the time runs out.
+		 * @return how much shorter the tour got since the listener was last told.
+		 */
+		@Override
+		public Double call() {
+			int steps = 0;
+			while (queueSize > 0) {
+				int a = queue[queueHead];
+				queueHead = queueHead + 1 == count ? 0 : queueHead + 1;
+				--queueSize;
+				queued[a] = false;
+
+				outside = false;
+				if (improveTwoOpt(a) || improveOrOpt(a)) {
+					enqueue(a);
+				}
+				if (!whole) crossed[a] = outside;
+
+				if ((++steps & 0xff) == 0) {
+					if (System.currentTimeMillis() >= deadline) break;
+					if (listener != null) {
+						if (listener.isCancelled()) break;
+						length -= gain;
+						gain = 0;
+						report(listener, false);
+					}
+				}
+			}
+			return gain;
+		}
+
+
+		/**
+		 * @return where a is in the piece, or count or more if it isn't.
+		 */
+		private int place(int a) {
+			int i = position[a] - first;
+			return i < 0 ? i + n : i;
+		}
+
+
+		private boolean inside(int a) {
+			if (whole || place(a) < count) return true;
+			outside = true;
+			return false;
+		}
+
+
+		private void enqueue(int a) {
+			if (queued[a]) return;
+			queued[a] = true;
+			int i = queueHead + queueSize;
+			queue[i >= count ? i - count : i] = a;
+			++queueSize;
+		}
+
+
+		/**
+		 * Replace edges a-b and c-d with a-c and b-d.  Walking the tour one way, a comes right before b and c right
+		 * before d.
+		 */
+		private void move(int a, int b, int c, int d) {
+			if (whole) {
+				if (next(a) == b) reverse(position[b], position[c], true);
+				else reverse(position[c], position[b], true);
+			} else {
+				// reverse whatever is between the two edges inside the piece.
+				int ab = Math.min(place(a), place(b));
+				int cd = Math.min(place(c), place(d));
+				int i = Math.min(ab, cd) + 1 + first;
+				int j = Math.max(ab, cd) + first;
+				reverse(i % n, j % n, false);
+			}
+			enqueue(a);
+			enqueue(b);
+			enqueue(c);
+			enqueue(d);
+		}
+
+
+		/**
+		 * Try to replace a-b and c-d with a-c and b-d, where c is near a and b is next to a in the tour.
+		 * @return true if the tour changed.
+		 */
+		private boolean improveTwoOpt(int a) {
+			for (int side = 0; side < 2; ++side) {
+				boolean forward = side == 0;
+				int b = step(a, forward);
+				if (!inside(b)) continue;
+				double ab = distance(a, b);
+				for (int j = 0; j < k; ++j) {
+					int c = neighbours[a * k + j];
+					if (c < 0) break;
+					double ac = distance(a, c);
+					// neighbours are nearest first.  From here on a-c is longer than the edge it would replace.
+					if (ac >= ab) break;
+					if (!inside(c)) continue;
+					int d = step(c, forward);
+					if (c == b || d == a || !inside(d)) continue;
+					double g = ab + distance(c, d) - ac - distance(b, d);
+					if (g > EPSILON) {
+						move(a, b, c, d);
+						gain += g;
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+
+		/**
+		 * Try to move a run of one to three points that starts at a to between two points near either end of the run.
+		 * @return true if the tour changed.
+		 */
+		private boolean improveOrOpt(int a) {
+			for (int side = 0; side < 2; ++side) {
+				boolean forward = side == 0;
+				int first = a;
+				int last = a;
+				int middle = -1;
+				for (int size = 1; size <= 3; ++size) {
+					if (size > 1) {
+						if (size == 3) middle = last;
+						last = step(last, forward);
+						if (!inside(last)) break;
+					}
+					// the points around the run
+					int p = step(first, !forward);
+					int q = step(last, forward);
+					if (p == last || q == first || p == q) break;
+					if (!inside(p) || !inside(q)) break;
+
+					double removed = distance(p, first) + distance(last, q) - distance(p, q);
+					if (removed <= EPSILON) continue;
+
+					// try putting the run next to a neighbour of either end.
+					for (int end = 0; end < 2; ++end) {
+						int from = end == 0 ? first : last;
+						for (int j = 0; j < k; ++j) {
+							int c = neighbours[from * k + j];
+							if (c < 0) break;
+							double fc = distance(from, c);
+							if (fc >= removed) break;
+							if (c == first || c == last || c == middle || !inside(c)) continue;
+
+							// c before the run, then c after the run.
+							for (int place = 0; place < 2; ++place) {
+								int e1 = place == 0 ? c : step(c, !forward);
+								int e2 = place == 0 ? step(c, forward) : c;
+								if (e1 == first || e1 == last || e1 == middle) continue;
+								if (e2 == first || e2 == last || e2 == middle) continue;
+								if (e2 == p || !inside(e1) || !inside(e2)) continue;
+								// the run goes in backwards if the end next to c is on the wrong side.
+								boolean backwards = (end == 0) != (place == 0);
+								double added = backwards
+										? distance(e1, last) + distance(first, e2) - distance(e1, e2)
+										: distance(e1, first) + distance(last, e2) - distance(e1, e2);
+								double g = removed - added;
+								if (g > EPSILON) {
+									moveRun(p, first, last, q, e1, e2, backwards || size == 1);
+									gain += g;
+									return true;
+								}
+							}
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+
+		/**
+		 * Move first...last from between p and q to between e1 and e2.  Walking the tour one way, the order is p first
+		 * ... last q ... e1 e2.  Done as 2-opt moves.
+		 * @param backwards true to put last next to e1.
+		 */
+		private void moveRun(int p, int first, int last, int q, int e1, int e2, boolean backwards) {
+			// p e1 ... q last ... first e2
+			move(p, first, e1, e2);
+			// p q ... e1 last ... first e2
+			if (e1 != q) move(p, e1, q, last);
+			// p q ... e1 first ... last e2
+			if (!backwards) move(e1, last, first, e2);
+		}
+	}
+}
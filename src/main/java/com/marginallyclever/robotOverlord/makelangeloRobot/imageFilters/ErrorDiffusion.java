@@ -0,0 +1,252 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+
+/**
+ * Floyd/Steinberg error diffusion on the pixel array.  Subclasses decide what each pixel becomes.
+ * <p>
+ * By default rows are dithered one at a time in alternating directions (serpentine), which hides the diagonal worms
+ * plain left-to-right dithering leaves behind.
+ * <p>
+ * In wavefront mode every row goes left to right and each core takes every Nth row.  A row only needs the row above
+ * to be two pixels ahead of it, so all the rows run at once, each trailing the one above.  A row that catches up sleeps
+ * until the row above reports more progress.  The result is the same on any number of cores.
+ *
+ * @see <a href="http://en.literateprograms.org/Floyd-Steinberg_dithering_%28C%29">http://en.literateprograms.org/Floyd-Steinberg_dithering_%28C%29</a>
+ */
+public abstract class ErrorDiffusion extends ImageFilter {
+	// how far a row gets ahead before telling the row below.
+	private static final int PROGRESS_STEP = 32;
+
+	private boolean wavefront = false;
+	// rows dithered at once in wavefront mode.  0 for one per core.
+	private int threads = 0;
+
+
+	/**
+	 * @param wavefront true to dither rows in parallel, all left to right.  false for serpentine on one thread.
+	 */
+	public void setWavefront(boolean wavefront) {
+		this.wavefront = wavefront;
+	}
+
+	public boolean isWavefront() {
+		return wavefront;
+	}
+
+	/**
+	 * @param threads rows dithered at once in wavefront mode.  0 for one per core.
+	 */
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+
+	/**
+	 * @return number of error values per pixel.
+	 */
+	protected abstract int getChannels();
+
+	/**
+	 * Called once before dithering starts.
+	 * @param pixels the image
+	 * @param w width
+	 * @param h height
+	 */
+	protected abstract void start(int [] pixels, int w, int h);
+
+	/**
+	 * Choose the new pixel.  Called from many threads at once in wavefront mode.
+	 * @param pixel the original pixel
+	 * @param error on the way in the error spread to this pixel, on the way out the error left to spread.
+	 * @return the new pixel
+	 */
+	protected abstract int quantize(int pixel, float [] error);
+
+
+	public TransformedImage filter(TransformedImage img) {
+		final int h = img.getSourceImage().getHeight();
+		final int w = img.getSourceImage().getWidth();
+		final int [] pixels = getPixels(img);
+		final int c = getChannels();
+		start(pixels, w, h);
+
+		// error spread to the row being dithered, and to the row below it.  Rows take turns.
+		final float [][] errors = new float[][] { new float[w * c], new float[w * c] };
+
+		if (!wavefront) {
+			int direction = 1;
+			for (int y = 0; y < h; ++y) {
+				ditherRow(pixels, w, y, direction, errors[y & 1], errors[(y + 1) & 1], null);
+				direction = -direction;
+			}
+			return img;
+		}
+
+		int threads = Math.max(1, Math.min(this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors(), h));
+		if (threads == 1) {
+			for (int y = 0; y < h; ++y) {
+				ditherRow(pixels, w, y, 1, errors[y & 1], errors[(y + 1) & 1], null);
+			}
+			return img;
+		}
+
+		final RowProgress progress = new RowProgress(h);
+		final Throwable [] failed = new Throwable[1];
+		Runnable [] stripes = new Runnable[threads];
+		for (int t = 0; t < threads; ++t) {
+			final int first = t;
+			final int step = threads;
+			stripes[t] = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int y = first; y < h; y += step) {
+							ditherRow(pixels, w, y, 1, errors[y & 1], errors[(y + 1) & 1], progress);
+						}
+					} catch (Throwable e) {
+						synchronized (failed) {
+							failed[0] = e;
+						}
+						// let the rows below stop waiting.
+						for (int y = first; y < h; y += step) progress.set(y, w);
+					}
+				}
+			};
+		}
+		// the pool runs the other stripes.  This thread runs the first instead of sitting idle.
+		ForkJoinTask<?> [] tasks = new ForkJoinTask<?>[threads];
+		for (int t = 1; t < threads; ++t) {
+			tasks[t] = ForkJoinPool.commonPool().submit(stripes[t]);
+		}
+		stripes[0].run();
+		// join() doesn't stop for an interrupt, so the pixels are never left half done.
+		for (int t = 1; t < threads; ++t) {
+			tasks[t].join();
+		}
+		synchronized (failed) {
+			if (failed[0] != null) throw new RuntimeException(failed[0]);
+		}
+		return img;
+	}
+
+
+	/**
+	 * Dither one row.
+	 * <p>
+	 * Pixel x adds to x+1 in its own row, and to x-1, x and x+1 in the row below.  The error for its own row is carried
+	 * along instead of stored, so each error row is written by only one row at a time.
+	 *
+	 * @param pixels the image
+	 * @param w width
+	 * @param y the row
+	 * @param direction 1 for left to right, -1 for right to left
+	 * @param in error spread to this row by the row above
+	 * @param out error spread to the row below.  Overwritten.
+	 * @param progress null when running alone.  Otherwise wait for row y-1 and report on row y.
+	 */
+	private void ditherRow(int [] pixels, int w, int y, int direction, float [] in, float [] out, RowProgress progress) {
+		final int c = getChannels();
+		final int row = y * w;
+		float [] error = new float[c];
+		float [] carry = new float[c];
+		int above = (progress == null || y == 0) ? w : 0;
+
+		for (int i = 0; i < w; ++i) {
+			int x = direction > 0 ? i : w - 1 - i;
+
+			// the row above must be done with x+1, or the error for x isn't all there yet.
+			if (above < w && above < i + 2) {
+				above = progress.await(y - 1, Math.min(w, i + 2));
+			}
+
+			int xc = x * c;
+			for (int k = 0; k < c; ++k) {
+				error[k] = in[xc + k] + carry[k];
+			}
+			pixels[row + x] = quantize(pixels[row + x], error);
+
+			// pixel[x+1][y  ] += 7/16 * quant_error
+			// pixel[x-1][y+1] += 3/16 * quant_error
+			// pixel[x  ][y+1] += 5/16 * quant_error
+			// pixel[x+1][y+1] += 1/16 * quant_error
+			boolean hasNext = i + 1 < w;
+			boolean hasPrevious = i > 0;
+			int nextc = xc + direction * c;
+			int previousc = xc - direction * c;
+			for (int k = 0; k < c; ++k) {
+				float q = error[k];
+				carry[k] = q * (7.0f / 16.0f);
+				// the first pixel is the first to touch its own spot below.  The rest were touched by the pixel before.
+				if (hasPrevious) out[xc + k] += q * (5.0f / 16.0f);
+				else             out[xc + k]  = q * (5.0f / 16.0f);
+				if (hasNext)     out[nextc + k] = q * (1.0f / 16.0f);
+				if (hasPrevious) out[previousc + k] += q * (3.0f / 16.0f);
+			}
+
+			if (progress != null && (i % PROGRESS_STEP == PROGRESS_STEP - 1)) progress.set(y, i + 1);
+		}
+		if (progress != null) progress.set(y, w);
+	}
+
+
+	/**
+	 * Pixels finished in each row.  Only the row below ever waits on a row, so there is at most one waiter per row.
+	 */
+	private static class RowProgress {
+		private final AtomicIntegerArray done;
+		private final AtomicReferenceArray<Thread> waiting;
+
+		RowProgress(int h) {
+			done = new AtomicIntegerArray(h);
+			waiting = new AtomicReferenceArray<Thread>(h);
+		}
+
+		void set(int y, int pixels) {
+			done.set(y, pixels);
+			Thread t = waiting.get(y);
+			if (t != null) LockSupport.unpark(t);
+		}
+
+		/**
+		 * Block until row y has finished at least the given number of pixels.  Tells the pool, so it can start
+		 * another thread while this one waits.
+		 * @return pixels finished in row y.
+		 */
+		int await(final int y, final int pixels) {
+			ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean isReleasable() {
+					return done.get(y) >= pixels;
+				}
+
+				@Override
+				public boolean block() {
+					boolean interrupted = false;
+					waiting.set(y, Thread.currentThread());
+					while (done.get(y) < pixels) {
+						LockSupport.park(this);
+						if (Thread.interrupted()) interrupted = true;
+					}
+					waiting.set(y, null);
+					if (interrupted) Thread.currentThread().interrupt();
+					return true;
+				}
+			};
+			while (!blocker.isReleasable()) {
+				try {
+					ForkJoinPool.managedBlock(blocker);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return done.get(y);
+		}
+	}
+}
@@ -8,8 +8,10 @@ import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
  *
  * @author Dan
  */
-public class Filter_BlackAndWhite extends ImageFilter {
+public class Filter_BlackAndWhite extends PointFilter {
   double levels = 2;
+  // what each intensity becomes, found by prepare().
+  private int [] shade;
 
 
   public Filter_BlackAndWhite(int _levels) {
@@ -17,48 +19,55 @@ public class Filter_BlackAndWhite extends ImageFilter {
   }
 
 
-  public TransformedImage filter(TransformedImage img) {
-    int h = img.getSourceImage().getHeight();
-    int w = img.getSourceImage().getWidth();
-    int x, y, i;
-
-    double max_intensity = -1000;
-    double min_intensity = 1000;
+  @Override
+  protected void prepare(final PixelSource input) {
+    final int w = input.getWidth();
+
+    int [] range = ParallelRows.reduce(w, input.getHeight(), new ParallelRows.Reduction<int []>() {
+      @Override
+      public int [] run(int y0, int y1) {
+        int [] row = new int[w];
+        int max = -1000;
+        int min = 1000;
+        for (int y = y0; y < y1; ++y) {
+          input.read(y, row);
+          for (int x = 0; x < w; ++x) {
+            int v = decode32bit(row[x]);
+            if (max < v) max = v;
+            if (min > v) min = v;
+          }
+        }
+        return new int[] { min, max };
+      }
 
-    for (y = 0; y < h; ++y) {
-      for (x = 0; x < w; ++x) {
-        i = decode32bit(img.getSourceImage().getRGB(x, y));
-        if (max_intensity < i) max_intensity = i;
-        if (min_intensity > i) min_intensity = i;
+      @Override
+      public int [] combine(int [] above, int [] below) {
+        return new int[] { Math.min(above[0], below[0]), Math.max(above[1], below[1]) };
       }
-    }
+    });
+    double min_intensity = range[0];
+    double max_intensity = range[1];
     double intensity_range = max_intensity - min_intensity;
 
     double ilevels = 1;
     if (levels != 0) ilevels = 1.0 / levels;
 
-    //System.out.println("min_intensity="+min_intensity);
-    //System.out.println("max_intensity="+max_intensity);
-    //System.out.println("levels="+levels);
-    //System.out.println("inverse="+ilevels);
-
-    double pixel;
-
-    for (y = 0; y < h; ++y) {
-      for (x = 0; x < w; ++x) {
-        pixel = decode32bit(img.getSourceImage().getRGB(x, y));
-
-        double a = (pixel - min_intensity) / intensity_range;
-        double c = Math.ceil(a * levels) * ilevels;
-        int b = (int) (c * 255.0);
-        if (b > 255) b = 255;
-        if (b < 0) b = 0;
-        //if(b==255) System.out.println(x+"\t"+y+"\t"+i+"\t"+b);
-        img.getSourceImage().setRGB(x, y, ImageFilter.encode32bit(b));
-      }
+    // every intensity 0...255 always becomes the same shade.  Work them out once.
+    shade = new int[256];
+    for (int i = 0; i < 256; ++i) {
+      double a = (i - min_intensity) / intensity_range;
+      double c = Math.ceil(a * levels) * ilevels;
+      int b = (int) (c * 255.0);
+      if (b > 255) b = 255;
+      if (b < 0) b = 0;
+      shade[i] = ImageFilter.encode32bit(b);
     }
+  }
 
-    return img;
+
+  @Override
+  public int apply(int argb) {
+    return shade[decode32bit(argb)];
   }
 
 
@@ -1,101 +1,63 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
 
-import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
-
 /**
  * Floyd/Steinberg dithering
  *
  * @author Dan
  * @see <a href="http://en.literateprograms.org/Floyd-Steinberg_dithering_%28C%29">http://en.literateprograms.org/Floyd-Steinberg_dithering_%28C%29</a> and <a href="http://www.home.unix-ag.org/simon/gimp/fsdither.c">http://www.home.unix-ag.org/simon/gimp/fsdither.c</a>
  */
-public class Filter_DitherFloydSteinberg extends ImageFilter {
+public class Filter_DitherFloydSteinberg extends ErrorDiffusion {
   private long tone;
 
 
-  private int quantizeColor(int original) {
-    int i = (int) Math.min(Math.max(original, 0), 255);
+  private int quantizeColor(float original) {
+    float i = Math.min(Math.max(original, 0), 255);
     return (i > tone) ? 255 : 0;
   }
 
 
-  private void ditherDirection(TransformedImage img, int y, int[] error, int[] nexterror, int direction) {
-    int w = img.getSourceImage().getWidth();
-    int oldPixel, newPixel, quant_error;
-    int start, end, x;
-
-    for (x = 0; x < w; ++x) nexterror[x] = 0;
-
-    if (direction > 0) {
-      start = 0;
-      end = w;
-    } else {
-      start = w - 1;
-      end = -1;
-    }
-
-    // for each x from left to right
-    for (x = start; x != end; x += direction) {
-      // oldpixel := pixel[x][y]
-      oldPixel = decode32bit(img.getSourceImage().getRGB(x, y)) + error[x];
-      // newpixel := find_closest_palette_color(oldpixel)
-      newPixel = quantizeColor(oldPixel);
-      // pixel[x][y] := newpixel
-      img.getSourceImage().setRGB(x, y, ImageFilter.encode32bit(newPixel));
-      // quant_error := oldpixel - newpixel
-      quant_error = oldPixel - newPixel;
-      // pixel[x+1][y  ] += 7/16 * quant_error
-      // pixel[x-1][y+1] += 3/16 * quant_error
-      // pixel[x  ][y+1] += 5/16 * quant_error
-      // pixel[x+1][y+1] += 1/16 * quant_error
-      nexterror[x] += 5.0 / 16.0 * quant_error;
-      if (x + direction >= 0 && x + direction < w) {
-        error[x + direction] += 7.0 / 16.0 * quant_error;
-        nexterror[x + direction] += 1.0 / 16.0 * quant_error;
-      }
-      if (x - direction >= 0 && x - direction < w) {
-        nexterror[x - direction] += 3.0 / 16.0 * quant_error;
-      }
-    }
+  @Override
+  protected int getChannels() {
+    return 1;
   }
 
-  
-  public TransformedImage filter(TransformedImage img) {
-    int y, x;
-    int h = img.getSourceImage().getHeight();
-    int w = img.getSourceImage().getWidth();
-    int direction = 1;
-    int[] error = new int[w];
-    int[] nexterror = new int[w];
-
-    for (y = 0; y < w; ++y) {
-      error[y] = nexterror[y] = 0;
-    }
 
+  @Override
+  protected void start(final int[] pixels, final int w, int h) {
     // find the average color of the system
-    for (y = 0; y < h; ++y) {
-      for (x = 0; x < w; ++x) {
-        tone += decode32bit(img.getSourceImage().getRGB(x, y));
+    tone = ParallelRows.reduce(w, h, new ParallelRows.Reduction<Long>() {
+      @Override
+      public Long run(int y0, int y1) {
+        long sum = 0;
+        for (int i = y0 * w; i < y1 * w; ++i) {
+          sum += decode32bit(pixels[i]);
+        }
+        return sum;
       }
-    }
-
-    tone /= (w * h);
 
+      @Override
+      public Long combine(Long above, Long below) {
+        return above + below;
+      }
+    });
 
-    // for each y from top to bottom
-    for (y = 0; y < h; ++y) {
-      ditherDirection(img, y, error, nexterror, direction);
+    tone /= (w * h);
+  }
 
-      direction = direction > 0 ? -1 : 1;
-      int[] tmp = error;
-      error = nexterror;
-      nexterror = tmp;
-    }
 
-    return img;
+  @Override
+  protected int quantize(int pixel, float[] error) {
+    // oldpixel := pixel[x][y]
+    float oldPixel = decode32bit(pixel) + error[0];
+    // newpixel := find_closest_palette_color(oldpixel)
+    int newPixel = quantizeColor(oldPixel);
+    // quant_error := oldpixel - newpixel
+    error[0] = oldPixel - newPixel;
+    // pixel[x][y] := newpixel
+    return ImageFilter.encode32bit(newPixel);
   }
 }
 
-
 /**
  * This file is part of Makelangelo.
  * <p>
@@ -2,7 +2,6 @@ package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
 
 import com.marginallyclever.robotOverlord.makelangeloRobot.ColorPalette;
 import com.marginallyclever.robotOverlord.makelangeloRobot.ColorRGB;
-import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
 
 
 /**
@@ -11,88 +10,74 @@ import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
  * @author Dan
  * @see <a href="http://stackoverflow.com/questions/5940188/how-to-convert-a-24-bit-png-to-3-bit-png-using-floyd-steinberg-dithering">http://stackoverflow.com/questions/5940188/how-to-convert-a-24-bit-png-to-3-bit-png-using-floyd-steinberg-dithering</a>
  */
-public class Filter_DitherFloydSteinbergColor extends ImageFilter {
+public class Filter_DitherFloydSteinbergColor extends ErrorDiffusion {
   public ColorPalette palette;
 
+  // the palette, one channel per array, while filtering.
+  private int[] paletteRed, paletteGreen, paletteBlue;
+
   public Filter_DitherFloydSteinbergColor() {
     palette = new ColorPalette();
     palette.addColor(new ColorRGB(255, 0, 0));
     palette.addColor(new ColorRGB(0, 255, 0));
     palette.addColor(new ColorRGB(0, 0, 255));
+    // three channels and a palette search per pixel.  Worth every core.
+    setWavefront(true);
   }
 
 
-  private void ditherDirection(TransformedImage img, int y, ColorRGB[] error, ColorRGB[] nexterror, int direction) {
-    int w = img.getSourceImage().getWidth();
-    ColorRGB oldPixel = new ColorRGB(0, 0, 0);
-    ColorRGB newPixel = new ColorRGB(0, 0, 0);
-    ColorRGB quant_error = new ColorRGB(0, 0, 0);
-    int start, end, x;
+  @Override
+  protected int getChannels() {
+    return 3;
+  }
 
-    for (x = 0; x < w; ++x) nexterror[x].set(0, 0, 0);
 
-    if (direction > 0) {
-      start = 0;
-      end = w;
-    } else {
-      start = w - 1;
-      end = -1;
-    }
-
-    // for each x from left to right
-    for (x = start; x != end; x += direction) {
-      // oldpixel := pixel[x][y]
-      oldPixel.set(new ColorRGB(img.getSourceImage().getRGB(x, y)).add(error[x]));
-      // newpixel := find_closest_palette_color(oldpixel)
-      newPixel = palette.quantize(oldPixel);
-      // pixel[x][y] := newpixel
-      img.getSourceImage().setRGB(x, y, newPixel.toInt());
-      // quant_error := oldpixel - newpixel
-      quant_error.set(oldPixel.sub(newPixel));
-      // pixel[x+1][y  ] += 7/16 * quant_error
-      // pixel[x-1][y+1] += 3/16 * quant_error
-      // pixel[x  ][y+1] += 5/16 * quant_error
-      // pixel[x+1][y+1] += 1/16 * quant_error
-      nexterror[x].add(quant_error.mul(5.0 / 16.0));
-      if (x + direction >= 0 && x + direction < w) {
-        error[x + direction].add(quant_error.mul(7.0 / 16.0));
-        nexterror[x + direction].add(quant_error.mul(1.0 / 16.0));
-      }
-      if (x - direction >= 0 && x - direction < w) {
-        nexterror[x - direction].add(quant_error.mul(3.0 / 16.0));
-      }
+  @Override
+  protected void start(int[] pixels, int w, int h) {
+    int n = palette.numColors();
+    paletteRed = new int[n];
+    paletteGreen = new int[n];
+    paletteBlue = new int[n];
+    for (int i = 0; i < n; ++i) {
+      ColorRGB c = palette.getColor(i);
+      paletteRed[i] = c.red;
+      paletteGreen[i] = c.green;
+      paletteBlue[i] = c.blue;
     }
   }
 
-  
-  public TransformedImage filter(TransformedImage img) {
-    int y;
-    int h = img.getSourceImage().getHeight();
-    int w = img.getSourceImage().getWidth();
-    int direction = 1;
-    ColorRGB[] error = new ColorRGB[w];
-    ColorRGB[] nexterror = new ColorRGB[w];
 
-    for (y = 0; y < w; ++y) {
-      error[y] = new ColorRGB(0, 0, 0);
-      nexterror[y] = new ColorRGB(0, 0, 0);
+  @Override
+  protected int quantize(int pixel, float[] error) {
+    // oldpixel := pixel[x][y]
+    float red   = ((pixel >> 16) & 0xff) + error[0];
+    float green = ((pixel >>  8) & 0xff) + error[1];
+    float blue  = ( pixel        & 0xff) + error[2];
+
+    // newpixel := find_closest_palette_color(oldpixel)
+    int nearest = 0;
+    float nearestDistance = Float.MAX_VALUE;
+    for (int i = 0; i < paletteRed.length; ++i) {
+      float dr = red   - paletteRed[i];
+      float dg = green - paletteGreen[i];
+      float db = blue  - paletteBlue[i];
+      float d = dr * dr + dg * dg + db * db;
+      if (d < nearestDistance) {
+        nearestDistance = d;
+        nearest = i;
+      }
     }
 
-    // for each y from top to bottom
-    for (y = 0; y < h; ++y) {
-      ditherDirection(img, y, error, nexterror, direction);
+    // quant_error := oldpixel - newpixel
+    error[0] = red   - paletteRed[nearest];
+    error[1] = green - paletteGreen[nearest];
+    error[2] = blue  - paletteBlue[nearest];
 
-      direction = -direction;
-      ColorRGB[] tmp = error;
-      error = nexterror;
-      nexterror = tmp;
-    }
-
-    return img;
+    // pixel[x][y] := newpixel, keeping the alpha of the original
+    return (pixel & 0xff000000) | (paletteRed[nearest] << 16) | (paletteGreen[nearest] << 8) | paletteBlue[nearest];
   }
 }
 
-
 /**
  * This file is part of Makelangelo.
  * <p>
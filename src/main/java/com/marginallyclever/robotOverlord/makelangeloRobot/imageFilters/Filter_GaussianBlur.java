@@ -1,16 +1,14 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.util.Arrays;
 
-import javax.imageio.ImageIO;
-
-import com.marginallyclever.robotOverlord.makelangeloRobot.ColorRGB;
 import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
 
 /**
- * Converts an image to N shades of grey.
+ * Blurs an image with a gaussian curve, first across and then down.
+ * <p>
+ * The kernel is 2*radius+1 pixels wide with the sigma OpenCV picks for that width, so a radius of 1 is close to the
+ * old 1-2-1 kernel.  Pixels past the edge repeat the edge, so the border doesn't get darker.  Alpha is kept.
  *
  * @author Dan
  */
@@ -19,97 +17,133 @@ public class Filter_GaussianBlur extends ImageFilter {
 
 
 	public Filter_GaussianBlur(int _radius) {
-		assert (radius > 0);
+		assert (_radius >= 0);
 		radius = _radius;
 	}
 
 
-	public TransformedImage filter(TransformedImage img) {
-		int h = img.getSourceImage().getHeight();
-		int w = img.getSourceImage().getWidth();
-		int x, y;
+	/**
+	 * @return 2*radius+1 weights that add up to 1.
+	 */
+	float [] getKernel() {
+		int size = radius * 2 + 1;
+		double sigma = 0.3 * ((size - 1) * 0.5 - 1) + 0.8;
+		float [] kernel = new float[size];
+		double sum = 0;
+		for (int i = 0; i < size; ++i) {
+			double d = i - radius;
+			sum += kernel[i] = (float) Math.exp(-d * d / (2 * sigma * sigma));
+		}
+		for (int i = 0; i < size; ++i) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
 
-		BufferedImage dest = new BufferedImage(img.getSourceImage().getWidth(), img.getSourceImage().getHeight(), img.getSourceImage().getType());
 
-		// scales could be filled with a gaussian curve: float[] scales = new float[radius];
-		float[] scales = new float[3];
-		scales[0] = 1.0f / 4.0f;
-		scales[1] = 1.0f / 2.0f;
-		scales[2] = 1.0f / 4.0f;
+	public TransformedImage filter(TransformedImage img) {
+		if (radius <= 0) return img;
 
-		ColorRGB pixel = new ColorRGB(0, 0, 0);
-		ColorRGB p;
-		double sum;
+		final int h = img.getSourceImage().getHeight();
+		final int w = img.getSourceImage().getWidth();
+		final int [] pixels = getPixels(img);
+		final int [] across = new int[w * h];
+		final float [] kernel = getKernel();
+		final int r = radius;
 
 		// horizontal blur
-		for (y = 0; y < h; ++y) {
-			for (x = 0; x < w; ++x) {
-				pixel.set(0, 0, 0);
-				sum = 0;
-				if (x - 1 >= 0) {
-					p = new ColorRGB(img.getSourceImage().getRGB(x - 1, y));
-					p.mul(scales[0]);
-					pixel.add(p);
-					sum += scales[0];
+		ParallelRows.forEach(w, h, new ParallelRows.Rows() {
+			@Override
+			public void run(int y0, int y1) {
+				// one row of one channel, with r copies of the edge pixel on each end
+				float [] padded = new float[w + 2 * r];
+				float [] red = new float[w];
+				float [] green = new float[w];
+				float [] blue = new float[w];
+				for (int y = y0; y < y1; ++y) {
+					int row = y * w;
+					blurRow(pixels, row, w, 16, padded, kernel, red);
+					blurRow(pixels, row, w, 8, padded, kernel, green);
+					blurRow(pixels, row, w, 0, padded, kernel, blue);
+					for (int x = 0; x < w; ++x) {
+						across[row + x] = pack(red[x], green[x], blue[x]);
+					}
 				}
-
-				p = new ColorRGB(img.getSourceImage().getRGB(x, y));
-				p.mul(scales[1]);
-				pixel.add(p);
-				sum += scales[1];
-
-				if (x + 1 < w) {
-					p = new ColorRGB(img.getSourceImage().getRGB(x + 1, y));
-					p.mul(scales[2]);
-					pixel.add(p);
-					sum += scales[2];
-				}
-
-				//pixel.mul(1.0/sum);
-				//if(b==255) System.out.println(x+"\t"+y+"\t"+i+"\t"+b);
-				dest.setRGB(x, y, pixel.toInt());
 			}
-		}
+		});
 
 		// vertical blur
-		for (x = 0; x < w; ++x) {
-			for (y = 0; y < h; ++y) {
-				pixel.set(0, 0, 0);
-				sum = 0;
-				if (y - 1 >= 0) {
-					p = new ColorRGB(dest.getRGB(x, y - 1));
-					p.mul(scales[0]);
-					pixel.add(p);
-					sum += scales[0];
+		ParallelRows.forEach(w, h, new ParallelRows.Rows() {
+			@Override
+			public void run(int y0, int y1) {
+				float [] red = new float[w];
+				float [] green = new float[w];
+				float [] blue = new float[w];
+				for (int y = y0; y < y1; ++y) {
+					Arrays.fill(red, 0);
+					Arrays.fill(green, 0);
+					Arrays.fill(blue, 0);
+					// add up whole rows, so every read is in order.
+					for (int i = 0; i < kernel.length; ++i) {
+						int from = Math.min(Math.max(y + i - r, 0), h - 1) * w;
+						float k = kernel[i];
+						for (int x = 0; x < w; ++x) {
+							int p = across[from + x];
+							red[x]   += k * ((p >> 16) & 0xff);
+							green[x] += k * ((p >>  8) & 0xff);
+							blue[x]  += k * ( p        & 0xff);
+						}
+					}
+					int row = y * w;
+					for (int x = 0; x < w; ++x) {
+						pixels[row + x] = (pixels[row + x] & 0xff000000) | pack(red[x], green[x], blue[x]);
+					}
 				}
+			}
+		});
 
-				p = new ColorRGB(dest.getRGB(x, y));
-				p.mul(scales[1]);
-				pixel.add(p);
-				sum += scales[1];
+		return img;
+	}
 
-				if (y + 1 < h) {
-					p = new ColorRGB(dest.getRGB(x, y + 1));
-					p.mul(scales[2]);
-					pixel.add(p);
-					sum += scales[2];
-				}
 
-				pixel.mul(1.0 / sum);
-				//if(b==255) System.out.println(x+"\t"+y+"\t"+i+"\t"+b);
-				img.getSourceImage().setRGB(x, y, pixel.toInt());
-			}
+	/**
+	 * Blur one channel of one row.
+	 * @param pixels the image
+	 * @param row index of the first pixel in the row
+	 * @param w pixels in the row
+	 * @param shift where the channel is in each pixel
+	 * @param padded w+kernel.length-1 long, for the channel with its edges repeated.
+	 * @param kernel the weights
+	 * @param out w long, for the result
+	 */
+	private static void blurRow(int [] pixels, int row, int w, int shift, float [] padded, float [] kernel, float [] out) {
+		int r = kernel.length / 2;
+		for (int x = 0; x < w; ++x) {
+			padded[r + x] = (pixels[row + x] >> shift) & 0xff;
+		}
+		for (int i = 0; i < r; ++i) {
+			padded[i] = padded[r];
+			padded[r + w + i] = padded[r + w - 1];
 		}
 
-		try {
-			// save image
-			File outputfile = new File("saved.png");
-			ImageIO.write(img.getSourceImage(), "png", outputfile);
-		} catch (IOException e) {
-			e.printStackTrace();
+		Arrays.fill(out, 0, w, 0);
+		for (int i = 0; i < kernel.length; ++i) {
+			float k = kernel[i];
+			for (int x = 0; x < w; ++x) {
+				out[x] += k * padded[x + i];
+			}
 		}
+	}
 
-		return img;
+
+	/**
+	 * @return red, green and blue rounded to the nearest whole value, no alpha.
+	 */
+	private static int pack(float red, float green, float blue) {
+		int r = Math.min((int) (red + 0.5f), 255);
+		int g = Math.min((int) (green + 0.5f), 255);
+		int b = Math.min((int) (blue + 0.5f), 255);
+		return (r << 16) | (g << 8) | b;
 	}
 }
 
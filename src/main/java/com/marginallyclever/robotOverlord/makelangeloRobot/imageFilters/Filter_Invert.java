@@ -1,31 +1,15 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
 
-import com.marginallyclever.robotOverlord.makelangeloRobot.ColorRGB;
-import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
-
-
 /**
  * Inverts the colors in an image.
  *
  * @author Dan
  */
-public class Filter_Invert extends ImageFilter {
-  public TransformedImage filter(TransformedImage img) {
-    int h = img.getSourceImage().getHeight();
-    int w = img.getSourceImage().getWidth();
-    int x, y;
-
-    for (y = 0; y < h; ++y) {
-      for (x = 0; x < w; ++x) {
-        ColorRGB color = new ColorRGB(img.getSourceImage().getRGB(x, y));
-        color.red   = 255 - color.red;
-        color.green = 255 - color.green;
-        color.blue  = 255 - color.blue;
-        img.getSourceImage().setRGB(x, y, color.toInt());
-      }
-    }
-
-    return img;
+public class Filter_Invert extends PointFilter {
+  @Override
+  public int apply(int argb) {
+    // red, green and blue.  Alpha stays.
+    return argb ^ 0x00ffffff;
   }
 }
 
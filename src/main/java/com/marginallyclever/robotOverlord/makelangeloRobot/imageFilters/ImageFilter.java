@@ -1,6 +1,11 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
 
@@ -39,7 +44,53 @@ public class ImageFilter {
 	public static int encode32bit(int i) {
 		return (0xff << 24) | (i << 16) | (i << 8) | i;
 	}
-	
+
+	/**
+	 * The pixels of an image as one ARGB int each, row by row, the same values getRGB() would return.
+	 * Changing the array changes the image.  An image stored any other way is converted once and replaced.
+	 * @param img the image
+	 * @return the pixels, width*height long.
+	 */
+	public static int [] getPixels(TransformedImage img) {
+		BufferedImage src = img.getSourceImage();
+		if(!isWholeArgbBuffer(src)) {
+			final int w = src.getWidth();
+			final int h = src.getHeight();
+			final ImageRows rows = new ImageRows(src);
+			BufferedImage argb = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			final int [] pixels = ((DataBufferInt)argb.getRaster().getDataBuffer()).getData();
+			ParallelRows.forEach(w, h, new ParallelRows.Rows() {
+				@Override
+				public void run(int y0, int y1) {
+					int [] row = new int[w];
+					for(int y=y0;y<y1;++y) {
+						rows.read(y, row);
+						System.arraycopy(row, 0, pixels, y*w, w);
+					}
+				}
+			});
+			img.setSourceImage(argb);
+			src = argb;
+		}
+		// the caller is about to change them.
+		img.sourceImageChanged();
+		return ((DataBufferInt)src.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * @return true if the image is int ARGB and its data is exactly its pixels, row after row.  A subimage shares a
+	 * bigger buffer, starts part way in and has rows longer than its width, so it is not.
+	 */
+	private static boolean isWholeArgbBuffer(BufferedImage image) {
+		if(image.getType() != BufferedImage.TYPE_INT_ARGB) return false;
+		WritableRaster raster = image.getRaster();
+		DataBuffer buffer = raster.getDataBuffer();
+		int w = image.getWidth();
+		int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+		return stride == w && start == 0 && buffer.getSize() == w * image.getHeight();
+	}
+
 	/**
 	 * @param img the <code>java.awt.image.BufferedImage</code> this filter is using as source material.
 	 * @return the altered image
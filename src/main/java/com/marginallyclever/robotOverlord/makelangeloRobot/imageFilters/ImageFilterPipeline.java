@@ -0,0 +1,136 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+
+/**
+ * Filters run one after the other, as one filter.  Nothing happens until filter() is called.
+ * <p>
+ * Point filters in a row (see PointFilter) are fused: each pixel is read once, passed through all of them and
+ * written once.  Any measuring they need is done on the fly from the original pixels.  The picture is only written out
+ * before a filter that looks at neighboring pixels, like a blur or a dither, and at the end.
+ * <p>
+ * <pre>
+ * // grey and invert are one pass.  The dither needs the result written out first.
+ * img = new ImageFilterPipeline(new Filter_BlackAndWhite(255), new Filter_Invert(), new Filter_DitherFloydSteinberg()).filter(img);
+ * </pre>
+ */
+public class ImageFilterPipeline extends ImageFilter {
+	private List<ImageFilter> filters = new ArrayList<ImageFilter>();
+
+
+	public ImageFilterPipeline(ImageFilter... filters) {
+		for (ImageFilter f : filters) add(f);
+	}
+
+
+	/**
+	 * @param filter runs after the filters already added.
+	 * @return this pipeline
+	 */
+	public ImageFilterPipeline add(ImageFilter filter) {
+		filters.add(filter);
+		return this;
+	}
+
+
+	@Override
+	public TransformedImage filter(TransformedImage img) {
+		int i = 0;
+		while (i < filters.size()) {
+			if (!(filters.get(i) instanceof PointFilter)) {
+				img = filters.get(i).filter(img);
+				++i;
+				continue;
+			}
+
+			int j = i;
+			while (j < filters.size() && filters.get(j) instanceof PointFilter) ++j;
+			img = runPointFilters(img, filters.subList(i, j).toArray(new PointFilter[j - i]));
+			i = j;
+		}
+		return img;
+	}
+
+
+	/**
+	 * Run point filters in one pass.  Each one first gets to measure the picture as it would look by then.
+	 * The result is stored as TYPE_INT_ARGB, in place if the picture already was.
+	 * @param img the picture
+	 * @param steps the filters, in order
+	 * @return img
+	 */
+	static TransformedImage runPointFilters(TransformedImage img, final PointFilter [] steps) {
+		BufferedImage src = img.getSourceImage();
+		final int w = src.getWidth();
+		final int h = src.getHeight();
+		final PixelSource source = new ImageRows(src);
+
+		for (int k = 0; k < steps.length; ++k) {
+			steps[k].prepare(new Filtered(source, steps, k));
+		}
+
+		BufferedImage dest = src;
+		if (src.getType() != BufferedImage.TYPE_INT_ARGB) {
+			dest = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		}
+		final int [] pixels = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+		final PixelSource result = new Filtered(source, steps, steps.length);
+
+		ParallelRows.forEach(w, h, new ParallelRows.Rows() {
+			@Override
+			public void run(int y0, int y1) {
+				int [] row = new int[w];
+				for (int y = y0; y < y1; ++y) {
+					result.read(y, row);
+					System.arraycopy(row, 0, pixels, y * w, w);
+				}
+			}
+		});
+
+		img.setSourceImage(dest);
+		return img;
+	}
+
+
+	/**
+	 * The picture as it looks after the first few steps.
+	 */
+	private static class Filtered implements PixelSource {
+		private PixelSource source;
+		private PointFilter [] steps;
+		private int count;
+
+		/**
+		 * @param count how many of the steps to apply
+		 */
+		Filtered(PixelSource source, PointFilter [] steps, int count) {
+			this.source = source;
+			this.steps = steps;
+			this.count = count;
+		}
+
+		@Override
+		public int getWidth() {
+			return source.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return source.getHeight();
+		}
+
+		@Override
+		public void read(int y, int [] row) {
+			source.read(y, row);
+			int w = source.getWidth();
+			for (int k = 0; k < count; ++k) {
+				steps[k].apply(row, w);
+			}
+		}
+	}
+}
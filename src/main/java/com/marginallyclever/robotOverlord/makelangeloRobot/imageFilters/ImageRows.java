@@ -0,0 +1,105 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads a BufferedImage one row at a time, the same values getRGB() would return.
+ * <p>
+ * The types ImageIO and Makelangelo usually make (int RGB, int ARGB, 3 byte BGR and 4 byte ABGR) are read straight
+ * from their data, about ten times faster than getRGB().  Anything else goes through getRGB().
+ */
+public class ImageRows implements PixelSource {
+	private BufferedImage image;
+	private int width, height;
+	private int type;
+	private int [] ints;
+	private byte [] bytes;
+	// index of the first sample of the first pixel, and the distance between rows and between pixels.
+	private int start, rowStride, pixelStride;
+	// where red, green, blue and alpha are in a pixel of bytes.
+	private int red, green, blue, alpha;
+
+
+	public ImageRows(BufferedImage image) {
+		this.image = image;
+		width = image.getWidth();
+		height = image.getHeight();
+		type = image.getType();
+
+		Raster raster = image.getRaster();
+		DataBuffer buffer = raster.getDataBuffer();
+		int tx = raster.getSampleModelTranslateX();
+		int ty = raster.getSampleModelTranslateY();
+
+		switch (type) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB: {
+			SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+			ints = ((DataBufferInt) buffer).getData();
+			rowStride = sm.getScanlineStride();
+			pixelStride = 1;
+			start = buffer.getOffset() - ty * rowStride - tx;
+			break;
+		}
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			bytes = ((DataBufferByte) buffer).getData();
+			rowStride = sm.getScanlineStride();
+			pixelStride = sm.getPixelStride();
+			start = buffer.getOffset() - ty * rowStride - tx * pixelStride;
+			int [] bands = sm.getBandOffsets();
+			red = bands[0];
+			green = bands[1];
+			blue = bands[2];
+			alpha = bands.length > 3 ? bands[3] : -1;
+			break;
+		}
+		default:
+			type = BufferedImage.TYPE_CUSTOM;
+		}
+	}
+
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+
+	@Override
+	public void read(int y, int [] row) {
+		int i = start + y * rowStride;
+		switch (type) {
+		case BufferedImage.TYPE_INT_ARGB:
+			System.arraycopy(ints, i, row, 0, width);
+			break;
+		case BufferedImage.TYPE_INT_RGB:
+			for (int x = 0; x < width; ++x) {
+				row[x] = 0xff000000 | ints[i + x];
+			}
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			for (int x = 0; x < width; ++x, i += pixelStride) {
+				int a = alpha < 0 ? 0xff : bytes[i + alpha] & 0xff;
+				row[x] = (a << 24) | ((bytes[i + red] & 0xff) << 16) | ((bytes[i + green] & 0xff) << 8) | (bytes[i + blue] & 0xff);
+			}
+			break;
+		default:
+			image.getRGB(0, y, width, 1, row, 0, width);
+		}
+	}
+}
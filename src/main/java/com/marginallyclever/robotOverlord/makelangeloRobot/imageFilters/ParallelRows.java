@@ -0,0 +1,137 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits the rows of an image into bands and works on the bands on every core at once.
+ * <p>
+ * Each band gets at least MIN_PIXELS_PER_BAND pixels so small images don't pay for threads they don't need.
+ * Reductions are combined top band first, so the result is the same on any number of cores.
+ */
+public class ParallelRows {
+	public static final int MIN_PIXELS_PER_BAND = 1<<16;
+
+	/**
+	 * Work on some rows of an image.
+	 */
+	public interface Rows {
+		/**
+		 * @param y0 first row
+		 * @param y1 one past the last row
+		 */
+		public void run(int y0,int y1);
+	}
+
+	/**
+	 * Measure some rows of an image, then put the measurements of two bands together.
+	 */
+	public interface Reduction<T> {
+		/**
+		 * @param y0 first row
+		 * @param y1 one past the last row
+		 * @return what was found in these rows
+		 */
+		public T run(int y0,int y1);
+
+		/**
+		 * @param above what was found in the rows above
+		 * @param below what was found in the rows below
+		 * @return what was found in both
+		 */
+		public T combine(T above,T below);
+	}
+
+
+	/**
+	 * Run rows on every row from 0 to height-1.  Returns when all of them are done.
+	 * @param width pixels per row
+	 * @param height number of rows
+	 * @param rows the work.  Bands run at the same time, so it must not write outside of its own rows.
+	 */
+	public static void forEach(int width,int height,Rows rows) {
+		int grain = getGrain(width);
+		if(height<=grain) {
+			rows.run(0,height);
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(new ForEachTask(rows,0,height,grain));
+	}
+
+
+	/**
+	 * Run reduction on every row from 0 to height-1 and combine the results.
+	 * @param width pixels per row
+	 * @param height number of rows
+	 * @param reduction the work.  Bands run at the same time.
+	 * @return the combined result
+	 */
+	public static <T> T reduce(int width,int height,Reduction<T> reduction) {
+		int grain = getGrain(width);
+		if(height<=grain) {
+			return reduction.run(0,height);
+		}
+		return ForkJoinPool.commonPool().invoke(new ReduceTask<T>(reduction,0,height,grain));
+	}
+
+
+	/**
+	 * @return rows per band
+	 */
+	private static int getGrain(int width) {
+		return Math.max(1, MIN_PIXELS_PER_BAND/Math.max(1,width));
+	}
+
+
+	@SuppressWarnings("serial")
+	private static class ForEachTask extends RecursiveAction {
+		private Rows rows;
+		private int y0, y1, grain;
+
+		ForEachTask(Rows rows,int y0,int y1,int grain) {
+			this.rows = rows;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if(y1-y0<=grain) {
+				rows.run(y0,y1);
+				return;
+			}
+			int mid = (y0+y1)>>>1;
+			invokeAll(new ForEachTask(rows,y0,mid,grain),
+					  new ForEachTask(rows,mid,y1,grain));
+		}
+	}
+
+
+	@SuppressWarnings("serial")
+	private static class ReduceTask<T> extends RecursiveTask<T> {
+		private Reduction<T> reduction;
+		private int y0, y1, grain;
+
+		ReduceTask(Reduction<T> reduction,int y0,int y1,int grain) {
+			this.reduction = reduction;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.grain = grain;
+		}
+
+		@Override
+		protected T compute() {
+			if(y1-y0<=grain) {
+				return reduction.run(y0,y1);
+			}
+			int mid = (y0+y1)>>>1;
+			ReduceTask<T> above = new ReduceTask<T>(reduction,y0,mid,grain);
+			ReduceTask<T> below = new ReduceTask<T>(reduction,mid,y1,grain);
+			above.fork();
+			T b = below.compute();
+			return reduction.combine(above.join(), b);
+		}
+	}
+}
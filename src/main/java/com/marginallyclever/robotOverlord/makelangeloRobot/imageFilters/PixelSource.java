@@ -0,0 +1,17 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+/**
+ * A picture that can be read one row at a time as ARGB ints.
+ */
+public interface PixelSource {
+	public int getWidth();
+
+	public int getHeight();
+
+	/**
+	 * Safe to call from many threads at once, as long as each has its own row.
+	 * @param y the row
+	 * @param row at least getWidth() long.  Filled with the pixels of row y.
+	 */
+	public void read(int y, int [] row);
+}
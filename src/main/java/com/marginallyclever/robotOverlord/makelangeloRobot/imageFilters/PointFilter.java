@@ -0,0 +1,39 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+
+/**
+ * A filter where each new pixel depends only on the old pixel at the same spot, and maybe on something measured over
+ * the whole picture first.
+ * <p>
+ * An ImageFilterPipeline runs point filters in a row as a single pass over the picture.
+ */
+public abstract class PointFilter extends ImageFilter {
+	/**
+	 * Measure the picture before any pixel is changed, if this filter needs to.
+	 * @param input the picture as this filter will see it, with the filters before it already applied.
+	 */
+	protected void prepare(PixelSource input) {}
+
+	/**
+	 * @param argb the old pixel
+	 * @return the new pixel
+	 */
+	public abstract int apply(int argb);
+
+	/**
+	 * Apply to a whole row at once.
+	 * @param row pixels to change
+	 * @param length how many of the pixels to change
+	 */
+	public void apply(int [] row, int length) {
+		for (int x = 0; x < length; ++x) {
+			row[x] = apply(row[x]);
+		}
+	}
+
+	@Override
+	public TransformedImage filter(TransformedImage img) {
+		return ImageFilterPipeline.runPointFilters(img, new PointFilter[] { this });
+	}
+}
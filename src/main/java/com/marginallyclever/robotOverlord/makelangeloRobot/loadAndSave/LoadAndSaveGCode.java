@@ -1,23 +1,34 @@
 package com.marginallyclever.robotOverlord.makelangeloRobot.loadAndSave;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.Objects;
 
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import com.marginallyclever.robotOverlord.makelangeloRobot.GCodeFile;
 import com.marginallyclever.robotOverlord.Log;
 import com.marginallyclever.robotOverlord.Translator;
 import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobot;
+import com.marginallyclever.robotOverlord.makelangeloRobot.MakelangeloRobotPanel;
 
 /**
  * LoadGCode loads gcode into memory. 
+ * The file is read right away.  The lines are found and the preview and time estimate are built on a worker thread,
+ * a few lines at a time.
  * @author Admin
  *
  */
 public class LoadAndSaveGCode implements LoadAndSaveFileType {
+	// lines of preview built between each update of the screen.
+	private static final int LINES_PER_STEP = 10000;
+	
 	private FileNameExtensionFilter filter = new FileNameExtensionFilter(Translator.get("FileTypeGCode"), "ngc");
 	
 	@Override
@@ -39,25 +50,79 @@ public class LoadAndSaveGCode implements LoadAndSaveFileType {
 
 	
 	@Override
-	public boolean load(InputStream in,MakelangeloRobot robot) {
+	public boolean load(InputStream in,final MakelangeloRobot robot) {
 		if(robot.getSettings().isReverseForGlass()) {
 			Log.message("Flipping for glass...");
 		}
 
-		GCodeFile file;
+		final GCodeFile file = new GCodeFile();
 		try {
-			file = new GCodeFile(in,robot.getSettings().isReverseForGlass());
-			
+			// the stream is closed when this returns, so read it now.  Look for the lines later.
+			file.readText(in,robot.getSettings().isReverseForGlass());
 		} catch (IOException e) {
 			Log.error(Translator.get("LoadError") +" "+ e.getLocalizedMessage());
 			return false;
 		}
 
-		Log.message(file.estimateCount + Translator.get("LineSegments") + "\n" + file.estimatedLength
-				+ Translator.get("Centimeters") + "\n" + Translator.get("EstimatedTime")
-				+ Log.millisecondsToHumanReadable((long) (file.estimatedTime)) + ".");
+		final ProgressMonitor pm = new ProgressMonitor(null, Translator.get("OpeningFile"), "", 0, 100);
+		pm.setProgress(0);
+
+		final SwingWorker<Void, Void> s = new SwingWorker<Void, Void>() {
+			@Override
+			public Void doInBackground() {
+				try {
+					file.indexLines();
+					int total = file.getLinesTotal();
+					int linesRead = 0;
+					while(linesRead < total && !isCancelled()) {
+						linesRead = file.loadPreviewLines(LINES_PER_STEP);
+						setProgress((int)(99L * linesRead / total));
+					}
+					if(!isCancelled()) {
+						file.endProgressiveLoad();
+						setProgress(100);
+					}
+				} finally {
+					// done() can run while this thread is still reading the file, so the file is closed here instead.
+					if(isCancelled()) file.closeFile();
+				}
+				return null;
+			}
+
+			@Override
+			public void done() {
+				pm.close();
+				if(isCancelled()) {
+					if(robot.gCode == file) robot.setGCode(null);
+				} else {
+					Log.message(file.estimateCount + Translator.get("LineSegments") + "\n" + file.estimatedLength
+							+ Translator.get("Centimeters") + "\n" + Translator.get("EstimatedTime")
+							+ Log.millisecondsToHumanReadable((long) (file.estimatedTime)) + ".");
+				}
+				MakelangeloRobotPanel panel = robot.getControlPanel();
+				if(panel!=null) panel.updateButtonAccess();
+			}
+		};
+
+		s.addPropertyChangeListener(new PropertyChangeListener() {
+			// Invoked when task's progress property changes.
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (Objects.equals("progress", evt.getPropertyName())) {
+					int progress = (Integer) evt.getNewValue();
+					pm.setProgress(progress);
+					pm.setNote(String.format("%d%%.\n", progress));
+					if (pm.isCanceled() && !s.isDone()) {
+						s.cancel(true);
+						Log.message(Translator.get("Cancelled"));
+					}
+				}
+			}
+		});
 
+		// the preview shows up as soon as the first lines are read.
+		file.beginProgressiveLoad(robot);
 		robot.setGCode(file);
+		s.execute();
 		return true;
 	}
 
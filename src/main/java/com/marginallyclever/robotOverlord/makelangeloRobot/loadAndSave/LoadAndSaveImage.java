@@ -4,6 +4,7 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -28,6 +29,8 @@ import javax.swing.ProgressMonitor;
 import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import com.marginallyclever.robotOverlord.makelangeloRobot.GCodeSimplifyingWriter;
+import com.marginallyclever.robotOverlord.makelangeloRobot.GCodeTravelOptimizer;
 import com.marginallyclever.robotOverlord.makelangeloRobot.ImageManipulator;
 import com.marginallyclever.robotOverlord.Log;
 import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
@@ -172,8 +175,9 @@ public class LoadAndSaveImage extends ImageManipulator implements LoadAndSaveFil
 		final SwingWorker<Void, Void> s = new SwingWorker<Void, Void>() {
 			@Override
 			public Void doInBackground() {
+				boolean converted = false;
 				try (OutputStream fileOutputStream = new FileOutputStream(destinationFile);
-						Writer out = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8)) {
+						Writer out = new GCodeSimplifyingWriter(new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8), robot.getSettings())) {
 					// read in image
 					Log.message(Translator.get("Converting") + " " + destinationFile);
 					// convert with style
@@ -200,12 +204,26 @@ public class LoadAndSaveImage extends ImageManipulator implements LoadAndSaveFil
 						ymh.setRobot(robot);
 						ymh.signName(out);
 					}
+					converted = true;
 				} catch (IOException e) {
+					// closing the file can fail too.
+					converted = false;
 					Log.error(Translator.get("Failed") + e.getLocalizedMessage());
 				}
 
 				// out closed when scope of try() ended.
 
+				// don't spend time on a drawing that failed or was thrown away.
+				if (converted && !isCancelled() && !pm.isCanceled() && robot.getSettings().shouldOptimizeTravel()) {
+					try {
+						GCodeTravelOptimizer optimizer = new GCodeTravelOptimizer(robot.getSettings());
+						optimizer.optimize(new File(destinationFile));
+						Log.message(Translator.get("OptimizeTravel") + ": " + Math.round(optimizer.getTravelBefore()) + "mm -> " + Math.round(optimizer.getTravelAfter()) + "mm");
+					} catch (IOException e) {
+						Log.error(Translator.get("Failed") + e.getLocalizedMessage());
+					}
+				}
+
 				pm.setProgress(100);
 				return null;
 			}
@@ -66,6 +66,8 @@ public final class MakelangeloRobotSettings {
 	private boolean isRightMotorInverted;
 	
 	private boolean reverseForGlass;
+	// reorder strokes in generated drawings to reduce pen up travel.
+	private boolean optimizeTravel;
 	// for a while the robot would sign it's name at the end of a drawing
 	private boolean shouldSignName;
 	
@@ -144,6 +146,7 @@ public final class MakelangeloRobotSettings {
 		isLeftMotorInverted = false;
 		isRightMotorInverted = true;
 		reverseForGlass = false;
+		optimizeTravel = true;
 
 		startingPositionIndex = 4;
 		
@@ -512,6 +515,7 @@ public final class MakelangeloRobotSettings {
 
 		paperMargin = Double.valueOf(uniqueMachinePreferencesNode.get("paper_margin", Double.toString(paperMargin)));
 		reverseForGlass = Boolean.parseBoolean(uniqueMachinePreferencesNode.get("reverseForGlass", Boolean.toString(reverseForGlass)));
+		optimizeTravel = Boolean.parseBoolean(uniqueMachinePreferencesNode.get("optimizeTravel", Boolean.toString(optimizeTravel)));
 		setCurrentToolNumber(Integer.valueOf(uniqueMachinePreferencesNode.get("current_tool", Integer.toString(getCurrentToolNumber()))));
 		setRegistered(Boolean.parseBoolean(uniqueMachinePreferencesNode.get("isRegistered",Boolean.toString(isRegistered))));
 
@@ -562,6 +566,7 @@ public final class MakelangeloRobotSettings {
 
 		uniqueMachinePreferencesNode.put("paper_margin", Double.toString(paperMargin));
 		uniqueMachinePreferencesNode.put("reverseForGlass", Boolean.toString(reverseForGlass));
+		uniqueMachinePreferencesNode.put("optimizeTravel", Boolean.toString(optimizeTravel));
 		uniqueMachinePreferencesNode.put("current_tool", Integer.toString(getCurrentToolNumber()));
 		uniqueMachinePreferencesNode.put("isRegistered", Boolean.toString(isRegistered()));
 		
@@ -644,6 +649,14 @@ public final class MakelangeloRobotSettings {
 		this.reverseForGlass = reverseForGlass;
 	}
 	
+	public boolean shouldOptimizeTravel() {
+		return optimizeTravel;
+	}
+	
+	public void setOptimizeTravel(boolean optimizeTravel) {
+		this.optimizeTravel = optimizeTravel;
+	}
+	
 	public boolean shouldSignName() {
 		return shouldSignName;
 	}
@@ -36,6 +36,7 @@ public class PanelAdjustMachine extends JPanel implements ActionListener, Proper
 	protected UserCommandSelectNumber acceleration;
 	protected UserCommandSelectNumber pulleyDiameter;
 	protected JCheckBox flipForGlass;
+	protected JCheckBox optimizeTravel;
 
 
 	protected JButton buttonAneg;
@@ -243,8 +244,14 @@ public class PanelAdjustMachine extends JPanel implements ActionListener, Proper
 		flipForGlass.setSelected(robot.getSettings().isReverseForGlass());
 		flipPanel.add(flipForGlass, c);
 
+		c.gridy=1;
+		optimizeTravel = new JCheckBox(Translator.get("OptimizeTravel"));
+		optimizeTravel.setSelected(robot.getSettings().shouldOptimizeTravel());
+		flipPanel.add(optimizeTravel, c);
+
 
 		// always have one extra empty at the end to push everything up.
+		c.gridy=2;
 		c.weighty = 1;
 		flipPanel.add(new JLabel(), c);
 		
@@ -304,6 +311,7 @@ public class PanelAdjustMachine extends JPanel implements ActionListener, Proper
 
 		if (data_is_sane) {
 			robot.getSettings().setReverseForGlass(flipForGlass.isSelected());
+			robot.getSettings().setOptimizeTravel(optimizeTravel.isSelected());
 			robot.getSettings().setPulleyDiameter(bld);
 			robot.getSettings().setMachineSize(mwf, mhf);
 			robot.getSettings().setAcceleration(accel);
@@ -119,6 +119,17 @@ implements Serializable {
 		}
 	}
 	
+	/**
+	 * The GL context is going away.  Release everything the entities keep on the video card.
+	 * @param gl2 the render context
+	 */
+	public void dispose(GL2 gl2) {
+		Iterator<Entity> io = entities.iterator();
+		while(io.hasNext()) {
+			io.next().dispose(gl2);
+		}
+	}
+	
 	public void render(GL2 gl2, float delta ) {
 		if(!isSetup) {
 			setup(gl2);
@@ -1,15 +1,15 @@
 package com.marginallyclever.voronoi;
 
-import java.awt.Point;
+import java.awt.geom.Point2D;
 
 public class VoronoiCell implements Comparable<VoronoiCell> {
-	public Point centroid = new Point();
+	public Point2D.Float centroid = new Point2D.Float();
 
 	@Override
 	public int compareTo(VoronoiCell arg0) {
-		int y = centroid.y - arg0.centroid.y;
+		int y = Float.compare(centroid.y, arg0.centroid.y);
 		if(y!=0) return y;
 		
-		return centroid.x - arg0.centroid.x;
+		return Float.compare(centroid.x, arg0.centroid.x);
 	}
 }
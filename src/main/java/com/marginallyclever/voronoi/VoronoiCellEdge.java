@@ -1,6 +0,0 @@
-package com.marginallyclever.voronoi;
-
-public class VoronoiCellEdge {
-  public double px, py;
-  public double nx, ny;
-}
@@ -0,0 +1,80 @@
+package com.marginallyclever.voronoi;
+
+import java.util.Arrays;
+
+/**
+ * The edges of a voronoi diagram in plain arrays, and on request the edges of each site.  Meant to be handed to
+ * VoronoiTesselator.generateVoronoi() over and over; the arrays only grow.
+ */
+public class VoronoiEdgeBuffer {
+  // edge i goes from (x1[i],y1[i]) to (x2[i],y2[i]) between site1[i] and site2[i].
+  public double[] x1 = new double[0], y1 = new double[0], x2 = new double[0], y2 = new double[0];
+  public int[] site1 = new int[0], site2 = new int[0];
+  public int count;
+
+  // the edges of site s are siteEdges[siteStart[s]...siteStart[s+1]-1].  Only filled by indexBySite().
+  public int[] siteStart = new int[1];
+  public int[] siteEdges = new int[0];
+  public int sites;
+
+
+  /**
+   * Empty the buffer.
+   * @param sites number of sites in the next diagram.
+   */
+  public void clear(int sites) {
+    this.sites = sites;
+    count = 0;
+  }
+
+
+  public void add(int s1, int s2, double ax, double ay, double bx, double by) {
+    if (count == x1.length) {
+      int size = Math.max(16, count * 2);
+      x1 = Arrays.copyOf(x1, size);
+      y1 = Arrays.copyOf(y1, size);
+      x2 = Arrays.copyOf(x2, size);
+      y2 = Arrays.copyOf(y2, size);
+      site1 = Arrays.copyOf(site1, size);
+      site2 = Arrays.copyOf(site2, size);
+    }
+    x1[count] = ax;
+    y1[count] = ay;
+    x2[count] = bx;
+    y2[count] = by;
+    site1[count] = s1;
+    site2[count] = s2;
+    count++;
+  }
+
+
+  /**
+   * Fill siteStart and siteEdges.  Each edge is listed under both of its sites, in the order the edges were added.
+   * Not done by generateVoronoi(), so only callers that walk the edges of each site pay for it.
+   */
+  public void indexBySite() {
+    if (siteStart.length < sites + 1) {
+      siteStart = new int[sites + 1];
+    }
+    Arrays.fill(siteStart, 0, sites + 1, 0);
+    for (int i = 0; i < count; i++) {
+      siteStart[site1[i] + 1]++;
+      siteStart[site2[i] + 1]++;
+    }
+    for (int s = 0; s < sites; s++) {
+      siteStart[s + 1] += siteStart[s];
+    }
+    if (siteEdges.length < count * 2) {
+      siteEdges = new int[count * 2];
+    }
+    // siteStart[s] counts up while filling, then is put back.
+    for (int i = 0; i < count; i++) {
+      siteEdges[siteStart[site1[i]]++] = i;
+      siteEdges[siteStart[site2[i]]++] = i;
+    }
+    for (int s = sites; s > 0; s--) {
+      siteStart[s] = siteStart[s - 1];
+    }
+    siteStart[0] = 0;
+  }
+}
@@ -43,38 +43,59 @@ package com.marginallyclever.voronoi;
  */
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
-import java.awt.Point;
-
 
+/**
+ * Fortune's sweep line, kept in arrays.  Sites, vertices, edges and halfedges are indexes into arrays that are kept
+ * from one call to the next, so a tesselator that is used over and over stops allocating once it has seen the
+ * biggest diagram.  Not safe to use from more than one thread at a time.
+ */
 public class VoronoiTesselator {
   // ************* Private members ******************
   private double borderMinX, borderMaxX, borderMinY, borderMaxY;
   private int siteidx;
   private double xmin, xmax, ymin, ymax, deltax, deltay;
-  private int nvertices;
-  private int nedges;
   private int nsites;
-  private VoronoiSite[] sites;
-  private VoronoiSite bottomsite;
+  private int bottomsite;
   private int sqrt_nsites;
   private double minDistanceBetweenSites;
   private int PQcount;
   private int PQmin;
   private int PQhashsize;
-  private VoronoiHalfEdge[] PQhash;
+  private int[] PQhash = new int[0];
 
   private final static int LE = 0;
   private final static int RE = 1;
+  // stands in for a missing site, vertex, edge or halfedge
+  private final static int NONE = -1;
 
   private int ELhashsize;
-  private VoronoiHalfEdge ELhash[];
-  private VoronoiHalfEdge ELleftend, ELrightend;
-  private List<VoronoiGraphEdge> allEdges;
+  private int[] ELhash = new int[0];
+  private int ELleftend, ELrightend;
+  private VoronoiEdgeBuffer allEdges;
+
+  // the sites sorted bottom to top, then the vertices found along the way.
+  private double[] pointX = new double[0], pointY = new double[0];
+  private int npoints;
+  // the index each site had in the input
+  private int[] siteNumber = new int[0];
+
+  // the line a*x+b*y=c of each edge.  reg[e*2+LE/RE] are the sites it bisects, ep[e*2+LE/RE] its end points.
+  private double[] edgeA = new double[0], edgeB = new double[0], edgeC = new double[0];
+  private int[] edgeReg = new int[0], edgeEp = new int[0];
+  private int nedges;
+
+  // the halfedges.  The first PQhashsize are the heads of the priority queue buckets.
+  private int[] ELleft = new int[0], ELright = new int[0], ELedge = new int[0], ELpm = new int[0];
+  private int[] vertex = new int[0], PQnext = new int[0];
+  private double[] ystar = new double[0];
+  private boolean[] deleted = new boolean[0];
+  private int nhalfedges;
+
+  // the lowest vertex in the priority queue, set by PQ_min()
+  private double PQminX, PQminY;
 
 
   /*********************************************************
@@ -86,7 +107,6 @@ public class VoronoiTesselator {
 
   public void Init(double minDistanceBetweenSites) {
     siteidx = 0;
-    this.sites = null;
     this.allEdges = null;
     this.minDistanceBetweenSites = minDistanceBetweenSites;
   }
@@ -102,7 +122,44 @@ public class VoronoiTesselator {
    */
   public List<VoronoiGraphEdge> generateVoronoi(double[] xValuesIn, double[] yValuesIn,
                                                 double minX, double maxX, double minY, double maxY) {
-    sort(xValuesIn, yValuesIn, xValuesIn.length);
+    VoronoiEdgeBuffer edges = new VoronoiEdgeBuffer();
+    generateVoronoi(xValuesIn, yValuesIn, xValuesIn.length, minX, maxX, minY, maxY, edges);
+
+    List<VoronoiGraphEdge> list = new ArrayList<>(edges.count);
+    for (int i = 0; i < edges.count; i++) {
+      VoronoiGraphEdge newEdge = new VoronoiGraphEdge();
+      newEdge.x1 = edges.x1[i];
+      newEdge.y1 = edges.y1[i];
+      newEdge.x2 = edges.x2[i];
+      newEdge.y2 = edges.y2[i];
+      newEdge.site1 = edges.site1[i];
+      newEdge.site2 = edges.site2[i];
+      list.add(newEdge);
+    }
+    return list;
+  }
+
+  /**
+   * Same as above without making an object per edge.  Call again and again with the same buffer to stop allocating.
+   *
+   * @param xValuesIn Array of X values for each site.
+   * @param yValuesIn Array of Y values for each site.
+   * @param count     Number of sites to use from the start of the arrays.
+   * @param minX      The minimum X of the bounding box around the voronoi
+   * @param maxX      The maximum X of the bounding box around the voronoi
+   * @param minY      The minimum Y of the bounding box around the voronoi
+   * @param maxY      The maximum Y of the bounding box around the voronoi
+   * @param edges     Emptied, then filled with the edges.  Call edges.indexBySite() to find the edges of each site.
+   */
+  public void generateVoronoi(double[] xValuesIn, double[] yValuesIn, int count,
+                              double minX, double maxX, double minY, double maxY, VoronoiEdgeBuffer edges) {
+    allEdges = edges;
+    allEdges.clear(count);
+    if (count == 0) {
+      return;
+    }
+
+    sort(xValuesIn, yValuesIn, count);
 
     // Check bounding box inputs - if mins are bigger than maxes, swap them
     double temp = 0;
@@ -123,8 +180,6 @@ public class VoronoiTesselator {
 
     siteidx = 0;
     voronoi_bd();
-
-    return allEdges;
   }
 
 
@@ -133,68 +188,92 @@ public class VoronoiTesselator {
    ********************************************************/
 
   private void sort(double[] xValuesIn, double[] yValuesIn, int count) {
-    sites = null;
-    allEdges = new LinkedList<>();
-
     nsites = count;
-    nvertices = 0;
+    npoints = 0;
     nedges = 0;
+    nhalfedges = 0;
 
     double sn = (double) nsites + 4;
     sqrt_nsites = (int) Math.sqrt(sn);
 
-    // Copy the inputs so we don't modify the originals
-    double[] xValues = new double[count];
-    double[] yValues = new double[count];
-    for (int i = 0; i < count; i++) {
-      xValues[i] = xValuesIn[i];
-      yValues[i] = yValuesIn[i];
+    // a diagram of n sites has at most 2n vertices and 3n edges.
+    growPoints(nsites * 3);
+    growEdges(nsites * 3);
+    growHalfEdges(nsites * 6 + 4 * sqrt_nsites + 2);
+    if (siteNumber.length < nsites) {
+      siteNumber = new int[nsites];
     }
-    sortNode(xValues, yValues, count);
-  }
 
-  private void qsort(VoronoiSite[] sites) {
-    List<VoronoiSite> listSites = new ArrayList<>(sites.length);
-    Collections.addAll(listSites, sites);
+    sortNode(xValuesIn, yValuesIn, count);
+  }
 
-    Collections.sort(listSites, new Comparator<VoronoiSite>() {
-      @Override
-      public final int compare(VoronoiSite p1, VoronoiSite p2) {
-        Point s1 = p1.coord, s2 = p2.coord;
-        if (s1.y < s2.y) {
-          return (-1);
-        }
-        if (s1.y > s2.y) {
-          return (1);
-        }
-        if (s1.getX() < s2.getX()) {
-          return (-1);
-        }
-        if (s1.getX() > s2.getX()) {
-          return (1);
+  /**
+   * Sort siteNumber[lo...hi] by y, then x, then input order.  Quicksort that loops on the bigger half.
+   */
+  private void qsort(double[] xValues, double[] yValues, int lo, int hi) {
+    while (hi - lo > 16) {
+      // median of three
+      int mid = (lo + hi) >>> 1;
+      if (siteLess(xValues, yValues, siteNumber[mid], siteNumber[lo])) swapSites(mid, lo);
+      if (siteLess(xValues, yValues, siteNumber[hi], siteNumber[lo])) swapSites(hi, lo);
+      if (siteLess(xValues, yValues, siteNumber[hi], siteNumber[mid])) swapSites(hi, mid);
+      int pivot = siteNumber[mid];
+
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (siteLess(xValues, yValues, siteNumber[i], pivot)) i++;
+        while (siteLess(xValues, yValues, pivot, siteNumber[j])) j--;
+        if (i <= j) {
+          swapSites(i, j);
+          i++;
+          j--;
         }
-        return (0);
       }
-    });
+      if (j - lo < hi - i) {
+        qsort(xValues, yValues, lo, j);
+        lo = i;
+      } else {
+        qsort(xValues, yValues, i, hi);
+        hi = j;
+      }
+    }
+    // insertion sort the rest
+    for (int i = lo + 1; i <= hi; i++) {
+      int s = siteNumber[i];
+      int j = i - 1;
+      while (j >= lo && siteLess(xValues, yValues, s, siteNumber[j])) {
+        siteNumber[j + 1] = siteNumber[j];
+        j--;
+      }
+      siteNumber[j + 1] = s;
+    }
+  }
 
-    // Copy back into the array
-    for (int i = 0; i < sites.length; i++) {
-      sites[i] = listSites.get(i);
+  private static boolean siteLess(double[] xValues, double[] yValues, int s1, int s2) {
+    if (yValues[s1] != yValues[s2]) {
+      return yValues[s1] < yValues[s2];
     }
+    if (xValues[s1] != xValues[s2]) {
+      return xValues[s1] < xValues[s2];
+    }
+    return s1 < s2;
+  }
+
+  private void swapSites(int i, int j) {
+    int t = siteNumber[i];
+    siteNumber[i] = siteNumber[j];
+    siteNumber[j] = t;
   }
 
   private void sortNode(double xValues[], double yValues[], int numPoints) {
     int i;
     nsites = numPoints;
-    sites = new VoronoiSite[nsites];
     xmin = xValues[0];
     ymin = yValues[0];
     xmax = xValues[0];
     ymax = yValues[0];
     for (i = 0; i < nsites; i++) {
-      sites[i] = new VoronoiSite();
-      sites[i].coord.setLocation( xValues[i], yValues[i] );
-      sites[i].sitenbr = i;
+      siteNumber[i] = i;
 
       if (xValues[i] < xmin) {
         xmin = xValues[i];
@@ -208,83 +287,124 @@ public class VoronoiTesselator {
         ymax = yValues[i];
       }
     }
-    qsort(sites);
+    qsort(xValues, yValues, 0, nsites - 1);
+
+    // the sites are the first points, in sorted order.  A site on top of another has no edges and is left out, or
+    // the bisector between them would be nonsense.
+    int unique = 0;
+    for (i = 0; i < numPoints; i++) {
+      int s = siteNumber[i];
+      if (unique > 0 && xValues[s] == pointX[unique - 1] && yValues[s] == pointY[unique - 1]) {
+        continue;
+      }
+      siteNumber[unique] = s;
+      pointX[unique] = xValues[s];
+      pointY[unique] = yValues[s];
+      unique++;
+    }
+    nsites = unique;
+    npoints = nsites;
+
     deltay = ymax - ymin;
     deltax = xmax - xmin;
   }
 
+  private void growPoints(int size) {
+    if (pointX.length < size) {
+      size = Math.max(size, pointX.length * 2);
+      pointX = Arrays.copyOf(pointX, size);
+      pointY = Arrays.copyOf(pointY, size);
+    }
+  }
+
+  private void growEdges(int size) {
+    if (edgeA.length < size) {
+      size = Math.max(size, edgeA.length * 2);
+      edgeA = Arrays.copyOf(edgeA, size);
+      edgeB = Arrays.copyOf(edgeB, size);
+      edgeC = Arrays.copyOf(edgeC, size);
+      edgeReg = Arrays.copyOf(edgeReg, size * 2);
+      edgeEp = Arrays.copyOf(edgeEp, size * 2);
+    }
+  }
+
+  private void growHalfEdges(int size) {
+    if (ELleft.length < size) {
+      size = Math.max(size, ELleft.length * 2);
+      ELleft = Arrays.copyOf(ELleft, size);
+      ELright = Arrays.copyOf(ELright, size);
+      ELedge = Arrays.copyOf(ELedge, size);
+      ELpm = Arrays.copyOf(ELpm, size);
+      vertex = Arrays.copyOf(vertex, size);
+      PQnext = Arrays.copyOf(PQnext, size);
+      ystar = Arrays.copyOf(ystar, size);
+      deleted = Arrays.copyOf(deleted, size);
+    }
+  }
+
   /* return a single in-storage site */
-  private VoronoiSite nextone() {
-    VoronoiSite s;
+  private int nextone() {
     if (siteidx < nsites) {
-      s = sites[siteidx];
-      siteidx += 1;
-      return (s);
+      return siteidx++;
     } else {
-      return (null);
+      return NONE;
     }
   }
 
-  private VoronoiEdge bisect(VoronoiSite s1, VoronoiSite s2) {
-    double dx, dy, adx, ady;
-    VoronoiEdge newedge;
+  private int bisect(int s1, int s2) {
+    double dx, dy, adx, ady, c;
 
-    newedge = new VoronoiEdge();
+    growEdges(nedges + 1);
+    int newedge = nedges;
+    nedges += 1;
 
     // store the sites that this edge is bisecting
-    newedge.reg[0] = s1;
-    newedge.reg[1] = s2;
+    edgeReg[newedge * 2 + LE] = s1;
+    edgeReg[newedge * 2 + RE] = s2;
     // to begin with, there are no endpoints on the bisector - it goes to
     // infinity
-    newedge.ep[0] = null;
-    newedge.ep[1] = null;
+    edgeEp[newedge * 2 + LE] = NONE;
+    edgeEp[newedge * 2 + RE] = NONE;
 
     // get the difference in x dist between the sites
-    dx = s2.coord.getX() - s1.coord.getX();
-    dy = s2.coord.y - s1.coord.y;
+    dx = pointX[s2] - pointX[s1];
+    dy = pointY[s2] - pointY[s1];
     // make sure that the difference in positive
     adx = dx > 0 ? dx : -dx;
     ady = dy > 0 ? dy : -dy;
-    newedge.c = (double) (s1.coord.getX() * dx + s1.coord.y * dy + (dx * dx + dy
-        * dy) * 0.5);// get the slope of the line
+    c = pointX[s1] * dx + pointY[s1] * dy + (dx * dx + dy * dy) * 0.5;// get the slope of the line
 
     if (adx > ady) {
-      newedge.a = 1.0f;
-      newedge.b = dy / dx;
-      newedge.c /= dx;// set formula of line, with x fixed to 1
+      edgeA[newedge] = 1.0;
+      edgeB[newedge] = dy / dx;
+      edgeC[newedge] = c / dx;// set formula of line, with x fixed to 1
     } else {
-      newedge.b = 1.0f;
-      newedge.a = dx / dy;
-      newedge.c /= dy;// set formula of line, with y fixed to 1
+      edgeB[newedge] = 1.0;
+      edgeA[newedge] = dx / dy;
+      edgeC[newedge] = c / dy;// set formula of line, with y fixed to 1
     }
 
-    newedge.edgenbr = nedges;
-
-    nedges += 1;
     return (newedge);
   }
 
-  private void makevertex(VoronoiSite v) {
-    v.sitenbr = nvertices;
-    nvertices += 1;
-  }
-
   private boolean PQinitialize() {
     PQcount = 0;
     PQmin = 0;
     PQhashsize = 4 * sqrt_nsites;
-    PQhash = new VoronoiHalfEdge[PQhashsize];
+    if (PQhash.length < PQhashsize) {
+      PQhash = new int[PQhashsize];
+    }
 
     for (int i = 0; i < PQhashsize; i += 1) {
-      PQhash[i] = new VoronoiHalfEdge();
+      PQhash[i] = HEcreate(NONE, 0);
     }
     return true;
   }
 
-  private int PQbucket(VoronoiHalfEdge he) {
+  private int PQbucket(int he) {
     int bucket;
 
-    bucket = (int) ((he.ystar - ymin) / deltay * PQhashsize);
+    bucket = (int) ((ystar[he] - ymin) / deltay * PQhashsize);
     if (bucket < 0) {
       bucket = 0;
     }
@@ -298,34 +418,34 @@ public class VoronoiTesselator {
   }
 
   // push the HalfEdge into the ordered linked list of vertices
-  private void PQinsert(VoronoiHalfEdge he, VoronoiSite v, double offset) {
-    VoronoiHalfEdge last, next;
+  private void PQinsert(int he, int v, double offset) {
+    int last, next;
 
-    he.vertex = v;
-    he.ystar = (double) (v.coord.y + offset);
+    vertex[he] = v;
+    ystar[he] = pointY[v] + offset;
     last = PQhash[PQbucket(he)];
-    while ((next = last.PQnext) != null
-        && (he.ystar > next.ystar || (he.ystar == next.ystar && v.coord.getX() > next.vertex.coord.getX()))) {
+    while ((next = PQnext[last]) != NONE
+        && (ystar[he] > ystar[next] || (ystar[he] == ystar[next] && pointX[v] > pointX[vertex[next]]))) {
       last = next;
     }
-    he.PQnext = last.PQnext;
-    last.PQnext = he;
+    PQnext[he] = PQnext[last];
+    PQnext[last] = he;
     PQcount += 1;
   }
 
   // remove the HalfEdge from the list of vertices
-  private void PQdelete(VoronoiHalfEdge he) {
-    VoronoiHalfEdge last;
+  private void PQdelete(int he) {
+    int last;
 
-    if (he.vertex != null) {
+    if (vertex[he] != NONE) {
       last = PQhash[PQbucket(he)];
-      while (last.PQnext != he) {
-        last = last.PQnext;
+      while (PQnext[last] != he) {
+        last = PQnext[last];
       }
 
-      last.PQnext = he.PQnext;
+      PQnext[last] = PQnext[he];
       PQcount -= 1;
-      he.vertex = null;
+      vertex[he] = NONE;
     }
   }
 
@@ -333,113 +453,107 @@ public class VoronoiTesselator {
     return (PQcount == 0);
   }
 
-  private Point PQ_min() {
-    Point answer = new Point();
-
-    while (PQhash[PQmin].PQnext == null) {
+  private void PQ_min() {
+    while (PQnext[PQhash[PQmin]] == NONE) {
       PQmin += 1;
     }
-    answer.setLocation( PQhash[PQmin].PQnext.vertex.coord.x, 
-    					PQhash[PQmin].PQnext.ystar );
-    return (answer);
+    int he = PQnext[PQhash[PQmin]];
+    PQminX = pointX[vertex[he]];
+    PQminY = ystar[he];
   }
 
-  private VoronoiHalfEdge PQextractmin() {
-    VoronoiHalfEdge curr;
+  private int PQextractmin() {
+    int curr;
 
-    curr = PQhash[PQmin].PQnext;
-    PQhash[PQmin].PQnext = curr.PQnext;
+    curr = PQnext[PQhash[PQmin]];
+    PQnext[PQhash[PQmin]] = PQnext[curr];
     PQcount -= 1;
     return (curr);
   }
 
-  private VoronoiHalfEdge HEcreate(VoronoiEdge e, int pm) {
-    VoronoiHalfEdge answer;
-    answer = new VoronoiHalfEdge();
-    answer.ELedge = e;
-    answer.ELpm = pm;
-    answer.PQnext = null;
-    answer.vertex = null;
+  private int HEcreate(int e, int pm) {
+    growHalfEdges(nhalfedges + 1);
+    int answer = nhalfedges;
+    nhalfedges += 1;
+    ELleft[answer] = NONE;
+    ELright[answer] = NONE;
+    ELedge[answer] = e;
+    ELpm[answer] = pm;
+    PQnext[answer] = NONE;
+    vertex[answer] = NONE;
+    ystar[answer] = 0;
+    deleted[answer] = false;
     return (answer);
   }
 
   private boolean ELinitialize() {
-    int i;
     ELhashsize = 2 * sqrt_nsites;
-    ELhash = new VoronoiHalfEdge[ELhashsize];
-
-    for (i = 0; i < ELhashsize; i += 1) {
-      ELhash[i] = null;
+    if (ELhash.length < ELhashsize) {
+      ELhash = new int[ELhashsize];
     }
-    ELleftend = HEcreate(null, 0);
-    ELrightend = HEcreate(null, 0);
-    ELleftend.ELleft = null;
-    ELleftend.ELright = ELrightend;
-    ELrightend.ELleft = ELleftend;
-    ELrightend.ELright = null;
+    Arrays.fill(ELhash, 0, ELhashsize, NONE);
+
+    ELleftend = HEcreate(NONE, 0);
+    ELrightend = HEcreate(NONE, 0);
+    ELleft[ELleftend] = NONE;
+    ELright[ELleftend] = ELrightend;
+    ELleft[ELrightend] = ELleftend;
+    ELright[ELrightend] = NONE;
     ELhash[0] = ELleftend;
     ELhash[ELhashsize - 1] = ELrightend;
 
     return true;
   }
 
-  private VoronoiHalfEdge ELright(VoronoiHalfEdge he) {
-    return (he.ELright);
-  }
-
-  private VoronoiHalfEdge ELleft(VoronoiHalfEdge he) {
-    return (he.ELleft);
-  }
-
-  private VoronoiSite leftreg(VoronoiHalfEdge he) {
-    if (he.ELedge == null) {
+  private int leftreg(int he) {
+    if (ELedge[he] == NONE) {
       return (bottomsite);
     }
-    return (he.ELpm == LE ? he.ELedge.reg[LE] : he.ELedge.reg[RE]);
+    return (ELpm[he] == LE ? edgeReg[ELedge[he] * 2 + LE] : edgeReg[ELedge[he] * 2 + RE]);
   }
 
-  private void ELinsert(VoronoiHalfEdge lb, VoronoiHalfEdge newHe) {
-    newHe.ELleft = lb;
-    newHe.ELright = lb.ELright;
-    (lb.ELright).ELleft = newHe;
-    lb.ELright = newHe;
+  private void ELinsert(int lb, int newHe) {
+    ELleft[newHe] = lb;
+    ELright[newHe] = ELright[lb];
+    ELleft[ELright[lb]] = newHe;
+    ELright[lb] = newHe;
   }
 
   /*
    * This delete routine can't reclaim node, since pointers from hash table
    * may be present.
    */
-  private void ELdelete(VoronoiHalfEdge he) {
-    (he.ELleft).ELright = he.ELright;
-    (he.ELright).ELleft = he.ELleft;
-    he.deleted = true;
+  private void ELdelete(int he) {
+    ELright[ELleft[he]] = ELright[he];
+    ELleft[ELright[he]] = ELleft[he];
+    deleted[he] = true;
   }
 
   /* Get entry from hash table, pruning any deleted nodes */
-  private VoronoiHalfEdge ELgethash(int b) {
-    VoronoiHalfEdge he;
+  private int ELgethash(int b) {
+    int he;
 
     if (b < 0 || b >= ELhashsize) {
-      return (null);
+      return (NONE);
     }
     he = ELhash[b];
-    if (he == null || !he.deleted) {
+    if (he == NONE || !deleted[he]) {
       return (he);
     }
 
         /* Hash table points to deleted half edge. Patch as necessary. */
-    ELhash[b] = null;
-    return (null);
+    ELhash[b] = NONE;
+    return (NONE);
   }
 
-  private VoronoiHalfEdge ELleftbnd(Point p) {
+  private int ELleftbnd(double px, double py) {
     int i, bucket;
-    VoronoiHalfEdge he;
+    int he;
 
         /* Use hash table to get close to desired halfedge */
     // use the hash function to find the place in the hash map that this
     // HalfEdge should be
-    bucket = (int) ((p.getX() - xmin) / deltax * ELhashsize);
+    bucket = (int) ((px - xmin) / deltax * ELhashsize);
 
     // make sure that the bucket position in within the range of the hash
     // array
@@ -451,34 +565,34 @@ public class VoronoiTesselator {
     }
 
     he = ELgethash(bucket);
-    if (he == null)
+    if (he == NONE)
     // if the HE isn't found, search backwards and forwards in the hash map
     // for the first non-null entry
     {
       for (i = 1; i < ELhashsize; i += 1) {
-        if ((he = ELgethash(bucket - i)) != null) {
+        if ((he = ELgethash(bucket - i)) != NONE) {
           break;
         }
-        if ((he = ELgethash(bucket + i)) != null) {
+        if ((he = ELgethash(bucket + i)) != NONE) {
           break;
         }
       }
     }
         /* Now search linear list of halfedges for the correct one */
-    if (he == ELleftend || (he != ELrightend && right_of(he, p))) {
+    if (he == ELleftend || (he != ELrightend && right_of(he, px, py))) {
       // keep going right on the list until either the end is reached, or
       // you find the 1st edge which the point isn't to the right of
       do {
-        he = he.ELright;
-      } while (he != ELrightend && right_of(he, p));
-      he = he.ELleft;
+        he = ELright[he];
+      } while (he != ELrightend && right_of(he, px, py));
+      he = ELleft[he];
     } else
     // if the point is to the left of the HalfEdge, then search left for
     // the HE just to the left of the point
     {
       do {
-        he = he.ELleft;
-      } while (he != ELleftend && !right_of(he, p));
+        he = ELleft[he];
+      } while (he != ELleftend && !right_of(he, px, py));
     }
 
         /* Update hash table and reference counts */
@@ -488,27 +602,18 @@ public class VoronoiTesselator {
     return (he);
   }
 
-  private void pushGraphEdge(VoronoiSite leftSite, VoronoiSite rightSite, double x1, double y1, double x2, double y2) {
-    VoronoiGraphEdge newEdge = new VoronoiGraphEdge();
-    allEdges.add(newEdge);
-    newEdge.x1 = x1;
-    newEdge.y1 = y1;
-    newEdge.x2 = x2;
-    newEdge.y2 = y2;
-
-    newEdge.site1 = leftSite.sitenbr;
-    newEdge.site2 = rightSite.sitenbr;
-  }
-
-  private void clip_line(VoronoiEdge e) {
+  private void clip_line(int e) {
     double pxmin, pxmax, pymin, pymax;
-    VoronoiSite s1, s2;
+    int s1, s2;
     double x1 = 0, x2 = 0, y1 = 0, y2 = 0;
+    double a = edgeA[e], b = edgeB[e], c = edgeC[e];
+    int reg0 = edgeReg[e * 2 + LE];
+    int reg1 = edgeReg[e * 2 + RE];
 
-    x1 = e.reg[0].coord.getX();
-    x2 = e.reg[1].coord.getX();
-    y1 = e.reg[0].coord.y;
-    y2 = e.reg[1].coord.y;
+    x1 = pointX[reg0];
+    x2 = pointX[reg1];
+    y1 = pointY[reg0];
+    y2 = pointY[reg1];
 
     // if the distance between the two points this line was created from is
     // less than the square root of 2, then ignore it
@@ -520,132 +625,133 @@ public class VoronoiTesselator {
     pymin = borderMinY;
     pymax = borderMaxY;
 
-    if (e.a == 1.0 && e.b >= 0.0) {
-      s1 = e.ep[1];
-      s2 = e.ep[0];
+    if (a == 1.0 && b >= 0.0) {
+      s1 = edgeEp[e * 2 + RE];
+      s2 = edgeEp[e * 2 + LE];
     } else {
-      s1 = e.ep[0];
-      s2 = e.ep[1];
+      s1 = edgeEp[e * 2 + LE];
+      s2 = edgeEp[e * 2 + RE];
     }
 
-    if (e.a == 1.0) {
+    if (a == 1.0) {
       y1 = pymin;
-      if (s1 != null && s1.coord.y > pymin) {
-        y1 = s1.coord.y;
+      if (s1 != NONE && pointY[s1] > pymin) {
+        y1 = pointY[s1];
       }
       if (y1 > pymax) {
         y1 = pymax;
       }
-      x1 = e.c - e.b * y1;
+      x1 = c - b * y1;
       y2 = pymax;
-      if (s2 != null && s2.coord.y < pymax) {
-        y2 = s2.coord.y;
+      if (s2 != NONE && pointY[s2] < pymax) {
+        y2 = pointY[s2];
       }
 
       if (y2 < pymin) {
         y2 = pymin;
       }
-      x2 = (e.c) - (e.b) * y2;
+      x2 = c - b * y2;
       if (((x1 > pxmax) & (x2 > pxmax)) | ((x1 < pxmin) & (x2 < pxmin))) {
         return;
       }
       if (x1 > pxmax) {
         x1 = pxmax;
-        y1 = (e.c - x1) / e.b;
+        y1 = (c - x1) / b;
       }
       if (x1 < pxmin) {
         x1 = pxmin;
-        y1 = (e.c - x1) / e.b;
+        y1 = (c - x1) / b;
       }
       if (x2 > pxmax) {
         x2 = pxmax;
-        y2 = (e.c - x2) / e.b;
+        y2 = (c - x2) / b;
       }
       if (x2 < pxmin) {
         x2 = pxmin;
-        y2 = (e.c - x2) / e.b;
+        y2 = (c - x2) / b;
       }
     } else {
       x1 = pxmin;
-      if (s1 != null && s1.coord.getX() > pxmin) {
-        x1 = s1.coord.getX();
+      if (s1 != NONE && pointX[s1] > pxmin) {
+        x1 = pointX[s1];
       }
       if (x1 > pxmax) {
         x1 = pxmax;
       }
-      y1 = e.c - e.a * x1;
+      y1 = c - a * x1;
       x2 = pxmax;
-      if (s2 != null && s2.coord.getX() < pxmax) {
-        x2 = s2.coord.getX();
+      if (s2 != NONE && pointX[s2] < pxmax) {
+        x2 = pointX[s2];
       }
       if (x2 < pxmin) {
         x2 = pxmin;
       }
-      y2 = e.c - e.a * x2;
+      y2 = c - a * x2;
       if (((y1 > pymax) & (y2 > pymax)) | ((y1 < pymin) & (y2 < pymin))) {
         return;
       }
       if (y1 > pymax) {
         y1 = pymax;
-        x1 = (e.c - y1) / e.a;
+        x1 = (c - y1) / a;
       }
       if (y1 < pymin) {
         y1 = pymin;
-        x1 = (e.c - y1) / e.a;
+        x1 = (c - y1) / a;
       }
       if (y2 > pymax) {
         y2 = pymax;
-        x2 = (e.c - y2) / e.a;
+        x2 = (c - y2) / a;
       }
       if (y2 < pymin) {
         y2 = pymin;
-        x2 = (e.c - y2) / e.a;
+        x2 = (c - y2) / a;
       }
     }
 
-    pushGraphEdge(e.reg[0], e.reg[1], x1, y1, x2, y2);
+    allEdges.add(siteNumber[reg0], siteNumber[reg1], x1, y1, x2, y2);
   }
 
-  private void endpoint(VoronoiEdge e, int lr, VoronoiSite s) {
-    e.ep[lr] = s;
-    if (e.ep[RE - lr] == null) {
+  private void endpoint(int e, int lr, int s) {
+    edgeEp[e * 2 + lr] = s;
+    if (edgeEp[e * 2 + RE - lr] == NONE) {
       return;
     }
     clip_line(e);
   }
 
   /* returns 1 if p is to right of halfedge e */
-  private boolean right_of(VoronoiHalfEdge el, Point p) {
-    VoronoiEdge e;
-    VoronoiSite topsite;
+  private boolean right_of(int el, double px, double py) {
+    int e;
+    int topsite;
     boolean right_of_site;
     boolean above, fast;
     double dxp, dyp, dxs, t1, t2, t3, yl;
 
-    e = el.ELedge;
-    topsite = e.reg[1];
-    if (p.getX() > topsite.coord.getX()) {
+    e = ELedge[el];
+    topsite = edgeReg[e * 2 + RE];
+    double a = edgeA[e], b = edgeB[e], c = edgeC[e];
+    if (px > pointX[topsite]) {
       right_of_site = true;
     } else {
       right_of_site = false;
     }
-    if (right_of_site && el.ELpm == LE) {
+    if (right_of_site && ELpm[el] == LE) {
       return (true);
     }
-    if (!right_of_site && el.ELpm == RE) {
+    if (!right_of_site && ELpm[el] == RE) {
       return (false);
     }
 
-    if (e.a == 1.0) {
-      dyp = p.y - topsite.coord.y;
-      dxp = p.getX() - topsite.coord.getX();
+    if (a == 1.0) {
+      dyp = py - pointY[topsite];
+      dxp = px - pointX[topsite];
       fast = false;
-      if ((!right_of_site & (e.b < 0.0)) | (right_of_site & (e.b >= 0.0))) {
-        above = dyp >= e.b * dxp;
+      if ((!right_of_site & (b < 0.0)) | (right_of_site & (b >= 0.0))) {
+        above = dyp >= b * dxp;
         fast = above;
       } else {
-        above = p.getX() + p.y * e.b > e.c;
-        if (e.b < 0.0) {
+        above = px + py * b > c;
+        if (b < 0.0) {
           above = !above;
         }
         if (!above) {
@@ -653,27 +759,27 @@ public class VoronoiTesselator {
         }
       }
       if (!fast) {
-        dxs = topsite.coord.getX() - (e.reg[0]).coord.getX();
-        above = e.b * (dxp * dxp - dyp * dyp) < dxs * dyp
-            * (1.0 + 2.0 * dxp / dxs + e.b * e.b);
-        if (e.b < 0.0) {
+        dxs = pointX[topsite] - pointX[edgeReg[e * 2 + LE]];
+        above = b * (dxp * dxp - dyp * dyp) < dxs * dyp
+            * (1.0 + 2.0 * dxp / dxs + b * b);
+        if (b < 0.0) {
           above = !above;
         }
       }
     } else /* e.b==1.0 */
 
     {
-      yl = e.c - e.a * p.getX();
-      t1 = p.y - yl;
-      t2 = p.getX() - topsite.coord.getX();
-      t3 = yl - topsite.coord.y;
+      yl = c - a * px;
+      t1 = py - yl;
+      t2 = px - pointX[topsite];
+      t3 = yl - pointY[topsite];
       above = t1 * t1 > t2 * t2 + t3 * t3;
     }
-    return (el.ELpm == LE ? above : !above);
+    return (ELpm[el] == LE ? above : !above);
   }
 
-  private VoronoiSite rightreg(VoronoiHalfEdge he) {
-    if (he.ELedge == (VoronoiEdge) null)
+  private int rightreg(int he) {
+    if (ELedge[he] == NONE)
     // if this halfedge has no edge, return the bottom site (whatever
     // that is)
     {
@@ -682,46 +788,46 @@ public class VoronoiTesselator {
 
     // if the ELpm field is zero, return the site 0 that this edge bisects,
     // otherwise return site number 1
-    return (he.ELpm == LE ? he.ELedge.reg[RE] : he.ELedge.reg[LE]);
+    return (ELpm[he] == LE ? edgeReg[ELedge[he] * 2 + RE] : edgeReg[ELedge[he] * 2 + LE]);
   }
 
-  private double dist(VoronoiSite s, VoronoiSite t) {
+  private double dist(int s, int t) {
     double dx, dy;
-    dx = s.coord.getX() - t.coord.getX();
-    dy = s.coord.y - t.coord.y;
-    return (double) (Math.sqrt(dx * dx + dy * dy));
+    dx = pointX[s] - pointX[t];
+    dy = pointY[s] - pointY[t];
+    return Math.sqrt(dx * dx + dy * dy);
   }
 
-  // create a new site where the HalfEdges el1 and el2 intersect - note that
-  // the Point in the argument list is not used, don't know why it's there
-  private VoronoiSite intersect(VoronoiHalfEdge el1, VoronoiHalfEdge el2) {
-    VoronoiEdge e1, e2, e;
-    VoronoiHalfEdge el;
+  // create a new vertex where the HalfEdges el1 and el2 intersect
+  private int intersect(int el1, int el2) {
+    int e1, e2, e;
+    int el;
     double d, xint, yint;
     boolean right_of_site;
-    VoronoiSite v;
 
-    e1 = el1.ELedge;
-    e2 = el2.ELedge;
-    if (e1 == null || e2 == null) {
-      return null;
+    e1 = ELedge[el1];
+    e2 = ELedge[el2];
+    if (e1 == NONE || e2 == NONE) {
+      return NONE;
     }
 
     // if the two edges bisect the same parent, return null
-    if (e1.reg[1] == e2.reg[1]) {
-      return null;
+    int top1 = edgeReg[e1 * 2 + RE];
+    int top2 = edgeReg[e2 * 2 + RE];
+    if (top1 == top2) {
+      return NONE;
     }
 
-    d = e1.a * e2.b - e1.b * e2.a;
+    d = edgeA[e1] * edgeB[e2] - edgeB[e1] * edgeA[e2];
     if (-1.0e-10 < d && d < 1.0e-10) {
-      return null;
+      return NONE;
     }
 
-    xint = (e1.c * e2.b - e2.c * e1.b) / d;
-    yint = (e2.c * e1.a - e1.c * e2.a) / d;
+    xint = (edgeC[e1] * edgeB[e2] - edgeC[e2] * edgeB[e1]) / d;
+    yint = (edgeC[e2] * edgeA[e1] - edgeC[e1] * edgeA[e2]) / d;
 
-    if ((e1.reg[1].coord.y < e2.reg[1].coord.y)
-        || (e1.reg[1].coord.y == e2.reg[1].coord.y && e1.reg[1].coord.getX() < e2.reg[1].coord.getX())) {
+    if ((pointY[top1] < pointY[top2])
+        || (pointY[top1] == pointY[top2] && pointX[top1] < pointX[top2])) {
       el = el1;
       e = e1;
     } else {
@@ -729,16 +835,19 @@ public class VoronoiTesselator {
       e = e2;
     }
 
-    right_of_site = xint >= e.reg[1].coord.getX();
-    if ((right_of_site && el.ELpm == LE)
-        || (!right_of_site && el.ELpm == RE)) {
-      return null;
+    right_of_site = xint >= pointX[edgeReg[e * 2 + RE]];
+    if ((right_of_site && ELpm[el] == LE)
+        || (!right_of_site && ELpm[el] == RE)) {
+      return NONE;
     }
 
-    // create a new site at the point of intersection - this is a new vector
+    // create a new vertex at the point of intersection - this is a new vector
     // event waiting to happen
-    v = new VoronoiSite();
-    v.coord.setLocation( xint, yint );
+    growPoints(npoints + 1);
+    int v = npoints;
+    npoints += 1;
+    pointX[v] = xint;
+    pointY[v] = yint;
     return (v);
   }
 
@@ -748,12 +857,11 @@ public class VoronoiTesselator {
    * better to make nsites, deltax, and deltay too big than too small. (?)
    */
   private boolean voronoi_bd() {
-    VoronoiSite newsite, bot, top, temp, p;
-    VoronoiSite v;
-    Point newintstar = null;
+    int newsite, bot, top, temp, p;
+    int v;
     int pm;
-    VoronoiHalfEdge lbnd, rbnd, llbnd, rrbnd, bisector;
-    VoronoiEdge e;
+    int lbnd, rbnd, llbnd, rrbnd, bisector;
+    int e;
 
     PQinitialize();
     ELinitialize();
@@ -762,19 +870,19 @@ public class VoronoiTesselator {
     newsite = nextone();
     while (true) {
       if (!PQempty()) {
-        newintstar = PQ_min();
+        PQ_min();
       }
       // if the lowest site has a smaller y value than the lowest vector
       // intersection,
       // process the site otherwise process the vector intersection
 
-      if (newsite != null
-          && (PQempty() || newsite.coord.y < newintstar.y || (newsite.coord.y == newintstar.y && newsite.coord.getX() < newintstar.getX()))) {
+      if (newsite != NONE
+          && (PQempty() || pointY[newsite] < PQminY || (pointY[newsite] == PQminY && pointX[newsite] < PQminX))) {
                 /* new site is smallest -this is a site event */
         // get the first HalfEdge to the LEFT of the new site
-        lbnd = ELleftbnd((newsite.coord));
+        lbnd = ELleftbnd(pointX[newsite], pointY[newsite]);
         // get the first HalfEdge to the RIGHT of the new site
-        rbnd = ELright(lbnd);
+        rbnd = ELright[lbnd];
         // if this halfedge has no edge,bot =bottom site (whatever that
         // is)
         bot = rightreg(lbnd);
@@ -789,7 +897,7 @@ public class VoronoiTesselator {
 
         // if the new bisector intersects with the left edge,
         // remove the left edge's vertex, and put in the new one
-        if ((p = intersect(lbnd, bisector)) != null) {
+        if ((p = intersect(lbnd, bisector)) != NONE) {
           PQdelete(lbnd);
           PQinsert(lbnd, p, dist(p, newsite));
         }
@@ -801,7 +909,7 @@ public class VoronoiTesselator {
         ELinsert(lbnd, bisector);
 
         // if this new bisector intersects with the new HalfEdge
-        if ((p = intersect(bisector, rbnd)) != null) {
+        if ((p = intersect(bisector, rbnd)) != NONE) {
           // push the HE into the ordered linked list of vertices
           PQinsert(bisector, p, dist(p, newsite));
         }
@@ -812,24 +920,22 @@ public class VoronoiTesselator {
         // of vectors
         lbnd = PQextractmin();
         // get the HalfEdge to the left of the above HE
-        llbnd = ELleft(lbnd);
+        llbnd = ELleft[lbnd];
         // get the HalfEdge to the right of the above HE
-        rbnd = ELright(lbnd);
+        rbnd = ELright[lbnd];
         // get the HalfEdge to the right of the HE to the right of the
         // lowest HE
-        rrbnd = ELright(rbnd);
+        rrbnd = ELright[rbnd];
         // get the Site to the left of the left HE which it bisects
         bot = leftreg(lbnd);
         // get the Site to the right of the right HE which it bisects
         top = rightreg(rbnd);
 
-        v = lbnd.vertex; // get the vertex that caused this event
-        makevertex(v); // set the vertex number - couldn't do this
-        // earlier since we didn't know when it would be processed
-        endpoint(lbnd.ELedge, lbnd.ELpm, v);
+        v = vertex[lbnd]; // get the vertex that caused this event
+        endpoint(ELedge[lbnd], ELpm[lbnd], v);
         // set the endpoint of
         // the left HalfEdge to be this vector
-        endpoint(rbnd.ELedge, rbnd.ELpm, v);
+        endpoint(ELedge[rbnd], ELpm[rbnd], v);
         // set the endpoint of the right HalfEdge to
         // be this vector
         ELdelete(lbnd); // mark the lowest HE for
@@ -842,7 +948,7 @@ public class VoronoiTesselator {
         // to it in Hash Map
         pm = LE; // set the pm variable to zero
 
-        if (bot.coord.y > top.coord.y)
+        if (pointY[bot] > pointY[top])
         // if the site to the left of the event is higher than the
         // Site
         { // to the right of it, then swap them and set the 'pm'
@@ -868,14 +974,14 @@ public class VoronoiTesselator {
 
         // if left HE and the new bisector intersect, then delete
         // the left HE, and reinsert it
-        if ((p = intersect(llbnd, bisector)) != null) {
+        if ((p = intersect(llbnd, bisector)) != NONE) {
           PQdelete(llbnd);
           PQinsert(llbnd, p, dist(p, bot));
         }
 
         // if right HE and the new bisector intersect, then
         // reinsert it
-        if ((p = intersect(bisector, rrbnd)) != null) {
+        if ((p = intersect(bisector, rrbnd)) != NONE) {
           PQinsert(bisector, p, dist(p, bot));
         }
       } else {
@@ -883,8 +989,8 @@ public class VoronoiTesselator {
       }
     }
 
-    for (lbnd = ELright(ELleftend); lbnd != ELrightend; lbnd = ELright(lbnd)) {
-      e = lbnd.ELedge;
+    for (lbnd = ELright[ELleftend]; lbnd != ELrightend; lbnd = ELright[lbnd]) {
+      e = ELedge[lbnd];
       clip_line(e);
     }
 
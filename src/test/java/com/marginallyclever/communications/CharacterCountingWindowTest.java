@@ -0,0 +1,107 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CharacterCountingWindowTest {
+	@Test
+	public void waitsForTheFirstCue() {
+		CharacterCountingWindow window = new CharacterCountingWindow(64);
+		assertFalse(window.canSend(10));
+		window.acknowledge();
+		assertTrue(window.canSend(10));
+		assertEquals(0, window.getLinesInFlight());
+	}
+
+	@Test
+	public void zeroCapacitySendsOneLineAtATime() {
+		CharacterCountingWindow window = new CharacterCountingWindow(0);
+		window.acknowledge();
+		assertTrue(window.canSend(10));
+		window.sent(10);
+		assertFalse(window.canSend(1));
+		window.acknowledge();
+		assertTrue(window.canSend(10));
+	}
+
+	@Test
+	public void fillsTheReceiveBuffer() {
+		CharacterCountingWindow window = new CharacterCountingWindow(64);
+		window.acknowledge();
+		window.sent(30);
+		window.sent(30);
+		assertEquals(60, window.getBytesInFlight());
+		assertTrue(window.canSend(4));
+		assertFalse(window.canSend(5));
+		// the oldest line is answered first.
+		window.acknowledge();
+		assertEquals(30, window.getBytesInFlight());
+		assertTrue(window.canSend(34));
+	}
+
+	@Test
+	public void alwaysRoomForOneLongLine() {
+		CharacterCountingWindow window = new CharacterCountingWindow(64);
+		window.acknowledge();
+		assertTrue(window.canSend(200));
+		window.sent(200);
+		assertFalse(window.canSend(1));
+	}
+
+	@Test
+	public void errorDrainsBeforeSendingAgain() {
+		CharacterCountingWindow window = new CharacterCountingWindow(64);
+		window.acknowledge();
+		window.sent(10);
+		window.sent(10);
+		window.sent(10);
+		assertTrue(window.error());
+		// the lines after the rejected one are rejected too.  Only the first counts.
+		assertFalse(window.error());
+		assertFalse(window.canSend(1));
+		window.acknowledge();
+		window.acknowledge();
+		assertFalse(window.canSend(1));
+		window.acknowledge();
+		assertTrue(window.canSend(1));
+		assertTrue(window.error());
+	}
+
+	@Test
+	public void growsPastSixteenLines() {
+		CharacterCountingWindow window = new CharacterCountingWindow(10000);
+		window.acknowledge();
+		// wrap the ring a little before it grows.
+		window.sent(1);
+		window.acknowledge();
+		int total = 0;
+		for (int i = 1; i <= 40; ++i) {
+			window.sent(i);
+			total += i;
+		}
+		assertEquals(40, window.getLinesInFlight());
+		for (int i = 1; i <= 40; ++i) {
+			assertEquals(total, window.getBytesInFlight());
+			window.acknowledge();
+			total -= i;
+		}
+		assertEquals(0, window.getBytesInFlight());
+	}
+
+	@Test
+	public void resetForgetsEverything() {
+		CharacterCountingWindow window = new CharacterCountingWindow(64);
+		window.acknowledge();
+		window.sent(10);
+		window.error();
+		window.reset();
+		assertEquals(0, window.getLinesInFlight());
+		assertEquals(0, window.getBytesInFlight());
+		assertFalse(window.canSend(1));
+		window.acknowledge();
+		assertTrue(window.canSend(1));
+	}
+}
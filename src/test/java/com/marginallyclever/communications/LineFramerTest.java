@@ -0,0 +1,103 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineFramerTest {
+	private static void append(LineFramer framer, String text) {
+		byte [] data = text.getBytes(StandardCharsets.UTF_8);
+		framer.append(data, 0, data.length);
+	}
+
+	private static List<String> drain(LineFramer framer) {
+		List<String> lines = new ArrayList<String>();
+		while (framer.nextLine()) lines.add(framer.getLine());
+		return lines;
+	}
+
+	@Test
+	public void splitsLines() {
+		LineFramer framer = new LineFramer();
+		append(framer, "ok\r\nM114\npartial");
+		assertTrue(framer.nextLine());
+		assertEquals("ok\r\n", framer.getLine());
+		assertEquals(4, framer.getLineLength());
+		assertTrue(framer.nextLine());
+		assertEquals("M114\n", framer.getLine());
+		assertFalse(framer.nextLine());
+		assertNull(framer.getLine());
+		append(framer, " line\n");
+		assertTrue(framer.nextLine());
+		assertEquals("partial line\n", framer.getLine());
+	}
+
+	@Test
+	public void comparesInPlace() {
+		LineFramer framer = new LineFramer();
+		append(framer, "  > \nerror:1\n");
+		assertTrue(framer.nextLine());
+		assertTrue(framer.trimmedLineEquals(">"));
+		assertFalse(framer.lineStartsWith(">"));
+		assertTrue(framer.nextLine());
+		assertTrue(framer.lineStartsWith("error"));
+		assertFalse(framer.lineStartsWith("error:12345"));
+		assertFalse(framer.trimmedLineEquals("error"));
+	}
+
+	@Test
+	public void sameLinesHoweverTheBytesArrive() {
+		StringBuilder all = new StringBuilder();
+		Random random = new Random(1);
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 2000; ++i) {
+			StringBuilder line = new StringBuilder();
+			// some lines are longer than the starting buffer.
+			int length = random.nextInt(i % 100 == 0 ? 5000 : 40);
+			for (int j = 0; j < length; ++j) line.append((char) ('a' + random.nextInt(26)));
+			line.append('\n');
+			expected.add(line.toString());
+			all.append(line);
+		}
+		byte [] data = all.toString().getBytes(StandardCharsets.UTF_8);
+
+		// small pieces make lines wrap around the end of the ring.
+		LineFramer framer = new LineFramer(16);
+		List<String> actual = new ArrayList<String>();
+		for (int i = 0; i < data.length;) {
+			int piece = Math.min(data.length - i, 1 + random.nextInt(30));
+			framer.append(data, i, piece);
+			i += piece;
+			actual.addAll(drain(framer));
+		}
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void dropsRunawayLines() {
+		LineFramer framer = new LineFramer();
+		byte [] junk = new byte[LineFramer.MAX_CAPACITY / 4];
+		for (int i = 0; i < 5; ++i) framer.append(junk, 0, junk.length);
+		append(framer, "ok\n");
+		assertTrue(framer.nextLine());
+		assertTrue(framer.getLineLength() <= LineFramer.MAX_CAPACITY);
+		assertTrue(framer.getLine().endsWith("ok\n"));
+	}
+
+	@Test
+	public void clearForgetsPartialLines() {
+		LineFramer framer = new LineFramer();
+		append(framer, "half a li");
+		framer.clear();
+		append(framer, "ok\n");
+		assertEquals("[ok\n]", drain(framer).toString());
+	}
+}
@@ -0,0 +1,156 @@
+package com.marginallyclever.communications.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.NetworkConnectionListener;
+
+public class TCPSelectorTransportLayerTest {
+	private static final long TIMEOUT_MS = 5000;
+
+	// stand-ins for two robots
+	private ServerSocketChannel [] servers = new ServerSocketChannel[2];
+	private SocketChannel [] robots = new SocketChannel[2];
+	private NetworkConnection [] connections = new NetworkConnection[2];
+	private TCPSelectorTransportLayer layer = new TCPSelectorTransportLayer();
+
+	@Before
+	public void connect() throws IOException {
+		for (int i = 0; i < 2; ++i) {
+			servers[i] = ServerSocketChannel.open();
+			servers[i].bind(new InetSocketAddress("127.0.0.1", 0));
+			connections[i] = layer.openConnection("127.0.0.1:" + servers[i].socket().getLocalPort());
+			assertNotNull(connections[i]);
+			robots[i] = servers[i].accept();
+		}
+	}
+
+	@After
+	public void disconnect() throws IOException {
+		for (int i = 0; i < 2; ++i) {
+			if (connections[i] != null) connections[i].closeConnection();
+			if (robots[i] != null) robots[i].close();
+			if (servers[i] != null) servers[i].close();
+		}
+	}
+
+	private static void say(SocketChannel robot, String text) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+		while (buf.hasRemaining()) robot.write(buf);
+	}
+
+	// true if the far end of robot was closed before the timeout.
+	private static boolean hungUp(SocketChannel robot) throws IOException {
+		robot.socket().setSoTimeout((int) TIMEOUT_MS);
+		return robot.socket().getInputStream().read() == -1;
+	}
+
+	// puts every line heard into the queue.
+	private static NetworkConnectionListener recorder(final BlockingQueue<String> heard) {
+		return new NetworkConnectionListener() {
+			@Override
+			public void lineError(NetworkConnection arg0, int lineNumber) {}
+
+			@Override
+			public void sendBufferEmpty(NetworkConnection arg0) {}
+
+			@Override
+			public void dataAvailable(NetworkConnection arg0, String data) {
+				heard.add(data.trim());
+			}
+		};
+	}
+
+	// the robot on the other end of the connection reads what was sent.
+	private static String received(SocketChannel robot) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		robot.socket().setSoTimeout((int) TIMEOUT_MS);
+		int n = robot.socket().getInputStream().read(buf.array());
+		return new String(buf.array(), 0, n, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void aBlockedListenerOnlyHoldsUpItsOwnConnection() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final BlockingQueue<String> heardFirst = new LinkedBlockingQueue<String>();
+		final BlockingQueue<String> heard = new LinkedBlockingQueue<String>();
+		connections[0].addListener(new NetworkConnectionListener() {
+			@Override
+			public void lineError(NetworkConnection arg0, int lineNumber) {}
+
+			@Override
+			public void sendBufferEmpty(NetworkConnection arg0) {}
+
+			@Override
+			public void dataAvailable(NetworkConnection arg0, String data) {
+				// like a tool change waiting for someone to click OK.
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+				heardFirst.add(data.trim());
+			}
+		});
+		connections[1].addListener(recorder(heard));
+
+		say(robots[0], "change tool\nnext\n");
+		say(robots[1], "still here\n> \n");
+		assertEquals("still here", heard.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		connections[1].sendMessage("M114\n");
+		assertEquals("M114\n", received(robots[1]));
+
+		// the blocked robot hears everything, in order, once the listener returns.
+		assertTrue(heardFirst.isEmpty());
+		release.countDown();
+		assertEquals("change tool", heardFirst.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		assertEquals("next", heardFirst.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		assertTrue(connections[0].isOpen());
+	}
+
+	@Test
+	public void aThrowingListenerOnlyClosesItsOwnConnection() throws Exception {
+		final BlockingQueue<String> heard = new LinkedBlockingQueue<String>();
+		connections[0].addListener(new NetworkConnectionListener() {
+			@Override
+			public void lineError(NetworkConnection arg0, int lineNumber) {}
+
+			@Override
+			public void sendBufferEmpty(NetworkConnection arg0) {}
+
+			@Override
+			public void dataAvailable(NetworkConnection arg0, String data) {
+				throw new IllegalStateException("broken listener");
+			}
+		});
+		connections[1].addListener(recorder(heard));
+
+		say(robots[0], "hello\n");
+		assertTrue(hungUp(robots[0]));
+		assertFalse(connections[0].isOpen());
+
+		// the selector thread is still serving the other robot, both ways.
+		// the cue lets the connection start sending.
+		say(robots[1], "still here\n> \n");
+		assertEquals("still here", heard.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		connections[1].sendMessage("M114\n");
+		assertEquals("M114\n", received(robots[1]));
+		assertTrue(connections[1].isOpen());
+	}
+}
@@ -0,0 +1,70 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DrawTimeEstimatorTest {
+	// round numbers: 100 mm/s cruise, 0.4s and 20mm to reach it.
+	private static final double ACCELERATION = 250;
+	private static final double FEED_RATE = 6000;
+	private static final double SPEED = FEED_RATE / 60.0;
+	private static final double EPSILON = 1e-9;
+
+	private static DrawTimeEstimator estimator() {
+		return new DrawTimeEstimator(ACCELERATION, DrawTimeEstimator.DEFAULT_MAX_FEED_RATE,
+				DrawTimeEstimator.DEFAULT_JUNCTION_DEVIATION);
+	}
+
+	@Test
+	public void trapezoidReachesCruiseSpeed() {
+		// 20mm up to speed, 60mm at 100mm/s, 20mm to stop.
+		assertEquals(0.4 + 0.6 + 0.4, DrawTimeEstimator.trapezoidTime(0, SPEED, 0, ACCELERATION, 100), EPSILON);
+		// already moving at 50mm/s: 15mm and 0.2s to reach cruise.
+		assertEquals(0.2 + 0.65 + 0.4, DrawTimeEstimator.trapezoidTime(50, SPEED, 0, ACCELERATION, 100), EPSILON);
+	}
+
+	@Test
+	public void trapezoidTooShortForCruiseIsATriangle() {
+		// peaks at sqrt(a*len) = 50mm/s halfway.
+		assertEquals(0.2 + 0.2, DrawTimeEstimator.trapezoidTime(0, SPEED, 0, ACCELERATION, 10), EPSILON);
+		// exactly long enough to touch cruise speed.
+		assertEquals(0.8, DrawTimeEstimator.trapezoidTime(0, SPEED, 0, ACCELERATION, 40), EPSILON);
+	}
+
+	@Test
+	public void oneLongMoveMatchesTheClosedForm() {
+		DrawTimeEstimator e = estimator();
+		e.addMove(60, 80, FEED_RATE);
+		assertEquals(1.4, e.getSeconds(), EPSILON);
+		assertEquals(100, e.getDistance(), EPSILON);
+		assertEquals(1, e.getMoveCount());
+	}
+
+	@Test
+	public void splittingAStraightLineDoesNotSlowItDown() {
+		DrawTimeEstimator e = estimator();
+		// more pieces than the look ahead window, but the window is still longer than the 20mm needed to stop.
+		for (int i = 0; i < 100; ++i) {
+			e.addMove(1, 0, FEED_RATE);
+		}
+		assertEquals(100, e.getMoveCount());
+		assertEquals(100, e.getDistance(), 1e-6);
+		assertEquals(1.4, e.getSeconds(), 1e-3);
+	}
+
+	@Test
+	public void reversalComesToAFullStop() {
+		DrawTimeEstimator e = estimator();
+		e.addMove(100, 0, FEED_RATE);
+		e.addMove(-100, 0, FEED_RATE);
+		assertEquals(1.4 * 2, e.getSeconds(), EPSILON);
+
+		// a right angle is taken without stopping, so it is faster.
+		DrawTimeEstimator corner = estimator();
+		corner.addMove(100, 0, FEED_RATE);
+		corner.addMove(0, 100, FEED_RATE);
+		assertTrue(corner.getSeconds() < 1.4 * 2 - EPSILON);
+	}
+}
@@ -0,0 +1,61 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GCodeFileTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File square() throws IOException {
+		File f = folder.newFile("square.ngc");
+		try (Writer out = new FileWriter(f)) {
+			out.write("G0 Z90\nG0 X0 Y0\nG0 Z30\nG1 X10 Y0\nG1 X10 Y10\nG1 X0 Y10\nG1 X0 Y0\nG0 Z90\n");
+		}
+		return f;
+	}
+
+	// the same steps LoadAndSaveGCode takes, a few lines at a time.
+	private GCodeFile loadProgressively(File f, MakelangeloRobot robot) throws IOException {
+		GCodeFile file = new GCodeFile();
+		try (FileInputStream in = new FileInputStream(f)) {
+			file.readText(in, false);
+		}
+		file.beginProgressiveLoad(robot);
+		file.indexLines();
+		int linesRead = 0;
+		while (linesRead < file.getLinesTotal()) {
+			linesRead = file.loadPreviewLines(3);
+		}
+		file.endProgressiveLoad();
+		return file;
+	}
+
+	@Test
+	public void progressivePreviewIsNotRebuiltAfterLoading() throws IOException {
+		MakelangeloRobot robot = new MakelangeloRobot();
+		GCodeFile file = loadProgressively(square(), robot);
+		assertFalse(file.isLoading());
+		assertEquals(8, file.getLinesTotal());
+
+		int generation = file.fastSegments.getGeneration();
+		int size = file.fastSegments.size();
+		assertTrue(size > 0);
+
+		// what the first render() does.
+		file.optimizeNodes(robot);
+		assertEquals(generation, file.fastSegments.getGeneration());
+		assertEquals(size, file.fastSegments.size());
+	}
+}
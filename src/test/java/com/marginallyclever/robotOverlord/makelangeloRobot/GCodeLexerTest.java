@@ -0,0 +1,80 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GCodeLexerTest {
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void readsWordsAndSkipsComments() {
+		GCodeLexer lexer = new GCodeLexer();
+		assertEquals(3, lexer.parse("G00 X10.5 Y-3 ; go home X99"));
+		assertFalse(lexer.hasError());
+		assertEquals('G', lexer.getLetter(0));
+		assertEquals(0, lexer.getValue(0), EPSILON);
+		assertEquals(10.5, lexer.get('X', 0), EPSILON);
+		assertEquals(-3, lexer.get('Y', 0), EPSILON);
+		assertTrue(lexer.startsWith('G', 0));
+		assertFalse(lexer.has('Z'));
+		assertEquals(7, lexer.get('Z', 7), EPSILON);
+	}
+
+	@Test
+	public void wordsNeedNoSpaces() {
+		GCodeLexer lexer = new GCodeLexer();
+		assertEquals(3, lexer.parse("g1x+2.25y.5"));
+		assertTrue(lexer.hasCode('G', 1));
+		assertEquals(2.25, lexer.get('X', 0), EPSILON);
+		assertEquals(0.5, lexer.get('Y', 0), EPSILON);
+	}
+
+	@Test
+	public void matchesCodesWithLeadingZeros() {
+		GCodeLexer lexer = new GCodeLexer();
+		lexer.parse("M101 G01 F3000");
+		assertTrue(lexer.hasCode('G', 1));
+		assertTrue(lexer.startsWith('M', 101));
+		assertFalse(lexer.startsWith('G', 1));
+	}
+
+	@Test
+	public void letterWithoutNumberIsAnError() {
+		GCodeLexer lexer = new GCodeLexer();
+		assertEquals(1, lexer.parse("G1 X"));
+		assertTrue(lexer.hasError());
+		// the next line starts clean.
+		lexer.parse("G0");
+		assertFalse(lexer.hasError());
+	}
+
+	@Test
+	public void emptyAndCommentLinesHaveNoWords() {
+		GCodeLexer lexer = new GCodeLexer();
+		assertEquals(0, lexer.parse(""));
+		assertEquals(0, lexer.parse(";G1 X1"));
+		assertEquals(0, lexer.parse("   \t"));
+	}
+
+	@Test
+	public void tooManyWordsIsAnError() {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i <= GCodeLexer.MAX_WORDS; ++i) line.append("X").append(i).append(' ');
+		GCodeLexer lexer = new GCodeLexer();
+		assertEquals(GCodeLexer.MAX_WORDS, lexer.parse(line));
+		assertTrue(lexer.hasError());
+	}
+
+	@Test
+	public void agreesWithParseDouble() {
+		String [] numbers = { "0", "1", "-1", "12.5", "0.001", "-123.456", "99999.99999", "3.14159265" };
+		GCodeLexer lexer = new GCodeLexer();
+		for (String n : numbers) {
+			lexer.parse("X" + n);
+			assertEquals(n, Double.parseDouble(n), lexer.get('X', Double.NaN), 1e-12);
+		}
+	}
+}
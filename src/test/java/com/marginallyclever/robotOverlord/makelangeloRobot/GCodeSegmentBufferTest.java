@@ -0,0 +1,79 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GCodeSegmentBufferTest {
+	// more than one chunk, and not a whole number of them.
+	private static final int COUNT = 10000;
+
+	private static GCodeSegmentBuffer fill(int count) {
+		GCodeSegmentBuffer buffer = new GCodeSegmentBuffer();
+		for (int i = 0; i < count; ++i) {
+			// two segments per line
+			buffer.add(i / 2, i, -i, i + 0.5f, -i - 0.5f, GCodeSegmentBuffer.packStyle(i & 0xFFFFFF, i & 0xFF));
+		}
+		return buffer;
+	}
+
+	@Test
+	public void keepsEverySegmentAcrossChunks() {
+		GCodeSegmentBuffer buffer = fill(COUNT);
+		assertEquals(COUNT, buffer.size());
+		for (int i = 0; i < COUNT; ++i) {
+			assertEquals(i, buffer.getX1(i), 0);
+			assertEquals(-i, buffer.getY1(i), 0);
+			assertEquals(i + 0.5f, buffer.getX2(i), 0);
+			assertEquals(-i - 0.5f, buffer.getY2(i), 0);
+			assertEquals(i / 2, buffer.getLineNumber(i));
+			assertEquals(i & 0xFFFFFF, buffer.getColor(i));
+			assertEquals(i & 0xFF, buffer.getToolID(i));
+		}
+	}
+
+	@Test
+	public void packStyleKeepsHighToolIDs() {
+		int style = GCodeSegmentBuffer.packStyle(0xFFFFFF, 255);
+		GCodeSegmentBuffer buffer = new GCodeSegmentBuffer();
+		buffer.add(0, 0, 0, 1, 1, style);
+		assertEquals(0xFFFFFF, buffer.getColor(0));
+		assertEquals(255, buffer.getToolID(0));
+	}
+
+	@Test
+	public void findsFirstSegmentOfALine() {
+		GCodeSegmentBuffer buffer = fill(COUNT);
+		assertEquals(0, buffer.findFirstSegmentAtOrAfter(-1));
+		assertEquals(0, buffer.findFirstSegmentAtOrAfter(0));
+		assertEquals(2, buffer.findFirstSegmentAtOrAfter(1));
+		assertEquals(COUNT - 2, buffer.findFirstSegmentAtOrAfter(COUNT / 2 - 1));
+		assertEquals(COUNT, buffer.findFirstSegmentAtOrAfter(COUNT / 2));
+	}
+
+	@Test
+	public void appendCopiesInOrder() {
+		GCodeSegmentBuffer a = fill(5000);
+		GCodeSegmentBuffer b = fill(COUNT);
+		a.append(b);
+		assertEquals(5000 + COUNT, a.size());
+		for (int i = 0; i < COUNT; ++i) {
+			assertEquals(b.getX1(i), a.getX1(5000 + i), 0);
+			assertEquals(b.getLineNumber(i), a.getLineNumber(5000 + i));
+		}
+	}
+
+	@Test
+	public void clearEmptiesAndChangesGeneration() {
+		GCodeSegmentBuffer buffer = fill(100);
+		int generation = buffer.getGeneration();
+		buffer.clear();
+		assertTrue(buffer.isEmpty());
+		assertNotEquals(generation, buffer.getGeneration());
+		buffer.add(3, 1, 2, 3, 4, 0);
+		assertEquals(1, buffer.size());
+		assertEquals(3, buffer.getLineNumber(0));
+	}
+}
@@ -0,0 +1,98 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
+
+public class GCodeSimplifyingWriterTest {
+	private MakelangeloRobotSettings settings;
+	private StringWriter out;
+	private GCodeSimplifyingWriter writer;
+
+	@Before
+	public void setUp() {
+		settings = new MakelangeloRobot().getSettings();
+		// a tolerance of 0.25mm
+		settings.getTool(0).setDiameter(1);
+		out = new StringWriter();
+		writer = new GCodeSimplifyingWriter(out, settings);
+	}
+
+	private String simplify(String text) throws IOException {
+		writer.write(text);
+		writer.close();
+		return out.toString();
+	}
+
+	@Test
+	public void mergesACollinearRun() throws IOException {
+		assertEquals("G0 X0 Y0\nG1 X4 Y4\n",
+				simplify("G0 X0 Y0\nG1 X1 Y1\nG1 X2 Y2\nG1 X3 Y3\nG1 X4 Y4\n"));
+		assertEquals(5, writer.getMovesIn());
+		assertEquals(2, writer.getMovesOut());
+	}
+
+	@Test
+	public void keepsBackAndForth() throws IOException {
+		String text = "G0 X0 Y0\nG1 X10 Y0\nG1 X5 Y0\nG1 X10 Y0\n";
+		assertEquals(text, simplify(text));
+		assertEquals(4, writer.getMovesOut());
+	}
+
+	@Test
+	public void mergesAtExactlyTheTolerance() throws IOException {
+		assertEquals("G0 X0 Y0\nG1 X10 Y0\n", simplify("G0 X0 Y0\nG1 X5 Y0.25\nG1 X10 Y0\n"));
+	}
+
+	@Test
+	public void keepsJustPastTheTolerance() throws IOException {
+		String text = "G0 X0 Y0\nG1 X5 Y0.2501\nG1 X10 Y0\n";
+		assertEquals(text, simplify(text));
+	}
+
+	@Test
+	public void otherLinesPassThroughAndKeepTheMoveBefore() throws IOException {
+		String result = simplify("G0 X0 Y0\nG1 X1 Y0\nG1 X2 Y0\n"
+				+ "G00 Z30;\nG1 X3 Y0\nG1 X4 Y0\n"
+				+ "G00 F3000;\nG1 X5 Y0\nG1 X6 Y0\n"
+				+ "M06 T0;\nG1 X7 Y0\nG1 X8 Y0\n"
+				// relative moves are passed through untouched.
+				+ "G91\nG0 X1 Y0\nG0 X1 Y0\nG90\n"
+				+ "G1 X11 Y0\nG1 X12 Y0\nG1 X13 Y0\n");
+		assertEquals("G0 X0 Y0\nG1 X2 Y0\n"
+				+ "G00 Z30;\nG1 X4 Y0\n"
+				+ "G00 F3000;\nG1 X6 Y0\n"
+				+ "M06 T0;\nG1 X8 Y0\n"
+				+ "G91\nG0 X1 Y0\nG0 X1 Y0\nG90\n"
+				+ "G1 X11 Y0\nG1 X13 Y0\n", result);
+	}
+
+	@Test
+	public void toolChangeChangesTheTolerance() throws IOException {
+		// 0.5mm off the line is too far for the first pen...
+		String wobble = "G1 X5 Y0.5\nG1 X10 Y0\n";
+		writer.write("G0 X0 Y0\n" + wobble);
+		// ...but not for a pen four times as wide.
+		settings.getTool(0).setDiameter(4);
+		writer.write("G1 X5 Y0.5\nG1 X10 Y0\nM06 T0\nG1 X15 Y0.5\nG1 X20 Y0\n");
+		writer.close();
+		assertEquals("G0 X0 Y0\n" + wobble + wobble + "M06 T0\nG1 X20 Y0\n", out.toString());
+	}
+
+	@Test
+	public void unknownToolKeepsTheTolerance() throws IOException {
+		String text = "G0 X0 Y0\nM06 T99\nG1 X5 Y0.5\nG1 X10 Y0\n";
+		assertEquals(text, simplify(text));
+	}
+
+	@Test
+	public void closeWritesALastLineWithNoNewline() throws IOException {
+		assertEquals("G0 X0 Y0\nG1 X10 Y0\n", simplify("G0 X0 Y0\nG1 X5 Y0\nG1 X10 Y0"));
+	}
+}
@@ -0,0 +1,196 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.drawingtools.DrawingTool;
+import com.marginallyclever.robotOverlord.makelangeloRobot.settings.MakelangeloRobotSettings;
+
+public class GCodeTravelOptimizerTest {
+	private MakelangeloRobotSettings settings;
+	private String up, down;
+
+	@Before
+	public void setUp() {
+		settings = new MakelangeloRobot().getSettings();
+		DrawingTool tool = settings.getCurrentTool();
+		up = "G0 Z" + tool.getPenUpAngle();
+		down = "G0 Z" + tool.getPenDownAngle();
+	}
+
+	/**
+	 * Follows a file the way the robot would.  Lines that are not plain absolute moves or pen changes split the
+	 * drawing into groups.
+	 */
+	private class Plotter {
+		DrawingTool tool = settings.getCurrentTool();
+		double x = settings.getHomeX(), y = settings.getHomeY();
+		boolean penDown, relative;
+		double travel;
+		// the lines that are not plain moves, and where the robot was just before each one.
+		List<String> barriers = new ArrayList<String>();
+		List<String> barrierStates = new ArrayList<String>();
+		// drawn segments in each group, direction included.
+		List<List<String>> groups = new ArrayList<List<String>>();
+
+		Plotter(String text) {
+			GCodeLexer lexer = new GCodeLexer();
+			groups.add(new ArrayList<String>());
+			for (String line : text.split("\n")) {
+				if (line.trim().isEmpty()) continue;
+				lexer.parse(line);
+				boolean move = lexer.startsWith('G', 0) || lexer.startsWith('G', 1);
+				boolean plain = move && !relative && onlyHas(lexer, "GXYZF");
+				if (!plain) {
+					barriers.add(line.trim());
+					barrierStates.add(round(x) + "," + round(y) + "," + penDown);
+					groups.add(new ArrayList<String>());
+				}
+				if (lexer.hasCode('G', 90)) relative = false;
+				if (lexer.hasCode('G', 91)) relative = true;
+				if (!move) continue;
+				if (lexer.has('Z')) {
+					double z = lexer.get('Z', 0);
+					penDown = Math.abs(z - tool.getPenDownAngle()) < Math.abs(z - tool.getPenUpAngle());
+				}
+				double nx = relative ? x + lexer.get('X', 0) : lexer.get('X', x);
+				double ny = relative ? y + lexer.get('Y', 0) : lexer.get('Y', y);
+				if (penDown) {
+					if (nx != x || ny != y) groups.get(groups.size() - 1).add(segment(x, y, nx, ny));
+				} else {
+					travel += Math.hypot(nx - x, ny - y);
+				}
+				x = nx;
+				y = ny;
+			}
+		}
+
+		// drawn segments in each group, ignoring direction and order.
+		List<List<String>> undirectedGroups() {
+			List<List<String>> result = new ArrayList<List<String>>();
+			for (List<String> group : groups) {
+				List<String> sorted = new ArrayList<String>();
+				for (String s : group) {
+					String [] ends = s.split(" ");
+					sorted.add(ends[0].compareTo(ends[1]) < 0 ? s : ends[1] + " " + ends[0]);
+				}
+				Collections.sort(sorted);
+				result.add(sorted);
+			}
+			return result;
+		}
+	}
+
+	private static boolean onlyHas(GCodeLexer lexer, String letters) {
+		for (int i = 0; i < lexer.getWordCount(); ++i) {
+			if (letters.indexOf(lexer.getLetter(i)) < 0) return false;
+		}
+		return true;
+	}
+
+	private static String round(double v) {
+		return String.format("%.3f", v + 0.0);
+	}
+
+	private static String segment(double x1, double y1, double x2, double y2) {
+		return round(x1) + ":" + round(y1) + " " + round(x2) + ":" + round(y2);
+	}
+
+	private String optimize(String text, GCodeTravelOptimizer optimizer) throws IOException {
+		StringWriter out = new StringWriter();
+		optimizer.optimize(new BufferedReader(new StringReader(text)), out);
+		return out.toString();
+	}
+
+	private String stroke(double x1, double y1, double x2, double y2) {
+		return "G0 X" + x1 + " Y" + y1 + "\n" + down + "\nG1 X" + x2 + " Y" + y2 + "\n" + up + "\n";
+	}
+
+	// same drawing, same barriers in the same places, and no more pen up travel.
+	private void assertSameDrawing(String before, String after, GCodeTravelOptimizer optimizer) {
+		Plotter a = new Plotter(before);
+		Plotter b = new Plotter(after);
+		assertEquals(a.barriers, b.barriers);
+		assertEquals(a.barrierStates, b.barrierStates);
+		assertEquals(a.undirectedGroups(), b.undirectedGroups());
+		assertEquals(round(a.x) + "," + round(a.y) + "," + a.penDown, round(b.x) + "," + round(b.y) + "," + b.penDown);
+		assertTrue(b.travel <= a.travel + 1e-6);
+		assertTrue(optimizer.getTravelAfter() <= optimizer.getTravelBefore() + 1e-6);
+	}
+
+	@Test
+	public void barriersStayInPlace() throws IOException {
+		String before = "; start\n" + up + "\n"
+				+ stroke(50, 0, 60, 0)
+				+ "G0 X60 Y0\n" + down + "\nG1 X60 Y10\nG1 X55 Y15\n" + up + "\n"
+				+ stroke(-50, 0, -40, 0)
+				+ stroke(55, 20, 45, 20)
+				+ "M06 T0\n"
+				+ stroke(0, 50, 10, 50)
+				+ stroke(-10, -50, 0, -50)
+				+ stroke(20, 50, 30, 50)
+				// a stroke cut in half by a relative move.
+				+ "G0 X100 Y100\n" + down + "\n"
+				+ "G91\nG0 X5 Y0\nG90\n"
+				+ "G1 X110 Y100\n" + up + "\n"
+				+ "; end\n"
+				+ stroke(0, 0, 1, 1)
+				+ stroke(30, 30, 31, 31)
+				+ "G0 X0 Y0\n";
+		GCodeTravelOptimizer optimizer = new GCodeTravelOptimizer(settings);
+		String after = optimize(before, optimizer);
+		assertSameDrawing(before, after, optimizer);
+		assertTrue(optimizer.getTravelAfter() < optimizer.getTravelBefore());
+	}
+
+	@Test
+	public void drawsAStrokeBackwardsWhenItsEndIsNearer() throws IOException {
+		String before = stroke(10, 0, 20, 0) + stroke(40, 0, 30, 0);
+		GCodeTravelOptimizer optimizer = new GCodeTravelOptimizer(settings);
+		String after = optimize(before, optimizer);
+		assertSameDrawing(before, after, optimizer);
+		Plotter b = new Plotter(after);
+		assertTrue(b.groups.get(0).contains(segment(30, 0, 40, 0)));
+	}
+
+	@Test
+	public void strokesThatMeetAreDrawnWithoutLifting() throws IOException {
+		String before = stroke(0, 0, 10, 0) + stroke(20, 0, 30, 0) + stroke(10, 0, 20, 0);
+		GCodeTravelOptimizer optimizer = new GCodeTravelOptimizer(settings);
+		String after = optimize(before, optimizer);
+		assertSameDrawing(before, after, optimizer);
+		// only the trip out to the first stroke and back to where the original finished.
+		Plotter b = new Plotter(after);
+		assertEquals(Math.hypot(settings.getHomeX(), settings.getHomeY()) + 10, b.travel, 1e-3);
+	}
+
+	@Test
+	public void manyScatteredStrokes() throws IOException {
+		// enough strokes for the grid to shrink while the tour is built.
+		Random random = new Random(1234);
+		StringBuilder before = new StringBuilder(up + "\n");
+		for (int i = 0; i < 2000; ++i) {
+			double x = random.nextInt(4000) / 10.0 - 200;
+			double y = random.nextInt(4000) / 10.0 - 200;
+			before.append(stroke(x, y, x + random.nextInt(50) / 10.0, y + random.nextInt(50) / 10.0));
+			if (i == 1000) before.append("; halfway\n");
+		}
+		GCodeTravelOptimizer optimizer = new GCodeTravelOptimizer(settings);
+		String after = optimize(before.toString(), optimizer);
+		assertSameDrawing(before.toString(), after, optimizer);
+		// a random order travels about ten times as far as a good one.
+		assertTrue(optimizer.getTravelAfter() * 4 < optimizer.getTravelBefore());
+	}
+}
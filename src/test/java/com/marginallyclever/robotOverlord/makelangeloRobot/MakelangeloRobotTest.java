@@ -0,0 +1,29 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MakelangeloRobotTest {
+	@Test
+	public void framesALineWithItsNumberAndChecksum() {
+		String text = "N12 G0 X1";
+		assertEquals(text + MakelangeloRobot.generateChecksum(text), MakelangeloRobot.frameLine("G0 X1", 12));
+		// too short to be worth numbering.
+		assertNull(MakelangeloRobot.frameLine("M17", 12));
+	}
+
+	@Test
+	public void findsToolChanges() {
+		assertTrue(MakelangeloRobot.isToolChange("M06 T1; //red"));
+		assertTrue(MakelangeloRobot.isToolChange("M6 T2"));
+		assertTrue(MakelangeloRobot.isToolChange("m06t3"));
+		assertFalse(MakelangeloRobot.isToolChange("M60"));
+		assertFalse(MakelangeloRobot.isToolChange("G0 X6 Y6"));
+		// comments don't count.
+		assertFalse(MakelangeloRobot.isToolChange("G0 X1; M06"));
+	}
+}
@@ -0,0 +1,71 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters.ImageRows;
+
+public class SummedAreaTableTest {
+	private static final int W = 37;
+	private static final int H = 23;
+
+	private static BufferedImage noise(Random random) {
+		BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < H; ++y) {
+			for (int x = 0; x < W; ++x) {
+				image.setRGB(x, y, random.nextInt(0x1000000));
+			}
+		}
+		return image;
+	}
+
+	// each pixel times how much of it is inside, one pixel at a time.
+	private static double bruteForce(BufferedImage image, int channel, double x0, double y0, double x1, double y1) {
+		double total = 0;
+		for (int y = 0; y < H; ++y) {
+			double dy = Math.min(y + 1, y1) - Math.max(y, y0);
+			if (dy <= 0) continue;
+			for (int x = 0; x < W; ++x) {
+				double dx = Math.min(x + 1, x1) - Math.max(x, x0);
+				if (dx <= 0) continue;
+				total += dx * dy * TransformedImage.getChannel(image.getRGB(x, y), channel);
+			}
+		}
+		return total;
+	}
+
+	@Test
+	public void sumMatchesBruteForce() {
+		Random random = new Random(7);
+		BufferedImage image = noise(random);
+		SummedAreaTable table = new SummedAreaTable(new ImageRows(image), 1);
+		for (int n = 0; n < 500; ++n) {
+			int x0 = random.nextInt(W + 1), x1 = random.nextInt(W + 1);
+			int y0 = random.nextInt(H + 1), y1 = random.nextInt(H + 1);
+			double expected = x1 > x0 && y1 > y0 ? bruteForce(image, 1, x0, y0, x1, y1) : 0;
+			assertEquals(expected, table.sum(x0, y0, x1, y1), 0);
+		}
+	}
+
+	@Test
+	public void integrateMatchesBruteForce() {
+		Random random = new Random(8);
+		BufferedImage image = noise(random);
+		SummedAreaTable table = new SummedAreaTable(new ImageRows(image), 0);
+		for (int n = 0; n < 2000; ++n) {
+			double x0 = random.nextDouble() * W, x1 = random.nextDouble() * W;
+			double y0 = random.nextDouble() * H, y1 = random.nextDouble() * H;
+			// thin ones, inside one pixel or across a single edge.
+			if (n % 4 == 0) x1 = Math.min(W, x0 + random.nextDouble() * 1.5);
+			if (n % 4 == 1) y1 = Math.min(H, y0 + random.nextDouble() * 1.5);
+			double expected = x1 > x0 && y1 > y0 ? bruteForce(image, 0, x0, y0, x1, y1) : 0;
+			assertEquals(expected, table.integrate(x0, y0, x1, y1), 1e-6);
+		}
+		assertEquals(bruteForce(image, 0, 0, 0, W, H), table.integrate(0, 0, W, H), 1e-6);
+		assertEquals(bruteForce(image, 0, 3, 4, 9, 10), table.integrate(3, 4, 9, 10), 1e-6);
+	}
+}
@@ -0,0 +1,98 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KDTreeTest {
+	private static double distance2(double [] x, double [] y, int a, double qx, double qy) {
+		double dx = x[a] - qx;
+		double dy = y[a] - qy;
+		return dx * dx + dy * dy;
+	}
+
+	private static void fill(double [] x, double [] y, Random random, int spots) {
+		for (int i = 0; i < x.length; ++i) {
+			// few spots means many duplicates.  Every third point is on the line y=2x.
+			x[i] = random.nextInt(spots);
+			y[i] = i % 3 == 0 ? 2 * x[i] : random.nextInt(spots);
+		}
+	}
+
+	@Test
+	public void nearestMatchesBruteForceWhilePointsAreRemoved() {
+		for (int spots : new int[] { 1, 10, 1000 }) {
+			Random random = new Random(spots);
+			int n = 500;
+			double [] x = new double[n];
+			double [] y = new double[n];
+			fill(x, y, random, spots);
+			KDTree tree = new KDTree(x, y, n);
+			boolean [] removed = new boolean[n];
+			for (int left = n; left > 0; --left) {
+				assertEquals(left, tree.size());
+				double qx = random.nextDouble() * spots;
+				double qy = random.nextDouble() * spots;
+				double best = Double.MAX_VALUE;
+				for (int i = 0; i < n; ++i) {
+					if (!removed[i]) best = Math.min(best, distance2(x, y, i, qx, qy));
+				}
+				int found = tree.nearest(qx, qy);
+				assertFalse(removed[found]);
+				assertEquals(best, distance2(x, y, found, qx, qy), 0);
+
+				int victim;
+				do victim = random.nextInt(n); while (removed[victim]);
+				tree.remove(victim);
+				removed[victim] = true;
+			}
+			assertEquals(0, tree.size());
+			assertEquals(-1, tree.nearest(0, 0));
+		}
+	}
+
+	@Test
+	public void neighboursAreTheKNearest() {
+		for (int spots : new int[] { 1, 10, 1000 }) {
+			Random random = new Random(spots + 1);
+			int n = 300;
+			int k = 10;
+			double [] x = new double[n];
+			double [] y = new double[n];
+			fill(x, y, random, spots);
+			int [] neighbours = new KDTree(x, y, n).neighbours(k);
+			for (int p = 0; p < n; ++p) {
+				double [] all = new double[n - 1];
+				int m = 0;
+				for (int i = 0; i < n; ++i) {
+					if (i != p) all[m++] = distance2(x, y, i, x[p], y[p]);
+				}
+				Arrays.sort(all);
+				boolean [] seen = new boolean[n];
+				for (int j = 0; j < k; ++j) {
+					int q = neighbours[p * k + j];
+					// ties can come in any order, so compare distances.
+					assertEquals(all[j], distance2(x, y, q, x[p], y[p]), 0);
+					assertFalse(q == p || seen[q]);
+					seen[q] = true;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void emptyAndTinyTrees() {
+		double [] x = { 1, 1 };
+		double [] y = { 2, 2 };
+		assertEquals(0, new KDTree(x, y, 0).size());
+		assertEquals(-1, new KDTree(x, y, 0).nearest(0, 0));
+		int [] neighbours = new KDTree(x, y, 2).neighbours(3);
+		assertEquals(1, neighbours[0]);
+		assertEquals(-1, neighbours[1]);
+		assertEquals(0, neighbours[3]);
+	}
+}
@@ -0,0 +1,143 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.converters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TourOptimizerTest {
+	// small, around the special cases, across the SEGMENT splits, and big.
+	private static final int [] SIZES = { 0, 1, 2, 3, 4, 5, 6, 7, 11, 100, 1000, TourOptimizer.SEGMENT * 2 + 1, 40000 };
+	private static final long TIME_LIMIT = 2000;
+
+	private interface Layout {
+		void place(int i, int n, Random random, double [] x, double [] y);
+	}
+
+	private static final Layout RANDOM = new Layout() {
+		@Override
+		public void place(int i, int n, Random random, double [] x, double [] y) {
+			x[i] = random.nextDouble() * 1000;
+			y[i] = random.nextDouble() * 1000;
+		}
+	};
+
+	private static final Layout ALL_THE_SAME = new Layout() {
+		@Override
+		public void place(int i, int n, Random random, double [] x, double [] y) {
+			x[i] = 5;
+			y[i] = 5;
+		}
+	};
+
+	// a few spots, each used many times.
+	private static final Layout DUPLICATES = new Layout() {
+		@Override
+		public void place(int i, int n, Random random, double [] x, double [] y) {
+			x[i] = random.nextInt(20);
+			y[i] = random.nextInt(20);
+		}
+	};
+
+	// every point on one slanted line, some of them twice.
+	private static final Layout COLLINEAR = new Layout() {
+		@Override
+		public void place(int i, int n, Random random, double [] x, double [] y) {
+			double t = random.nextInt(Math.max(1, n / 2 + 1));
+			x[i] = t;
+			y[i] = 3 * t + 1;
+		}
+	};
+
+	private static void assertPermutation(int [] tour, int n) {
+		assertEquals(n, tour.length);
+		boolean [] seen = new boolean[n];
+		for (int p : tour) {
+			assertTrue("point " + p + " out of range", p >= 0 && p < n);
+			assertFalse("point " + p + " visited twice", seen[p]);
+			seen[p] = true;
+		}
+	}
+
+	private static double measure(int [] tour, double [] x, double [] y) {
+		double sum = 0;
+		for (int i = 0; i < tour.length; ++i) {
+			int a = tour[i];
+			int b = tour[(i + 1) % tour.length];
+			sum += Math.hypot(x[a] - x[b], y[a] - y[b]);
+		}
+		return sum;
+	}
+
+	private static void check(Layout layout, long seed) {
+		for (int n : SIZES) {
+			Random random = new Random(seed + n);
+			// bigger than count, as the converters pass them.
+			double [] x = new double[n + 3];
+			double [] y = new double[n + 3];
+			for (int i = 0; i < n; ++i) layout.place(i, n, random, x, y);
+
+			TourOptimizer optimizer = new TourOptimizer(x, y, n);
+			int [] greedy = optimizer.getTour();
+			assertPermutation(greedy, n);
+			double greedyLength = measure(greedy, x, y);
+			assertEquals(greedyLength, optimizer.getLength(), 1e-6 * (1 + greedyLength));
+
+			optimizer.optimize(TIME_LIMIT, null);
+			int [] tour = optimizer.getTour();
+			assertPermutation(tour, n);
+			double length = measure(tour, x, y);
+			assertEquals("n=" + n, length, optimizer.getLength(), 1e-6 * (1 + length));
+			assertTrue("n=" + n + " got longer", length <= greedyLength + 1e-6 * (1 + greedyLength));
+		}
+	}
+
+	@Test
+	public void randomPoints() {
+		check(RANDOM, 1);
+	}
+
+	@Test
+	public void allTheSamePoint() {
+		check(ALL_THE_SAME, 2);
+	}
+
+	@Test
+	public void duplicatePoints() {
+		check(DUPLICATES, 3);
+	}
+
+	@Test
+	public void collinearPoints() {
+		check(COLLINEAR, 4);
+	}
+
+	@Test
+	public void listenerGetsValidTours() {
+		int n = 5000;
+		Random random = new Random(5);
+		final double [] x = new double[n];
+		final double [] y = new double[n];
+		for (int i = 0; i < n; ++i) RANDOM.place(i, n, random, x, y);
+		final int [] calls = { 0 };
+		TourOptimizer optimizer = new TourOptimizer(x, y, n);
+		optimizer.optimize(TIME_LIMIT, new TourOptimizer.Listener() {
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+
+			@Override
+			public void tourChanged(int [] tour, double length) {
+				assertPermutation(tour, x.length);
+				assertEquals(measure(tour, x, y), length, 1e-6 * (1 + length));
+				++calls[0];
+			}
+		});
+		// at least the one at the end.
+		assertTrue(calls[0] >= 1);
+	}
+}
@@ -0,0 +1,56 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+
+public class ErrorDiffusionTest {
+	// wide enough that rows wait for each other more than once.
+	private static final int W = 301;
+	private static final int H = 97;
+
+	private static TransformedImage noise() {
+		BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_INT_ARGB);
+		int [] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		Random random = new Random(1234);
+		for (int i = 0; i < pixels.length; ++i) {
+			pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+		}
+		return new TransformedImage(image);
+	}
+
+	private static int [] dither(ErrorDiffusion filter, int threads) {
+		filter.setWavefront(true);
+		filter.setThreads(threads);
+		TransformedImage img = filter.filter(noise());
+		return ((DataBufferInt) img.getSourceImage().getRaster().getDataBuffer()).getData();
+	}
+
+	@Test
+	public void colorIsTheSameOnAnyNumberOfThreads() {
+		int [] expected = dither(new Filter_DitherFloydSteinbergColor(), 1);
+		for (int threads = 2; threads <= 8; ++threads) {
+			assertArrayEquals("threads=" + threads, expected, dither(new Filter_DitherFloydSteinbergColor(), threads));
+		}
+	}
+
+	@Test
+	public void monoIsTheSameOnAnyNumberOfThreads() {
+		int [] expected = dither(new Filter_DitherFloydSteinberg(), 1);
+		for (int threads = 2; threads <= 8; ++threads) {
+			assertArrayEquals("threads=" + threads, expected, dither(new Filter_DitherFloydSteinberg(), threads));
+		}
+	}
+
+	@Test
+	public void moreThreadsThanRows() {
+		int [] expected = dither(new Filter_DitherFloydSteinberg(), 1);
+		assertArrayEquals(expected, dither(new Filter_DitherFloydSteinberg(), H + 5));
+	}
+}
@@ -0,0 +1,78 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+
+public class ImageFilterPipelineTest {
+	private static final int W = 64;
+	private static final int H = 48;
+
+	private static BufferedImage noise(int type) {
+		BufferedImage image = new BufferedImage(W, H, type);
+		Random random = new Random(42);
+		for (int y = 0; y < H; ++y) {
+			for (int x = 0; x < W; ++x) {
+				image.setRGB(x, y, 0xff000000 | random.nextInt(0x1000000));
+			}
+		}
+		return image;
+	}
+
+	private static BufferedImage copy(BufferedImage image) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+		copy.getGraphics().drawImage(image, 0, 0, null);
+		return copy;
+	}
+
+	// the filters are made fresh for each run, because they remember what prepare() measured.
+	private static ImageFilter [] chain() {
+		return new ImageFilter[] {
+			new Filter_BlackAndWhite(255),
+			new Filter_Invert(),
+			new Filter_BlackAndWhite(4),
+			new Filter_DitherFloydSteinberg(),
+			new Filter_Invert(),
+		};
+	}
+
+	private static void assertSameAsOneAtATime(BufferedImage source) {
+		TransformedImage expected = new TransformedImage(copy(source));
+		for (ImageFilter f : chain()) expected = f.filter(expected);
+
+		TransformedImage actual = new ImageFilterPipeline(chain()).filter(new TransformedImage(copy(source)));
+
+		for (int y = 0; y < H; ++y) {
+			for (int x = 0; x < W; ++x) {
+				assertEquals("x=" + x + " y=" + y, expected.getSourceImage().getRGB(x, y), actual.getSourceImage().getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void sameAsOneAtATimeFromArgb() {
+		assertSameAsOneAtATime(noise(BufferedImage.TYPE_INT_ARGB));
+	}
+
+	@Test
+	public void sameAsOneAtATimeFromBgr() {
+		assertSameAsOneAtATime(noise(BufferedImage.TYPE_3BYTE_BGR));
+	}
+
+	@Test
+	public void onlyPointFilters() {
+		BufferedImage source = noise(BufferedImage.TYPE_INT_RGB);
+		TransformedImage expected = new Filter_Invert().filter(new Filter_BlackAndWhite(8).filter(new TransformedImage(copy(source))));
+		TransformedImage actual = new ImageFilterPipeline(new Filter_BlackAndWhite(8), new Filter_Invert()).filter(new TransformedImage(copy(source)));
+		for (int y = 0; y < H; ++y) {
+			for (int x = 0; x < W; ++x) {
+				assertEquals(expected.getSourceImage().getRGB(x, y), actual.getSourceImage().getRGB(x, y));
+			}
+		}
+	}
+}
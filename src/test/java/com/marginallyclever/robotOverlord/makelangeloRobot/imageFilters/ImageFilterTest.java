@@ -0,0 +1,52 @@
+package com.marginallyclever.robotOverlord.makelangeloRobot.imageFilters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import com.marginallyclever.robotOverlord.makelangeloRobot.TransformedImage;
+
+public class ImageFilterTest {
+	private static BufferedImage numbered(int w, int h) {
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < h; ++y) {
+			for (int x = 0; x < w; ++x) {
+				image.setRGB(x, y, 0xff000000 | (y << 12) | x);
+			}
+		}
+		return image;
+	}
+
+	private static void assertPixels(BufferedImage expected, int [] pixels) {
+		int w = expected.getWidth();
+		int h = expected.getHeight();
+		assertEquals(w * h, pixels.length);
+		for (int y = 0; y < h; ++y) {
+			for (int x = 0; x < w; ++x) {
+				assertEquals(expected.getRGB(x, y), pixels[y * w + x]);
+			}
+		}
+	}
+
+	@Test
+	public void wholeImageIsNotCopied() {
+		BufferedImage image = numbered(30, 20);
+		TransformedImage img = new TransformedImage(image);
+		int [] pixels = ImageFilter.getPixels(img);
+		assertPixels(image, pixels);
+		pixels[0] = 0xff123456;
+		assertEquals(0xff123456, image.getRGB(0, 0));
+	}
+
+	@Test
+	public void subimageIsReadRowByRow() {
+		BufferedImage parent = numbered(30, 20);
+		BufferedImage sub = parent.getSubimage(7, 5, 11, 9);
+		TransformedImage img = new TransformedImage(sub);
+		int [] pixels = ImageFilter.getPixels(img);
+		assertPixels(sub, pixels);
+		assertPixels(img.getSourceImage(), pixels);
+	}
+}
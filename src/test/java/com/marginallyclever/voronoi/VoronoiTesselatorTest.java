@@ -0,0 +1,157 @@
+package com.marginallyclever.voronoi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VoronoiTesselatorTest {
+  private static final double WIDTH = 400;
+  private static final double HEIGHT = 300;
+  private static final double EPSILON = 1e-6;
+  private static final int[] SIZES = { 0, 1, 2, 3, 4, 10, 100, 1000, 2000 };
+
+  private static VoronoiEdgeBuffer tesselate(double[] x, double[] y, int n) {
+    VoronoiTesselator tesselator = new VoronoiTesselator();
+    tesselator.Init(0.001);
+    VoronoiEdgeBuffer edges = new VoronoiEdgeBuffer();
+    tesselator.generateVoronoi(x, y, n, 0, WIDTH, 0, HEIGHT, edges);
+    return edges;
+  }
+
+  /**
+   * Every edge must be inside the box, and the middle of it must be as far from one of its sites as from the other and
+   * no closer to any other site.
+   */
+  private static void assertEdgesOnBisectors(double[] x, double[] y, int n, VoronoiEdgeBuffer edges) {
+    for (int e = 0; e < edges.count; e++) {
+      int s1 = edges.site1[e];
+      int s2 = edges.site2[e];
+      assertTrue(s1 >= 0 && s1 < n && s2 >= 0 && s2 < n);
+      assertTrue(edges.x1[e] >= -EPSILON && edges.x1[e] <= WIDTH + EPSILON);
+      assertTrue(edges.x2[e] >= -EPSILON && edges.x2[e] <= WIDTH + EPSILON);
+      assertTrue(edges.y1[e] >= -EPSILON && edges.y1[e] <= HEIGHT + EPSILON);
+      assertTrue(edges.y2[e] >= -EPSILON && edges.y2[e] <= HEIGHT + EPSILON);
+
+      double mx = (edges.x1[e] + edges.x2[e]) / 2;
+      double my = (edges.y1[e] + edges.y2[e]) / 2;
+      double d1 = Math.hypot(mx - x[s1], my - y[s1]);
+      double d2 = Math.hypot(mx - x[s2], my - y[s2]);
+      double nearest = Double.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        nearest = Math.min(nearest, Math.hypot(mx - x[i], my - y[i]));
+      }
+      assertEquals("edge " + e, d1, d2, EPSILON);
+      // an edge clipped away by the box is left as a point on the box, which can be nearer to another site.
+      if (Math.hypot(edges.x2[e] - edges.x1[e], edges.y2[e] - edges.y1[e]) > EPSILON) {
+        assertEquals("edge " + e, nearest, d1, EPSILON);
+      }
+    }
+  }
+
+  private static void assertIndexed(int n, VoronoiEdgeBuffer edges) {
+    edges.indexBySite();
+    int listed = 0;
+    for (int s = 0; s < n; s++) {
+      int previous = -1;
+      for (int j = edges.siteStart[s]; j < edges.siteStart[s + 1]; j++) {
+        int e = edges.siteEdges[j];
+        assertTrue(edges.site1[e] == s || edges.site2[e] == s);
+        // in the order they were added
+        assertTrue(e > previous);
+        previous = e;
+        listed++;
+      }
+    }
+    assertEquals(edges.count * 2, listed);
+  }
+
+  private static void check(double[] x, double[] y, int n) {
+    VoronoiEdgeBuffer edges = tesselate(x, y, n);
+    if (n > 1) assertTrue(edges.count > 0);
+    assertEdgesOnBisectors(x, y, n, edges);
+    assertIndexed(n, edges);
+  }
+
+  @Test
+  public void randomSites() {
+    for (int n : SIZES) {
+      Random random = new Random(n);
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i = 0; i < n; i++) {
+        x[i] = random.nextDouble() * WIDTH;
+        y[i] = random.nextDouble() * HEIGHT;
+      }
+      check(x, y, n);
+    }
+  }
+
+  @Test
+  public void sitesOnAGridWithDuplicatesAndLines() {
+    for (int n : SIZES) {
+      Random random = new Random(n + 1);
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i = 0; i < n; i++) {
+        // a tenth of a pixel apart, so rows and columns line up.
+        x[i] = random.nextInt(4000) / 10.0;
+        y[i] = random.nextInt(3000) / 10.0;
+      }
+      if (n >= 100) {
+        x[5] = x[6];
+        y[5] = y[6];
+        for (int i = 10; i < 20; i++) y[i] = 50;
+        for (int i = 20; i < 30; i++) x[i] = 70;
+      }
+      check(x, y, n);
+    }
+  }
+
+  @Test
+  public void bufferIsReusedForSmallerDiagrams() {
+    Random random = new Random(3);
+    VoronoiTesselator tesselator = new VoronoiTesselator();
+    tesselator.Init(0.001);
+    VoronoiEdgeBuffer edges = new VoronoiEdgeBuffer();
+    for (int n : new int[] { 1000, 10, 500, 0, 3 }) {
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i = 0; i < n; i++) {
+        x[i] = random.nextDouble() * WIDTH;
+        y[i] = random.nextDouble() * HEIGHT;
+      }
+      tesselator.generateVoronoi(x, y, n, 0, WIDTH, 0, HEIGHT, edges);
+      assertEquals(n, edges.sites);
+      assertEdgesOnBisectors(x, y, n, edges);
+      assertIndexed(n, edges);
+    }
+  }
+
+  @Test
+  public void listMatchesBuffer() {
+    int n = 200;
+    Random random = new Random(4);
+    double[] x = new double[n];
+    double[] y = new double[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = random.nextDouble() * WIDTH;
+      y[i] = random.nextDouble() * HEIGHT;
+    }
+    VoronoiEdgeBuffer edges = tesselate(x, y, n);
+    VoronoiTesselator tesselator = new VoronoiTesselator();
+    tesselator.Init(0.001);
+    List<VoronoiGraphEdge> list = tesselator.generateVoronoi(x, y, 0, WIDTH, 0, HEIGHT);
+    assertEquals(edges.count, list.size());
+    for (int e = 0; e < edges.count; e++) {
+      VoronoiGraphEdge edge = list.get(e);
+      assertEquals(edges.x1[e], edge.x1, 0);
+      assertEquals(edges.y2[e], edge.y2, 0);
+      assertEquals(edges.site1[e], edge.site1);
+      assertEquals(edges.site2[e], edge.site2);
+    }
+  }
+}